@@ -3,6 +3,8 @@ package edu.avolta.tpsit.chatterbox
 import atlantafx.base.controls.Notification
 import atlantafx.base.theme.Styles
 import atlantafx.base.util.Animations
+import edu.avolta.tpsit.multicastudpsocketchat.comunicazione.FormatoMessaggio
+import edu.avolta.tpsit.security.ModalitaCifratura
 import javafx.application.Platform
 import javafx.event.EventHandler
 import javafx.fxml.FXML
@@ -36,6 +38,8 @@ class ChatSetupController {
     @FXML
     lateinit var loopbackOff : CheckBox
     @FXML
+    lateinit var formatoBinario : CheckBox
+    @FXML
     lateinit var schermo : AnchorPane
 
     /**
@@ -110,12 +114,13 @@ class ChatSetupController {
         val username = username.text
         val ttl = ttlImpostato.text
         val loopbackOff = loopbackOff.isSelected
+        val (formato, modalita) = formatoScelto()
         disabilitaUI(true)
         
         ws.creaGruppo(nome, password) { esito ->
             if (esito is RRWebService) {
                 popup("successo", "Gruppo creato con successo")
-                val resourceRecord = RRConfig(esito, username = username, sGateKey = password, indirizzoIP = esito.ipChat, porta = esito.portaChat, ttl = ttl, loopbackOff = loopbackOff)
+                val resourceRecord = RRConfig(esito, username = username, sGateKey = password, indirizzoIP = esito.ipChat, porta = esito.portaChat, ttl = ttl, loopbackOff = loopbackOff, formatoMessaggio = formato, modalitaCifratura = modalita)
                 Thread.sleep(1500)
                 Platform.runLater{
                     application.avviaChat(resourceRecord, esito.nomeChat)
@@ -140,13 +145,14 @@ class ChatSetupController {
         val username = username.text
         val ttl = ttlImpostato.text
         val loopbackOff = loopbackOff.isSelected
+        val (formato, modalita) = formatoScelto()
         disabilitaUI(true)
 
 
         ws.cercaGruppo(nome, password) { esito ->
             if (esito is RRWebService) {
                 popup("successo", "Accesso al gruppo in corso...")
-                val resourceRecord = RRConfig(esito, username = username, sGateKey = password, indirizzoIP = esito.ipChat, porta = esito.portaChat, ttl = ttl, loopbackOff = loopbackOff)
+                val resourceRecord = RRConfig(esito, username = username, sGateKey = password, indirizzoIP = esito.ipChat, porta = esito.portaChat, ttl = ttl, loopbackOff = loopbackOff, formatoMessaggio = formato, modalitaCifratura = modalita)
                 Thread.sleep(1500)
                 Platform.runLater{
                     application.avviaChat(resourceRecord, esito.nomeChat)
@@ -200,6 +206,14 @@ class ChatSetupController {
         }
     }
     
+    /**
+     * Restituisce il formato dei messaggi e la modalità di cifratura scelti.
+     * Il formato binario e AES-GCM non sono compresi dalle versioni precedenti del programma: vengono utilizzati soltanto se richiesto, in gruppi con tutti i partecipanti aggiornati
+     */
+    private fun formatoScelto(): Pair<FormatoMessaggio, ModalitaCifratura> =
+        if (formatoBinario.isSelected) FormatoMessaggio.BINARIO to ModalitaCifratura.GCM
+        else FormatoMessaggio.SERIALIZZATO to ModalitaCifratura.CBC
+
     /**
      * Controlla la validità dei dati inseriti
      */
@@ -240,6 +254,7 @@ class ChatSetupController {
             passwordGruppo.isDisable = disabilita
             TTL.isDisable = disabilita
             loopbackOff.isDisable = disabilita
+            formatoBinario.isDisable = disabilita
         }
     }
     
@@ -194,7 +194,8 @@ class ChatterBox : Application() {
     @Throws(Exception::class)
     fun avviaDaRR() {
         groupChat = GroupChat(resourceRecord.ws.idChat, resourceRecord.ws.pswChat, resourceRecord.indirizzoIP, resourceRecord.porta.toInt(), resourceRecord.ttl.toInt(), resourceRecord.loopbackOff)
-        multicastPeer = MulticastPeer(resourceRecord.username, true, groupChat, ctrlChat, resourceRecord)
+        multicastPeer = MulticastPeer(resourceRecord.username, true, groupChat, resourceRecord)
+        ctrlChat.iscrivi(multicastPeer.eventi)
         multicastPeer.configura()
         multicastPeer.avvia()
         ctrlChat.aggiornaInfoGruppo(resourceRecord.username, resourceRecord.ws.nomeChat, resourceRecord.sGateKey)
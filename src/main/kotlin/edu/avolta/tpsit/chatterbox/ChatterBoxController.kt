@@ -4,7 +4,11 @@ import atlantafx.base.controls.Notification
 import atlantafx.base.theme.Styles
 import atlantafx.base.util.Animations
 import edu.avolta.tpsit.multicastudpsocketchat.comunicazione.MsgType
+import edu.avolta.tpsit.multicastudpsocketchat.gestione.BusEventi
 import edu.avolta.tpsit.multicastudpsocketchat.gestione.ChatLogger
+import edu.avolta.tpsit.multicastudpsocketchat.gestione.Evento
+import edu.avolta.tpsit.multicastudpsocketchat.gestione.OutputType
+import edu.avolta.tpsit.multicastudpsocketchat.gestione.ProjectOutput.stampa
 import javafx.application.Platform
 import javafx.event.EventHandler
 import javafx.fxml.FXML
@@ -24,6 +28,7 @@ import org.kordamp.ikonli.javafx.FontIcon
 import java.time.LocalDateTime
 import java.time.LocalTime
 import java.time.format.DateTimeFormatter
+import java.util.concurrent.atomic.AtomicReference
 
 /**
  * Controller per la finestra principale dell'applicazione
@@ -77,6 +82,8 @@ class ChatterBoxController {
     private lateinit var impMessaggiIn: Text
     @FXML
     private lateinit var impStatistiche: Text
+    @FXML
+    private lateinit var impDuplicati: Text
 
     /* icone dashboard */
     @FXML
@@ -94,6 +101,8 @@ class ChatterBoxController {
     @FXML
     private lateinit var iconStatistiche: Label
     @FXML
+    private lateinit var iconDuplicati: Label
+    @FXML
     private lateinit var iconTemaChiaro: Label
     @FXML
     private lateinit var iconTemaScuro: Label
@@ -120,6 +129,11 @@ class ChatterBoxController {
     lateinit var application : ChatterBox
     lateinit var config: CBConfig
     private val storicoChat : MutableList<String> = mutableListOf()
+
+    /**
+     * Dati della dashboard in attesa di essere mostrati, `null` se nessun aggiornamento è in attesa sul thread JavaFX
+     */
+    private val dashboardInAttesa = AtomicReference<DatiDashboard?>()
     private var isChatAttiva = true
 
     /**
@@ -138,6 +152,7 @@ class ChatterBoxController {
         iconMessaggiOut.graphic = FontIcon(BootstrapIcons.ARROW_BAR_RIGHT)
         iconMessaggiIn.graphic = FontIcon(BootstrapIcons.ARROW_BAR_LEFT)
         iconStatistiche.graphic = FontIcon(BootstrapIcons.CHECK2_ALL)
+        iconDuplicati.graphic = FontIcon(BootstrapIcons.FILTER)
         iconTemaChiaro.graphic = FontIcon(BootstrapIcons.SUN)
         iconTemaScuro.graphic = FontIcon(BootstrapIcons.MOON_FILL)
         iconUsername.graphic = FontIcon(BootstrapIcons.PERSON)
@@ -262,7 +277,8 @@ class ChatterBoxController {
                 selectedFile.appendText("${impPortaGruppo.text}\n")
                 selectedFile.appendText("${impMessaggiOut.text}\n")
                 selectedFile.appendText("${impMessaggiIn.text}\n")
-                selectedFile.appendText("${impStatistiche.text}\n\n")
+                selectedFile.appendText("${impStatistiche.text}\n")
+                selectedFile.appendText("${impDuplicati.text}\n\n")
 
                 // 2) storico della chat
                 storicoChat.forEach { 
@@ -434,10 +450,50 @@ class ChatterBoxController {
     }
 
     /**
-     * Aggiorna l'icona di un messaggio inviato con successo
+     * Iscrive il controller agli eventi di un MulticastPeer.
+     * Gli eventi vengono gestiti da un thread dedicato, nell'ordine di pubblicazione, senza bloccare i thread di rete.
+     * @param eventi il bus degli eventi del MulticastPeer
+     */
+    fun iscrivi(eventi: BusEventi) {
+        eventi.iscrivi(Evento::class.java, ::gestisciEvento)
+    }
+
+    /**
+     * Aggiorna l'interfaccia grafica in base a un evento del MulticastPeer
+     */
+    private fun gestisciEvento(evento: Evento) {
+        when (evento) {
+            is Evento.MessaggioRicevuto -> {
+                val mittente = if (evento.privato) "${evento.mittente} (privato)" else evento.mittente
+                if (application.isUIattiva) {
+                    nuovoElemChat(evento.testo, MsgType.RICEZIONE, null, mittente, null)
+                } else {
+                    stampa("$mittente: ${evento.testo}", OutputType.STDOUT)
+                }
+            }
+            is Evento.MessaggioInviato -> nuovoElemChat(evento.testo, MsgType.INVIO, evento.id, null, evento.timestamp)
+            is Evento.AckCompletato -> aggiornaIconaMsg(evento.timestamp, evento.id)
+            is Evento.InvioFallito -> {
+                if (application.isUIattiva) {
+                    aggiornaIconaMsg(evento.timestamp, evento.id, true)
+                } else {
+                    stampa("Messaggio delle ${evento.timestamp} (msgID ${evento.id}) non confermato da tutti i destinatari", OutputType.STDERR)
+                }
+            }
+            is Evento.UtenteEntrato -> aggiornaUtentiOnline(evento.online.toString())
+            is Evento.UtenteUscito -> aggiornaUtentiOnline(evento.online.toString())
+            is Evento.UtenteRinominato -> rinominaUtente(evento.alias, evento.nuovoAlias)
+            is Evento.StatisticheAggiornate -> aggiornaDashboard(evento.indirizzoIPLocale, evento.portaLocale.toString(), evento.indirizzoIPGruppo, evento.portaGruppo.toString(), evento.messaggiInviati.toString(), evento.messaggiRicevuti.toString(), evento.inviatiConSuccesso, evento.duplicatiScartati.toString())
+            /* Evento è un'interfaccia sealed Java: il compilatore Kotlin non ne riconosce l'esaustività */
+            else -> {}
+        }
+    }
+
+    /**
+     * Aggiorna l'icona di un messaggio inviato con successo o, se non confermato nemmeno dopo le ritrasmissioni, fallito
      */
     @Synchronized
-    fun aggiornaIconaMsg(timestamp: String, msgID: Int) {
+    fun aggiornaIconaMsg(timestamp: String, msgID: Int, fallito: Boolean = false) {
         Platform.runLater {
             schermoMessaggi.layout()
             schermoMessaggi.items.forEach { hBox ->
@@ -448,7 +504,10 @@ class ChatterBoxController {
                     val hBoxTempoVisto = vBox.children[1] as HBox
                     val icona = hBoxTempoVisto.children[1] as FontIcon
                     if(icona.id == "msg-$timestamp-$msgID"){
-                        icona.iconCode = BootstrapIcons.CHECK_ALL
+                        /* una conferma tardiva sostituisce l'icona di errore */
+                        icona.iconCode = if (fallito) BootstrapIcons.EXCLAMATION_CIRCLE else BootstrapIcons.CHECK_ALL
+                        icona.styleClass.removeAll(Styles.ACCENT, Styles.DANGER)
+                        icona.styleClass.add(if (fallito) Styles.DANGER else Styles.ACCENT)
                     }
                 } catch (ignored: Exception) {
                     /* Se non trova l'icona, non fa nulla */
@@ -518,18 +577,27 @@ class ChatterBoxController {
     }
     
     /**
-     * Aggiorna i dati della dashboard
+     * Dati mostrati nella dashboard
      */
-    @Synchronized
-    fun aggiornaDashboard(indirizzoIPLocale : String? = "non disponibile", portaLocale  : String? = "non disponibile", indirizzoIPGruppo : String? = "non disponibile", portaGruppo : String? = "non disponibile", messaggiOut : String? = "non disponibile", messaggiIn : String ? = "non disponibile", statistiche : String? = "non disponibile") {
+    private data class DatiDashboard(val indirizzoIPLocale : String?, val portaLocale : String?, val indirizzoIPGruppo : String?, val portaGruppo : String?, val messaggiOut : String?, val messaggiIn : String?, val statistiche : String?, val duplicati : String?)
+
+    /**
+     * Aggiorna i dati della dashboard.
+     * Sotto carico gli aggiornamenti vengono accorpati: sul thread JavaFX è in attesa al più un aggiornamento, che mostra i dati più recenti.
+     */
+    fun aggiornaDashboard(indirizzoIPLocale : String? = "non disponibile", portaLocale  : String? = "non disponibile", indirizzoIPGruppo : String? = "non disponibile", portaGruppo : String? = "non disponibile", messaggiOut : String? = "non disponibile", messaggiIn : String ? = "non disponibile", statistiche : String? = "non disponibile", duplicati : String? = "non disponibile") {
+        val dati = DatiDashboard(indirizzoIPLocale, portaLocale, indirizzoIPGruppo, portaGruppo, messaggiOut, messaggiIn, statistiche, duplicati)
+        if (dashboardInAttesa.getAndSet(dati) != null) return
         Platform.runLater {
-            impIndirizzoIPLocale.text = "Indirizzo IP locale: $indirizzoIPLocale"
-            impPortaLocale.text = "Porta locale: $portaLocale"
-            impIndirizzoIPGruppo.text = "Indirizzo IP gruppo: $indirizzoIPGruppo"
-            impPortaGruppo.text = "Porta gruppo: $portaGruppo"
-            impMessaggiOut.text = "Messaggi inviati: $messaggiOut"
-            impMessaggiIn.text = "Messaggi ricevuti: $messaggiIn"
-            impStatistiche.text = "Messaggi inviati con successo: $statistiche"
+            val ultimi = dashboardInAttesa.getAndSet(null) ?: return@runLater
+            impIndirizzoIPLocale.text = "Indirizzo IP locale: ${ultimi.indirizzoIPLocale}"
+            impPortaLocale.text = "Porta locale: ${ultimi.portaLocale}"
+            impIndirizzoIPGruppo.text = "Indirizzo IP gruppo: ${ultimi.indirizzoIPGruppo}"
+            impPortaGruppo.text = "Porta gruppo: ${ultimi.portaGruppo}"
+            impMessaggiOut.text = "Messaggi inviati: ${ultimi.messaggiOut}"
+            impMessaggiIn.text = "Messaggi ricevuti: ${ultimi.messaggiIn}"
+            impStatistiche.text = "Messaggi inviati con successo: ${ultimi.statistiche}"
+            impDuplicati.text = "Messaggi duplicati scartati: ${ultimi.duplicati}"
         }
     }
 
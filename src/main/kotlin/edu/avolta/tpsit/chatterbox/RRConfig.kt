@@ -1,8 +1,16 @@
 package edu.avolta.tpsit.chatterbox
 
+import edu.avolta.tpsit.multicastudpsocketchat.comunicazione.Compressione
 import edu.avolta.tpsit.multicastudpsocketchat.comunicazione.Cronologia
+import edu.avolta.tpsit.multicastudpsocketchat.comunicazione.FormatoMessaggio
+import edu.avolta.tpsit.multicastudpsocketchat.host.Limitatore
+import edu.avolta.tpsit.multicastudpsocketchat.host.Pianificazione
+import edu.avolta.tpsit.multicastudpsocketchat.host.PipelineInvio
+import edu.avolta.tpsit.multicastudpsocketchat.host.PoliticaSovraccarico
+import edu.avolta.tpsit.multicastudpsocketchat.host.PoolBuffer
 import edu.avolta.tpsit.multicastudpsocketchat.utenze.Rubrica
 import edu.avolta.tpsit.multicastudpsocketchat.utenze.Utente
+import edu.avolta.tpsit.security.ModalitaCifratura
 
 /**
  * Record di risorsa contenente i dati per la chat
@@ -16,5 +24,22 @@ import edu.avolta.tpsit.multicastudpsocketchat.utenze.Utente
  * @param utente Utente associato al RRConfig
  * @param rubrica Rubrica associata al RRConfig
  * @param cronologia Cronologia associata al RRConfig
+ * @param formatoMessaggio Formato dei messaggi inviati: SERIALIZZATO, predefinito, è compreso anche dalle versioni precedenti del programma; BINARIO soltanto se tutti i partecipanti sono aggiornati
+ * @param mtu Dimensione massima in byte dei datagrammi inviati e ricevuti, cifratura compresa; i messaggi più grandi vengono frammentati
+ * @param ritardoAggregazione Attesa massima in millisecondi prima dell'invio dei messaggi aggregati (0 per disattivare l'aggregazione)
+ * @param compressione Flag per abilitare la compressione dei datagrammi verso gli host che la supportano
+ * @param sogliaCompressione Dimensione in byte al di sotto della quale i datagrammi non vengono compressi
+ * @param modalitaCifratura Modalità di cifratura preferita per il gruppo, applicata soltanto con il formato BINARIO (GCM è utilizzata solo verso gli host che la supportano)
+ * @param decodificatori Numero di thread che decifrano e decodificano in parallelo i datagrammi ricevuti
+ * @param codaRicezione Numero massimo di datagrammi ricevuti in attesa di decodifica
+ * @param sovraccarico Politica applicata quando la coda di ricezione è piena: quale datagramma scartare
+ * @param codaInvio Numero massimo di messaggi in attesa di codifica, oltre il quale l'invio viene rallentato e infine rifiutato
+ * @param dimensionePool Numero di buffer riutilizzabili per la ricezione e l'invio dei datagrammi, allocati all'avvio
+ * @param tracciamentoBuffer Flag per la modalità di debug del pool di buffer: segnala i buffer non rilasciati e i rilasci doppi
+ * @param ritardoConferme Attesa massima in millisecondi prima dell'invio delle conferme di lettura aggregate per mittente (0 per confermare ogni messaggio singolarmente)
+ * @param multicastAffidabile Flag per il multicast affidabile: i messaggi di gruppo vengono numerati e ritrasmessi su richiesta dei destinatari invece di essere confermati da ciascuno (solo se supportato da tutti i partecipanti)
+ * @param velocitaUnicast Velocità massima di invio in byte al secondo verso ciascun host, ridotta automaticamente in caso di perdite (0 per nessun limite)
+ * @param velocitaGruppo Velocità massima di invio in byte al secondo verso il gruppo, ridotta automaticamente in caso di perdite (0 per nessun limite)
+ * @param pianificazione Pianificazione tra il traffico di controllo e i messaggi della chat nelle code di invio e di ricezione
  */
-data class RRConfig(val ws: RRWebService,val username: String, val sGateKey: String, val indirizzoIP : String, val porta : String, val ttl : String, val loopbackOff : Boolean, var utente : Utente? = null, var rubrica : Rubrica? = null, var cronologia : Cronologia? = null)
+data class RRConfig(val ws: RRWebService,val username: String, val sGateKey: String, val indirizzoIP : String, val porta : String, val ttl : String, val loopbackOff : Boolean, var utente : Utente? = null, var rubrica : Rubrica? = null, var cronologia : Cronologia? = null, val formatoMessaggio : FormatoMessaggio = FormatoMessaggio.SERIALIZZATO, val mtu : Int = 1024, val ritardoAggregazione : Long = 5, val compressione : Boolean = true, val sogliaCompressione : Int = Compressione.SOGLIA_PREDEFINITA, val modalitaCifratura : ModalitaCifratura = ModalitaCifratura.CBC, val decodificatori : Int = Runtime.getRuntime().availableProcessors(), val codaRicezione : Int = 1024, val sovraccarico : PoliticaSovraccarico = PoliticaSovraccarico.SCARTA_CONTROLLO, val codaInvio : Int = PipelineInvio.CAPACITA_PREDEFINITA, val dimensionePool : Int = PoolBuffer.DIMENSIONE_PREDEFINITA, val tracciamentoBuffer : Boolean = false, val ritardoConferme : Long = 20, val multicastAffidabile : Boolean = true, val velocitaUnicast : Long = Limitatore.VELOCITA_PREDEFINITA, val velocitaGruppo : Long = Limitatore.VELOCITA_PREDEFINITA, val pianificazione : Pianificazione = Pianificazione.PESATA)
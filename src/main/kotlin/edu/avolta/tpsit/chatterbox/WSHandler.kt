@@ -8,11 +8,13 @@ import okhttp3.MediaType.Companion.toMediaTypeOrNull
 import okhttp3.RequestBody.Companion.toRequestBody
 import java.io.IOException
 import java.net.SocketTimeoutException
+import java.util.concurrent.Executors
 import java.util.concurrent.TimeUnit
 
 
 class WSHandler {
     private val client = OkHttpClient().newBuilder()
+        .dispatcher(Dispatcher(Executors.newVirtualThreadPerTaskExecutor()))  // richieste asincrone su thread virtuali
         .connectTimeout(10, TimeUnit.SECONDS)  // connessione
         .readTimeout(10, TimeUnit.SECONDS)     // lettura
         .writeTimeout(10, TimeUnit.SECONDS)   // scrittura
@@ -0,0 +1,133 @@
+package edu.avolta.tpsit.multicastudpsocketchat.comunicazione;
+
+import edu.avolta.tpsit.multicastudpsocketchat.utenze.Utente;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Accumulatore delle conferme di lettura da inviare a ciascun mittente.
+ * <p>
+ * Invece di un <code>acknowledge</code> per ogni messaggio ricevuto, gli <code>ID</code> da confermare vengono accumulati per mittente e inviati in un'unica {@link ConfermaAggregata}:
+ * <ul>
+ *     <li>subito, quando gli <code>ID</code> in attesa di un mittente raggiungono la soglia</li>
+ *     <li>periodicamente, con {@link #svuota()}, per tutti i mittenti con conferme in attesa</li>
+ * </ul>
+ * Il numero di mittenti conservati è limitato: al raggiungimento del limite vengono perse le conferme del mittente inattivo da più tempo.
+ *
+ * @author Matteo Bagnoletti Tini
+ * @version 1.0
+ * @project MulticastUDPSocketChat
+ * @see ConfermaAggregata
+ */
+public class AccumulatoreConferme {
+
+    /**
+     * Numero predefinito di <code>ID</code> in attesa oltre il quale la conferma viene inviata subito.
+     * Non supera {@link ConfermaAggregata#MAX_FINESTRE}, in modo che la conferma sia accettata anche con <code>ID</code> molto distanti.
+     */
+    public static final int SOGLIA_PREDEFINITA = ConfermaAggregata.MAX_FINESTRE;
+
+    /**
+     * Numero massimo predefinito di mittenti conservati
+     */
+    public static final int MAX_MITTENTI_PREDEFINITO = 1024;
+
+    /**
+     * Conferma pronta per l'invio
+     * @param destinatario il mittente dei messaggi confermati
+     * @param conferma la conferma degli <code>ID</code> ricevuti
+     */
+    public record Pronta(Utente destinatario, ConfermaAggregata conferma) {}
+
+    /**
+     * Conferme in attesa per un mittente
+     */
+    private static final class InAttesa {
+        private Utente utente;
+        private final List<Integer> ids = new ArrayList<>();
+    }
+
+    private final int soglia;
+
+    private final int maxMittenti;
+
+    /**
+     * Conferme in attesa per mittente, in ordine di ultimo accesso
+     */
+    private final LinkedHashMap<UUID, InAttesa> inAttesa;
+
+    /* statistiche */
+    private long accumulate;
+    private long inviate;
+
+    /**
+     * Crea un <code>accumulatore</code> con la soglia e il numero massimo di mittenti predefiniti
+     */
+    public AccumulatoreConferme() {
+        this(SOGLIA_PREDEFINITA, MAX_MITTENTI_PREDEFINITO);
+    }
+
+    /**
+     * Crea un <code>accumulatore</code>
+     * @param soglia il numero di <code>ID</code> in attesa oltre il quale la conferma viene inviata subito
+     * @param maxMittenti il numero massimo di mittenti conservati
+     * @throws IllegalArgumentException se la soglia o il numero massimo di mittenti non sono positivi
+     */
+    public AccumulatoreConferme(final int soglia, final int maxMittenti) throws IllegalArgumentException {
+        if(soglia <= 0 || maxMittenti <= 0) throw new IllegalArgumentException("Parametri dell'accumulatore di conferme non validi");
+        this.soglia = soglia;
+        this.maxMittenti = maxMittenti;
+        this.inAttesa = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<UUID, InAttesa> eldest) {
+                return size() > AccumulatoreConferme.this.maxMittenti;
+            }
+        };
+    }
+
+    /**
+     * Accumula la conferma di un messaggio ricevuto
+     * @param mittente l'utente mittente del messaggio
+     * @param id l'<code>ID</code> del messaggio
+     * @return la conferma da inviare subito se è stata raggiunta la soglia, <code>null</code> altrimenti
+     */
+    public synchronized Pronta aggiungi(Utente mittente, int id) {
+        UUID chiave = new UUID(mittente.getIdAlto(), mittente.getIdBasso());
+        InAttesa conferme = inAttesa.computeIfAbsent(chiave, c -> new InAttesa());
+        conferme.utente = mittente;
+        conferme.ids.add(id);
+        accumulate++;
+        if(conferme.ids.size() < soglia) return null;
+        inAttesa.remove(chiave);
+        return pronta(conferme);
+    }
+
+    /**
+     * Restituisce le conferme in attesa di tutti i mittenti, svuotando l'accumulatore
+     * @return le conferme da inviare, una per mittente
+     */
+    public synchronized List<Pronta> svuota() {
+        if(inAttesa.isEmpty()) return List.of();
+        List<Pronta> pronte = new ArrayList<>(inAttesa.size());
+        for(InAttesa conferme : inAttesa.values()) pronte.add(pronta(conferme));
+        inAttesa.clear();
+        return pronte;
+    }
+
+    /**
+     * Restituisce le statistiche dell'accumulatore
+     * @return le statistiche dell'accumulatore
+     */
+    public synchronized String getStatistiche() {
+        return String.format("Conferme: %d messaggi confermati con %d acknowledge (%.1f per acknowledge), %d mittenti in attesa", accumulate, inviate, inviate == 0 ? 0 : (double) accumulate / inviate, inAttesa.size());
+    }
+
+    private Pronta pronta(InAttesa conferme) {
+        inviate++;
+        return new Pronta(conferme.utente, ConfermaAggregata.di(conferme.ids));
+    }
+}
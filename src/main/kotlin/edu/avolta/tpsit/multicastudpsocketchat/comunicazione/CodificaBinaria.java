@@ -0,0 +1,420 @@
+package edu.avolta.tpsit.multicastudpsocketchat.comunicazione;
+
+import edu.avolta.tpsit.multicastudpsocketchat.eccezioni.MsgException;
+import edu.avolta.tpsit.multicastudpsocketchat.utenze.Utente;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Codifica binaria compatta di un {@link Messaggio}, alternativa alla serializzazione Java.
+ * <p>
+ * Ciascun <code>messaggio</code> codificato è composto da un'intestazione fissa di 4 byte seguita dai campi variabili:
+ * <pre>
+ *  0       1          2       3          4 ...
+ * +-------+----------+-------+----------+---------------------------------------------------------------------+
+ * | MAGIC | VERSIONE | FLAGS | CAPACITÀ | ID | porta | targetACK | orario | [sequenza] | [dati] | mittente | msg |
+ * +-------+----------+-------+----------+---------------------------------------------------------------------+
+ * </pre>
+ * <ul>
+ *     <li><code>FLAGS</code>: bit 0 ACK, bit 1 messaggio di gruppo, bit 2-4 codice del {@link Protocollo}, bit 5 mittente in forma breve, bit 6 sequenza presente, bit 7 sequenza dati presente</li>
+ *     <li><code>sequenza</code>: presente solo con il relativo flag, è il numero di sequenza di gruppo del mittente (varint) utilizzato dal multicast affidabile, si veda {@link RilevatorePerdite}</li>
+ *     <li><code>dati</code>: presente solo con il relativo flag, è il numero di sequenza dei messaggi di dati del mittente (varint), comune a unicast e gruppo, sul quale il destinatario scarta i duplicati (si veda {@link FiltroDuplicati}); viene trasmesso soltanto ai destinatari che annunciano {@link #CAP_SEQUENZA_DATI}</li>
+ *     <li><code>mittente</code>: in forma completa l'identificativo univoco (16 byte) seguito dallo username; in forma breve il solo identificativo breve di sessione (2 byte, {@link Utente#getIdBreve()}), risolto dal destinatario attraverso la propria {@link edu.avolta.tpsit.multicastudpsocketchat.utenze.Rubrica}</li>
+ *     <li><code>CAPACITÀ</code>: funzionalità supportate dal mittente, utilizzate per la negoziazione con gli altri <code>host</code></li>
+ *     <li><code>ID</code>, <code>porta</code>, <code>targetACK</code> e <code>orario</code> (secondi dalla mezzanotte) sono codificati come varint</li>
+ *     <li><code>username</code> e <code>msg</code> sono testi UTF-8 preceduti dalla loro lunghezza (varint)</li>
+ * </ul>
+ * Il primo byte ({@link #MAGIC}) non può mai coincidere con quello di uno stream di serializzazione Java (<code>0xAC</code>), permettendo di riconoscere il formato in ricezione.
+ *
+ * @author Matteo Bagnoletti Tini
+ * @version 1.0
+ * @project MulticastUDPSocketChat
+ * @see FormatoMessaggio
+ */
+public final class CodificaBinaria {
+
+    /**
+     * Primo byte di ogni <code>messaggio</code> in formato binario
+     */
+    public static final byte MAGIC = (byte) 0xCB;
+
+    /**
+     * Versione corrente del formato
+     */
+    public static final byte VERSIONE = 2;
+
+    /**
+     * Dimensione dell'intestazione fissa
+     */
+    public static final int DIM_INTESTAZIONE = 4;
+
+    /**
+     * Flag del <code>messaggio</code> di tipo ACK
+     */
+    static final int FLAG_ACK = 1;
+
+    /**
+     * Flag del <code>messaggio</code> proveniente dal gruppo
+     */
+    static final int FLAG_GRUPPO = 1 << 1;
+
+    /**
+     * Flag del mittente identificato dal solo identificativo breve di sessione
+     */
+    static final int FLAG_ID_BREVE = 1 << 5;
+
+    /**
+     * Flag del <code>messaggio</code> che trasporta un numero di sequenza di gruppo
+     */
+    static final int FLAG_SEQUENZA = 1 << 6;
+
+    /**
+     * Flag del <code>messaggio</code> che trasporta un numero di sequenza dei dati
+     */
+    static final int FLAG_DATI = 1 << 7;
+
+    /**
+     * Posizione del codice del {@link Protocollo} all'interno dei flag
+     */
+    static final int SHIFT_PROTOCOLLO = 2;
+
+    /**
+     * Maschera del codice del {@link Protocollo} (dopo lo shift)
+     */
+    static final int MASCHERA_PROTOCOLLO = 0b111;
+
+    /**
+     * Capacità: il mittente è in grado di decodificare il formato binario
+     */
+    public static final int CAP_BINARIO = 1;
+
+    /**
+     * Capacità: il mittente è in grado di decomprimere i contenuti prodotti da {@link Compressione}
+     */
+    public static final int CAP_COMPRESSIONE = 1 << 1;
+
+    /**
+     * Capacità: il mittente è in grado di decifrare i datagrammi cifrati con AES-GCM
+     */
+    public static final int CAP_GCM = 1 << 2;
+
+    /**
+     * Capacità: il mittente riconosce i numeri di sequenza di gruppo e richiede i messaggi mancanti, senza confermare quelli ricevuti
+     */
+    public static final int CAP_NACK = 1 << 3;
+
+    /**
+     * Capacità: il mittente accetta le conferme di lettura aggregate ({@link ConfermaAggregata})
+     */
+    public static final int CAP_CONFERME_AGGREGATE = 1 << 4;
+
+    /**
+     * Capacità: il mittente riconosce il numero di sequenza dei dati (flag {@link #FLAG_DATI}) e su di esso scarta i duplicati
+     */
+    public static final int CAP_SEQUENZA_DATI = 1 << 5;
+
+    /**
+     * Capacità annunciate da questa versione del programma
+     */
+    public static final int CAPACITA_LOCALI = CAP_BINARIO | CAP_COMPRESSIONE | CAP_GCM | CAP_NACK | CAP_CONFERME_AGGREGATE | CAP_SEQUENZA_DATI;
+
+    private CodificaBinaria() {}
+
+    /**
+     * Codifica il <code>messaggio</code> fornito nel formato binario
+     * @param messaggio il messaggio da codificare
+     * @return l'array di byte del messaggio codificato
+     * @throws MsgException se il <code>messaggio</code> o il suo mittente non sono validi
+     */
+    public static byte[] codifica(Messaggio messaggio) throws MsgException {
+        return codifica(messaggio, false);
+    }
+
+    /**
+     * Codifica il <code>messaggio</code> fornito nel formato binario
+     * @param messaggio il messaggio da codificare
+     * @param idBreve se <code>true</code> il mittente viene identificato dal solo identificativo breve di sessione
+     * @return l'array di byte del messaggio codificato
+     * @throws MsgException se il <code>messaggio</code> o il suo mittente non sono validi
+     */
+    public static byte[] codifica(Messaggio messaggio, boolean idBreve) throws MsgException {
+        ByteBuffer out = ByteBuffer.allocate(dimensione(messaggio, idBreve));
+        codifica(messaggio, out, idBreve);
+        return out.array();
+    }
+
+    /**
+     * Codifica il <code>messaggio</code> fornito direttamente nel buffer indicato, a partire dalla sua posizione corrente.
+     * <p>
+     * Il buffer può essere anche di tipo <i>direct</i>: i testi vengono scritti in UTF-8 senza array intermedi.
+     * Al termine la posizione del buffer è avanzata del numero di byte scritti.
+     * @param messaggio il messaggio da codificare
+     * @param out il buffer di destinazione
+     * @return il numero di byte scritti
+     * @throws MsgException se il <code>messaggio</code> non è valido o lo spazio disponibile nel buffer è insufficiente
+     */
+    public static int codifica(Messaggio messaggio, ByteBuffer out) throws MsgException {
+        return codifica(messaggio, out, false);
+    }
+
+    /**
+     * Codifica il <code>messaggio</code> fornito direttamente nel buffer indicato, a partire dalla sua posizione corrente.
+     * @param messaggio il messaggio da codificare
+     * @param out il buffer di destinazione
+     * @param idBreve se <code>true</code> il mittente viene identificato dal solo identificativo breve di sessione
+     * @return il numero di byte scritti
+     * @throws MsgException se il <code>messaggio</code> non è valido o lo spazio disponibile nel buffer è insufficiente
+     * @see #codifica(Messaggio, ByteBuffer)
+     */
+    public static int codifica(Messaggio messaggio, ByteBuffer out, boolean idBreve) throws MsgException {
+        int dimensione = dimensione(messaggio, idBreve);
+        if(out.remaining() < dimensione) throw new MsgException("Spazio insufficiente nel buffer: richiesti " + dimensione + " byte, disponibili " + out.remaining());
+
+        Utente utente = messaggio.getUtente();
+        String msg = messaggio.getMsg() == null ? "" : messaggio.getMsg();
+        out.put(MAGIC);
+        out.put(VERSIONE);
+        out.put((byte) (flags(messaggio) | (idBreve ? FLAG_ID_BREVE : 0)));
+        out.put((byte) CAPACITA_LOCALI);
+        scriviVarint(out, messaggio.getID());
+        scriviVarint(out, messaggio.getPortaMittente());
+        scriviVarint(out, messaggio.getTargetACK());
+        scriviVarint(out, messaggio.getOrario().toSecondOfDay());
+        if(messaggio.getSequenza() > 0) scriviVarint(out, messaggio.getSequenza());
+        if(messaggio.getSequenzaDati() > 0) scriviVarint(out, messaggio.getSequenzaDati());
+        if(idBreve) {
+            out.putShort((short) utente.getIdBreve());
+        } else {
+            out.putLong(utente.getIdAlto());
+            out.putLong(utente.getIdBasso());
+            scriviTesto(out, utente.getUsername());
+        }
+        scriviTesto(out, msg);
+        return dimensione;
+    }
+
+    /**
+     * Calcola la dimensione in byte della codifica binaria di un <code>messaggio</code>
+     * @param messaggio il messaggio
+     * @return il numero di byte necessari alla codifica
+     * @throws MsgException se il <code>messaggio</code> o il suo mittente non sono validi
+     */
+    public static int dimensione(Messaggio messaggio) throws MsgException {
+        return dimensione(messaggio, false);
+    }
+
+    /**
+     * Calcola la dimensione in byte della codifica binaria di un <code>messaggio</code>
+     * @param messaggio il messaggio
+     * @param idBreve se <code>true</code> il mittente viene identificato dal solo identificativo breve di sessione
+     * @return il numero di byte necessari alla codifica
+     * @throws MsgException se il <code>messaggio</code> o il suo mittente non sono validi
+     */
+    public static int dimensione(Messaggio messaggio, boolean idBreve) throws MsgException {
+        if(messaggio == null) throw new MsgException("Impossibile codificare un messaggio nullo");
+        if(messaggio.getUtente() == null) throw new MsgException("Impossibile codificare un messaggio senza mittente");
+
+        int mittente;
+        if(idBreve) {
+            mittente = 2;
+        } else {
+            int username = dimUtf8(messaggio.getUtente().getUsername());
+            mittente = 16 + dimVarint(username) + username;
+        }
+        int msg = messaggio.getMsg() == null ? 0 : dimUtf8(messaggio.getMsg());
+        return DIM_INTESTAZIONE
+                + dimVarint(messaggio.getID())
+                + dimVarint(messaggio.getPortaMittente())
+                + dimVarint(messaggio.getTargetACK())
+                + dimVarint(messaggio.getOrario().toSecondOfDay())
+                + (messaggio.getSequenza() > 0 ? dimVarint(messaggio.getSequenza()) : 0)
+                + (messaggio.getSequenzaDati() > 0 ? dimVarint(messaggio.getSequenzaDati()) : 0)
+                + mittente
+                + dimVarint(msg) + msg;
+    }
+
+    /**
+     * Ricostruisce un {@link Messaggio} a partire dalla sua codifica binaria
+     * @param arrayInput l'array di byte contenente il messaggio codificato
+     * @return il messaggio originale
+     * @throws MsgException se l'array non contiene un messaggio valido, la versione non è supportata o il mittente è in forma breve
+     */
+    public static Messaggio decodifica(byte[] arrayInput) throws MsgException {
+        if(arrayInput == null) throw new MsgException("Impossibile decodificare un messaggio nullo");
+        return decodifica(ByteBuffer.wrap(arrayInput));
+    }
+
+    /**
+     * Ricostruisce un {@link Messaggio} a partire dalla sua codifica binaria contenuta tra la posizione e il limite del buffer
+     * @param in il buffer contenente il messaggio codificato
+     * @return il messaggio originale
+     * @throws MsgException se il buffer non contiene un messaggio valido, la versione non è supportata o il mittente è in forma breve
+     * @see VistaMessaggio#materializza(edu.avolta.tpsit.multicastudpsocketchat.utenze.Rubrica)
+     */
+    public static Messaggio decodifica(ByteBuffer in) throws MsgException {
+        return new VistaMessaggio().imposta(in).materializza();
+    }
+
+    /**
+     * Verifica se l'array di byte fornito contiene un messaggio in formato binario
+     * @param arrayInput l'array di byte da verificare
+     * @return <code>true</code> se il primo byte corrisponde a {@link #MAGIC}, <code>false</code> altrimenti
+     */
+    public static boolean isBinario(byte[] arrayInput) {
+        return arrayInput != null && arrayInput.length > 0 && arrayInput[0] == MAGIC;
+    }
+
+    /**
+     * Verifica se il buffer fornito contiene, a partire dalla sua posizione, un messaggio in formato binario
+     * @param in il buffer da verificare
+     * @return <code>true</code> se il primo byte corrisponde a {@link #MAGIC}, <code>false</code> altrimenti
+     */
+    public static boolean isBinario(ByteBuffer in) {
+        return in != null && in.hasRemaining() && in.get(in.position()) == MAGIC;
+    }
+
+    /**
+     * Calcola il byte dei flag di un <code>messaggio</code>
+     * @param messaggio il messaggio
+     * @return il valore dei flag
+     */
+    private static int flags(Messaggio messaggio) {
+        int flags = 0;
+        if(messaggio.isACK()) flags |= FLAG_ACK;
+        if(messaggio.isMsgGruppo()) flags |= FLAG_GRUPPO;
+        if(messaggio.getSequenza() > 0) flags |= FLAG_SEQUENZA;
+        if(messaggio.getSequenzaDati() > 0) flags |= FLAG_DATI;
+        flags |= codiceProtocollo(messaggio.getProtocollo()) << SHIFT_PROTOCOLLO;
+        return flags;
+    }
+
+    /**
+     * Restituisce il codice numerico di un {@link Protocollo}
+     * @param protocollo il protocollo
+     * @return il codice del protocollo, <code>0</code> se non specificato
+     */
+    private static int codiceProtocollo(Enum<?> protocollo) {
+        if(protocollo == Protocollo.TCP.unicast) return 1;
+        if(protocollo == Protocollo.UDP.unicast) return 2;
+        if(protocollo == Protocollo.UDP.multicast) return 3;
+        if(protocollo == Protocollo.UDP.broadcast) return 4;
+        return 0;
+    }
+
+    /**
+     * Restituisce il {@link Protocollo} corrispondente a un codice numerico
+     * @param codice il codice del protocollo
+     * @return il protocollo, <code>null</code> se non specificato
+     * @throws MsgException se il codice non è valido
+     */
+    static Enum<?> protocollo(int codice) throws MsgException {
+        return switch (codice) {
+            case 0 -> null;
+            case 1 -> Protocollo.TCP.unicast;
+            case 2 -> Protocollo.UDP.unicast;
+            case 3 -> Protocollo.UDP.multicast;
+            case 4 -> Protocollo.UDP.broadcast;
+            default -> throw new MsgException("Codice protocollo non valido: " + codice);
+        };
+    }
+
+    /**
+     * Scrive un testo UTF-8 preceduto dalla sua lunghezza, senza allocare array intermedi
+     * @param out il buffer di scrittura
+     * @param testo il testo da scrivere
+     */
+    private static void scriviTesto(ByteBuffer out, String testo) {
+        scriviVarint(out, dimUtf8(testo));
+        for(int i = 0; i < testo.length(); i++) {
+            char c = testo.charAt(i);
+            if(c < 0x80) {
+                out.put((byte) c);
+            } else if(c < 0x800) {
+                out.put((byte) (0xC0 | (c >>> 6)));
+                out.put((byte) (0x80 | (c & 0x3F)));
+            } else if(Character.isHighSurrogate(c) && i + 1 < testo.length() && Character.isLowSurrogate(testo.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, testo.charAt(++i));
+                out.put((byte) (0xF0 | (cp >>> 18)));
+                out.put((byte) (0x80 | ((cp >>> 12) & 0x3F)));
+                out.put((byte) (0x80 | ((cp >>> 6) & 0x3F)));
+                out.put((byte) (0x80 | (cp & 0x3F)));
+            } else if(Character.isSurrogate(c)) {
+                /* surrogato isolato: sostituito con '?' come fa String.getBytes */
+                out.put((byte) '?');
+            } else {
+                out.put((byte) (0xE0 | (c >>> 12)));
+                out.put((byte) (0x80 | ((c >>> 6) & 0x3F)));
+                out.put((byte) (0x80 | (c & 0x3F)));
+            }
+        }
+    }
+
+    /**
+     * Calcola la lunghezza in byte della codifica UTF-8 di un testo
+     * @param testo il testo
+     * @return il numero di byte della codifica UTF-8
+     */
+    private static int dimUtf8(String testo) {
+        int dimensione = 0;
+        for(int i = 0; i < testo.length(); i++) {
+            char c = testo.charAt(i);
+            if(c < 0x80) {
+                dimensione += 1;
+            } else if(c < 0x800) {
+                dimensione += 2;
+            } else if(Character.isHighSurrogate(c) && i + 1 < testo.length() && Character.isLowSurrogate(testo.charAt(i + 1))) {
+                dimensione += 4;
+                i++;
+            } else if(Character.isSurrogate(c)) {
+                dimensione += 1;
+            } else {
+                dimensione += 3;
+            }
+        }
+        return dimensione;
+    }
+
+    /**
+     * Scrive un intero non negativo come varint (7 bit per byte, bit più significativo di continuazione)
+     * @param out il buffer di scrittura
+     * @param valore il valore da scrivere
+     */
+    static void scriviVarint(ByteBuffer out, int valore) {
+        while((valore & ~0x7F) != 0) {
+            out.put((byte) ((valore & 0x7F) | 0x80));
+            valore >>>= 7;
+        }
+        out.put((byte) valore);
+    }
+
+    /**
+     * Legge, dalla posizione del buffer, un intero codificato come varint con {@link #scriviVarint(ByteBuffer, int)}
+     * @param in il buffer di lettura, la cui posizione viene avanzata oltre il varint
+     * @return il valore letto
+     * @throws MsgException se il varint è troncato dal limite del buffer o supera i 5 byte
+     */
+    static int leggiVarint(ByteBuffer in) throws MsgException {
+        int valore = 0;
+        for(int shift = 0; shift < 35; shift += 7) {
+            if(!in.hasRemaining()) throw new MsgException("Varint troncato");
+            byte b = in.get();
+            valore |= (b & 0x7F) << shift;
+            if((b & 0x80) == 0) return valore;
+        }
+        throw new MsgException("Varint non valido");
+    }
+
+    /**
+     * Calcola il numero di byte necessari per codificare un valore come varint
+     * @param valore il valore
+     * @return il numero di byte (da 1 a 5)
+     */
+    static int dimVarint(int valore) {
+        int dimensione = 1;
+        while((valore & ~0x7F) != 0) {
+            dimensione++;
+            valore >>>= 7;
+        }
+        return dimensione;
+    }
+}
@@ -0,0 +1,230 @@
+package edu.avolta.tpsit.multicastudpsocketchat.comunicazione;
+
+import edu.avolta.tpsit.multicastudpsocketchat.eccezioni.MsgException;
+import edu.avolta.tpsit.multicastudpsocketchat.gestione.ChatLogger;
+import edu.avolta.tpsit.multicastudpsocketchat.gestione.ChatLoggerType;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compressione dei datagrammi in chiaro, applicata prima della cifratura.
+ * <p>
+ * Il contenuto viene compresso con l'algoritmo Deflate utilizzando un dizionario predefinito ({@link #DIZIONARIO}) con i testi più ricorrenti della chat, in modo da ottenere un buon rapporto di compressione anche su messaggi di poche decine di byte.
+ * Struttura del contenuto compresso:
+ * <pre>
+ * +-------+---------------------+--------------------+
+ * | MAGIC | lunghezza originale | contenuto Deflate  |
+ * +-------+---------------------+--------------------+
+ * </pre>
+ * La lunghezza originale è codificata come varint. I contenuti inferiori alla soglia, o per i quali la compressione non porta vantaggi, vengono restituiti invariati.
+ * <p>
+ * L'uso della compressione viene negoziato attraverso la capacità {@link CodificaBinaria#CAP_COMPRESSIONE}: la decompressione è sempre disponibile, mentre la compressione è applicata solo verso <code>host</code> che la supportano.
+ *
+ * @author Matteo Bagnoletti Tini
+ * @version 1.0
+ * @project MulticastUDPSocketChat
+ */
+public final class Compressione {
+
+    /**
+     * Primo byte di ogni contenuto compresso
+     */
+    public static final byte MAGIC = (byte) 0xCD;
+
+    /**
+     * Lunghezza massima accettata per un contenuto decompresso
+     */
+    public static final int DIM_MASSIMA = 65507;
+
+    /**
+     * Soglia predefinita, in byte, al di sotto della quale i contenuti non vengono compressi
+     */
+    public static final int SOGLIA_PREDEFINITA = 64;
+
+    /**
+     * Dizionario predefinito condiviso da tutti gli <code>host</code>. I testi più frequenti sono posti alla fine, dove Deflate li raggiunge con distanze minori.
+     * Modificarlo rende incompatibili i contenuti compressi con versioni diverse del programma.
+     */
+    private static final byte[] DIZIONARIO = ("perché però anche come cosa quando dove sono siamo avete hanno questo quello grazie prego "
+            + "ciao buongiorno buonasera a dopo a domani va bene ok sì no non lo so "
+            + "the and you that this with have what are for not yes thanks hello bye "
+            + "left-group join-group DO-NOT-SHOW-THIS-MESSAGE").getBytes(StandardCharsets.UTF_8);
+
+    /**
+     * Soglia in byte al di sotto della quale i contenuti non vengono compressi
+     */
+    private final int soglia;
+
+    private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+
+    private final Inflater inflater = new Inflater(true);
+
+    /* statistiche */
+    private long contenutiCompressi;
+    private long contenutiNonCompressi;
+    private long byteOriginali;
+    private long byteCompressi;
+    private double ultimoRapporto = 1;
+
+    /**
+     * Crea un oggetto <code>compressione</code> con la soglia predefinita
+     */
+    public Compressione() {
+        this(SOGLIA_PREDEFINITA);
+    }
+
+    /**
+     * Crea un oggetto <code>compressione</code>
+     * @param soglia la dimensione in byte al di sotto della quale i contenuti non vengono compressi
+     * @throws IllegalArgumentException se la soglia è negativa
+     */
+    public Compressione(final int soglia) throws IllegalArgumentException {
+        if(soglia < 0) throw new IllegalArgumentException("Soglia di compressione non valida: " + soglia);
+        this.soglia = soglia;
+    }
+
+    /**
+     * Verifica se l'array di byte fornito contiene un contenuto compresso
+     * @param arrayInput l'array di byte da verificare
+     * @return <code>true</code> se il primo byte corrisponde a {@link #MAGIC}, <code>false</code> altrimenti
+     */
+    public static boolean isCompresso(byte[] arrayInput) {
+        return arrayInput != null && arrayInput.length > 0 && arrayInput[0] == MAGIC;
+    }
+
+    /**
+     * Verifica se il buffer fornito contiene, a partire dalla sua posizione, un contenuto compresso
+     * @param in il buffer da verificare
+     * @return <code>true</code> se il primo byte corrisponde a {@link #MAGIC}, <code>false</code> altrimenti
+     */
+    public static boolean isCompresso(ByteBuffer in) {
+        return in != null && in.hasRemaining() && in.get(in.position()) == MAGIC;
+    }
+
+    /**
+     * Restituisce la lunghezza originale di un contenuto compresso, senza decomprimerlo né modificare la posizione del buffer
+     * @param in il buffer contenente il contenuto compresso
+     * @return la lunghezza del contenuto decompresso
+     * @throws MsgException se l'intestazione non è valida o la lunghezza eccede la {@link #DIM_MASSIMA}
+     */
+    public static int lunghezzaOriginale(ByteBuffer in) throws MsgException {
+        ByteBuffer intestazione = in.duplicate();
+        try {
+            if(intestazione.get() != MAGIC) throw new MsgException("Formato contenuto compresso non riconosciuto");
+            int lunghezza = CodificaBinaria.leggiVarint(intestazione);
+            if(lunghezza <= 0 || lunghezza > DIM_MASSIMA) throw new MsgException("Lunghezza del contenuto compresso non valida: " + lunghezza);
+            return lunghezza;
+        } catch (BufferUnderflowException e) {
+            throw new MsgException("Errore nella decompressione: formato non valido", e);
+        }
+    }
+
+    /**
+     * Comprime il contenuto fornito, registrandone il rapporto di compressione
+     * @param inChiaro il contenuto da comprimere
+     * @return il contenuto compresso, oppure il contenuto originale se inferiore alla soglia o se la compressione non lo riduce
+     */
+    public synchronized byte[] comprimi(byte[] inChiaro) {
+        if(inChiaro.length < soglia) {
+            contenutiNonCompressi++;
+            return inChiaro;
+        }
+
+        int intestazione = 1 + CodificaBinaria.dimVarint(inChiaro.length);
+        /* il contenuto compresso deve essere strettamente più corto dell'originale */
+        byte[] out = new byte[inChiaro.length - 1];
+        deflater.reset();
+        deflater.setDictionary(DIZIONARIO);
+        deflater.setInput(inChiaro);
+        deflater.finish();
+        int compressi = deflater.deflate(out, intestazione, out.length - intestazione);
+        if(!deflater.finished()) {
+            contenutiNonCompressi++;
+            return inChiaro;
+        }
+
+        ByteBuffer testa = ByteBuffer.wrap(out);
+        testa.put(MAGIC);
+        CodificaBinaria.scriviVarint(testa, inChiaro.length);
+        int dimensione = intestazione + compressi;
+
+        contenutiCompressi++;
+        byteOriginali += inChiaro.length;
+        byteCompressi += dimensione;
+        ultimoRapporto = (double) dimensione / inChiaro.length;
+        ChatLogger.log(String.format("Contenuto compresso da %d a %d byte (rapporto %.2f)", inChiaro.length, dimensione, ultimoRapporto), ChatLoggerType.OPTIONAL);
+        return Arrays.copyOf(out, dimensione);
+    }
+
+    /**
+     * Decomprime un contenuto compresso con {@link #comprimi(byte[])}
+     * @param compresso il contenuto compresso
+     * @return il contenuto originale
+     * @throws MsgException se il contenuto non è valido o eccede la {@link #DIM_MASSIMA}
+     */
+    public byte[] decomprimi(byte[] compresso) throws MsgException {
+        ByteBuffer in = ByteBuffer.wrap(compresso);
+        ByteBuffer out = ByteBuffer.allocate(lunghezzaOriginale(in));
+        decomprimi(in, out);
+        return out.array();
+    }
+
+    /**
+     * Decomprime il contenuto compreso tra posizione e limite di <code>in</code>, scrivendolo in <code>out</code> a partire dalla sua posizione.
+     * Entrambi i buffer possono essere di tipo <i>direct</i>.
+     * @param in il buffer contenente il contenuto compresso; la sua posizione non viene modificata
+     * @param out il buffer di destinazione, con almeno {@link #lunghezzaOriginale(ByteBuffer)} byte disponibili
+     * @return il numero di byte scritti in <code>out</code>
+     * @throws MsgException se il contenuto non è valido o lo spazio in <code>out</code> è insufficiente
+     */
+    public synchronized int decomprimi(ByteBuffer in, ByteBuffer out) throws MsgException {
+        int lunghezza = lunghezzaOriginale(in);
+        if(out.remaining() < lunghezza) throw new MsgException("Spazio insufficiente per la decompressione: richiesti " + lunghezza + " byte");
+
+        ByteBuffer compresso = in.duplicate();
+        compresso.position(compresso.position() + 1 + CodificaBinaria.dimVarint(lunghezza));
+        ByteBuffer destinazione = out.duplicate();
+        destinazione.limit(destinazione.position() + lunghezza);
+        try {
+            inflater.reset();
+            inflater.setDictionary(DIZIONARIO);
+            inflater.setInput(compresso);
+            int letti = inflater.inflate(destinazione);
+            if(letti != lunghezza || !inflater.finished()) throw new MsgException("Contenuto compresso incompleto o corrotto");
+            out.position(out.position() + letti);
+            return letti;
+        } catch (DataFormatException e) {
+            throw new MsgException("Errore nella decompressione: formato non valido", e);
+        }
+    }
+
+    /**
+     * Restituisce il rapporto tra dimensione compressa e originale dell'ultimo contenuto compresso
+     * @return il rapporto di compressione dell'ultimo contenuto
+     */
+    public synchronized double getUltimoRapporto() {
+        return ultimoRapporto;
+    }
+
+    /**
+     * Restituisce il rapporto medio tra dimensione compressa e originale dei contenuti compressi
+     * @return il rapporto medio di compressione, <code>1</code> se nessun contenuto è stato compresso
+     */
+    public synchronized double getRapportoMedio() {
+        return byteOriginali == 0 ? 1 : (double) byteCompressi / byteOriginali;
+    }
+
+    /**
+     * Restituisce le statistiche di compressione
+     * @return le statistiche di compressione
+     */
+    public synchronized String getStatistiche() {
+        return String.format("Compressione: %d contenuti compressi, %d non compressi, %d -> %d byte (rapporto medio %.2f)", contenutiCompressi, contenutiNonCompressi, byteOriginali, byteCompressi, getRapportoMedio());
+    }
+}
@@ -0,0 +1,149 @@
+package edu.avolta.tpsit.multicastudpsocketchat.comunicazione;
+
+import edu.avolta.tpsit.multicastudpsocketchat.eccezioni.MsgException;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * Conferma di lettura di più {@link Messaggio} dello stesso mittente, trasmessa come contenuto di un unico <code>acknowledge</code>.
+ * <p>
+ * Gli <code>ID</code> confermati sono rappresentati da una o più finestre, ciascuna composta dall'<code>ID</code> più alto e da una maschera di {@link #FINESTRA} bit:
+ * il bit <code>i</code> indica la conferma dell'<code>ID</code> <code>massimo - i</code>. Il contenuto ha la forma <code>A:massimo.maschera;massimo.maschera</code>, con la maschera in esadecimale.
+ * <p>
+ * Gli <code>ID</code> di un mittente sono condivisi tra tutti i suoi destinatari, per cui un destinatario non può confermare cumulativamente ogni <code>ID</code> fino a un certo valore:
+ * la finestra conferma soltanto gli <code>ID</code> effettivamente ricevuti. Un <code>acknowledge</code> singolo, il cui contenuto è il solo <code>ID</code> in decimale, resta valido.
+ *
+ * @author Matteo Bagnoletti Tini
+ * @version 1.0
+ * @project MulticastUDPSocketChat
+ * @see AccumulatoreConferme
+ * @see Cronologia#confermaDiLettura(Messaggio, edu.avolta.tpsit.multicastudpsocketchat.gestione.BusEventi)
+ */
+public final class ConfermaAggregata {
+
+    /**
+     * Prefisso del contenuto di una conferma aggregata
+     */
+    public static final String PREFISSO = "A:";
+
+    /**
+     * Ampiezza di ciascuna finestra, in numero di <code>ID</code>
+     */
+    public static final int FINESTRA = Long.SIZE;
+
+    /**
+     * Numero massimo di finestre accettate in ricezione
+     */
+    public static final int MAX_FINESTRE = 16;
+
+    /**
+     * Finestra di <code>ID</code> confermati
+     * @param massimo l'<code>ID</code> più alto della finestra
+     * @param maschera il bit <code>i</code> indica la conferma dell'<code>ID</code> <code>massimo - i</code>
+     */
+    private record Finestra(int massimo, long maschera) {}
+
+    private final List<Finestra> finestre;
+
+    private ConfermaAggregata(List<Finestra> finestre) {
+        this.finestre = finestre;
+    }
+
+    /**
+     * Crea la conferma degli <code>ID</code> indicati
+     * @param ids gli <code>ID</code> da confermare
+     * @return la conferma
+     */
+    public static ConfermaAggregata di(Collection<Integer> ids) {
+        TreeSet<Integer> rimanenti = new TreeSet<>(ids);
+        List<Finestra> finestre = new ArrayList<>();
+        while(!rimanenti.isEmpty()) {
+            int massimo = rimanenti.pollLast();
+            long maschera = 1;
+            Integer id;
+            while((id = rimanenti.floor(massimo - 1)) != null && massimo - id < FINESTRA) {
+                maschera |= 1L << (massimo - id);
+                rimanenti.remove(id);
+            }
+            finestre.add(new Finestra(massimo, maschera));
+        }
+        return new ConfermaAggregata(finestre);
+    }
+
+    /**
+     * Interpreta il contenuto di un <code>acknowledge</code>, sia aggregato sia singolo
+     * @param msg il contenuto dell'<code>acknowledge</code>
+     * @return la conferma
+     * @throws MsgException se il contenuto non è valido
+     */
+    public static ConfermaAggregata leggi(String msg) throws MsgException {
+        try {
+            if(!isAggregata(msg)) return new ConfermaAggregata(List.of(new Finestra(Integer.parseInt(msg), 1)));
+            String[] voci = msg.substring(PREFISSO.length()).split(";");
+            if(voci.length > MAX_FINESTRE) throw new MsgException("Conferma aggregata con troppe finestre: " + voci.length);
+            List<Finestra> finestre = new ArrayList<>(voci.length);
+            for(String voce : voci) {
+                int separatore = voce.indexOf('.');
+                if(separatore < 0) throw new MsgException("Finestra di conferma non valida: " + voce);
+                finestre.add(new Finestra(Integer.parseInt(voce.substring(0, separatore)), Long.parseUnsignedLong(voce.substring(separatore + 1), 16)));
+            }
+            return new ConfermaAggregata(finestre);
+        } catch (NumberFormatException e) {
+            throw new MsgException("Contenuto dell'acknowledge non valido: " + msg);
+        }
+    }
+
+    /**
+     * Verifica se il contenuto di un <code>acknowledge</code> è una conferma aggregata
+     * @param msg il contenuto dell'<code>acknowledge</code>
+     * @return <code>true</code> se il contenuto inizia con {@link #PREFISSO}
+     */
+    public static boolean isAggregata(String msg) {
+        return msg != null && msg.startsWith(PREFISSO);
+    }
+
+    /**
+     * Verifica se l'<code>ID</code> indicato è confermato
+     * @param id l'<code>ID</code> del messaggio
+     * @return <code>true</code> se l'<code>ID</code> è confermato, <code>false</code> altrimenti
+     */
+    public boolean contiene(int id) {
+        for(Finestra finestra : finestre) {
+            int distanza = finestra.massimo() - id;
+            if(distanza >= 0 && distanza < FINESTRA && (finestra.maschera() >>> distanza & 1) != 0) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Restituisce il numero di <code>ID</code> confermati
+     * @return il numero di <code>ID</code> confermati
+     */
+    public int getNumero() {
+        int numero = 0;
+        for(Finestra finestra : finestre) numero += Long.bitCount(finestra.maschera());
+        return numero;
+    }
+
+    /**
+     * Restituisce il contenuto dell'<code>acknowledge</code>: il solo <code>ID</code> in decimale per un'unica conferma, compatibile con le versioni precedenti del programma, altrimenti la forma aggregata
+     * @return il contenuto dell'<code>acknowledge</code>
+     */
+    public String testo() {
+        if(finestre.size() == 1 && finestre.getFirst().maschera() == 1) return String.valueOf(finestre.getFirst().massimo());
+        StringBuilder testo = new StringBuilder(PREFISSO);
+        for(Finestra finestra : finestre) {
+            if(testo.length() > PREFISSO.length()) testo.append(';');
+            testo.append(finestra.massimo()).append('.').append(Long.toHexString(finestra.maschera()));
+        }
+        return testo.toString();
+    }
+
+    @Override
+    public String toString() {
+        return testo();
+    }
+}
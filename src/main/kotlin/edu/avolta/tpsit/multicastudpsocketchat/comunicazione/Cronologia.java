@@ -1,12 +1,17 @@
 package edu.avolta.tpsit.multicastudpsocketchat.comunicazione;
 
-import edu.avolta.tpsit.chatterbox.ChatterBoxController;
+import edu.avolta.tpsit.multicastudpsocketchat.gestione.BusEventi;
+import edu.avolta.tpsit.multicastudpsocketchat.gestione.Evento;
 import edu.avolta.tpsit.multicastudpsocketchat.gestione.ChatLogger;
 import edu.avolta.tpsit.multicastudpsocketchat.gestione.ChatLoggerType;
+import edu.avolta.tpsit.multicastudpsocketchat.eccezioni.MsgException;
 import edu.avolta.tpsit.multicastudpsocketchat.eccezioni.NoSuchUserException;
 import edu.avolta.tpsit.multicastudpsocketchat.utenze.Utente;
 
+import java.net.InetSocketAddress;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
 
 /**
  * Cronologia dei messaggi inviati e ricevuti da un dato {@link edu.avolta.tpsit.multicastudpsocketchat.host.MulticastPeer}>
@@ -39,6 +44,11 @@ public class Cronologia {
      */
     private ArrayList<Integer> IDs;
 
+    /**
+     * L'ultimo numero di sequenza dei dati assegnato per ciascuna destinazione, si veda {@link #nuovaSequenzaDati(InetSocketAddress)}
+     */
+    private final HashMap<InetSocketAddress, Integer> sequenzeDati;
+
     /**
      * L'utente inizializzato di un {@link edu.avolta.tpsit.multicastudpsocketchat.host.MulticastPeer} in cui è utilizzata la {@link Cronologia}
      */
@@ -53,6 +63,7 @@ public class Cronologia {
         messaggiRicevuti = new ArrayList<>();
         messaggiInviati = new ArrayList<>();
         IDs = new ArrayList<>();
+        sequenzeDati = new HashMap<>();
         this.utente = utente;
     }
 
@@ -61,7 +72,7 @@ public class Cronologia {
      * @param messaggio il messaggio ricevuto
      */
     public synchronized void nuovoMessaggio(final Messaggio messaggio) throws NoSuchUserException {
-        if(!messaggio.getIDutente().equals(utente.getIDutente()) && !messaggio.getMsg().equals("DO-NOT-SHOW-THIS-MESSAGE")) {
+        if(!messaggio.isMittente(utente) && !messaggio.getMsg().equals("DO-NOT-SHOW-THIS-MESSAGE")) {
             messaggiRicevuti.add(messaggio);
             ChatLogger.log("(Cronologia) messaggio in ingresso memorizzato: " + messaggio.getMsg() + " da " + messaggio.getUsername() + " (" + messaggio.getIDutente() + ")", ChatLoggerType.OPTIONAL);
         } else {
@@ -81,28 +92,33 @@ public class Cronologia {
     }
 
     /**
-     * Ricevuto un {@link Messaggio} di <code>acknowledge</code> ricerca la corrispondenza tra l'<code>ID</code> contenuto nel corpo del <code>messaggio</code> e l'<code>ID</code> di ciascuno dei {@link #messaggiInviati}.
-     * Se la ricerca va a buon fine, il valore <code>contaACK</code> del <code>messaggio</code> viene incrementato con il metodo {@link Messaggio#ACK()}.
+     * Ricevuto un {@link Messaggio} di <code>acknowledge</code> ricerca la corrispondenza tra gli <code>ID</code> confermati nel corpo del <code>messaggio</code> e l'<code>ID</code> di ciascuno dei {@link #messaggiInviati}.
+     * Il corpo può contenere un singolo <code>ID</code> o una {@link ConfermaAggregata}: in entrambi i casi tutti i messaggi confermati vengono aggiornati in un'unica scansione.
+     * Per ciascuna corrispondenza il valore <code>contaACK</code> del <code>messaggio</code> viene incrementato con il metodo {@link Messaggio#ACK(Utente)}, una sola volta per ciascun utente che conferma.
      * 
      * @param messaggio il messaggio ACK ricevuto
+     * @param eventi il {@link BusEventi} su cui pubblicare il completamento delle conferme
+     * @return i messaggi inviati confermati per la prima volta dal mittente dell'ACK
+     * @throws MsgException se il corpo del messaggio non è una conferma valida
      */
-    public synchronized void confermaDiLettura(final Messaggio messaggio, ChatterBoxController controller) {
-        ChatLogger.log("(Cronologia) messaggio di ACK ricevuto: ricerca in corso per msgID " + messaggio.getMsg(), ChatLoggerType.OPTIONAL);
+    public synchronized List<Messaggio> confermaDiLettura(final Messaggio messaggio, BusEventi eventi) throws MsgException {
+        ConfermaAggregata conferma = ConfermaAggregata.leggi(messaggio.getMsg());
+        ChatLogger.log("(Cronologia) messaggio di ACK ricevuto: ricerca in corso per msgID " + conferma, ChatLoggerType.OPTIONAL);
+        List<Messaggio> confermati = new ArrayList<>();
+        int trovati = 0;
         for(Messaggio msgInviato : messaggiInviati){
-            if(msgInviato.getID() == Integer.parseInt(messaggio.getMsg())){
-                ChatLogger.log("(Cronologia) match msgID per ACK avvenuto", ChatLoggerType.OPTIONAL);
-                if(msgInviato.isInviatoCorrettamente() == 0) {
-                    msgInviato.ACK();
-                } 
+            if(trovati == conferma.getNumero()) break;
+            if(!conferma.contiene(msgInviato.getID())) continue;
+            trovati++;
+            if(msgInviato.isInviatoCorrettamente() == 0 && msgInviato.ACK(messaggio.getUtente())) {
+                confermati.add(msgInviato);
                 if(msgInviato.isInviatoCorrettamente() == 1 && msgInviato.getTargetACK() != 0) {
-                    try {
-                        controller.aggiornaIconaMsg(msgInviato.getTimestamp(), msgInviato.getID());
-                    } catch (NullPointerException | ClassCastException e) {
-                        ChatLogger.log("(Cronologia) Errore durante l'aggiornamento del icona del messaggio: " + e.getMessage(), ChatLoggerType.OPTIONAL);
-                    }
+                    eventi.pubblica(new Evento.AckCompletato(msgInviato.getID(), msgInviato.getTimestamp()));
                 }
             }
         }
+        ChatLogger.log("(Cronologia) " + trovati + " msgID confermati", ChatLoggerType.OPTIONAL);
+        return confermati;
     }
 
     /**
@@ -114,6 +130,18 @@ public class Cronologia {
         return IDs.getLast();
     }
 
+    /**
+     * Fornisce un nuovo numero di sequenza dei dati per un {@link Messaggio} di chat, di ingresso o di uscita dal gruppo, incrementando di <code>1</code> a ogni chiamata per la stessa destinazione.
+     * A differenza dell'<code>ID</code> non avanza con ACK, keepAlive e messaggi di controllo, così che la finestra del {@link FiltroDuplicati} copra soltanto i messaggi che possono essere ritrasmessi.
+     * <p>
+     * Ciascun destinatario unicast e il gruppo, identificato dal suo indirizzo, hanno una sequenza distinta: un destinatario riceve la sequenza del gruppo e la propria senza i numeri assegnati agli altri.
+     * @param destinazione l'indirizzo unicast del destinatario o l'indirizzo del gruppo
+     * @return il nuovo numero di sequenza dei dati
+     */
+    public synchronized int nuovaSequenzaDati(InetSocketAddress destinazione) {
+        return sequenzeDati.merge(destinazione, 1, Integer::sum);
+    }
+
     /**
      * Calcola le statistiche inerenti ai {@link #messaggiInviati}.
      * <p>
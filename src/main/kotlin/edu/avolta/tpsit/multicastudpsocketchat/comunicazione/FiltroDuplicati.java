@@ -0,0 +1,213 @@
+package edu.avolta.tpsit.multicastudpsocketchat.comunicazione;
+
+import edu.avolta.tpsit.multicastudpsocketchat.gestione.ChatLogger;
+import edu.avolta.tpsit.multicastudpsocketchat.gestione.ChatLoggerType;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Filtro dei {@link Messaggio} duplicati e ripetuti, basato sui numeri assegnati da ciascun mittente.
+ * <p>
+ * I messaggi che trasportano un numero di sequenza dei dati ({@link Cronologia#nuovaSequenzaDati(java.net.InetSocketAddress)}) vengono verificati su di esso ({@link #verificaDati(UUID, boolean, int, boolean)}),
+ * separatamente per i messaggi di gruppo e per quelli unicast, che il mittente numera con sequenze distinte;
+ * gli altri sull'<code>ID</code> assegnato con {@link Cronologia#getNewID()} ({@link #verifica(UUID, int, boolean)}).
+ * L'<code>ID</code> avanza anche con ACK, keepAlive e richieste di ritrasmissione: una finestra basata su di esso verrebbe superata prima che un messaggio di chat sia ritrasmesso.
+ * <p>
+ * Per ciascun mittente il filtro conserva, separatamente per ciascun tipo di numero, il valore più alto ricevuto e una finestra scorrevole di {@link #FINESTRA} bit, uno per ciascuno dei numeri precedenti:
+ * <ul>
+ *     <li>un numero più alto del massimo fa scorrere la finestra ed è {@link Esito#NUOVO}</li>
+ *     <li>un numero all'interno della finestra è nuovo solo se il relativo bit non è già impostato, altrimenti è un {@link Esito#DUPLICATO} (loop-back, ritrasmissione o duplicazione in rete)</li>
+ *     <li>un numero precedente alla finestra è una {@link Esito#RIPETIZIONE}, salvo che il messaggio sia ancora mancante per il {@link RilevatorePerdite}: in tal caso è una ritrasmissione richiesta ed è nuovo</li>
+ * </ul>
+ * Soltanto un duplicato è stato sicuramente ricevuto in precedenza: di una ripetizione non è noto se sia mai stata elaborata, per cui non va confermata.
+ * <p>
+ * Ogni verifica richiede un tempo costante e la memoria occupata è fissa per mittente. Il numero di mittenti conservati è limitato: al raggiungimento del limite viene rimosso il mittente inattivo da più tempo.
+ * <p>
+ * La verifica avviene prima di qualsiasi elaborazione del messaggio (cronologia, rubrica, interfaccia grafica e <code>acknowledge</code>).
+ *
+ * @author Matteo Bagnoletti Tini
+ * @version 1.0
+ * @project MulticastUDPSocketChat
+ */
+public class FiltroDuplicati {
+
+    /**
+     * Ampiezza della finestra scorrevole, in numero di messaggi
+     */
+    public static final int FINESTRA = Long.SIZE;
+
+    /**
+     * Numero massimo predefinito di mittenti conservati
+     */
+    public static final int MAX_MITTENTI_PREDEFINITO = 1024;
+
+    /**
+     * Esito della verifica di un messaggio
+     */
+    public enum Esito {
+        /** messaggio mai ricevuto, da elaborare */
+        NUOVO,
+        /** messaggio all'interno della finestra già ricevuto */
+        DUPLICATO,
+        /** messaggio precedente alla finestra, non più verificabile */
+        RIPETIZIONE
+    }
+
+    /**
+     * Finestra di un mittente
+     */
+    private static final class Finestra {
+        /** il numero più alto ricevuto */
+        private int massimo;
+        /** il bit <code>i</code> indica se il numero <code>massimo - i</code> è già stato ricevuto */
+        private long ricevuti;
+    }
+
+    private final int maxMittenti;
+
+    /**
+     * Finestre degli <code>ID</code> dei mittenti, in ordine di ultimo accesso
+     */
+    private final LinkedHashMap<UUID, Finestra> finestre;
+
+    /**
+     * Finestre dei numeri di sequenza dei dati dei messaggi di gruppo dei mittenti, in ordine di ultimo accesso
+     */
+    private final LinkedHashMap<UUID, Finestra> finestreGruppo;
+
+    /**
+     * Finestre dei numeri di sequenza dei dati dei messaggi unicast dei mittenti, in ordine di ultimo accesso
+     */
+    private final LinkedHashMap<UUID, Finestra> finestreUnicast;
+
+    /* statistiche */
+    private long accettati;
+    private long duplicati;
+    private long ripetizioni;
+    private long recuperati;
+
+    /**
+     * Crea un <code>filtro</code> con il numero massimo predefinito di mittenti
+     */
+    public FiltroDuplicati() {
+        this(MAX_MITTENTI_PREDEFINITO);
+    }
+
+    /**
+     * Crea un <code>filtro</code>
+     * @param maxMittenti il numero massimo di mittenti conservati
+     * @throws IllegalArgumentException se il numero massimo di mittenti non è positivo
+     */
+    public FiltroDuplicati(final int maxMittenti) throws IllegalArgumentException {
+        if(maxMittenti <= 0) throw new IllegalArgumentException("Numero massimo di mittenti non valido: " + maxMittenti);
+        this.maxMittenti = maxMittenti;
+        this.finestre = nuoveFinestre();
+        this.finestreGruppo = nuoveFinestre();
+        this.finestreUnicast = nuoveFinestre();
+    }
+
+    /**
+     * Verifica un messaggio privo di numero di sequenza dei dati attraverso il suo <code>ID</code> e, se nuovo, lo registra
+     * @param mittente l'identificativo univoco del mittente
+     * @param id l'<code>ID</code> del messaggio
+     * @param mancante se <code>true</code> il messaggio è ancora atteso dal {@link RilevatorePerdite} e viene accettato anche se precedente alla finestra
+     * @return l'esito della verifica
+     */
+    public synchronized Esito verifica(UUID mittente, int id, boolean mancante) {
+        return verifica(finestre, mittente, id, mancante, "messaggio");
+    }
+
+    /**
+     * Verifica un messaggio attraverso il suo numero di sequenza dei dati e, se nuovo, lo registra
+     * @param mittente l'identificativo univoco del mittente
+     * @param gruppo se <code>true</code> il messaggio è di gruppo, altrimenti unicast
+     * @param sequenzaDati il numero di sequenza dei dati del messaggio
+     * @param mancante se <code>true</code> il messaggio è ancora atteso dal {@link RilevatorePerdite} e viene accettato anche se precedente alla finestra
+     * @return l'esito della verifica
+     */
+    public synchronized Esito verificaDati(UUID mittente, boolean gruppo, int sequenzaDati, boolean mancante) {
+        return verifica(gruppo ? finestreGruppo : finestreUnicast, mittente, sequenzaDati, mancante, gruppo ? "dato di gruppo" : "dato unicast");
+    }
+
+    /**
+     * Verifica un numero sulla finestra del mittente e, se nuovo, lo registra
+     * @param finestre le finestre dei mittenti per il tipo di numero
+     * @param mittente l'identificativo univoco del mittente
+     * @param numero il numero del messaggio
+     * @param mancante se <code>true</code> un numero precedente alla finestra viene accettato
+     * @param tipo il tipo di numero, per il log
+     * @return l'esito della verifica
+     */
+    private Esito verifica(LinkedHashMap<UUID, Finestra> finestre, UUID mittente, int numero, boolean mancante, String tipo) {
+        Finestra finestra = finestre.get(mittente);
+        if(finestra == null) {
+            finestra = new Finestra();
+            finestra.massimo = numero;
+            finestra.ricevuti = 1;
+            finestre.put(mittente, finestra);
+            accettati++;
+            return Esito.NUOVO;
+        }
+
+        int distanza = finestra.massimo - numero;
+        if(distanza < 0) {
+            /* numero più recente: la finestra scorre, i bit oltre l'ampiezza vengono persi */
+            finestra.ricevuti = -distanza >= FINESTRA ? 1 : (finestra.ricevuti << -distanza) | 1;
+            finestra.massimo = numero;
+            accettati++;
+            return Esito.NUOVO;
+        }
+        if(distanza >= FINESTRA) {
+            if(mancante) {
+                /* ritrasmissione di un messaggio richiesto, giunta dopo che la finestra lo ha superato */
+                recuperati++;
+                accettati++;
+                ChatLogger.log("(Filtro) " + tipo + " " + numero + " di " + mittente + " precedente alla finestra ma mancante: accettato", ChatLoggerType.OPTIONAL);
+                return Esito.NUOVO;
+            }
+            ripetizioni++;
+            ChatLogger.log("(Filtro) " + tipo + " " + numero + " di " + mittente + " precedente alla finestra: scartato", ChatLoggerType.OPTIONAL);
+            return Esito.RIPETIZIONE;
+        }
+        long bit = 1L << distanza;
+        if((finestra.ricevuti & bit) != 0) {
+            duplicati++;
+            ChatLogger.log("(Filtro) " + tipo + " " + numero + " di " + mittente + " duplicato: scartato", ChatLoggerType.OPTIONAL);
+            return Esito.DUPLICATO;
+        }
+        finestra.ricevuti |= bit;
+        accettati++;
+        return Esito.NUOVO;
+    }
+
+    /**
+     * Restituisce il numero di messaggi scartati, duplicati o ripetuti
+     * @return il numero di messaggi scartati
+     */
+    public synchronized long getScartati() {
+        return duplicati + ripetizioni;
+    }
+
+    /**
+     * Restituisce le statistiche del filtro
+     * @return le statistiche del filtro
+     */
+    public synchronized String getStatistiche() {
+        return "Filtro duplicati: " + accettati + " messaggi accettati (" + recuperati + " mancanti precedenti alla finestra), " + duplicati + " duplicati e " + ripetizioni + " ripetizioni scartati, " + Math.max(finestre.size(), Math.max(finestreGruppo.size(), finestreUnicast.size())) + " mittenti";
+    }
+
+    /**
+     * Crea la mappa delle finestre dei mittenti, limitata a {@link #maxMittenti} in ordine di ultimo accesso
+     * @return la mappa delle finestre
+     */
+    private LinkedHashMap<UUID, Finestra> nuoveFinestre() {
+        return new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<UUID, Finestra> eldest) {
+                return size() > maxMittenti;
+            }
+        };
+    }
+}
@@ -0,0 +1,24 @@
+package edu.avolta.tpsit.multicastudpsocketchat.comunicazione;
+
+/**
+ * Formato con cui un {@link Messaggio} viene convertito in un array di byte prima di essere cifrato e trasmesso.
+ * <p>
+ * In ricezione il formato viene riconosciuto automaticamente: la scelta riguarda esclusivamente l'invio e permette a gruppi con versioni miste del programma di continuare a comunicare.
+ *
+ * @author Matteo Bagnoletti Tini
+ * @version 1.0
+ * @project MulticastUDPSocketChat
+ * @see Messaggio#configMsg(Messaggio, FormatoMessaggio)
+ */
+public enum FormatoMessaggio {
+
+    /**
+     * Serializzazione Java standard ({@link java.io.ObjectOutputStream}). Compatibile con le versioni precedenti del programma.
+     */
+    SERIALIZZATO,
+
+    /**
+     * Formato binario compatto e versionato gestito da {@link CodificaBinaria}
+     */
+    BINARIO
+}
@@ -0,0 +1,124 @@
+package edu.avolta.tpsit.multicastudpsocketchat.comunicazione;
+
+import edu.avolta.tpsit.multicastudpsocketchat.eccezioni.MsgException;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Porzione numerata di un contenuto troppo grande per essere trasmesso in un unico datagramma.
+ * <p>
+ * Struttura di ciascun <code>frammento</code>:
+ * <pre>
+ * +-------+----+--------+--------+------------------------+
+ * | MAGIC | ID | indice | totale | porzione del contenuto |
+ * +-------+----+--------+--------+------------------------+
+ * </pre>
+ * <code>ID</code>, <code>indice</code> e <code>totale</code> sono codificati come varint. L'<code>ID</code> accomuna i frammenti dello stesso contenuto ed è univoco per mittente.
+ * I frammenti vengono ricomposti in ricezione dal {@link Riassemblatore}.
+ *
+ * @param id l'identificativo comune ai frammenti dello stesso contenuto
+ * @param indice la posizione del <code>frammento</code>, a partire da <code>0</code>
+ * @param totale il numero complessivo di frammenti
+ * @param porzione la porzione del contenuto, tra posizione e limite del buffer
+ *
+ * @author Matteo Bagnoletti Tini
+ * @version 1.0
+ * @project MulticastUDPSocketChat
+ */
+public record Frammento(int id, int indice, int totale, ByteBuffer porzione) {
+
+    /**
+     * Primo byte di ogni <code>frammento</code>
+     */
+    public static final byte MAGIC = (byte) 0xCE;
+
+    /**
+     * Dimensione massima dell'intestazione di un <code>frammento</code>
+     */
+    public static final int DIM_INTESTAZIONE = 1 + 5 + 2 + 2;
+
+    /**
+     * Numero massimo di frammenti per contenuto
+     */
+    public static final int MAX_FRAMMENTI = 64;
+
+    /**
+     * Verifica se l'array di byte fornito contiene un <code>frammento</code>
+     * @param arrayInput l'array di byte da verificare
+     * @return <code>true</code> se il primo byte corrisponde a {@link #MAGIC}, <code>false</code> altrimenti
+     */
+    public static boolean isFrammento(byte[] arrayInput) {
+        return arrayInput != null && arrayInput.length > 0 && arrayInput[0] == MAGIC;
+    }
+
+    /**
+     * Verifica se il buffer fornito contiene, a partire dalla sua posizione, un <code>frammento</code>
+     * @param in il buffer da verificare
+     * @return <code>true</code> se il primo byte corrisponde a {@link #MAGIC}, <code>false</code> altrimenti
+     */
+    public static boolean isFrammento(ByteBuffer in) {
+        return in != null && in.hasRemaining() && in.get(in.position()) == MAGIC;
+    }
+
+    /**
+     * Divide un contenuto in frammenti ciascuno non più grande della capacità indicata
+     * @param contenuto il contenuto da dividere
+     * @param id l'identificativo comune ai frammenti
+     * @param capacita la dimensione massima in byte di ciascun <code>frammento</code>, intestazione compresa
+     * @return i frammenti codificati, nell'ordine
+     * @throws MsgException se il contenuto richiede più di {@link #MAX_FRAMMENTI} frammenti o la capacità non è sufficiente
+     */
+    public static List<byte[]> dividi(byte[] contenuto, int id, int capacita) throws MsgException {
+        int porzione = capacita - DIM_INTESTAZIONE;
+        if(porzione <= 0) throw new MsgException("Capacità insufficiente per la frammentazione: " + capacita);
+        int totale = (contenuto.length + porzione - 1) / porzione;
+        if(totale > MAX_FRAMMENTI) throw new MsgException("Messaggio troppo grande: " + contenuto.length + " byte");
+
+        List<byte[]> frammenti = new ArrayList<>(totale);
+        for(int indice = 0; indice < totale; indice++) {
+            int inizio = indice * porzione;
+            int lunghezza = Math.min(porzione, contenuto.length - inizio);
+            ByteBuffer out = ByteBuffer.allocate(1 + CodificaBinaria.dimVarint(id) + CodificaBinaria.dimVarint(indice) + CodificaBinaria.dimVarint(totale) + lunghezza);
+            out.put(MAGIC);
+            CodificaBinaria.scriviVarint(out, id);
+            CodificaBinaria.scriviVarint(out, indice);
+            CodificaBinaria.scriviVarint(out, totale);
+            out.put(contenuto, inizio, lunghezza);
+            frammenti.add(out.array());
+        }
+        return frammenti;
+    }
+
+    /**
+     * Legge l'intestazione di un <code>frammento</code> ricevuto, senza copiarne il contenuto
+     * @param arrayInput l'array di byte contenente il <code>frammento</code>
+     * @return il <code>frammento</code> letto
+     * @throws MsgException se il <code>frammento</code> non è valido
+     */
+    public static Frammento leggi(byte[] arrayInput) throws MsgException {
+        return leggi(ByteBuffer.wrap(arrayInput));
+    }
+
+    /**
+     * Legge l'intestazione di un <code>frammento</code> compreso tra posizione e limite del buffer, senza copiarne il contenuto né modificare la posizione del buffer
+     * @param buffer il buffer contenente il <code>frammento</code>
+     * @return il <code>frammento</code> letto, la cui porzione condivide il contenuto del buffer
+     * @throws MsgException se il <code>frammento</code> non è valido
+     */
+    public static Frammento leggi(ByteBuffer buffer) throws MsgException {
+        ByteBuffer in = buffer.duplicate();
+        try {
+            if(in.get() != MAGIC) throw new MsgException("Formato frammento non riconosciuto");
+            int id = CodificaBinaria.leggiVarint(in);
+            int indice = CodificaBinaria.leggiVarint(in);
+            int totale = CodificaBinaria.leggiVarint(in);
+            if(totale <= 0 || totale > MAX_FRAMMENTI || indice < 0 || indice >= totale) throw new MsgException("Numerazione del frammento non valida: " + indice + "/" + totale);
+            return new Frammento(id, indice, totale, in.slice());
+        } catch (BufferUnderflowException e) {
+            throw new MsgException("Errore nella lettura del frammento: formato non valido", e);
+        }
+    }
+}
@@ -9,6 +9,8 @@ import edu.avolta.tpsit.multicastudpsocketchat.utenze.Utente;
 import java.io.*;
 import java.time.LocalTime;
 import java.time.format.DateTimeFormatter;
+import java.util.HashSet;
+import java.util.Set;
 
 /**
  * Generico messaggio scambiato in una comunicazione di rete tra end-point {@link edu.avolta.tpsit.multicastudpsocketchat.host.MulticastPeer}.
@@ -64,6 +66,12 @@ public class Messaggio implements Serializable {
      */
     private int contaACK;
 
+    /**
+     * Gli utenti che hanno già confermato il messaggio, in modo che le conferme ripetute (ad esempio dopo una ritrasmissione) vengano contate una sola volta.
+     * Non viene trasmesso in rete.
+     */
+    private transient Set<Utente> confermatoDa;
+
     /**
      * Il numero di ACK attesi
      */
@@ -78,6 +86,20 @@ public class Messaggio implements Serializable {
      * L'orario esatto in cui il messaggio è stato generato
      */
     private final LocalTime timestamp;
+
+    /**
+     * Il numero di sequenza di gruppo del mittente, <code>0</code> se assente.
+     * Nei messaggi di gruppo è il numero del messaggio stesso; nei keepAlive è l'ultimo numero assegnato dal mittente.
+     * @see RilevatorePerdite
+     */
+    private int sequenza;
+
+    /**
+     * Il numero di sequenza dei messaggi di dati del mittente, <code>0</code> se assente.
+     * È comune a unicast e gruppo e non avanza con ACK, keepAlive e messaggi di controllo, così che i duplicati siano riconosciuti anche a distanza di molti messaggi.
+     * @see FiltroDuplicati
+     */
+    private int sequenzaDati;
     
     /**
      * Crea un'istanza di {@link Messaggio}
@@ -138,6 +160,32 @@ public class Messaggio implements Serializable {
         }
     }
 
+    /**
+     * Ricostruisce un'istanza di {@link Messaggio} ricevuta in rete, mantenendo l'orario di generazione originale
+     * @param ID l'identificativo univoco incrementale del messaggio
+     * @param utente il mittente del messaggio
+     * @param portaMittente il numero di porta su cui il mittente è in ascolto per eventuali datagrammi unicast
+     * @param isACK indica se il messaggio è un ACK
+     * @param targetACK il numero di ACK attesi
+     * @param msg il contenuto del messaggio
+     * @param isDaGruppo indica se il messaggio proviene da {@link edu.avolta.tpsit.multicastudpsocketchat.host.GroupChat}
+     * @param protocollo il {@link Protocollo} utilizzato per l'invio e la ricezione del <code>messaggio</code>
+     * @param timestamp l'orario in cui il messaggio è stato generato dal mittente
+     * @see CodificaBinaria#decodifica(byte[])
+     */
+    Messaggio(final int ID, final Utente utente, final int portaMittente, final boolean isACK, final int targetACK, final String msg, final boolean isDaGruppo, final Enum<?> protocollo, final LocalTime timestamp) {
+        this.ID = ID;
+        this.utente = utente;
+        this.portaMittente = portaMittente;
+        this.ACK = isACK;
+        this.targetACK = targetACK;
+        this.contaACK = 0;
+        this.msg = msg;
+        this.msgGruppo = isDaGruppo;
+        this.protocollo = protocollo;
+        this.timestamp = timestamp;
+    }
+
     /**
      * Restituisce l'{@link #ID} univoco incrementale del <code>messaggio</code>
      * @return l'{@link #ID} univoco incrementale del <code>messaggio</code>
@@ -222,6 +270,17 @@ public class Messaggio implements Serializable {
         return utente.getIDutente();
     }
 
+    /**
+     * Verifica se il <code>messaggio</code> è stato generato dall'{@link Utente} indicato, confrontandone l'identificativo binario
+     * @param utente l'utente da confrontare
+     * @return <code>true</code> se l'utente è il mittente del messaggio, <code>false</code> altrimenti
+     * @throws NoSuchUserException se l'utente non è inizializzato
+     */
+    public boolean isMittente(Utente utente) throws NoSuchUserException {
+        if(this.utente == null) throw new NoSuchUserException("Utente non inizializzato");
+        return this.utente.equals(utente);
+    }
+
     /**
      * Verifica della ricezione degli ACK richiesti
      * @return true se sono stati ottenuti tutti gli ACK richiesti
@@ -246,6 +305,46 @@ public class Messaggio implements Serializable {
         return this.timestamp.format(DateTimeFormatter.ofPattern("HH:mm"));
     }
     
+    /**
+     * Restituisce l'orario esatto in cui il <code>messaggio</code> è stato generato, non formattato
+     * @return l'orario di generazione del <code>messaggio</code>
+     */
+    LocalTime getOrario() {
+        return this.timestamp;
+    }
+
+    /**
+     * Restituisce il numero di sequenza di gruppo del <code>messaggio</code>
+     * @return il numero di sequenza, <code>0</code> se il <code>messaggio</code> non ne trasporta uno
+     */
+    public int getSequenza() {
+        return sequenza;
+    }
+
+    /**
+     * Imposta il numero di sequenza di gruppo del <code>messaggio</code>, trasmesso soltanto nel formato {@link FormatoMessaggio#BINARIO}
+     * @param sequenza il numero di sequenza, <code>0</code> per nessuno
+     */
+    public void setSequenza(int sequenza) {
+        this.sequenza = sequenza;
+    }
+
+    /**
+     * Restituisce il numero di sequenza dei dati del <code>messaggio</code>
+     * @return il numero di sequenza dei dati, <code>0</code> se il <code>messaggio</code> non ne trasporta uno
+     */
+    public int getSequenzaDati() {
+        return sequenzaDati;
+    }
+
+    /**
+     * Imposta il numero di sequenza dei dati del <code>messaggio</code>
+     * @param sequenzaDati il numero di sequenza dei dati, <code>0</code> per nessuno
+     */
+    public void setSequenzaDati(int sequenzaDati) {
+        this.sequenzaDati = sequenzaDati;
+    }
+
     /**
      * Aumenta il contatore di ACK ricevuti fino al valore atteso, {@link #targetACK}.
      * @see #contaACK
@@ -254,6 +353,19 @@ public class Messaggio implements Serializable {
     public void ACK() {
         this.contaACK += 1;
     }
+
+    /**
+     * Aumenta il contatore di ACK ricevuti soltanto alla prima conferma dell'utente indicato
+     * @param utente l'utente che ha confermato il messaggio
+     * @return <code>true</code> se la conferma è stata contata, <code>false</code> se l'utente aveva già confermato il messaggio
+     * @see #ACK()
+     */
+    public boolean ACK(Utente utente) {
+        if(confermatoDa == null) confermatoDa = new HashSet<>();
+        if(!confermatoDa.add(utente)) return false;
+        ACK();
+        return true;
+    }
     
     /**
      * Restituisce il contenuto formattato del <code>messaggio</code>
@@ -265,7 +377,7 @@ public class Messaggio implements Serializable {
         if(utente == null) throw new NoSuchUserException("Utente non inizializzato");
 
         String msg = "";
-        String aliasMittente = rubrica.ottieniAliasDaUUID(utente.getIDutente());
+        String aliasMittente = rubrica.ottieniAlias(utente);
         if(isMsgGruppo()){
             msg += "[" + getTimestamp() + "]\033[1;36m " + aliasMittente + " (gruppo)\033[0m: " + this.msg;
         } else {
@@ -279,7 +391,7 @@ public class Messaggio implements Serializable {
         if(utente == null) throw new NoSuchUserException("Utente non inizializzato");
 
         String msg = "";
-        String aliasMittente = rubrica.ottieniAliasDaUUID(utente.getIDutente());
+        String aliasMittente = rubrica.ottieniAlias(utente);
         if(isMsgGruppo()){
             msg += aliasMittente + ":" + this.msg;
         } else {
@@ -290,13 +402,27 @@ public class Messaggio implements Serializable {
     }
 
     /**
-     * Serializza il <code>messaggio</code> fornito
-     * @param messaggio il messaggio da serializzare
-     * @return l'array di byte del messaggio serializzato
-     * @throws MsgException se si verifica un problema durante la serializzazione o se il <code>messaggio</code> fornito è <code>null</code>
+     * Converte il <code>messaggio</code> fornito in un array di byte nel formato {@link FormatoMessaggio#BINARIO}
+     * @param messaggio il messaggio da convertire
+     * @return l'array di byte del messaggio codificato
+     * @throws MsgException se si verifica un problema durante la codifica o se il <code>messaggio</code> fornito è <code>null</code>
+     * @see #configMsg(Messaggio, FormatoMessaggio)
      */
     public static byte[] configMsg(Messaggio messaggio) throws MsgException {
+        return configMsg(messaggio, FormatoMessaggio.BINARIO);
+    }
+
+    /**
+     * Converte il <code>messaggio</code> fornito in un array di byte nel formato richiesto
+     * @param messaggio il messaggio da convertire
+     * @param formato il {@link FormatoMessaggio} da utilizzare
+     * @return l'array di byte del messaggio codificato
+     * @throws MsgException se si verifica un problema durante la codifica o se il <code>messaggio</code> fornito è <code>null</code>
+     */
+    public static byte[] configMsg(Messaggio messaggio, FormatoMessaggio formato) throws MsgException {
         if(messaggio == null) throw new MsgException("Impossibile serializzare un messaggio nullo");
+        if(formato == FormatoMessaggio.BINARIO) return CodificaBinaria.codifica(messaggio);
+        
         try (ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
              ObjectOutputStream objectOutputStream = new ObjectOutputStream(byteArrayOutputStream)) {
             objectOutputStream.writeObject(messaggio);
@@ -308,12 +434,16 @@ public class Messaggio implements Serializable {
     }
 
     /**
-     * Restituisce il messaggio ricevuto a partire da un array di byte serializzato
-     * @param arrayInput l'array di byte che rappresenta un <code>messaggio</code> serializzato
+     * Restituisce il messaggio ricevuto a partire da un array di byte.
+     * <p>
+     * Il formato viene riconosciuto automaticamente: sono accettati sia i messaggi in formato {@link FormatoMessaggio#BINARIO} sia quelli serializzati dalle versioni precedenti del programma.
+     * @param arrayInput l'array di byte che rappresenta un <code>messaggio</code> codificato
      * @return il messaggio originale
-     * @throws MsgException se si verifica un problema durante la serializzazione
+     * @throws MsgException se si verifica un problema durante la decodifica
      */
     public static Messaggio configMsg(byte[] arrayInput) throws MsgException {
+        if(CodificaBinaria.isBinario(arrayInput)) return CodificaBinaria.decodifica(arrayInput);
+        
         try (ByteArrayInputStream byteArrayInputStream = new ByteArrayInputStream(arrayInput);
              ObjectInputStream objectInputStream = new ObjectInputStream(byteArrayInputStream)) {
             return (Messaggio) objectInputStream.readObject();
@@ -0,0 +1,209 @@
+package edu.avolta.tpsit.multicastudpsocketchat.comunicazione;
+
+import edu.avolta.tpsit.multicastudpsocketchat.eccezioni.MsgException;
+import edu.avolta.tpsit.multicastudpsocketchat.gestione.ChatLogger;
+import edu.avolta.tpsit.multicastudpsocketchat.gestione.ChatLoggerType;
+
+import java.net.InetSocketAddress;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Tabella di riassemblaggio dei {@link Frammento} ricevuti.
+ * <p>
+ * I frammenti vengono raggruppati per mittente e identificativo; il contenuto originale viene restituito non appena tutti i frammenti sono stati ricevuti, in qualsiasi ordine.
+ * La tabella è limitata sia nel numero di contenuti in attesa sia nella memoria occupata: i contenuti incompleti scadono dopo il timeout e, al raggiungimento dei limiti, vengono scartati a partire dal più vecchio.
+ * In questo modo un flusso di frammenti incompleti non può esaurire la memoria disponibile.
+ *
+ * @author Matteo Bagnoletti Tini
+ * @version 1.0
+ * @project MulticastUDPSocketChat
+ * @see Frammento
+ */
+public class Riassemblatore {
+
+    /**
+     * Numero massimo predefinito di contenuti in attesa di riassemblaggio
+     */
+    public static final int MAX_CONTENUTI_PREDEFINITO = 32;
+
+    /**
+     * Memoria massima predefinita, in byte, occupata dai frammenti in attesa
+     */
+    public static final int MAX_BYTE_PREDEFINITO = 1 << 20;
+
+    /**
+     * Tempo massimo predefinito, in millisecondi, per la ricezione di tutti i frammenti di un contenuto
+     */
+    public static final long TIMEOUT_PREDEFINITO = 10000;
+
+    /**
+     * Chiave di un contenuto in attesa: mittente e identificativo dei frammenti
+     */
+    private record Chiave(InetSocketAddress sorgente, int id) {}
+
+    /**
+     * Contenuto in attesa di riassemblaggio
+     */
+    private static final class Attesa {
+        private final byte[][] parti;
+        private final long creazione;
+        private int ricevute;
+        private int dimensione;
+
+        private Attesa(int totale, long creazione) {
+            this.parti = new byte[totale][];
+            this.creazione = creazione;
+        }
+    }
+
+    private final int maxContenuti;
+
+    private final int maxByte;
+
+    private final long timeout;
+
+    /**
+     * Contenuti in attesa, in ordine di creazione
+     */
+    private final LinkedHashMap<Chiave, Attesa> inAttesa = new LinkedHashMap<>();
+
+    /**
+     * Memoria complessiva occupata dai frammenti in attesa
+     */
+    private int byteInAttesa;
+
+    /* statistiche */
+    private long completati;
+    private long scartati;
+
+    /**
+     * Crea un <code>riassemblatore</code> con i limiti predefiniti
+     */
+    public Riassemblatore() {
+        this(MAX_CONTENUTI_PREDEFINITO, MAX_BYTE_PREDEFINITO, TIMEOUT_PREDEFINITO);
+    }
+
+    /**
+     * Crea un <code>riassemblatore</code>
+     * @param maxContenuti il numero massimo di contenuti in attesa
+     * @param maxByte la memoria massima in byte occupata dai frammenti in attesa
+     * @param timeout il tempo massimo in millisecondi per la ricezione di tutti i frammenti di un contenuto
+     * @throws IllegalArgumentException se uno dei limiti non è positivo
+     */
+    public Riassemblatore(final int maxContenuti, final int maxByte, final long timeout) throws IllegalArgumentException {
+        if(maxContenuti <= 0 || maxByte <= 0 || timeout <= 0) throw new IllegalArgumentException("Limiti del riassemblatore non validi");
+        this.maxContenuti = maxContenuti;
+        this.maxByte = maxByte;
+        this.timeout = timeout;
+    }
+
+    /**
+     * Aggiunge un <code>frammento</code> ricevuto alla tabella
+     * @param sorgente l'indirizzo da cui è stato ricevuto il <code>frammento</code>
+     * @param frammento il <code>frammento</code> ricevuto
+     * @return il contenuto originale se il <code>frammento</code> lo completa, <code>null</code> altrimenti
+     * @throws MsgException se il <code>frammento</code> non è coerente con quelli già ricevuti
+     */
+    public synchronized byte[] aggiungi(InetSocketAddress sorgente, Frammento frammento) throws MsgException {
+        long adesso = System.currentTimeMillis();
+        rimuoviScaduti(adesso);
+
+        Chiave chiave = new Chiave(sorgente, frammento.id());
+        Attesa attesa = inAttesa.get(chiave);
+        if(attesa == null) {
+            if(frammento.porzione().remaining() > maxByte) throw new MsgException("Frammento troppo grande: " + frammento.porzione().remaining() + " byte");
+            attesa = new Attesa(frammento.totale(), adesso);
+            inAttesa.put(chiave, attesa);
+        } else if(attesa.parti.length != frammento.totale()) {
+            rimuovi(chiave, attesa);
+            throw new MsgException("Numero di frammenti incoerente per il contenuto " + frammento.id());
+        }
+
+        /* frammento duplicato */
+        if(attesa.parti[frammento.indice()] != null) return null;
+
+        /* la porzione viene copiata: il buffer del datagramma può essere riutilizzato dopo la chiamata */
+        byte[] parte = new byte[frammento.porzione().remaining()];
+        frammento.porzione().get(frammento.porzione().position(), parte);
+        attesa.parti[frammento.indice()] = parte;
+        attesa.ricevute++;
+        attesa.dimensione += parte.length;
+        byteInAttesa += parte.length;
+
+        if(attesa.ricevute == attesa.parti.length) {
+            rimuovi(chiave, attesa);
+            completati++;
+            byte[] contenuto = new byte[attesa.dimensione];
+            int posizione = 0;
+            for(byte[] p : attesa.parti) {
+                System.arraycopy(p, 0, contenuto, posizione, p.length);
+                posizione += p.length;
+            }
+            return contenuto;
+        }
+
+        rispettaLimiti(chiave);
+        return null;
+    }
+
+    /**
+     * Restituisce il numero di contenuti in attesa di riassemblaggio
+     * @return il numero di contenuti in attesa
+     */
+    public synchronized int getContenutiInAttesa() {
+        return inAttesa.size();
+    }
+
+    /**
+     * Restituisce le statistiche di riassemblaggio
+     * @return le statistiche di riassemblaggio
+     */
+    public synchronized String getStatistiche() {
+        return "Riassemblaggio: " + completati + " contenuti completati, " + scartati + " scartati, " + inAttesa.size() + " in attesa (" + byteInAttesa + " byte)";
+    }
+
+    /**
+     * Scarta i contenuti incompleti il cui timeout è scaduto
+     * @param adesso l'istante corrente in millisecondi
+     */
+    private void rimuoviScaduti(long adesso) {
+        Iterator<Attesa> iteratore = inAttesa.values().iterator();
+        while(iteratore.hasNext()) {
+            Attesa attesa = iteratore.next();
+            /* i contenuti sono in ordine di creazione: il primo non scaduto interrompe la ricerca */
+            if(adesso - attesa.creazione < timeout) break;
+            iteratore.remove();
+            byteInAttesa -= attesa.dimensione;
+            scartati++;
+            ChatLogger.log("(Riassemblaggio) contenuto incompleto scaduto: " + attesa.ricevute + "/" + attesa.parti.length + " frammenti", ChatLoggerType.OPTIONAL);
+        }
+    }
+
+    /**
+     * Scarta i contenuti più vecchi finché numero e memoria occupata non rientrano nei limiti
+     * @param corrente la chiave del contenuto appena aggiornato, scartato per ultimo
+     */
+    private void rispettaLimiti(Chiave corrente) {
+        Iterator<Map.Entry<Chiave, Attesa>> iteratore = inAttesa.entrySet().iterator();
+        while((inAttesa.size() > maxContenuti || byteInAttesa > maxByte) && iteratore.hasNext()) {
+            Map.Entry<Chiave, Attesa> voce = iteratore.next();
+            if(voce.getKey().equals(corrente) && inAttesa.size() > 1) continue;
+            iteratore.remove();
+            byteInAttesa -= voce.getValue().dimensione;
+            scartati++;
+            ChatLogger.log("(Riassemblaggio) limite raggiunto: scartato il contenuto " + voce.getKey().id() + " di " + voce.getKey().sorgente(), ChatLoggerType.OPTIONAL);
+        }
+    }
+
+    /**
+     * Rimuove un contenuto dalla tabella
+     * @param chiave la chiave del contenuto
+     * @param attesa il contenuto
+     */
+    private void rimuovi(Chiave chiave, Attesa attesa) {
+        inAttesa.remove(chiave);
+        byteInAttesa -= attesa.dimensione;
+    }
+}
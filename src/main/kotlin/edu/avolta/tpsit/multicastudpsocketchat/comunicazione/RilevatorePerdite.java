@@ -0,0 +1,333 @@
+package edu.avolta.tpsit.multicastudpsocketchat.comunicazione;
+
+import edu.avolta.tpsit.multicastudpsocketchat.eccezioni.MsgException;
+import edu.avolta.tpsit.multicastudpsocketchat.gestione.ChatLogger;
+import edu.avolta.tpsit.multicastudpsocketchat.gestione.ChatLoggerType;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rilevatore dei messaggi di gruppo mancanti, basato sui numeri di sequenza assegnati da ciascun mittente con {@link StoricoGruppo#nuovaSequenza()}.
+ * <p>
+ * Nel multicast affidabile i destinatari non confermano i messaggi di gruppo ricevuti: segnalano al mittente soltanto quelli mancanti (<code>negative acknowledge</code>), che vengono ritrasmessi dallo {@link StoricoGruppo}.
+ * Per ciascun mittente il rilevatore conserva il numero di sequenza più alto noto e l'insieme dei numeri mancanti:
+ * <ul>
+ *     <li>un messaggio con numero più alto del massimo rende mancanti tutti i numeri intermedi, richiesti subito al mittente</li>
+ *     <li>il keepAlive periodico annuncia l'ultimo numero assegnato dal mittente, rivelando anche la perdita degli ultimi messaggi: i numeri annunciati vengono richiesti soltanto dopo {@link #INTERVALLO_SOLLECITO},
+ *     perché il keepAlive, trasmesso con {@link edu.avolta.tpsit.multicastudpsocketchat.host.Priorita#CONTROLLO priorità di controllo}, può precedere i messaggi che annuncia</li>
+ *     <li>i numeri ancora mancanti vengono richiesti nuovamente ogni {@link #INTERVALLO_SOLLECITO} millisecondi, fino a {@link #TENTATIVI_MASSIMI} volte, dopo le quali sono considerati persi</li>
+ * </ul>
+ * I messaggi precedenti al primo ricevuto da un mittente non vengono richiesti: un nuovo partecipante non recupera la conversazione avvenuta prima del proprio ingresso.
+ * Il numero di mittenti conservati e di numeri mancanti per mittente è limitato.
+ * <p>
+ * La richiesta è un messaggio unicast il cui contenuto, riconosciuto da {@link #isRichiesta(String)}, elenca gli intervalli di numeri mancanti.
+ *
+ * @author Matteo Bagnoletti Tini
+ * @version 1.0
+ * @project MulticastUDPSocketChat
+ * @see StoricoGruppo
+ */
+public class RilevatorePerdite {
+
+    /**
+     * Prefisso del contenuto dei messaggi di richiesta, seguito dagli intervalli di numeri mancanti (ad esempio <code>3-5,9</code>)
+     */
+    public static final String PREFISSO_RICHIESTA = "DO-NOT-SHOW-NACK:";
+
+    /**
+     * Intervallo in millisecondi tra due richieste dello stesso messaggio mancante
+     */
+    public static final long INTERVALLO_SOLLECITO = 300;
+
+    /**
+     * Numero massimo di richieste per ciascun messaggio mancante
+     */
+    public static final int TENTATIVI_MASSIMI = 5;
+
+    /**
+     * Numero massimo di messaggi mancanti conservati per ciascun mittente: i più vecchi oltre il limite sono considerati persi
+     */
+    public static final int MAX_MANCANTI = 256;
+
+    /**
+     * Numero massimo di messaggi elencati in una singola richiesta
+     */
+    public static final int MAX_PER_RICHIESTA = 64;
+
+    /**
+     * Numero massimo predefinito di mittenti conservati
+     */
+    public static final int MAX_MITTENTI_PREDEFINITO = 1024;
+
+    /**
+     * Richiesta di ritrasmissione da inviare a un mittente
+     * @param destinazione l'indirizzo unicast del mittente
+     * @param contenuto il contenuto del messaggio di richiesta
+     * @param mancanti i numeri di sequenza richiesti
+     */
+    public record Richiesta(InetSocketAddress destinazione, String contenuto, List<Integer> mancanti) {}
+
+    /**
+     * Messaggio mancante di un mittente
+     */
+    private static final class Mancante {
+        private int tentativi;
+        private long ultimoSollecito;
+        /** l'istante prima del quale il messaggio non viene richiesto, da {@link System#nanoTime()} */
+        private long nonPrimaDi;
+    }
+
+    /**
+     * Stato di un mittente
+     */
+    private static final class Mittente {
+        /** l'indirizzo unicast a cui inviare le richieste */
+        private InetSocketAddress indirizzo;
+        /** il numero di sequenza più alto noto */
+        private int massima;
+        private final TreeMap<Integer, Mancante> mancanti = new TreeMap<>();
+    }
+
+    private final int maxMittenti;
+
+    /**
+     * Stato dei mittenti, in ordine di ultimo accesso
+     */
+    private final LinkedHashMap<UUID, Mittente> mittenti;
+
+    /* statistiche */
+    private long rilevati;
+    private long recuperati;
+    private long persi;
+    private long richieste;
+
+    /**
+     * Crea un <code>rilevatore</code> con il numero massimo predefinito di mittenti
+     */
+    public RilevatorePerdite() {
+        this(MAX_MITTENTI_PREDEFINITO);
+    }
+
+    /**
+     * Crea un <code>rilevatore</code>
+     * @param maxMittenti il numero massimo di mittenti conservati
+     * @throws IllegalArgumentException se il numero massimo di mittenti non è positivo
+     */
+    public RilevatorePerdite(final int maxMittenti) throws IllegalArgumentException {
+        if(maxMittenti <= 0) throw new IllegalArgumentException("Numero massimo di mittenti non valido: " + maxMittenti);
+        this.maxMittenti = maxMittenti;
+        this.mittenti = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<UUID, Mittente> eldest) {
+                return size() > RilevatorePerdite.this.maxMittenti;
+            }
+        };
+    }
+
+    /**
+     * Registra un messaggio di gruppo ricevuto
+     * @param mittente l'identificativo univoco del mittente
+     * @param indirizzo l'indirizzo unicast del mittente
+     * @param sequenza il numero di sequenza del messaggio
+     * @return la richiesta dei messaggi mancanti rilevati, <code>null</code> se non ve ne sono
+     */
+    public synchronized Richiesta ricevuto(UUID mittente, InetSocketAddress indirizzo, int sequenza) {
+        Mittente stato = stato(mittente, indirizzo, sequenza);
+        if(stato == null) return null;
+        if(sequenza > stato.massima) {
+            aggiungiMancanti(stato, mittente, sequenza - 1, 0);
+            stato.massima = sequenza;
+        } else if(stato.mancanti.remove(sequenza) != null) {
+            recuperati++;
+            ChatLogger.log("(Perdite) messaggio " + sequenza + " di " + mittente + " recuperato", ChatLoggerType.OPTIONAL);
+        }
+        return sollecita(stato, System.nanoTime());
+    }
+
+    /**
+     * Registra l'ultimo numero di sequenza annunciato da un mittente nel keepAlive
+     * @param mittente l'identificativo univoco del mittente
+     * @param indirizzo l'indirizzo unicast del mittente
+     * @param ultima l'ultimo numero di sequenza assegnato dal mittente
+     * @return la richiesta dei messaggi mancanti rilevati, <code>null</code> se non ve ne sono
+     */
+    public synchronized Richiesta annunciato(UUID mittente, InetSocketAddress indirizzo, int ultima) {
+        Mittente stato = stato(mittente, indirizzo, ultima);
+        if(stato == null || ultima <= stato.massima) return null;
+        long adesso = System.nanoTime();
+        aggiungiMancanti(stato, mittente, ultima, adesso + TimeUnit.MILLISECONDS.toNanos(INTERVALLO_SOLLECITO));
+        stato.massima = ultima;
+        return sollecita(stato, adesso);
+    }
+
+    /**
+     * Restituisce le richieste dei messaggi ancora mancanti il cui ultimo sollecito è più vecchio di {@link #INTERVALLO_SOLLECITO}.
+     * I messaggi già richiesti {@link #TENTATIVI_MASSIMI} volte sono considerati persi e rimossi.
+     * @return le richieste da inviare, una per mittente
+     */
+    public synchronized List<Richiesta> daSollecitare() {
+        long adesso = System.nanoTime();
+        List<Richiesta> daInviare = new ArrayList<>();
+        for(Mittente stato : mittenti.values()) {
+            Richiesta richiesta = sollecita(stato, adesso);
+            if(richiesta != null) daInviare.add(richiesta);
+        }
+        return daInviare;
+    }
+
+    /**
+     * Verifica se un messaggio di gruppo è ancora mancante, senza registrarlo.
+     * Permette al {@link FiltroDuplicati} di accettare la ritrasmissione di un messaggio richiesto anche quando è ormai precedente alla sua finestra.
+     * @param mittente l'identificativo univoco del mittente
+     * @param sequenza il numero di sequenza del messaggio
+     * @return <code>true</code> se il messaggio è tra i mancanti in attesa, <code>false</code> altrimenti
+     */
+    public synchronized boolean isMancante(UUID mittente, int sequenza) {
+        Mittente stato = mittenti.get(mittente);
+        return stato != null && stato.mancanti.containsKey(sequenza);
+    }
+
+    /**
+     * Rimuove lo stato di un mittente, ad esempio all'uscita dal gruppo
+     * @param mittente l'identificativo univoco del mittente
+     */
+    public synchronized void rimuovi(UUID mittente) {
+        mittenti.remove(mittente);
+    }
+
+    /**
+     * Restituisce le statistiche del rilevatore
+     * @return le statistiche del rilevatore
+     */
+    public synchronized String getStatistiche() {
+        int inAttesa = 0;
+        for(Mittente stato : mittenti.values()) inAttesa += stato.mancanti.size();
+        return "Perdite: " + rilevati + " messaggi mancanti rilevati, " + recuperati + " recuperati, " + persi + " persi, " + inAttesa + " in attesa, " + richieste + " richieste inviate, " + mittenti.size() + " mittenti";
+    }
+
+    /**
+     * Restituisce lo stato di un mittente, creandolo se non esiste: il primo numero ricevuto diventa il massimo noto
+     * @return lo stato del mittente, <code>null</code> se appena creato
+     */
+    private Mittente stato(UUID mittente, InetSocketAddress indirizzo, int sequenza) {
+        Mittente stato = mittenti.get(mittente);
+        if(stato == null) {
+            stato = new Mittente();
+            stato.indirizzo = indirizzo;
+            stato.massima = sequenza;
+            mittenti.put(mittente, stato);
+            return null;
+        }
+        stato.indirizzo = indirizzo;
+        return stato;
+    }
+
+    /**
+     * Aggiunge ai mancanti i numeri successivi al massimo noto fino a quello indicato, rispettando {@link #MAX_MANCANTI}
+     * @param nonPrimaDi l'istante prima del quale i nuovi mancanti non vengono richiesti, <code>0</code> per richiederli subito
+     */
+    private void aggiungiMancanti(Mittente stato, UUID mittente, int fino, long nonPrimaDi) {
+        int da = stato.massima + 1;
+        if(fino < da) return;
+        rilevati += fino - da + 1;
+        if(fino - da + 1 > MAX_MANCANTI) {
+            persi += fino - da + 1 - MAX_MANCANTI;
+            da = fino - MAX_MANCANTI + 1;
+        }
+        for(int sequenza = da; sequenza <= fino; sequenza++) {
+            Mancante mancante = new Mancante();
+            mancante.nonPrimaDi = nonPrimaDi;
+            stato.mancanti.put(sequenza, mancante);
+        }
+        while(stato.mancanti.size() > MAX_MANCANTI) {
+            stato.mancanti.pollFirstEntry();
+            persi++;
+        }
+        ChatLogger.log("(Perdite) messaggi " + da + "-" + fino + " di " + mittente + " mancanti", ChatLoggerType.OPTIONAL);
+    }
+
+    /**
+     * Seleziona i messaggi mancanti di un mittente da richiedere, rimuovendo quelli che hanno esaurito i tentativi
+     * @return la richiesta, <code>null</code> se non vi sono messaggi da richiedere
+     */
+    private Richiesta sollecita(Mittente stato, long adesso) {
+        long intervallo = TimeUnit.MILLISECONDS.toNanos(INTERVALLO_SOLLECITO);
+        List<Integer> daRichiedere = new ArrayList<>();
+        Iterator<Map.Entry<Integer, Mancante>> iteratore = stato.mancanti.entrySet().iterator();
+        while(iteratore.hasNext() && daRichiedere.size() < MAX_PER_RICHIESTA) {
+            Map.Entry<Integer, Mancante> voce = iteratore.next();
+            Mancante mancante = voce.getValue();
+            if(mancante.tentativi > 0 && adesso - mancante.ultimoSollecito < intervallo) continue;
+            if(mancante.nonPrimaDi != 0 && adesso - mancante.nonPrimaDi < 0) continue;
+            if(mancante.tentativi >= TENTATIVI_MASSIMI) {
+                iteratore.remove();
+                persi++;
+                continue;
+            }
+            mancante.tentativi++;
+            mancante.ultimoSollecito = adesso;
+            daRichiedere.add(voce.getKey());
+        }
+        if(daRichiedere.isEmpty()) return null;
+        richieste++;
+        return new Richiesta(stato.indirizzo, PREFISSO_RICHIESTA + intervalli(daRichiedere), daRichiedere);
+    }
+
+    /**
+     * Verifica se il contenuto di un messaggio è una richiesta di ritrasmissione
+     * @param msg il contenuto del messaggio
+     * @return <code>true</code> se il contenuto inizia con {@link #PREFISSO_RICHIESTA}
+     */
+    public static boolean isRichiesta(String msg) {
+        return msg != null && msg.startsWith(PREFISSO_RICHIESTA);
+    }
+
+    /**
+     * Estrae i numeri di sequenza elencati in una richiesta di ritrasmissione, fino a {@link #MAX_PER_RICHIESTA}
+     * @param msg il contenuto del messaggio di richiesta
+     * @return i numeri di sequenza richiesti
+     * @throws MsgException se il contenuto non è una richiesta valida
+     */
+    public static List<Integer> leggiRichiesta(String msg) throws MsgException {
+        if(!isRichiesta(msg)) throw new MsgException("Richiesta di ritrasmissione non valida");
+        List<Integer> sequenze = new ArrayList<>();
+        try {
+            for(String intervallo : msg.substring(PREFISSO_RICHIESTA.length()).split(",")) {
+                int separatore = intervallo.indexOf('-');
+                int da = Integer.parseInt(separatore < 0 ? intervallo : intervallo.substring(0, separatore));
+                int a = separatore < 0 ? da : Integer.parseInt(intervallo.substring(separatore + 1));
+                if(da <= 0 || a < da) throw new MsgException("Intervallo di ritrasmissione non valido: " + intervallo);
+                for(int sequenza = da; sequenza <= a && sequenze.size() < MAX_PER_RICHIESTA; sequenza++) sequenze.add(sequenza);
+            }
+        } catch (NumberFormatException e) {
+            throw new MsgException("Richiesta di ritrasmissione non valida");
+        }
+        return sequenze;
+    }
+
+    /**
+     * Formatta una lista ordinata di numeri di sequenza come intervalli (ad esempio <code>3-5,9</code>)
+     */
+    private static String intervalli(List<Integer> sequenze) {
+        StringBuilder testo = new StringBuilder();
+        int i = 0;
+        while(i < sequenze.size()) {
+            int da = sequenze.get(i);
+            int a = da;
+            while(i + 1 < sequenze.size() && sequenze.get(i + 1) == a + 1) a = sequenze.get(++i);
+            if(!testo.isEmpty()) testo.append(',');
+            testo.append(da);
+            if(a > da) testo.append('-').append(a);
+            i++;
+        }
+        return testo.toString();
+    }
+}
@@ -0,0 +1,109 @@
+package edu.avolta.tpsit.multicastudpsocketchat.comunicazione;
+
+/**
+ * Storico limitato dei messaggi di gruppo inviati con un numero di sequenza, conservati in forma codificata per la ritrasmissione.
+ * <p>
+ * Il mittente assegna a ciascun messaggio di gruppo il numero di sequenza successivo con {@link #nuovaSequenza()} e ne conserva la codifica con {@link #conserva(int, byte[])}.
+ * Quando un destinatario richiede un messaggio mancante (si veda {@link RilevatorePerdite}) la codifica viene recuperata con {@link #ottieni(int)} e inviata nuovamente.
+ * <p>
+ * Lo storico è un buffer circolare di capacità fissa: un nuovo messaggio sostituisce il più vecchio, che non può più essere ritrasmesso.
+ *
+ * @author Matteo Bagnoletti Tini
+ * @version 1.0
+ * @project MulticastUDPSocketChat
+ * @see RilevatorePerdite
+ */
+public class StoricoGruppo {
+
+    /**
+     * Numero predefinito di messaggi conservati
+     */
+    public static final int CAPACITA_PREDEFINITA = 512;
+
+    /**
+     * Le codifiche conservate, alla posizione <code>sequenza % capacità</code>
+     */
+    private final byte[][] codificati;
+
+    /**
+     * I numeri di sequenza delle codifiche conservate, per riconoscere le posizioni già sovrascritte
+     */
+    private final int[] sequenze;
+
+    /**
+     * L'ultimo numero di sequenza assegnato, <code>0</code> se nessuno
+     */
+    private int ultima;
+
+    /* statistiche */
+    private long ritrasmessi;
+    private long nonDisponibili;
+
+    /**
+     * Crea uno <code>storico</code> con la capacità predefinita
+     */
+    public StoricoGruppo() {
+        this(CAPACITA_PREDEFINITA);
+    }
+
+    /**
+     * Crea uno <code>storico</code>
+     * @param capacita il numero massimo di messaggi conservati
+     * @throws IllegalArgumentException se la capacità non è positiva
+     */
+    public StoricoGruppo(final int capacita) throws IllegalArgumentException {
+        if(capacita <= 0) throw new IllegalArgumentException("Capacità dello storico non valida: " + capacita);
+        this.codificati = new byte[capacita][];
+        this.sequenze = new int[capacita];
+    }
+
+    /**
+     * Assegna il numero di sequenza successivo, a partire da <code>1</code>
+     * @return il nuovo numero di sequenza
+     */
+    public synchronized int nuovaSequenza() {
+        return ++ultima;
+    }
+
+    /**
+     * Restituisce l'ultimo numero di sequenza assegnato, annunciato periodicamente ai destinatari per rilevare le perdite degli ultimi messaggi
+     * @return l'ultimo numero di sequenza, <code>0</code> se nessuno
+     */
+    public synchronized int getUltima() {
+        return ultima;
+    }
+
+    /**
+     * Conserva la codifica di un messaggio, sostituendo il messaggio più vecchio se lo storico è pieno
+     * @param sequenza il numero di sequenza del messaggio
+     * @param codificato il messaggio codificato
+     */
+    public synchronized void conserva(int sequenza, byte[] codificato) {
+        int posizione = Math.floorMod(sequenza, codificati.length);
+        codificati[posizione] = codificato;
+        sequenze[posizione] = sequenza;
+    }
+
+    /**
+     * Recupera la codifica di un messaggio da ritrasmettere
+     * @param sequenza il numero di sequenza richiesto
+     * @return il messaggio codificato, <code>null</code> se non è mai stato conservato o è già stato sostituito
+     */
+    public synchronized byte[] ottieni(int sequenza) {
+        int posizione = Math.floorMod(sequenza, codificati.length);
+        if(sequenza <= 0 || sequenze[posizione] != sequenza || codificati[posizione] == null) {
+            nonDisponibili++;
+            return null;
+        }
+        ritrasmessi++;
+        return codificati[posizione];
+    }
+
+    /**
+     * Restituisce le statistiche dello storico
+     * @return le statistiche dello storico
+     */
+    public synchronized String getStatistiche() {
+        return "Storico di gruppo: " + ultima + " messaggi numerati, " + ritrasmessi + " ritrasmessi, " + nonDisponibili + " richiesti ma non più disponibili (capacità " + codificati.length + ")";
+    }
+}
@@ -0,0 +1,72 @@
+package edu.avolta.tpsit.multicastudpsocketchat.comunicazione;
+
+/**
+ * Tipo del contenuto di un datagramma, trasmesso in chiaro nell'intestazione autenticata dei datagrammi AES-GCM.
+ * <p>
+ * Permette al destinatario di scartare i datagrammi che non lo interessano prima della decifratura.
+ * Una {@link Trama} con messaggi di tipo diverso è di tipo {@link #MISTO}; ciascun {@link Frammento} mantiene il tipo del contenuto da cui deriva.
+ *
+ * @author Matteo Bagnoletti Tini
+ * @version 1.0
+ * @project MulticastUDPSocketChat
+ * @see edu.avolta.tpsit.security.SecurityGate
+ */
+public enum TipoDatagramma {
+
+    /**
+     * Messaggi della chat, destinati all'utente
+     */
+    MESSAGGIO(0),
+
+    /**
+     * Messaggi di controllo: keepAlive. L'ingresso e l'uscita dal gruppo sono di tipo {@link #MESSAGGIO}, per non precedere né seguire i messaggi della chat dello stesso mittente
+     */
+    CONTROLLO(1),
+
+    /**
+     * Conferme di lettura (<code>acknowledge</code>)
+     */
+    ACK(2),
+
+    /**
+     * Messaggi di tipo diverso aggregati nello stesso datagramma
+     */
+    MISTO(3);
+
+    private static final TipoDatagramma[] PER_CODICE = values();
+
+    /**
+     * Il codice trasmesso nell'intestazione
+     */
+    private final int codice;
+
+    TipoDatagramma(final int codice) {
+        this.codice = codice;
+    }
+
+    /**
+     * Restituisce il codice trasmesso nell'intestazione
+     * @return il codice del tipo
+     */
+    public int getCodice() {
+        return codice;
+    }
+
+    /**
+     * Restituisce il tipo corrispondente al codice letto dall'intestazione
+     * @param codice il codice letto
+     * @return il tipo corrispondente, <code>null</code> se il codice non è noto (ad esempio se introdotto da una versione successiva del programma)
+     */
+    public static TipoDatagramma daCodice(int codice) {
+        return codice >= 0 && codice < PER_CODICE.length ? PER_CODICE[codice] : null;
+    }
+
+    /**
+     * Restituisce il tipo di un datagramma che contiene messaggi di questo tipo e dell'altro indicato
+     * @param altro il tipo degli altri messaggi
+     * @return questo tipo se coincide con l'altro, {@link #MISTO} altrimenti
+     */
+    public TipoDatagramma unisci(TipoDatagramma altro) {
+        return this == altro ? this : MISTO;
+    }
+}
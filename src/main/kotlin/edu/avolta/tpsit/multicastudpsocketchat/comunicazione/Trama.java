@@ -0,0 +1,113 @@
+package edu.avolta.tpsit.multicastudpsocketchat.comunicazione;
+
+import edu.avolta.tpsit.multicastudpsocketchat.eccezioni.MsgException;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <code>Trama</code> contenente più {@link Messaggio} codificati, trasmessi all'interno di un unico datagramma cifrato.
+ * <p>
+ * Struttura della <code>trama</code>:
+ * <pre>
+ * +-------+--------+-------------+-----------+-------------+-----------+-----
+ * | MAGIC | numero | lunghezza 1 | messaggio | lunghezza 2 | messaggio | ...
+ * +-------+--------+-------------+-----------+-------------+-----------+-----
+ * </pre>
+ * Il numero di messaggi e le lunghezze sono codificati come varint. Il primo byte ({@link #MAGIC}) distingue la <code>trama</code> da un singolo messaggio.
+ *
+ * @author Matteo Bagnoletti Tini
+ * @version 1.0
+ * @project MulticastUDPSocketChat
+ * @see CodificaBinaria
+ */
+public final class Trama {
+
+    /**
+     * Primo byte di ogni <code>trama</code>
+     */
+    public static final byte MAGIC = (byte) 0xCC;
+
+    /**
+     * Dimensione massima dell'intestazione della <code>trama</code> (MAGIC e numero di messaggi fino a 16383)
+     */
+    public static final int DIM_INTESTAZIONE = 3;
+
+    private Trama() {}
+
+    /**
+     * Verifica se l'array di byte fornito contiene una <code>trama</code>
+     * @param arrayInput l'array di byte da verificare
+     * @return <code>true</code> se il primo byte corrisponde a {@link #MAGIC}, <code>false</code> altrimenti
+     */
+    public static boolean isTrama(byte[] arrayInput) {
+        return arrayInput != null && arrayInput.length > 0 && arrayInput[0] == MAGIC;
+    }
+
+    /**
+     * Verifica se il buffer fornito contiene, a partire dalla sua posizione, una <code>trama</code>
+     * @param in il buffer da verificare
+     * @return <code>true</code> se il primo byte corrisponde a {@link #MAGIC}, <code>false</code> altrimenti
+     */
+    public static boolean isTrama(ByteBuffer in) {
+        return in != null && in.hasRemaining() && in.get(in.position()) == MAGIC;
+    }
+
+    /**
+     * Restituisce lo spazio occupato da un messaggio all'interno della <code>trama</code>
+     * @param lunghezza la lunghezza del messaggio codificato
+     * @return il numero di byte occupati, lunghezza compresa
+     */
+    public static int costo(int lunghezza) {
+        return CodificaBinaria.dimVarint(lunghezza) + lunghezza;
+    }
+
+    /**
+     * Raggruppa più messaggi codificati in un'unica <code>trama</code>
+     * @param messaggi i messaggi codificati
+     * @return l'array di byte della <code>trama</code>
+     */
+    public static byte[] impacchetta(List<byte[]> messaggi) {
+        int dimensione = 1 + CodificaBinaria.dimVarint(messaggi.size());
+        for(byte[] messaggio : messaggi) {
+            dimensione += costo(messaggio.length);
+        }
+
+        ByteBuffer out = ByteBuffer.allocate(dimensione);
+        out.put(MAGIC);
+        CodificaBinaria.scriviVarint(out, messaggi.size());
+        for(byte[] messaggio : messaggi) {
+            CodificaBinaria.scriviVarint(out, messaggio.length);
+            out.put(messaggio);
+        }
+        return out.array();
+    }
+
+    /**
+     * Separa una <code>trama</code> nei messaggi che la compongono, senza copiarne il contenuto
+     * @param in il buffer contenente la <code>trama</code> tra la posizione e il limite
+     * @return le porzioni del buffer corrispondenti a ciascun messaggio
+     * @throws MsgException se la <code>trama</code> non è valida
+     */
+    public static List<ByteBuffer> spacchetta(ByteBuffer in) throws MsgException {
+        ByteBuffer trama = in.duplicate();
+        try {
+            if(trama.get() != MAGIC) throw new MsgException("Formato trama non riconosciuto");
+            int numero = CodificaBinaria.leggiVarint(trama);
+            if(numero < 0 || numero > trama.remaining()) throw new MsgException("Numero di messaggi nella trama non valido");
+
+            List<ByteBuffer> messaggi = new ArrayList<>(numero);
+            for(int i = 0; i < numero; i++) {
+                int lunghezza = CodificaBinaria.leggiVarint(trama);
+                if(lunghezza < 0 || lunghezza > trama.remaining()) throw new MsgException("Lunghezza del messaggio nella trama non valida");
+                messaggi.add(trama.slice(trama.position(), lunghezza));
+                trama.position(trama.position() + lunghezza);
+            }
+            return messaggi;
+        } catch (BufferUnderflowException e) {
+            throw new MsgException("Errore nella lettura della trama: formato non valido", e);
+        }
+    }
+}
@@ -0,0 +1,298 @@
+package edu.avolta.tpsit.multicastudpsocketchat.comunicazione;
+
+import edu.avolta.tpsit.multicastudpsocketchat.eccezioni.MsgException;
+import edu.avolta.tpsit.multicastudpsocketchat.utenze.Rubrica;
+import edu.avolta.tpsit.multicastudpsocketchat.utenze.Utente;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.DateTimeException;
+import java.time.LocalTime;
+
+/**
+ * Vista in sola lettura di un {@link Messaggio} codificato in formato binario ({@link CodificaBinaria}).
+ * <p>
+ * La <code>vista</code> legge i campi numerici (ID, flag, mittente) direttamente dal buffer decifrato, senza allocare oggetti.
+ * I testi (username e contenuto) vengono costruiti solo alla prima richiesta, mentre il metodo {@link #materializza()} ricostruisce l'intero {@link Messaggio}.
+ * <p>
+ * Una singola istanza può essere riutilizzata per più messaggi invocando {@link #imposta(ByteBuffer)}: non è thread-safe ed è pensata per essere posseduta da un unico {@link Thread} di ricezione.
+ * Il buffer non deve essere modificato finché la <code>vista</code> è in uso.
+ *
+ * @author Matteo Bagnoletti Tini
+ * @version 1.0
+ * @project MulticastUDPSocketChat
+ * @see CodificaBinaria
+ */
+public final class VistaMessaggio {
+
+    /**
+     * Il buffer contenente il messaggio codificato
+     */
+    private ByteBuffer buffer;
+
+    /**
+     * Posizione del primo byte successivo al messaggio
+     */
+    private int fine;
+
+    /* campi dell'intestazione e posizioni dei testi nel buffer */
+    private int flags;
+    private int capacita;
+    private int ID;
+    private int portaMittente;
+    private int targetACK;
+    private int orario;
+    private int sequenza;
+    private int sequenzaDati;
+    private long idUtenteAlto;
+    private long idUtenteBasso;
+    private int idBreve;
+    private int posUsername;
+    private int lenUsername;
+    private int posMsg;
+    private int lenMsg;
+
+    /**
+     * Username del mittente, costruito alla prima richiesta
+     */
+    private String username;
+
+    /**
+     * Contenuto del messaggio, costruito alla prima richiesta
+     */
+    private String msg;
+
+    /**
+     * Associa la <code>vista</code> al messaggio codificato presente tra la posizione e il limite del buffer.
+     * La posizione del buffer non viene modificata.
+     * @param buffer il buffer contenente il messaggio codificato, anche di tipo <i>direct</i>
+     * @return la <code>vista</code> stessa
+     * @throws MsgException se il buffer non contiene un messaggio binario valido
+     */
+    public VistaMessaggio imposta(ByteBuffer buffer) throws MsgException {
+        this.buffer = buffer;
+        this.username = null;
+        this.msg = null;
+        /* i campi vengono letti avanzando la posizione, ripristinata al termine */
+        int inizio = buffer.position();
+        try {
+            if(buffer.remaining() < CodificaBinaria.DIM_INTESTAZIONE) throw new MsgException("Messaggio binario troppo corto");
+            if(buffer.get() != CodificaBinaria.MAGIC) throw new MsgException("Formato binario non riconosciuto");
+            byte versione = buffer.get();
+            if(versione != CodificaBinaria.VERSIONE) throw new MsgException("Versione del formato binario non supportata: " + versione);
+            flags = buffer.get() & 0xFF;
+            capacita = buffer.get() & 0xFF;
+
+            ID = CodificaBinaria.leggiVarint(buffer);
+            portaMittente = CodificaBinaria.leggiVarint(buffer);
+            targetACK = CodificaBinaria.leggiVarint(buffer);
+            orario = CodificaBinaria.leggiVarint(buffer);
+            sequenza = (flags & CodificaBinaria.FLAG_SEQUENZA) != 0 ? CodificaBinaria.leggiVarint(buffer) : 0;
+            sequenzaDati = (flags & CodificaBinaria.FLAG_DATI) != 0 ? CodificaBinaria.leggiVarint(buffer) : 0;
+            if(isIdBreve()) {
+                idBreve = buffer.getShort(salta(2)) & 0xFFFF;
+                idUtenteAlto = 0;
+                idUtenteBasso = 0;
+                lenUsername = 0;
+                posUsername = buffer.position();
+            } else {
+                int posID = salta(16);
+                idUtenteAlto = buffer.getLong(posID);
+                idUtenteBasso = buffer.getLong(posID + 8);
+                idBreve = 0;
+                lenUsername = CodificaBinaria.leggiVarint(buffer);
+                posUsername = salta(lenUsername);
+            }
+            lenMsg = CodificaBinaria.leggiVarint(buffer);
+            posMsg = salta(lenMsg);
+            fine = buffer.position();
+            return this;
+        } catch (IndexOutOfBoundsException e) {
+            throw new MsgException("Errore nella decodifica del messaggio: formato binario non valido", e);
+        } finally {
+            buffer.position(inizio);
+        }
+    }
+
+    /**
+     * Restituisce l'identificativo univoco incrementale del messaggio
+     * @return l'ID del messaggio
+     */
+    public int getID() {
+        return ID;
+    }
+
+    /**
+     * Restituisce la porta unicast del mittente
+     * @return la porta unicast del mittente
+     */
+    public int getPortaMittente() {
+        return portaMittente;
+    }
+
+    /**
+     * Restituisce il numero di ACK attesi
+     * @return il numero di ACK attesi
+     */
+    public int getTargetACK() {
+        return targetACK;
+    }
+
+    /**
+     * Restituisce il numero di sequenza di gruppo del messaggio
+     * @return il numero di sequenza, <code>0</code> se il messaggio non ne trasporta uno
+     */
+    public int getSequenza() {
+        return sequenza;
+    }
+
+    /**
+     * Restituisce il numero di sequenza dei dati del messaggio
+     * @return il numero di sequenza dei dati, <code>0</code> se il messaggio non ne trasporta uno
+     */
+    public int getSequenzaDati() {
+        return sequenzaDati;
+    }
+
+    /**
+     * Verifica se il messaggio è un ACK
+     * @return <code>true</code> se il messaggio è un ACK, <code>false</code> altrimenti
+     */
+    public boolean isACK() {
+        return (flags & CodificaBinaria.FLAG_ACK) != 0;
+    }
+
+    /**
+     * Verifica se il messaggio proviene dal gruppo
+     * @return <code>true</code> se il messaggio proviene dal gruppo, <code>false</code> altrimenti
+     */
+    public boolean isMsgGruppo() {
+        return (flags & CodificaBinaria.FLAG_GRUPPO) != 0;
+    }
+
+    /**
+     * Restituisce le capacità annunciate dal mittente
+     * @return la maschera delle capacità del mittente
+     */
+    public int getCapacita() {
+        return capacita;
+    }
+
+    /**
+     * Verifica se il mittente è identificato dal solo identificativo breve di sessione
+     * @return <code>true</code> se il mittente è in forma breve, <code>false</code> altrimenti
+     */
+    public boolean isIdBreve() {
+        return (flags & CodificaBinaria.FLAG_ID_BREVE) != 0;
+    }
+
+    /**
+     * Restituisce l'identificativo breve di sessione del mittente
+     * @return l'identificativo breve, <code>0</code> se il mittente è in forma completa
+     */
+    public int getIdBreve() {
+        return idBreve;
+    }
+
+    /**
+     * Verifica, senza allocare oggetti, se il messaggio è stato generato dall'utente indicato.
+     * <p>
+     * Per i mittenti in forma breve l'identificativo breve di sessione non basta: un utente che non ha ancora ricevuto l'ingresso nel gruppo dell'utente indicato
+     * può utilizzarne uno uguale. Il confronto richiede quindi anche la porta unicast del mittente, distinta per ciascun <code>host</code> dello stesso indirizzo;
+     * l'indirizzo da cui è stato ricevuto il datagramma va verificato dal chiamante.
+     * @param utente l'utente da confrontare
+     * @param portaMittente la porta unicast dell'utente
+     * @return <code>true</code> se il mittente corrisponde, <code>false</code> altrimenti
+     */
+    public boolean isMittente(Utente utente, int portaMittente) {
+        if(isIdBreve()) return idBreve == utente.getIdBreve() && this.portaMittente == portaMittente;
+        return utente.isUtente(idUtenteAlto, idUtenteBasso);
+    }
+
+    /**
+     * Restituisce la dimensione in byte del messaggio codificato
+     * @return la dimensione del messaggio codificato
+     */
+    public int getDimensione() {
+        return fine - buffer.position();
+    }
+
+    /**
+     * Restituisce lo username del mittente, costruendolo alla prima richiesta
+     * @return lo username del mittente, <code>null</code> se il mittente è in forma breve
+     */
+    public String getUsername() {
+        if(isIdBreve()) return null;
+        if(username == null) username = leggiTesto(posUsername, lenUsername);
+        return username;
+    }
+
+    /**
+     * Restituisce il contenuto del messaggio, costruendolo alla prima richiesta
+     * @return il contenuto del messaggio
+     */
+    public String getMsg() {
+        if(msg == null) msg = leggiTesto(posMsg, lenMsg);
+        return msg;
+    }
+
+    /**
+     * Ricostruisce l'intero {@link Messaggio} descritto dalla <code>vista</code>
+     * @return il messaggio ricostruito
+     * @throws MsgException se il mittente è in forma breve o il protocollo non è valido
+     * @see #materializza(Rubrica)
+     */
+    public Messaggio materializza() throws MsgException {
+        return materializza(null);
+    }
+
+    /**
+     * Ricostruisce l'intero {@link Messaggio} descritto dalla <code>vista</code>, risolvendo gli eventuali mittenti in forma breve attraverso la {@link Rubrica}
+     * @param rubrica la rubrica dell'utente, può essere <code>null</code> se non sono attesi mittenti in forma breve
+     * @return il messaggio ricostruito
+     * @throws MsgException se il mittente non è risolvibile o il protocollo non è valido
+     */
+    public Messaggio materializza(Rubrica rubrica) throws MsgException {
+        try {
+            Utente utente;
+            if(isIdBreve()) {
+                utente = rubrica == null ? null : rubrica.ottieniUtenteDaIdBreve(idBreve);
+                if(utente == null) throw new MsgException("Mittente con identificativo breve " + idBreve + " non risolvibile");
+            } else {
+                utente = new Utente(getUsername(), idUtenteAlto, idUtenteBasso);
+            }
+            Messaggio messaggio = new Messaggio(ID, utente, portaMittente, isACK(), targetACK, getMsg(), isMsgGruppo(), CodificaBinaria.protocollo((flags >>> CodificaBinaria.SHIFT_PROTOCOLLO) & CodificaBinaria.MASCHERA_PROTOCOLLO), LocalTime.ofSecondOfDay(orario));
+            messaggio.setSequenza(sequenza);
+            messaggio.setSequenzaDati(sequenzaDati);
+            return messaggio;
+        } catch (IllegalArgumentException | DateTimeException e) {
+            throw new MsgException("Errore nella decodifica del messaggio: formato binario non valido", e);
+        }
+    }
+
+    /**
+     * Avanza la posizione del {@link #buffer} oltre un campo di lunghezza nota
+     * @param lunghezza la lunghezza del campo
+     * @return la posizione iniziale del campo
+     * @throws MsgException se il campo eccede il limite del buffer
+     */
+    private int salta(int lunghezza) throws MsgException {
+        if(lunghezza < 0 || lunghezza > buffer.remaining()) throw new MsgException("Lunghezza del testo non valida");
+        int posizione = buffer.position();
+        buffer.position(posizione + lunghezza);
+        return posizione;
+    }
+
+    /**
+     * Costruisce un testo UTF-8 a partire da una porzione del buffer
+     * @param posizione la posizione iniziale del testo
+     * @param lunghezza la lunghezza in byte del testo
+     * @return il testo
+     */
+    private String leggiTesto(int posizione, int lunghezza) {
+        if(buffer.hasArray()) {
+            return new String(buffer.array(), buffer.arrayOffset() + posizione, lunghezza, StandardCharsets.UTF_8);
+        }
+        return StandardCharsets.UTF_8.decode(buffer.slice(posizione, lunghezza)).toString();
+    }
+}
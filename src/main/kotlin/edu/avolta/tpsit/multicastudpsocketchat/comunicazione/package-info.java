@@ -8,9 +8,22 @@
  * <p>
  * Contiene:
  * <ul>
+ *     <li>{@link edu.avolta.tpsit.multicastudpsocketchat.comunicazione.AccumulatoreConferme}</li>
+ *     <li>{@link edu.avolta.tpsit.multicastudpsocketchat.comunicazione.CodificaBinaria}</li>
+ *     <li>{@link edu.avolta.tpsit.multicastudpsocketchat.comunicazione.Compressione}</li>
+ *     <li>{@link edu.avolta.tpsit.multicastudpsocketchat.comunicazione.ConfermaAggregata}</li>
  *     <li>{@link edu.avolta.tpsit.multicastudpsocketchat.comunicazione.Cronologia}</li>
+ *     <li>{@link edu.avolta.tpsit.multicastudpsocketchat.comunicazione.FiltroDuplicati}</li>
+ *     <li>{@link edu.avolta.tpsit.multicastudpsocketchat.comunicazione.FormatoMessaggio}</li>
+ *     <li>{@link edu.avolta.tpsit.multicastudpsocketchat.comunicazione.Frammento}</li>
  *     <li>{@link edu.avolta.tpsit.multicastudpsocketchat.comunicazione.Messaggio}</li>
  *     <li>{@link edu.avolta.tpsit.multicastudpsocketchat.comunicazione.Protocollo}</li>
+ *     <li>{@link edu.avolta.tpsit.multicastudpsocketchat.comunicazione.Riassemblatore}</li>
+ *     <li>{@link edu.avolta.tpsit.multicastudpsocketchat.comunicazione.RilevatorePerdite}</li>
+ *     <li>{@link edu.avolta.tpsit.multicastudpsocketchat.comunicazione.StoricoGruppo}</li>
+ *     <li>{@link edu.avolta.tpsit.multicastudpsocketchat.comunicazione.TipoDatagramma}</li>
+ *     <li>{@link edu.avolta.tpsit.multicastudpsocketchat.comunicazione.Trama}</li>
+ *     <li>{@link edu.avolta.tpsit.multicastudpsocketchat.comunicazione.VistaMessaggio}</li>
  * </ul>
  * 
  * @author Matteo Bagnoletti Tini
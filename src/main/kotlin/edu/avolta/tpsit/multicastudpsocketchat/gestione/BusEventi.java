@@ -0,0 +1,200 @@
+package edu.avolta.tpsit.multicastudpsocketchat.gestione;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Bus degli {@link Evento} di un {@link edu.avolta.tpsit.multicastudpsocketchat.host.MulticastPeer}, che separa le classi di rete dall'interfaccia grafica e dagli altri consumatori.
+ * <p>
+ * Chi pubblica un evento non attende gli iscritti: l'evento viene soltanto accodato, per cui può essere pubblicato anche dai {@link Thread} di rete e all'interno di blocchi <code>synchronized</code>.
+ * Ciascuna {@link Iscrizione} ha una propria coda limitata e un proprio {@link Thread}, che riceve gli eventi nell'ordine di pubblicazione: un iscritto lento non rallenta né chi pubblica né gli altri iscritti.
+ * Se la coda di un iscritto è piena l'evento viene perso per quell'iscritto e conteggiato.
+ *
+ * @author Matteo Bagnoletti Tini
+ * @version 1.0
+ * @project MulticastUDPSocketChat
+ * @see Evento
+ */
+public class BusEventi {
+
+    /**
+     * Capacità predefinita della coda di ciascun iscritto
+     */
+    public static final int CAPACITA_PREDEFINITA = 1024;
+
+    /**
+     * Segnaposto che termina il {@link Thread} di un'iscrizione
+     */
+    private static final Object FINE = new Object();
+
+    /**
+     * Iscrizione a un tipo di {@link Evento}, servita da un proprio {@link Thread}
+     * @param <E> il tipo di evento
+     */
+    public final class Iscrizione<E extends Evento> {
+
+        private final Class<E> tipo;
+        private final Consumer<? super E> ricevitore;
+        private final BlockingQueue<Object> coda;
+        private final Thread thread;
+        private volatile boolean attiva = true;
+
+        /* statistiche */
+        private final LongAdder ricevuti = new LongAdder();
+        private final LongAdder persi = new LongAdder();
+
+        private Iscrizione(Class<E> tipo, Consumer<? super E> ricevitore, int capacita, String nome) {
+            this.tipo = tipo;
+            this.ricevitore = ricevitore;
+            this.coda = new ArrayBlockingQueue<>(capacita);
+            this.thread = fabbrica.newThread(this::esegui);
+            if(thread == null) throw new IllegalStateException("Impossibile avviare l'iscrizione " + nome);
+            this.thread.setName(nome);
+            this.thread.start();
+        }
+
+        /**
+         * Accoda l'evento, se di tipo compatibile, senza bloccarsi
+         */
+        private void offri(Evento evento) {
+            if(!attiva || !tipo.isInstance(evento)) return;
+            if(!coda.offer(evento)) persi.increment();
+        }
+
+        private void esegui() {
+            try {
+                while(true) {
+                    Object evento = coda.take();
+                    if(evento == FINE) return;
+                    try {
+                        ricevitore.accept(tipo.cast(evento));
+                    } catch (RuntimeException e) {
+                        ProjectOutput.stampa("Errore nella gestione dell'evento " + evento + ": " + e.getMessage(), OutputType.STDERR);
+                    }
+                    ricevuti.increment();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        /**
+         * Annulla l'iscrizione: gli eventi già accodati vengono comunque consegnati, i successivi ignorati.
+         * Se la coda è piena il {@link Thread} dell'iscrizione viene interrotto e gli eventi in attesa vanno persi.
+         */
+        public void annulla() {
+            if(!attiva) return;
+            attiva = false;
+            iscrizioni.remove(this);
+            if(!coda.offer(FINE)) thread.interrupt();
+        }
+
+        /**
+         * Restituisce il numero di eventi persi perché la coda dell'iscrizione era piena
+         * @return il numero di eventi persi
+         */
+        public long getPersi() {
+            return persi.sum();
+        }
+
+        private String getStatistiche() {
+            return String.format("%s %d (coda %d, %d persi)", thread.getName(), ricevuti.sum(), coda.size(), getPersi());
+        }
+    }
+
+    /**
+     * La {@link ThreadFactory} dei {@link Thread} delle iscrizioni
+     */
+    private final ThreadFactory fabbrica;
+
+    private final CopyOnWriteArrayList<Iscrizione<?>> iscrizioni = new CopyOnWriteArrayList<>();
+
+    private final LongAdder pubblicati = new LongAdder();
+
+    /**
+     * Crea un bus degli eventi
+     * @param fabbrica la {@link ThreadFactory} dei {@link Thread} delle iscrizioni, ad esempio delle {@link edu.avolta.tpsit.multicastudpsocketchat.host.Attivita} del <code>peer</code>
+     */
+    public BusEventi(final ThreadFactory fabbrica) {
+        this.fabbrica = fabbrica;
+    }
+
+    /**
+     * Iscrive un ricevitore agli eventi del tipo indicato, con la capacità predefinita
+     * @param tipo il tipo di evento, {@link Evento} per riceverli tutti
+     * @param ricevitore il ricevitore, eseguito dal {@link Thread} dell'iscrizione
+     * @return l'{@link Iscrizione}, annullabile
+     * @param <E> il tipo di evento
+     * @throws IllegalStateException se non è possibile creare il {@link Thread} dell'iscrizione
+     */
+    public <E extends Evento> Iscrizione<E> iscrivi(Class<E> tipo, Consumer<? super E> ricevitore) throws IllegalStateException {
+        return iscrivi(tipo, ricevitore, CAPACITA_PREDEFINITA);
+    }
+
+    /**
+     * Iscrive un ricevitore agli eventi del tipo indicato
+     * @param tipo il tipo di evento, {@link Evento} per riceverli tutti
+     * @param ricevitore il ricevitore, eseguito dal {@link Thread} dell'iscrizione
+     * @param capacita il numero massimo di eventi in attesa per questo ricevitore
+     * @return l'{@link Iscrizione}, annullabile
+     * @param <E> il tipo di evento
+     * @throws IllegalArgumentException se la capacità non è positiva
+     * @throws IllegalStateException se non è possibile creare il {@link Thread} dell'iscrizione
+     */
+    public <E extends Evento> Iscrizione<E> iscrivi(Class<E> tipo, Consumer<? super E> ricevitore, int capacita) throws IllegalArgumentException, IllegalStateException {
+        if(capacita <= 0) throw new IllegalArgumentException("Capacità dell'iscrizione non valida: " + capacita);
+        Iscrizione<E> iscrizione = new Iscrizione<>(tipo, ricevitore, capacita, "Thread degli eventi " + tipo.getSimpleName() + " " + (iscrizioni.size() + 1));
+        iscrizioni.add(iscrizione);
+        return iscrizione;
+    }
+
+    /**
+     * Pubblica un evento, accodandolo per ciascun iscritto al suo tipo senza attenderne la gestione
+     * @param evento l'evento
+     */
+    public void pubblica(Evento evento) {
+        pubblicati.increment();
+        for(Iscrizione<?> iscrizione : iscrizioni) {
+            iscrizione.offri(evento);
+        }
+    }
+
+    /**
+     * Annulla tutte le iscrizioni e attende che gli eventi già accodati vengano consegnati
+     * @param attesa l'attesa massima complessiva in millisecondi
+     */
+    public void chiudi(long attesa) {
+        List<Iscrizione<?>> attive = new ArrayList<>(iscrizioni);
+        attive.forEach(Iscrizione::annulla);
+        long limite = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(attesa);
+        for(Iscrizione<?> iscrizione : attive) {
+            if(iscrizione.thread == Thread.currentThread()) continue;
+            try {
+                long rimanente = limite - System.nanoTime();
+                if(rimanente > 0) iscrizione.thread.join(TimeUnit.NANOSECONDS.toMillis(rimanente) + 1);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Restituisce le statistiche del bus: eventi pubblicati e, per ciascun iscritto, eventi consegnati, in coda e persi
+     * @return le statistiche del bus
+     */
+    public String getStatistiche() {
+        StringBuilder statistiche = new StringBuilder("Eventi: ").append(pubblicati.sum()).append(" pubblicati");
+        for(Iscrizione<?> iscrizione : iscrizioni) {
+            statistiche.append(", ").append(iscrizione.getStatistiche());
+        }
+        return statistiche.toString();
+    }
+}
@@ -0,0 +1,78 @@
+package edu.avolta.tpsit.multicastudpsocketchat.gestione;
+
+/**
+ * Evento pubblicato sul {@link BusEventi} di un {@link edu.avolta.tpsit.multicastudpsocketchat.host.MulticastPeer}.
+ * <p>
+ * Gli eventi sono immutabili e trasportano già i dati necessari agli iscritti, che non devono interrogare la cronologia o la rubrica né interpretare stringhe.
+ *
+ * @author Matteo Bagnoletti Tini
+ * @version 1.0
+ * @project MulticastUDPSocketChat
+ * @see BusEventi
+ */
+public sealed interface Evento {
+
+    /**
+     * Messaggio ricevuto da un altro utente, da mostrare nella chat
+     * @param mittente l'alias del mittente in rubrica
+     * @param testo il testo del messaggio
+     * @param privato se il messaggio è stato inviato in unicast soltanto a questo utente
+     */
+    record MessaggioRicevuto(String mittente, String testo, boolean privato) implements Evento {}
+
+    /**
+     * Messaggio inviato da questo utente, da mostrare nella chat
+     * @param testo il testo del messaggio
+     * @param id l'<code>ID</code> del messaggio
+     * @param timestamp l'orario di invio, nel formato <code>HH:mm</code>
+     */
+    record MessaggioInviato(String testo, int id, String timestamp) implements Evento {}
+
+    /**
+     * Messaggio inviato confermato da tutti i destinatari attesi
+     * @param id l'<code>ID</code> del messaggio
+     * @param timestamp l'orario di invio, nel formato <code>HH:mm</code>
+     */
+    record AckCompletato(int id, String timestamp) implements Evento {}
+
+    /**
+     * Messaggio inviato non confermato da tutti i destinatari attesi nemmeno dopo le ritrasmissioni
+     * @param id l'<code>ID</code> del messaggio
+     * @param timestamp l'orario di invio, nel formato <code>HH:mm</code>
+     */
+    record InvioFallito(int id, String timestamp) implements Evento {}
+
+    /**
+     * Utente aggiunto alla rubrica, o recuperato dal cestino
+     * @param alias l'alias dell'utente in rubrica
+     * @param online il numero di utenti online, compreso questo
+     */
+    record UtenteEntrato(String alias, int online) implements Evento {}
+
+    /**
+     * Utente rimosso dalla rubrica
+     * @param alias l'alias dell'utente in rubrica
+     * @param online il numero di utenti online, compreso questo
+     */
+    record UtenteUscito(String alias, int online) implements Evento {}
+
+    /**
+     * Utente rinominato in rubrica
+     * @param alias l'alias precedente
+     * @param nuovoAlias il nuovo alias
+     */
+    record UtenteRinominato(String alias, String nuovoAlias) implements Evento {}
+
+    /**
+     * Statistiche della connessione aggiornate
+     * @param indirizzoIPLocale l'indirizzo IP locale
+     * @param portaLocale la porta del canale unicast
+     * @param indirizzoIPGruppo l'indirizzo IP del gruppo
+     * @param portaGruppo la porta del gruppo
+     * @param messaggiInviati il numero di messaggi inviati
+     * @param messaggiRicevuti il numero di messaggi ricevuti
+     * @param inviatiConSuccesso la percentuale di messaggi inviati confermati da tutti i destinatari
+     * @param duplicatiScartati il numero di messaggi duplicati scartati
+     */
+    record StatisticheAggiornate(String indirizzoIPLocale, int portaLocale, String indirizzoIPGruppo, int portaGruppo, int messaggiInviati, int messaggiRicevuti, String inviatiConSuccesso, long duplicatiScartati) implements Evento {}
+}
@@ -38,14 +38,9 @@ public class ProjectOutput {
             case OutputType.LOG -> System.out.println("\033[1;37m# " + output + "\033[0m");
             
             case OutputType.UIOUT -> {
+                /* i messaggi degli utenti vengono pubblicati sul BusEventi: qui restano soltanto le comunicazioni di servizio */
                 if(controller != null && controller.application.isUIattiva()) {
-                    try {
-                        String mittente = output.split(":")[0];
-                        String messaggio = output.split(":")[1];
-                        if(!messaggio.trim().equals("DO-NOT-SHOW-THIS-MESSAGE")) controller.nuovoElemChat(messaggio, MsgType.RICEZIONE, null, mittente, null);
-                    } catch (ArrayIndexOutOfBoundsException e) {
-                        controller.nuovoElemChat(output, MsgType.GESTIONE, null, null, null);
-                    }
+                    controller.nuovoElemChat(output, MsgType.GESTIONE, null, null, null);
                 } else if (controller != null && !controller.application.isUIattiva()) {
                     stampa(output, OutputType.STDOUT);
                 }
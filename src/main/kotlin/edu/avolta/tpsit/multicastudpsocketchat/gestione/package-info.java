@@ -3,11 +3,14 @@
  * <p>
  * Le classi-entità {@link edu.avolta.tpsit.multicastudpsocketchat.gestione.ChatLogger} e {@link edu.avolta.tpsit.multicastudpsocketchat.gestione.ProjectOutput} forniscono metodi di classe statici per il corretto svolgimenti di operazioni di <code>logging</code> e <code>output</code> del programma.
  * {@link edu.avolta.tpsit.multicastudpsocketchat.gestione.ProjectOutput} è stata prevista per garantire flessibilità e scalabilità del progetto, in modo da poter eventualmente redigere altrove l'output generato.
+ * Il {@link edu.avolta.tpsit.multicastudpsocketchat.gestione.BusEventi} consegna gli {@link edu.avolta.tpsit.multicastudpsocketchat.gestione.Evento} di ciascun <code>peer</code> all'interfaccia grafica e agli altri consumatori, senza che le classi di rete ne dipendano.
  * <p>
  * Contiene:
  * <ul>
+ *     <li>{@link edu.avolta.tpsit.multicastudpsocketchat.gestione.BusEventi}</li>
  *     <li>{@link edu.avolta.tpsit.multicastudpsocketchat.gestione.ChatLogger}</li>
  *     <li>{@link edu.avolta.tpsit.multicastudpsocketchat.gestione.ChatLoggerType}</li>
+ *     <li>{@link edu.avolta.tpsit.multicastudpsocketchat.gestione.Evento}</li>
  *     <li>{@link edu.avolta.tpsit.multicastudpsocketchat.gestione.OutputType}</li>
  *     <li>{@link edu.avolta.tpsit.multicastudpsocketchat.gestione.ProjectOutput}</li>
  * </ul>
@@ -0,0 +1,264 @@
+package edu.avolta.tpsit.multicastudpsocketchat.host;
+
+import edu.avolta.tpsit.multicastudpsocketchat.comunicazione.TipoDatagramma;
+import edu.avolta.tpsit.multicastudpsocketchat.comunicazione.Trama;
+import edu.avolta.tpsit.multicastudpsocketchat.eccezioni.CommunicationException;
+import edu.avolta.tpsit.multicastudpsocketchat.gestione.ChatLogger;
+import edu.avolta.tpsit.multicastudpsocketchat.gestione.ChatLoggerType;
+import edu.avolta.tpsit.multicastudpsocketchat.gestione.OutputType;
+import edu.avolta.tpsit.multicastudpsocketchat.gestione.ProjectOutput;
+import edu.avolta.tpsit.security.SecurityGate;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Aggregatore dei messaggi in uscita di un {@link MulticastPeer}.
+ * <p>
+ * I messaggi codificati destinati allo stesso indirizzo vengono raccolti in una {@link Trama} e affidati all'operazione di {@link Invio}, che li cifra in un unico datagramma di dimensione non superiore all'<code>MTU</code> configurato.
+ * La <code>trama</code> viene inviata quando non può accogliere altri messaggi o, al più tardi, allo scadere del ritardo di aggregazione.
+ * Una <code>trama</code> con un solo messaggio viene inviata come messaggio singolo.
+ * Il traffico di controllo e i messaggi della chat vengono aggregati in <code>trame</code> distinte, in modo che ciascun datagramma proceda nella propria corsia di {@link Priorita}.
+ * I ritardi di aggregazione sono gestiti come timer del {@link CicloEventi}, senza {@link Thread} dedicati: allo scadere di un ritardo l'invio della <code>trama</code> viene affidato a un {@link Thread} virtuale delle {@link Attivita},
+ * in modo che il ciclo non attenda il monitor dell'<code>aggregatore</code> né la coda di cifratura della {@link PipelineInvio}, che possono bloccarsi quando l'invio rallenta.
+ *
+ * @author Matteo Bagnoletti Tini
+ * @version 1.0
+ * @project MulticastUDPSocketChat
+ * @see Trama
+ */
+public class Aggregatore {
+
+    /**
+     * Operazione di cifratura e invio di un datagramma
+     */
+    @FunctionalInterface
+    public interface Invio {
+        /**
+         * Cifra e invia il contenuto alla destinazione indicata
+         * @param inChiaro il contenuto del datagramma, in chiaro
+         * @param tipo il {@link TipoDatagramma} del contenuto
+         * @param destinazione l'indirizzo di destinazione
+         * @param completamenti i completamenti dei messaggi contenuti nel datagramma, da completare al termine dell'invio
+         * @throws IOException se si verifica un errore nell'invio del datagramma
+         * @throws CommunicationException se si verifica un errore legato alla chat multicast
+         */
+        void invia(byte[] inChiaro, TipoDatagramma tipo, InetSocketAddress destinazione, List<CompletableFuture<Void>> completamenti) throws IOException, CommunicationException;
+    }
+
+    /**
+     * Messaggi in attesa di invio verso una stessa destinazione
+     */
+    private static final class Lotto {
+        private final List<byte[]> messaggi = new ArrayList<>();
+        private final List<CompletableFuture<Void>> completamenti = new ArrayList<>();
+        private int dimensione = Trama.DIM_INTESTAZIONE;
+        private TipoDatagramma tipo;
+        private CicloEventi.Timer scadenza;
+    }
+
+    private final Invio invio;
+
+    /**
+     * Dimensione massima in byte del testo in chiaro di un datagramma
+     */
+    private final int capacita;
+
+    /**
+     * Attesa massima in millisecondi prima dell'invio di una <code>trama</code>. Con <code>0</code> i messaggi vengono inviati immediatamente.
+     */
+    private final long ritardo;
+
+    /**
+     * I lotti in attesa di invio, per corsia e destinazione
+     */
+    private final EnumMap<Priorita, HashMap<InetSocketAddress, Lotto>> lotti = new EnumMap<>(Priorita.class);
+
+    private final CicloEventi cicloEventi;
+
+    private final Attivita attivita;
+
+    /* statistiche */
+    private long messaggiAccodati;
+    private long datagrammiInviati;
+
+    /**
+     * Crea un <code>aggregatore</code>
+     * @param invio l'operazione di cifratura e invio dei datagrammi
+     * @param cicloEventi il {@link CicloEventi} che esegue i ritardi di aggregazione
+     * @param attivita le {@link Attivita} del <code>peer</code>, che inviano le <code>trame</code> allo scadere dei ritardi
+     * @param mtu la dimensione massima in byte dei datagrammi, cifratura compresa
+     * @param ritardo l'attesa massima in millisecondi prima dell'invio di una <code>trama</code>, <code>0</code> per disattivare l'aggregazione
+     * @throws IllegalArgumentException se l'<code>MTU</code> non è sufficiente a contenere un messaggio cifrato o il ritardo è negativo
+     */
+    public Aggregatore(final Invio invio, final CicloEventi cicloEventi, final Attivita attivita, final int mtu, final long ritardo) throws IllegalArgumentException {
+        if(mtu <= SecurityGate.OVERHEAD_MASSIMO + Trama.DIM_INTESTAZIONE) throw new IllegalArgumentException("MTU non valido: " + mtu);
+        if(ritardo < 0) throw new IllegalArgumentException("Ritardo di aggregazione non valido: " + ritardo);
+        this.invio = invio;
+        this.capacita = mtu - SecurityGate.OVERHEAD_MASSIMO;
+        this.ritardo = ritardo;
+        this.cicloEventi = cicloEventi;
+        this.attivita = attivita;
+        for(Priorita priorita : Priorita.values()) lotti.put(priorita, new HashMap<>());
+    }
+
+    /**
+     * Accoda un messaggio codificato per la destinazione indicata.
+     * Se il messaggio non può essere aggiunto alla <code>trama</code> in attesa, questa viene inviata immediatamente.
+     * @param messaggio il messaggio codificato, in chiaro
+     * @param tipo il {@link TipoDatagramma} del messaggio
+     * @param destinazione l'indirizzo di destinazione
+     * @param completamento il {@link CompletableFuture} da completare al termine dell'invio del messaggio
+     * @throws IOException se si verifica un errore nell'invio del datagramma
+     * @throws CommunicationException se si verifica un errore legato alla chat multicast
+     */
+    public synchronized void accoda(byte[] messaggio, TipoDatagramma tipo, InetSocketAddress destinazione, CompletableFuture<Void> completamento) throws IOException, CommunicationException {
+        messaggiAccodati++;
+        int costo = Trama.costo(messaggio.length);
+        Priorita priorita = Priorita.di(tipo);
+
+        /* aggregazione disattivata o messaggio troppo grande per una trama (verrà eventualmente frammentato dall'operazione di invio) */
+        if(ritardo == 0 || Trama.DIM_INTESTAZIONE + costo > capacita) {
+            svuota(destinazione, priorita);
+            spedisci(messaggio, tipo, destinazione, List.of(completamento));
+            return;
+        }
+
+        HashMap<InetSocketAddress, Lotto> corsia = lotti.get(priorita);
+        Lotto lotto = corsia.get(destinazione);
+        if(lotto != null && lotto.dimensione + costo > capacita) {
+            svuota(destinazione, priorita);
+            lotto = null;
+        }
+        if(lotto == null) {
+            Lotto nuovo = new Lotto();
+            corsia.put(destinazione, nuovo);
+            nuovo.scadenza = cicloEventi.pianifica(() -> scadenza(destinazione, priorita, nuovo), ritardo);
+            lotto = nuovo;
+        }
+        lotto.messaggi.add(messaggio);
+        lotto.completamenti.add(completamento);
+        lotto.dimensione += costo;
+        lotto.tipo = lotto.tipo == null ? tipo : lotto.tipo.unisci(tipo);
+    }
+
+    /**
+     * Invia immediatamente le <code>trame</code> in attesa per la destinazione indicata, prima quella di controllo
+     * @param destinazione l'indirizzo di destinazione
+     * @throws IOException se si verifica un errore nell'invio del datagramma
+     * @throws CommunicationException se si verifica un errore legato alla chat multicast
+     */
+    public synchronized void svuota(InetSocketAddress destinazione) throws IOException, CommunicationException {
+        for(Priorita priorita : Priorita.values()) svuota(destinazione, priorita);
+    }
+
+    /**
+     * Invia immediatamente la <code>trama</code> in attesa per la destinazione e la corsia indicate, se presente
+     */
+    private void svuota(InetSocketAddress destinazione, Priorita priorita) throws IOException, CommunicationException {
+        Lotto lotto = lotti.get(priorita).remove(destinazione);
+        if(lotto == null) return;
+        if(lotto.scadenza != null) lotto.scadenza.annulla();
+
+        if(lotto.messaggi.size() == 1) {
+            spedisci(lotto.messaggi.getFirst(), lotto.tipo, destinazione, lotto.completamenti);
+        } else {
+            spedisci(Trama.impacchetta(lotto.messaggi), lotto.tipo, destinazione, lotto.completamenti);
+            ChatLogger.log("Trama di " + lotto.messaggi.size() + " messaggi inviata a " + destinazione, ChatLoggerType.OPTIONAL);
+        }
+    }
+
+    /**
+     * Invia immediatamente tutte le <code>trame</code> in attesa
+     */
+    public synchronized void svuotaTutto() {
+        for(Priorita priorita : Priorita.values()) {
+            for(InetSocketAddress destinazione : new ArrayList<>(lotti.get(priorita).keySet())) {
+                try {
+                    svuota(destinazione, priorita);
+                } catch (IOException | CommunicationException e) {
+                    ProjectOutput.stampa("Impossibile inviare i messaggi in attesa: " + e.getMessage(), OutputType.STDERR);
+                }
+            }
+        }
+    }
+
+    /**
+     * Invia le <code>trame</code> in attesa, annullandone i ritardi di aggregazione
+     */
+    public synchronized void chiudi() {
+        svuotaTutto();
+    }
+
+    /**
+     * Restituisce il numero di messaggi accodati
+     * @return il numero di messaggi accodati
+     */
+    public synchronized long getMessaggiAccodati() {
+        return messaggiAccodati;
+    }
+
+    /**
+     * Restituisce il numero di datagrammi effettivamente inviati
+     * @return il numero di datagrammi inviati
+     */
+    public synchronized long getDatagrammiInviati() {
+        return datagrammiInviati;
+    }
+
+    /**
+     * Allo scadere del ritardo di aggregazione affida l'invio della <code>trama</code> a un {@link Thread} virtuale.
+     * Eseguito dal {@link Thread} del {@link CicloEventi}, che non deve attendere l'operazione di {@link Invio}.
+     * @param destinazione l'indirizzo di destinazione
+     * @param priorita la corsia della <code>trama</code>
+     * @param lotto il lotto a cui appartiene il ritardo
+     */
+    private void scadenza(InetSocketAddress destinazione, Priorita priorita, Lotto lotto) {
+        try {
+            attivita.avvia("Aggregazione per " + destinazione, () -> inviaScaduto(destinazione, priorita, lotto));
+        } catch (IllegalStateException e) {
+            /* le attività sono già chiuse: le trame in attesa sono state inviate dalla chiusura dell'aggregatore */
+            ChatLogger.log("Trama per " + destinazione + " non inviata: aggregatore già chiuso", ChatLoggerType.OPTIONAL);
+        }
+    }
+
+    /**
+     * Invia la <code>trama</code> il cui ritardo di aggregazione è scaduto
+     * @param destinazione l'indirizzo di destinazione
+     * @param priorita la corsia della <code>trama</code>
+     * @param lotto il lotto a cui appartiene il ritardo
+     */
+    private synchronized void inviaScaduto(InetSocketAddress destinazione, Priorita priorita, Lotto lotto) {
+        /* il lotto può essere già stato inviato perché pieno: un lotto successivo per la stessa destinazione attende il proprio ritardo */
+        if(lotti.get(priorita).get(destinazione) != lotto) return;
+        try {
+            svuota(destinazione, priorita);
+        } catch (IOException | CommunicationException e) {
+            ProjectOutput.stampa("Impossibile inviare i messaggi in attesa: " + e.getMessage(), OutputType.STDERR);
+        }
+    }
+
+    /**
+     * Invia un datagramma attraverso l'operazione di {@link Invio}
+     * @param inChiaro il contenuto del datagramma, in chiaro
+     * @param tipo il {@link TipoDatagramma} del contenuto
+     * @param destinazione l'indirizzo di destinazione
+     * @param completamenti i completamenti dei messaggi contenuti nel datagramma, completati eccezionalmente in caso di errore
+     * @throws IOException se si verifica un errore nell'invio del datagramma
+     * @throws CommunicationException se si verifica un errore legato alla chat multicast
+     */
+    private void spedisci(byte[] inChiaro, TipoDatagramma tipo, InetSocketAddress destinazione, List<CompletableFuture<Void>> completamenti) throws IOException, CommunicationException {
+        try {
+            invio.invia(inChiaro, tipo, destinazione, completamenti);
+        } catch (IOException | CommunicationException e) {
+            completamenti.forEach(c -> c.completeExceptionally(e));
+            throw e;
+        }
+        datagrammiInviati++;
+    }
+}
@@ -0,0 +1,143 @@
+package edu.avolta.tpsit.multicastudpsocketchat.host;
+
+import edu.avolta.tpsit.multicastudpsocketchat.gestione.ChatLogger;
+import edu.avolta.tpsit.multicastudpsocketchat.gestione.ChatLoggerType;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Insieme delle attività di un {@link MulticastPeer}, ciascuna eseguita da un {@link Thread} virtuale.
+ * <p>
+ * Le fasi della {@link PipelineInvio}, lo {@link Scrittore}, i {@link Thread} di decodifica della {@link PipelineRicezione} e la lettura dell'input dell'utente vengono avviati dall'insieme del proprio <code>peer</code>.
+ * Alla chiusura l'insieme rifiuta nuove attività, interrompe quelle ancora in esecuzione e ne attende la terminazione: nessuna attività sopravvive al <code>peer</code> che l'ha avviata.
+ * È lo stesso modello della concorrenza strutturata, il cui <code>StructuredTaskScope</code> è però ancora un'API in anteprima del JDK.
+ * <p>
+ * I {@link Thread} virtuali sono eseguiti da pochi {@link Thread} della piattaforma condivisi da tutta la JVM: più <code>peer</code> nella stessa JVM, ad esempio nelle prove di carico, non richiedono un {@link Thread} del sistema operativo per ciascuna attività.
+ * Il {@link CicloEventi} resta invece su un {@link Thread} della piattaforma, che il {@link java.nio.channels.Selector} occuperebbe comunque per tutta l'attesa.
+ *
+ * @author Matteo Bagnoletti Tini
+ * @version 1.0
+ * @project MulticastUDPSocketChat
+ */
+public class Attivita {
+
+    /**
+     * Attesa predefinita, in millisecondi, per la terminazione delle attività interrotte alla chiusura
+     */
+    public static final long ATTESA_PREDEFINITA = 1000;
+
+    private final String nome;
+
+    /**
+     * I {@link Thread} creati e non ancora terminati
+     */
+    private final Set<Thread> inEsecuzione = ConcurrentHashMap.newKeySet();
+
+    private final LongAdder avviate = new LongAdder();
+
+    private boolean chiusa;
+
+    /**
+     * Crea un insieme di attività
+     * @param nome il nome dell'insieme, utilizzato nei messaggi di log
+     */
+    public Attivita(final String nome) {
+        this.nome = nome;
+    }
+
+    /**
+     * Avvia un'attività in un nuovo {@link Thread} virtuale
+     * @param nome il nome del {@link Thread}
+     * @param compito l'attività da eseguire
+     * @return il {@link Thread} avviato
+     * @throws IllegalStateException se l'insieme è già stato chiuso
+     */
+    public Thread avvia(String nome, Runnable compito) throws IllegalStateException {
+        Thread thread = crea(nome, compito);
+        if(thread == null) throw new IllegalStateException("Attività di " + this.nome + " già chiuse: impossibile avviare " + nome);
+        thread.start();
+        return thread;
+    }
+
+    /**
+     * Restituisce una {@link ThreadFactory} di {@link Thread} virtuali appartenenti all'insieme, ad esempio per un {@link java.util.concurrent.ThreadPoolExecutor}.
+     * Dopo la chiusura dell'insieme la {@link ThreadFactory} non crea più {@link Thread} e restituisce <code>null</code>.
+     * @param prefisso il prefisso del nome dei {@link Thread}, seguito da un numero progressivo
+     * @return la {@link ThreadFactory}
+     */
+    public ThreadFactory fabbrica(String prefisso) {
+        AtomicInteger numero = new AtomicInteger();
+        return compito -> crea(prefisso + numero.incrementAndGet(), compito);
+    }
+
+    /**
+     * Chiude l'insieme: interrompe le attività ancora in esecuzione e ne attende la terminazione.
+     * Le attività dovrebbero essere già state arrestate ordinatamente dai rispettivi proprietari; l'interruzione riguarda soltanto quelle rimaste bloccate.
+     * Il {@link Thread} chiamante, se appartiene all'insieme, non viene interrotto né atteso.
+     * @param attesa l'attesa massima complessiva in millisecondi
+     * @return il numero di attività non terminate entro l'attesa
+     */
+    public int chiudi(long attesa) {
+        List<Thread> ancoraAttive;
+        synchronized (this) {
+            chiusa = true;
+            ancoraAttive = new ArrayList<>(inEsecuzione);
+        }
+        ancoraAttive.remove(Thread.currentThread());
+        ancoraAttive.forEach(Thread::interrupt);
+        long limite = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(attesa);
+        int nonTerminate = 0;
+        for(Thread thread : ancoraAttive) {
+            try {
+                long rimanente = limite - System.nanoTime();
+                if(rimanente > 0) thread.join(TimeUnit.NANOSECONDS.toMillis(rimanente) + 1);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if(thread.isAlive()) nonTerminate++;
+        }
+        if(nonTerminate > 0) ChatLogger.log(nonTerminate + " attività di " + nome + " non terminate entro " + attesa + " ms", ChatLoggerType.OPTIONAL);
+        return nonTerminate;
+    }
+
+    /**
+     * Restituisce il numero di attività in esecuzione
+     * @return il numero di {@link Thread} creati e non ancora terminati
+     */
+    public int getInEsecuzione() {
+        return inEsecuzione.size();
+    }
+
+    /**
+     * Restituisce le statistiche dell'insieme
+     * @return le statistiche delle attività
+     */
+    public String getStatistiche() {
+        return "Attività: " + avviate.sum() + " avviate, " + getInEsecuzione() + " in esecuzione su thread virtuali";
+    }
+
+    /**
+     * Crea un {@link Thread} virtuale non avviato, registrandolo fino alla sua terminazione
+     * @return il {@link Thread}, <code>null</code> se l'insieme è già stato chiuso
+     */
+    private synchronized Thread crea(String nome, Runnable compito) {
+        if(chiusa) return null;
+        Thread thread = Thread.ofVirtual().name(nome).unstarted(() -> {
+            try {
+                compito.run();
+            } finally {
+                inEsecuzione.remove(Thread.currentThread());
+            }
+        });
+        inEsecuzione.add(thread);
+        avviate.increment();
+        return thread;
+    }
+}
@@ -0,0 +1,265 @@
+package edu.avolta.tpsit.multicastudpsocketchat.host;
+
+import edu.avolta.tpsit.multicastudpsocketchat.gestione.ChatLogger;
+import edu.avolta.tpsit.multicastudpsocketchat.gestione.ChatLoggerType;
+import edu.avolta.tpsit.multicastudpsocketchat.gestione.OutputType;
+import edu.avolta.tpsit.multicastudpsocketchat.gestione.ProjectOutput;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Ciclo di eventi di un {@link MulticastPeer}: un unico {@link Thread} che attende, attraverso un {@link Selector}, i datagrammi di tutti i {@link DatagramChannel} registrati ed esegue i timer.
+ * <p>
+ * A ogni iterazione il ciclo:
+ * <ol>
+ *     <li>esegue le operazioni richieste da altri {@link Thread} (registrazioni di canali e timer)</li>
+ *     <li>attende che almeno un canale sia leggibile, al più fino alla scadenza del prossimo timer</li>
+ *     <li>affida ciascun canale leggibile al relativo {@link Lettore}, che lo svuota senza bloccarsi</li>
+ *     <li>esegue i timer scaduti</li>
+ * </ol>
+ * Il numero di {@link Thread} resta costante indipendentemente dal numero di canali registrati. Le operazioni eseguite nel ciclo non devono bloccarsi.
+ * Canali e timer possono essere registrati anche prima dell'{@link #avvia() avvio}: vengono presi in carico alla prima iterazione.
+ *
+ * @author Matteo Bagnoletti Tini
+ * @version 1.0
+ * @project MulticastUDPSocketChat
+ */
+public class CicloEventi {
+
+    /**
+     * Lettura dei datagrammi disponibili su un canale
+     */
+    @FunctionalInterface
+    public interface Lettore {
+        /**
+         * Legge i datagrammi disponibili sul canale, senza bloccarsi
+         * @param canale il canale leggibile
+         * @throws IOException se si verifica un errore di lettura: il canale viene rimosso dal ciclo
+         */
+        void leggibile(DatagramChannel canale) throws IOException;
+    }
+
+    /**
+     * Timer pianificato nel ciclo di eventi
+     */
+    public static final class Timer implements Comparable<Timer> {
+        private final Runnable azione;
+        private final long periodo;
+        private long scadenza;
+        private volatile boolean annullato;
+
+        private Timer(Runnable azione, long scadenza, long periodo) {
+            this.azione = azione;
+            this.scadenza = scadenza;
+            this.periodo = periodo;
+        }
+
+        /**
+         * Annulla il timer. Se il timer è in esecuzione, l'esecuzione corrente non viene interrotta.
+         */
+        public void annulla() {
+            annullato = true;
+        }
+
+        @Override
+        public int compareTo(Timer altro) {
+            return Long.compare(scadenza, altro.scadenza);
+        }
+    }
+
+    /**
+     * Numero massimo di tentativi di invio quando il buffer di invio del sistema operativo è pieno
+     */
+    private static final int TENTATIVI_INVIO = 50;
+
+    private final String nome;
+
+    private volatile Selector selector;
+
+    private Thread thread;
+
+    /**
+     * Operazioni richieste da altri {@link Thread}, eseguite dal ciclo
+     */
+    private final ConcurrentLinkedQueue<Runnable> richieste = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Timer in attesa, in ordine di scadenza. Accessibile solo dal {@link Thread} del ciclo.
+     */
+    private final PriorityQueue<Timer> timer = new PriorityQueue<>();
+
+    private volatile boolean attivo = true;
+
+    /**
+     * Crea un ciclo di eventi, senza avviarlo
+     * @param nome il nome del {@link Thread} del ciclo
+     */
+    public CicloEventi(final String nome) {
+        this.nome = nome;
+    }
+
+    /**
+     * Apre il {@link Selector} e avvia il {@link Thread} del ciclo
+     * @throws IOException se non è possibile aprire il {@link Selector}
+     * @throws IllegalStateException se il ciclo è già stato avviato
+     */
+    public synchronized void avvia() throws IOException, IllegalStateException {
+        if(selector != null) throw new IllegalStateException("Ciclo di eventi già avviato");
+        this.selector = Selector.open();
+        this.thread = new Thread(this::ciclo, nome);
+        this.thread.setDaemon(true);
+        this.thread.start();
+        ChatLogger.log(nome + " avviato", ChatLoggerType.OPTIONAL);
+    }
+
+    /**
+     * Registra un canale non bloccante nel ciclo
+     * @param canale il canale, configurato come non bloccante
+     * @param lettore la lettura dei datagrammi del canale, eseguita dal {@link Thread} del ciclo
+     */
+    public void registra(DatagramChannel canale, Lettore lettore) {
+        esegui(() -> {
+            try {
+                canale.register(selector, SelectionKey.OP_READ, lettore);
+            } catch (ClosedChannelException e) {
+                ChatLogger.log("Impossibile registrare un canale già chiuso", ChatLoggerType.OPTIONAL);
+            }
+        });
+    }
+
+    /**
+     * Pianifica un'azione da eseguire una sola volta nel ciclo
+     * @param azione l'azione, che non deve bloccarsi
+     * @param ritardo il ritardo in millisecondi
+     * @return il {@link Timer}, annullabile
+     */
+    public Timer pianifica(Runnable azione, long ritardo) {
+        return pianifica(azione, ritardo, 0);
+    }
+
+    /**
+     * Pianifica un'azione da eseguire periodicamente nel ciclo
+     * @param azione l'azione, che non deve bloccarsi
+     * @param ritardo il ritardo in millisecondi della prima esecuzione
+     * @param periodo l'intervallo in millisecondi tra l'inizio di due esecuzioni, <code>0</code> per una sola esecuzione
+     * @return il {@link Timer}, annullabile
+     */
+    public Timer pianifica(Runnable azione, long ritardo, long periodo) {
+        Timer nuovo = new Timer(azione, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(ritardo), TimeUnit.MILLISECONDS.toNanos(periodo));
+        esegui(() -> timer.add(nuovo));
+        return nuovo;
+    }
+
+    /**
+     * Esegue un'operazione nel {@link Thread} del ciclo
+     * @param operazione l'operazione, che non deve bloccarsi
+     */
+    public void esegui(Runnable operazione) {
+        richieste.add(operazione);
+        Selector attuale = selector;
+        if(attuale != null) attuale.wakeup();
+    }
+
+    /**
+     * Arresta il ciclo e chiude il {@link Selector}. I canali registrati non vengono chiusi.
+     */
+    public synchronized void chiudi() {
+        attivo = false;
+        if(selector == null) return;
+        selector.wakeup();
+        if(Thread.currentThread() != thread) {
+            try {
+                thread.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Invia un datagramma attraverso un canale non bloccante.
+     * Se il buffer di invio del sistema operativo è temporaneamente pieno, l'invio viene ritentato per un breve intervallo.
+     * @param canale il canale
+     * @param datagramma il datagramma, tra posizione e limite del buffer
+     * @param destinazione l'indirizzo di destinazione
+     * @throws IOException se si verifica un errore di invio o il buffer di invio resta pieno
+     */
+    public static void invia(DatagramChannel canale, ByteBuffer datagramma, SocketAddress destinazione) throws IOException {
+        for(int tentativo = 0; tentativo < TENTATIVI_INVIO; tentativo++) {
+            if(canale.send(datagramma, destinazione) > 0) return;
+            LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(100));
+        }
+        throw new IOException("Buffer di invio pieno");
+    }
+
+    private void ciclo() {
+        try {
+            while(attivo) {
+                Runnable richiesta;
+                while((richiesta = richieste.poll()) != null) richiesta.run();
+
+                Timer prossimo = timer.peek();
+                if(prossimo == null) {
+                    selector.select();
+                } else {
+                    long rimanente = prossimo.scadenza - System.nanoTime();
+                    /* l'attesa viene arrotondata per eccesso: un timer a meno di un millisecondo dalla scadenza non fa girare il ciclo a vuoto */
+                    if(rimanente > 0) selector.select((rimanente + 999_999) / 1_000_000); else selector.selectNow();
+                }
+
+                Iterator<SelectionKey> chiavi = selector.selectedKeys().iterator();
+                while(chiavi.hasNext()) {
+                    SelectionKey chiave = chiavi.next();
+                    chiavi.remove();
+                    if(!chiave.isValid() || !chiave.isReadable()) continue;
+                    try {
+                        ((Lettore) chiave.attachment()).leggibile((DatagramChannel) chiave.channel());
+                    } catch (IOException e) {
+                        chiave.cancel();
+                    } catch (RuntimeException e) {
+                        ProjectOutput.stampa("Errore nel ciclo di eventi: " + e.getMessage(), OutputType.STDERR);
+                    }
+                }
+
+                eseguiTimer();
+            }
+        } catch (IOException e) {
+            ProjectOutput.stampa("Errore nel ciclo di eventi: " + e.getMessage(), OutputType.STDERR);
+        } finally {
+            try {
+                selector.close();
+            } catch (IOException e) {
+                ChatLogger.log("Impossibile chiudere il selector", ChatLoggerType.OPTIONAL);
+            }
+        }
+    }
+
+    private void eseguiTimer() {
+        long adesso = System.nanoTime();
+        Timer prossimo;
+        while((prossimo = timer.peek()) != null && prossimo.scadenza - adesso <= 0) {
+            timer.poll();
+            if(prossimo.annullato) continue;
+            try {
+                prossimo.azione.run();
+            } catch (RuntimeException e) {
+                ProjectOutput.stampa("Errore in un timer del ciclo di eventi: " + e.getMessage(), OutputType.STDERR);
+            }
+            if(prossimo.periodo > 0 && !prossimo.annullato) {
+                prossimo.scadenza += prossimo.periodo;
+                timer.add(prossimo);
+            }
+        }
+    }
+}
@@ -0,0 +1,352 @@
+package edu.avolta.tpsit.multicastudpsocketchat.host;
+
+import java.util.AbstractQueue;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+
+/**
+ * Coda bloccante con una corsia per ciascuna {@link Priorita}, utilizzata dalle fasi della {@link PipelineInvio} e dai {@link Thread} di decodifica della {@link PipelineRicezione}.
+ * <p>
+ * Ogni elemento viene assegnato a una corsia dal classificatore indicato alla creazione. Ciascuna corsia ha una capacità propria, in modo che una raffica di messaggi della chat non possa riempire la coda
+ * e rifiutare il traffico di controllo. Gli elementi di una stessa corsia vengono prelevati nell'ordine di accodamento; tra le due corsie decide la {@link Pianificazione}.
+ * <p>
+ * Per ciascuna corsia vengono registrate le {@link Latenza} tra l'accodamento e il prelievo.
+ *
+ * @param <E> il tipo degli elementi
+ *
+ * @author Matteo Bagnoletti Tini
+ * @version 1.0
+ * @project MulticastUDPSocketChat
+ */
+public class CodaPriorita<E> extends AbstractQueue<E> implements BlockingQueue<E> {
+
+    /**
+     * Elemento in coda con l'istante di accodamento
+     */
+    private record Voce<E>(E elemento, long accodato) {}
+
+    /**
+     * Elementi e latenze di una corsia
+     */
+    private static final class Corsia<E> {
+        private final ArrayDeque<Voce<E>> voci = new ArrayDeque<>();
+        private final int capacita;
+        private final Latenza latenza = new Latenza();
+
+        private Corsia(int capacita) {
+            this.capacita = capacita;
+        }
+    }
+
+    private final Corsia<E> controllo;
+
+    private final Corsia<E> dati;
+
+    private final Function<? super E, Priorita> classificatore;
+
+    private final Pianificazione pianificazione;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final Condition nonVuota = lock.newCondition();
+
+    private final Condition nonPiena = lock.newCondition();
+
+    /**
+     * Elementi di controllo prelevati dall'ultimo elemento della corsia dei dati
+     */
+    private int consecutivi;
+
+    /**
+     * Crea una coda con la stessa capacità per entrambe le corsie
+     * @param capacita il numero massimo di elementi in attesa in ciascuna corsia
+     * @param pianificazione la {@link Pianificazione} tra le corsie
+     * @param classificatore la funzione che assegna ciascun elemento a una corsia
+     * @throws IllegalArgumentException se la capacità non è positiva
+     */
+    public CodaPriorita(final int capacita, final Pianificazione pianificazione, final Function<? super E, Priorita> classificatore) throws IllegalArgumentException {
+        if(capacita <= 0) throw new IllegalArgumentException("Capacità della coda non valida: " + capacita);
+        this.controllo = new Corsia<>(capacita);
+        this.dati = new Corsia<>(capacita);
+        this.pianificazione = pianificazione;
+        this.classificatore = classificatore;
+    }
+
+    private Corsia<E> corsia(Priorita priorita) {
+        return priorita == Priorita.CONTROLLO ? controllo : dati;
+    }
+
+    private Corsia<E> corsia(E elemento) {
+        return corsia(classificatore.apply(elemento));
+    }
+
+    /**
+     * Sceglie la corsia del prossimo elemento da prelevare, con il lock acquisito
+     * @return la corsia, <code>null</code> se entrambe sono vuote
+     */
+    private Corsia<E> prossima() {
+        if(controllo.voci.isEmpty()) return dati.voci.isEmpty() ? null : dati;
+        if(dati.voci.isEmpty() || pianificazione.isTurnoControllo(consecutivi)) return controllo;
+        return dati;
+    }
+
+    /**
+     * Preleva un elemento dalla corsia indicata, con il lock acquisito
+     */
+    private E preleva(Corsia<E> corsia) {
+        Voce<E> voce = corsia.voci.poll();
+        consecutivi = corsia == controllo ? consecutivi + 1 : 0;
+        corsia.latenza.registra(voce.accodato());
+        nonPiena.signalAll();
+        return voce.elemento();
+    }
+
+    @Override
+    public boolean offer(E elemento) {
+        Corsia<E> corsia = corsia(elemento);
+        lock.lock();
+        try {
+            if(corsia.voci.size() >= corsia.capacita) return false;
+            corsia.voci.add(new Voce<>(elemento, System.nanoTime()));
+            nonVuota.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean offer(E elemento, long timeout, TimeUnit unita) throws InterruptedException {
+        Corsia<E> corsia = corsia(elemento);
+        long attesa = unita.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while(corsia.voci.size() >= corsia.capacita) {
+                if(attesa <= 0) return false;
+                attesa = nonPiena.awaitNanos(attesa);
+            }
+            corsia.voci.add(new Voce<>(elemento, System.nanoTime()));
+            nonVuota.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void put(E elemento) throws InterruptedException {
+        Corsia<E> corsia = corsia(elemento);
+        lock.lockInterruptibly();
+        try {
+            while(corsia.voci.size() >= corsia.capacita) nonPiena.await();
+            corsia.voci.add(new Voce<>(elemento, System.nanoTime()));
+            nonVuota.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public E poll() {
+        lock.lock();
+        try {
+            Corsia<E> corsia = prossima();
+            return corsia == null ? null : preleva(corsia);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public E poll(long timeout, TimeUnit unita) throws InterruptedException {
+        long attesa = unita.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            Corsia<E> corsia;
+            while((corsia = prossima()) == null) {
+                if(attesa <= 0) return null;
+                attesa = nonVuota.awaitNanos(attesa);
+            }
+            return preleva(corsia);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public E take() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            Corsia<E> corsia;
+            while((corsia = prossima()) == null) nonVuota.await();
+            return preleva(corsia);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Preleva l'elemento in attesa da più tempo di una sola corsia, senza attendere
+     * @param priorita la corsia
+     * @return l'elemento, <code>null</code> se la corsia è vuota
+     */
+    public E poll(Priorita priorita) {
+        lock.lock();
+        try {
+            Corsia<E> corsia = corsia(priorita);
+            return corsia.voci.isEmpty() ? null : preleva(corsia);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public E peek() {
+        lock.lock();
+        try {
+            Corsia<E> corsia = prossima();
+            return corsia == null ? null : corsia.voci.peek().elemento();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        lock.lock();
+        try {
+            return controllo.voci.size() + dati.voci.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Restituisce il numero di elementi in attesa in una corsia
+     * @param priorita la corsia
+     * @return il numero di elementi in attesa
+     */
+    public int size(Priorita priorita) {
+        lock.lock();
+        try {
+            return corsia(priorita).voci.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int remainingCapacity() {
+        lock.lock();
+        try {
+            return controllo.capacita - controllo.voci.size() + dati.capacita - dati.voci.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean remove(Object elemento) {
+        lock.lock();
+        try {
+            return rimuovi(controllo, elemento) || rimuovi(dati, elemento);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean rimuovi(Corsia<E> corsia, Object elemento) {
+        Iterator<Voce<E>> iteratore = corsia.voci.iterator();
+        while(iteratore.hasNext()) {
+            if(iteratore.next().elemento().equals(elemento)) {
+                iteratore.remove();
+                nonPiena.signalAll();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public int drainTo(Collection<? super E> destinazione) {
+        return drainTo(destinazione, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(Collection<? super E> destinazione, int massimo) {
+        lock.lock();
+        try {
+            int trasferiti = 0;
+            Corsia<E> corsia;
+            while(trasferiti < massimo && (corsia = prossima()) != null) {
+                destinazione.add(preleva(corsia));
+                trasferiti++;
+            }
+            return trasferiti;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Restituisce un iteratore su una copia degli elementi in attesa, prima quelli di controllo. La rimozione attraverso l'iteratore rimuove l'elemento dalla coda.
+     * @return l'iteratore degli elementi in attesa
+     */
+    @Override
+    public Iterator<E> iterator() {
+        List<E> copia;
+        lock.lock();
+        try {
+            copia = new ArrayList<>(controllo.voci.size() + dati.voci.size());
+            for(Voce<E> voce : controllo.voci) copia.add(voce.elemento());
+            for(Voce<E> voce : dati.voci) copia.add(voce.elemento());
+        } finally {
+            lock.unlock();
+        }
+        return new Iterator<>() {
+            private int indice;
+            private E ultimo;
+
+            @Override
+            public boolean hasNext() {
+                return indice < copia.size();
+            }
+
+            @Override
+            public E next() {
+                if(!hasNext()) throw new NoSuchElementException();
+                ultimo = copia.get(indice++);
+                return ultimo;
+            }
+
+            @Override
+            public void remove() {
+                if(ultimo == null) throw new IllegalStateException();
+                CodaPriorita.this.remove(ultimo);
+                ultimo = null;
+            }
+        };
+    }
+
+    /**
+     * Restituisce le metriche di ciascuna corsia: elementi in attesa e prelevati, attesa media e massima
+     * @return le metriche delle corsie
+     */
+    public String getStatistiche() {
+        lock.lock();
+        try {
+            return "controllo (coda " + controllo.voci.size() + ") " + controllo.latenza + ", dati (coda " + dati.voci.size() + ") " + dati.latenza;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -6,12 +6,16 @@ import edu.avolta.tpsit.multicastudpsocketchat.gestione.ChatLoggerType;
 
 import java.io.IOException;
 import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.MembershipKey;
 import java.util.Enumeration;
 
 /**
  * Generico <code>gruppo</code> UDP multicast.
  * <p>
- * Fornisce la {@link MulticastSocket} necessaria alla comunicazione multicast e i metodi di gestione.    
+ * Fornisce il {@link DatagramChannel} non bloccante necessario alla comunicazione multicast e i metodi di gestione.
+ * L'appartenenza al gruppo è rappresentata da una {@link MembershipKey}.
  *     
  * @author Matteo Bagnoletti Tini
  * @version 1.0
@@ -29,9 +33,14 @@ public class GroupChat {
     private final String pswGruppo;
     
     /**
-     * Socket per la comunicazione con un <code>gruppo</code> multicast
+     * Canale per la comunicazione con un <code>gruppo</code> multicast
      */
-    private MulticastSocket multicastSocket;
+    private DatagramChannel canale;
+
+    /**
+     * L'appartenenza del {@link #canale} al gruppo, <code>null</code> prima dell'{@link #avvia() avvio}
+     */
+    private MembershipKey appartenenza;
     
     /**
      * L'{@link  InetAddress} del gruppo
@@ -49,13 +58,13 @@ public class GroupChat {
     private int portaGruppo;
 
     /**
-     * L'interfaccia di rete utilizzata dalla {@link #multicastSocket}
+     * L'interfaccia di rete utilizzata dal {@link #canale}
      * @see #identificaNet()
      */
     private NetworkInterface interfacciaDiRete;
     
     /**
-     * Crea e configura opportunamente la {@link #multicastSocket}
+     * Crea e configura opportunamente il {@link #canale}
      * @param idWSChatterbox l'identificativo del gruppo ChatterBox memorizzato nel database e fornito dal Web Service
      * @param pswGruppo la password del gruppo ChatterBox memorizzata nel database per l'autenticazione
      * @param indirizzoMulticast l'{@link InetAddress} del <code>gruppo</code>
@@ -77,9 +86,13 @@ public class GroupChat {
         
         try {
             this.portaGruppo = portaMulticast;
-            this.multicastSocket = new MulticastSocket(portaGruppo);
-            this.multicastSocket.setTimeToLive(ttl);
-            this.multicastSocket.setOption(StandardSocketOptions.IP_MULTICAST_LOOP, !loopbackOff);
+            this.canale = DatagramChannel.open(StandardProtocolFamily.INET);
+            this.canale.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+            this.canale.bind(new InetSocketAddress(portaGruppo));
+            this.canale.setOption(StandardSocketOptions.IP_MULTICAST_IF, interfacciaDiRete);
+            this.canale.setOption(StandardSocketOptions.IP_MULTICAST_TTL, ttl);
+            this.canale.setOption(StandardSocketOptions.IP_MULTICAST_LOOP, !loopbackOff);
+            this.canale.configureBlocking(false);
             
             this.indirizzoMulticast = InetAddress.getByName(indirizzoMulticast);
             
@@ -89,7 +102,7 @@ public class GroupChat {
         } catch (UnknownHostException e) {
             throw new IllegalArgumentException("Indirizzo IP o di dominio non valido: " + e.getMessage());
         } catch (IOException e) {
-            throw new IOException("Errore nella creazione del Socket Multicast: " + e.getMessage());
+            throw new IOException("Errore nella creazione del canale multicast: " + e.getMessage());
         }
     }
 
@@ -98,15 +111,15 @@ public class GroupChat {
      * @throws IOException se si verificano errori di I/O unendosi al gruppo
      */
     public void avvia() throws IOException {
-        this.multicastSocket.joinGroup(gruppo, interfacciaDiRete);
+        this.appartenenza = this.canale.join(indirizzoMulticast, interfacciaDiRete);
     }
 
     /**
-     * Restituisce l'oggetto di {@link MulticastSocket}
-     * @return l'oggetto {@link MulticastSocket} se esiste, null altrimenti
+     * Restituisce il {@link DatagramChannel} non bloccante del gruppo
+     * @return il {@link DatagramChannel} se esiste, null altrimenti
      */
-    public MulticastSocket getMulticastSocket() {
-        return multicastSocket;
+    public DatagramChannel getCanale() {
+        return canale;
     }
 
     /**
@@ -114,9 +127,17 @@ public class GroupChat {
      * @throws CommunicationException se si verifica un errore legato alla chat multicast
      */
     public synchronized void multicast(byte[] buffer) throws CommunicationException {
-        DatagramPacket packet = new DatagramPacket(buffer, buffer.length, indirizzoMulticast, portaGruppo);
+        multicast(ByteBuffer.wrap(buffer));
+    }
+
+    /**
+     * Metodo di scrittura di messaggi di tipo multicast a partire da un buffer, anche di tipo <i>direct</i>, senza copiarne il contenuto
+     * @param buffer il buffer contenente il datagramma, tra posizione e limite
+     * @throws CommunicationException se si verifica un errore legato alla chat multicast
+     */
+    public synchronized void multicast(ByteBuffer buffer) throws CommunicationException {
         try {
-            multicastSocket.send(packet);
+            CicloEventi.invia(canale, buffer, gruppo);
             ChatLogger.log("Messaggio multicast inviato con successo", ChatLoggerType.OPTIONAL);
         } catch (IOException e) {
             throw new CommunicationException("Impossibile inviare il messaggio al gruppo: " + e.getMessage(), e.getCause());
@@ -166,6 +187,14 @@ public class GroupChat {
         return indirizzoMulticast;
     }
 
+    /**
+     * Restituisce l'{@link InetSocketAddress} del gruppo
+     * @return l'indirizzo multicast e la porta del gruppo
+     */
+    public InetSocketAddress getGruppo() {
+        return gruppo;
+    }
+
     /**
      * Restituisce la porta del gruppo
      * @return la porta del gruppo
@@ -191,17 +220,13 @@ public class GroupChat {
     }
 
     /**
-     * Abbandona il gruppo e chiude la {@link #multicastSocket}, rilasciando le risorse
-     * @throws IOException se si verificano errori di I/O abbandonando il gruppo
+     * Abbandona il gruppo e chiude il {@link #canale}, rilasciando le risorse
+     * @throws IOException se si verificano errori di I/O chiudendo il canale
      */
     public void chiudi() throws IOException {
-        if(multicastSocket != null && !multicastSocket.isClosed()) {
-            try {
-                multicastSocket.leaveGroup(gruppo, interfacciaDiRete);
-            } catch (IOException e) {
-                ChatLogger.log("Impossibile abbandonare il gruppo", ChatLoggerType.OPTIONAL);
-            }
-            multicastSocket.close();
+        if(canale != null && canale.isOpen()) {
+            if(appartenenza != null && appartenenza.isValid()) appartenenza.drop();
+            canale.close();
         }
     }
 }
@@ -0,0 +1,36 @@
+package edu.avolta.tpsit.multicastudpsocketchat.host;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Metriche di latenza di una corsia di {@link Priorita}: numero di elementi, attesa media e massima tra l'accodamento e il prelievo.
+ * Può essere aggiornata da più {@link Thread} senza lock.
+ *
+ * @author Matteo Bagnoletti Tini
+ * @version 1.0
+ * @project MulticastUDPSocketChat
+ */
+public final class Latenza {
+
+    private final LongAdder numero = new LongAdder();
+    private final LongAdder nano = new LongAdder();
+    private final LongAccumulator massima = new LongAccumulator(Math::max, 0);
+
+    /**
+     * Registra l'attesa di un elemento prelevato
+     * @param accodato l'istante dell'accodamento, da {@link System#nanoTime()}
+     */
+    public void registra(long accodato) {
+        long attesa = System.nanoTime() - accodato;
+        numero.increment();
+        nano.add(attesa);
+        massima.accumulate(attesa);
+    }
+
+    @Override
+    public String toString() {
+        long n = numero.sum();
+        return String.format("%d, attesa media %.1f µs, massima %.1f µs", n, n == 0 ? 0 : nano.sum() / 1000.0 / n, massima.get() / 1000.0);
+    }
+}
@@ -0,0 +1,144 @@
+package edu.avolta.tpsit.multicastudpsocketchat.host;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limitatore della velocità di invio verso una destinazione, secondo l'algoritmo del secchio di gettoni (<code>token bucket</code>).
+ * <p>
+ * I gettoni, in byte, si accumulano alla velocità corrente fino alla quantità di una {@link #RAFFICA}; ogni datagramma scritto ne consuma quanti sono i suoi byte.
+ * Un datagramma può essere scritto quando i gettoni non sono negativi, anche se più grande di quelli disponibili: il debito viene recuperato prima del datagramma successivo.
+ * <p>
+ * La velocità si adatta alle perdite (<code>AIMD</code>):
+ * <ul>
+ *     <li>a ogni perdita segnalata con {@link #segnalaPerdita()} viene dimezzata, al più una volta per {@link #INTERVALLO_RIDUZIONE} e non sotto un sedicesimo della velocità configurata</li>
+ *     <li>in assenza di perdite risale linearmente, tornando alla velocità configurata in {@link #TEMPO_RECUPERO}</li>
+ * </ul>
+ * Le perdite possono essere segnalate da qualsiasi {@link Thread}, mentre i gettoni sono gestiti soltanto dal {@link Thread} dello {@link Scrittore}, senza lock.
+ *
+ * @author Matteo Bagnoletti Tini
+ * @version 1.0
+ * @project MulticastUDPSocketChat
+ * @see Scrittore
+ */
+public class Limitatore {
+
+    /**
+     * Velocità predefinita in byte al secondo
+     */
+    public static final long VELOCITA_PREDEFINITA = 1 << 20;
+
+    /**
+     * Durata in millisecondi dei gettoni accumulabili: la quantità massima di byte scritti in un'unica raffica
+     */
+    public static final long RAFFICA = 100;
+
+    /**
+     * Rapporto massimo tra la velocità configurata e quella ridotta dalle perdite
+     */
+    public static final int RIDUZIONE_MASSIMA = 16;
+
+    /**
+     * Intervallo minimo in millisecondi tra due riduzioni della velocità, in modo che le perdite di uno stesso episodio la dimezzino una sola volta
+     */
+    public static final long INTERVALLO_RIDUZIONE = 500;
+
+    /**
+     * Tempo in millisecondi per risalire dalla velocità minima a quella configurata in assenza di perdite
+     */
+    public static final long TEMPO_RECUPERO = 10000;
+
+    private static final double NANO = TimeUnit.SECONDS.toNanos(1);
+
+    /**
+     * La velocità configurata in byte al secondo
+     */
+    private final long velocitaMassima;
+
+    /**
+     * La velocità corrente in byte al secondo
+     */
+    private volatile double velocita;
+
+    private double gettoni;
+
+    private long ultimoAggiornamento;
+
+    private long ultimaRiduzione;
+
+    /**
+     * Le perdite segnalate e quelle già considerate dal {@link Thread} dello {@link Scrittore}
+     */
+    private final AtomicLong perdite = new AtomicLong();
+    private long perditeConsiderate;
+
+    /* statistiche */
+    private volatile long riduzioni;
+
+    /**
+     * Crea un <code>limitatore</code> con i gettoni di una raffica già disponibili
+     * @param velocita la velocità in byte al secondo
+     * @throws IllegalArgumentException se la velocità non è positiva
+     */
+    public Limitatore(final long velocita) throws IllegalArgumentException {
+        if(velocita <= 0) throw new IllegalArgumentException("Velocità di invio non valida: " + velocita);
+        this.velocitaMassima = velocita;
+        this.velocita = velocita;
+        this.gettoni = capacita();
+        this.ultimoAggiornamento = System.nanoTime();
+        this.ultimaRiduzione = ultimoAggiornamento - TimeUnit.MILLISECONDS.toNanos(INTERVALLO_RIDUZIONE);
+    }
+
+    /**
+     * Calcola l'attesa prima che un datagramma possa essere scritto, aggiornando gettoni e velocità. Utilizzato soltanto dal {@link Thread} dello {@link Scrittore}.
+     * @param ora l'istante corrente, da {@link System#nanoTime()}
+     * @return l'attesa in nanosecondi, <code>0</code> se il datagramma può essere scritto subito
+     */
+    long attesa(long ora) {
+        aggiorna(ora);
+        return gettoni >= 0 ? 0 : (long) Math.ceil(-gettoni / velocita * NANO);
+    }
+
+    /**
+     * Consuma i gettoni di un datagramma scritto. Utilizzato soltanto dal {@link Thread} dello {@link Scrittore}.
+     * @param dimensione la dimensione del datagramma in byte
+     */
+    void consuma(int dimensione) {
+        gettoni -= dimensione;
+    }
+
+    /**
+     * Segnala una perdita verso la destinazione, ad esempio una ritrasmissione o una richiesta dei messaggi mancanti. Può essere invocato da qualsiasi {@link Thread}.
+     */
+    public void segnalaPerdita() {
+        perdite.incrementAndGet();
+    }
+
+    private void aggiorna(long ora) {
+        double trascorso = ora - ultimoAggiornamento;
+        ultimoAggiornamento = ora;
+        long segnalate = perdite.get();
+        double nuova = velocita;
+        if(segnalate != perditeConsiderate) {
+            perditeConsiderate = segnalate;
+            if(ora - ultimaRiduzione >= TimeUnit.MILLISECONDS.toNanos(INTERVALLO_RIDUZIONE)) {
+                ultimaRiduzione = ora;
+                nuova = Math.max(nuova / 2, (double) velocitaMassima / RIDUZIONE_MASSIMA);
+                riduzioni++;
+            }
+        } else if(nuova < velocitaMassima && ora - ultimaRiduzione >= TimeUnit.MILLISECONDS.toNanos(INTERVALLO_RIDUZIONE)) {
+            nuova = Math.min(velocitaMassima, nuova + velocitaMassima * trascorso / (TimeUnit.MILLISECONDS.toNanos(TEMPO_RECUPERO)));
+        }
+        velocita = nuova;
+        gettoni = Math.min(capacita(), gettoni + nuova * trascorso / NANO);
+    }
+
+    private double capacita() {
+        return velocita * RAFFICA / 1000;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%.1f/%d KiB/s (%d riduzioni)", velocita / 1024, velocitaMassima / 1024, riduzioni);
+    }
+}
@@ -1,26 +1,53 @@
 package edu.avolta.tpsit.multicastudpsocketchat.host;
 
-import edu.avolta.tpsit.chatterbox.ChatterBoxController;
 import edu.avolta.tpsit.chatterbox.RRConfig;
-import edu.avolta.tpsit.multicastudpsocketchat.comunicazione.MsgType;
+import edu.avolta.tpsit.multicastudpsocketchat.comunicazione.AccumulatoreConferme;
+import edu.avolta.tpsit.multicastudpsocketchat.comunicazione.CodificaBinaria;
+import edu.avolta.tpsit.multicastudpsocketchat.comunicazione.Compressione;
+import edu.avolta.tpsit.multicastudpsocketchat.comunicazione.ConfermaAggregata;
+import edu.avolta.tpsit.multicastudpsocketchat.comunicazione.FiltroDuplicati;
+import edu.avolta.tpsit.multicastudpsocketchat.comunicazione.FormatoMessaggio;
+import edu.avolta.tpsit.multicastudpsocketchat.comunicazione.Frammento;
 import edu.avolta.tpsit.multicastudpsocketchat.comunicazione.Protocollo;
+import edu.avolta.tpsit.multicastudpsocketchat.comunicazione.Riassemblatore;
+import edu.avolta.tpsit.multicastudpsocketchat.comunicazione.RilevatorePerdite;
+import edu.avolta.tpsit.multicastudpsocketchat.comunicazione.StoricoGruppo;
+import edu.avolta.tpsit.multicastudpsocketchat.comunicazione.TipoDatagramma;
+import edu.avolta.tpsit.multicastudpsocketchat.comunicazione.Trama;
 import edu.avolta.tpsit.multicastudpsocketchat.eccezioni.ProtocolException;
+import edu.avolta.tpsit.multicastudpsocketchat.gestione.BusEventi;
 import edu.avolta.tpsit.multicastudpsocketchat.gestione.ChatLogger;
 import edu.avolta.tpsit.multicastudpsocketchat.gestione.ChatLoggerType;
+import edu.avolta.tpsit.multicastudpsocketchat.gestione.Evento;
 import edu.avolta.tpsit.multicastudpsocketchat.gestione.OutputType;
 import edu.avolta.tpsit.multicastudpsocketchat.gestione.ProjectOutput;
 import edu.avolta.tpsit.multicastudpsocketchat.comunicazione.Cronologia;
 import edu.avolta.tpsit.multicastudpsocketchat.comunicazione.Messaggio;
+import edu.avolta.tpsit.multicastudpsocketchat.comunicazione.VistaMessaggio;
 import edu.avolta.tpsit.multicastudpsocketchat.eccezioni.CommunicationException;
 import edu.avolta.tpsit.multicastudpsocketchat.eccezioni.MsgException;
 import edu.avolta.tpsit.multicastudpsocketchat.eccezioni.NoSuchUserException;
 import edu.avolta.tpsit.multicastudpsocketchat.utenze.*;
+import edu.avolta.tpsit.security.ModalitaCifratura;
+import edu.avolta.tpsit.security.Portachiavi;
 import edu.avolta.tpsit.security.SecurityGate;
 
 import java.io.IOException;
 import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Scanner;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Generico membro di un {@link GroupChat} multicast
@@ -29,8 +56,6 @@ import java.util.Scanner;
  * @project MulticastUDPSocketChat
  */
 public class MulticastPeer {
-    
-    private final ChatterBoxController controller;
 
     /**
      * L'utente umano che utilizza il programma
@@ -38,15 +63,61 @@ public class MulticastPeer {
     private final Utente utente;
 
     /**
-     * Socket per la comunicazione unicast
+     * Canale non bloccante per la comunicazione unicast
+     */
+    private DatagramChannel canaleUnicast;
+
+    /**
+     * La porta locale del {@link #canaleUnicast}, comunicata agli altri utenti nei messaggi
+     */
+    private int portaLocale;
+
+    /**
+     * Gli indirizzi delle interfacce di rete locali, determinati alla {@link #configura() configurazione} e aggiornati da {@link #isLoopBack(VistaMessaggio, InetAddress)}:
+     * il loop-back dei mittenti in forma breve viene confermato dall'indirizzo di provenienza
+     */
+    private volatile Set<InetAddress> indirizziLocali = Set.of();
+
+    /**
+     * L'istante, in nanosecondi, dell'ultima determinazione degli {@link #indirizziLocali}
      */
-    private DatagramSocket unicastSocket;
+    private volatile long aggiornamentoIndirizzi;
+
+    /**
+     * L'intervallo minimo, in millisecondi, tra due determinazioni degli {@link #indirizziLocali}
+     */
+    private static final long INTERVALLO_INDIRIZZI = 1000;
+
+    /**
+     * Il {@link CicloEventi} che riceve i datagrammi di entrambi i canali ed esegue i timer dell'<code>host</code>
+     */
+    private final CicloEventi cicloEventi = new CicloEventi("Thread del ciclo di eventi");
+
+    /**
+     * Le {@link Attivita} dell'<code>host</code>: i {@link Thread} virtuali delle pipeline e dell'input dell'utente, interrotti alla chiusura
+     */
+    private final Attivita attivita = new Attivita("MulticastPeer");
+
+    /**
+     * Il {@link BusEventi} su cui vengono pubblicati gli {@link Evento} destinati all'interfaccia grafica e agli altri consumatori
+     */
+    private final BusEventi eventi = new BusEventi(attivita.fabbrica("Thread degli eventi "));
+
+    /**
+     * Il timer del messaggio di keepAlive
+     */
+    private CicloEventi.Timer keepAlive;
 
     /**
      * Variabile per lo status dell'host. <code>true</code> se operativo, <code>false</code> altrimenti.
      */
     private volatile boolean online;
 
+    /**
+     * Indica se il messaggio di ingresso nel gruppo (<code>join-group</code>) è stato inviato
+     */
+    private volatile boolean unito;
+
     /**
      * {@link Rubrica} degli utenti conosciuti
      */
@@ -64,6 +135,115 @@ public class MulticastPeer {
     
     private final SecurityGate securityGate;
 
+    /**
+     * L'{@link Aggregatore} dei messaggi in uscita
+     */
+    private final Aggregatore aggregatore;
+
+    /**
+     * La {@link Compressione} dei datagrammi, <code>null</code> se disattivata
+     */
+    private final Compressione compressione;
+
+    /**
+     * Dimensione massima in byte dei datagrammi, cifratura compresa. Determina anche il buffer di ricezione.
+     */
+    private final int mtu;
+
+    /**
+     * Identificativo dei frammenti del prossimo contenuto da frammentare
+     */
+    private final AtomicInteger idFrammentazione = new AtomicInteger();
+
+    /**
+     * Il {@link Riassemblatore} dei frammenti ricevuti, condiviso dai {@link Thread} di ricezione
+     */
+    private final Riassemblatore riassemblatore = new Riassemblatore();
+
+    /**
+     * Il {@link FiltroDuplicati} che scarta i messaggi già ricevuti prima di qualsiasi elaborazione
+     */
+    private final FiltroDuplicati filtroDuplicati = new FiltroDuplicati();
+
+    /**
+     * Lo {@link StoricoGruppo} dei messaggi di gruppo numerati, ritrasmessi su richiesta dei destinatari
+     */
+    private final StoricoGruppo storicoGruppo = new StoricoGruppo();
+
+    /**
+     * Il {@link RilevatorePerdite} dei messaggi di gruppo mancanti degli altri utenti
+     */
+    private final RilevatorePerdite rilevatorePerdite = new RilevatorePerdite();
+
+    /**
+     * Indica se i messaggi di gruppo vengono inviati con il multicast affidabile, quando supportato da tutti i partecipanti
+     * @see #isMulticastAffidabile()
+     */
+    private final boolean multicastAffidabile;
+
+    /**
+     * Il timer dei solleciti dei messaggi di gruppo mancanti
+     */
+    private CicloEventi.Timer sollecitoPerdite;
+
+    /**
+     * L'{@link AccumulatoreConferme} delle conferme di lettura da inviare a ciascun mittente
+     */
+    private final AccumulatoreConferme accumulatoreConferme = new AccumulatoreConferme();
+
+    /**
+     * Attesa massima in millisecondi delle conferme accumulate, <code>0</code> se ogni messaggio viene confermato singolarmente
+     */
+    private final long ritardoConferme;
+
+    /**
+     * Il timer di invio delle conferme accumulate
+     */
+    private CicloEventi.Timer invioConferme;
+
+    /**
+     * Il {@link Ritrasmettitore} dei messaggi in attesa di <code>acknowledge</code>, ritrasmessi con un timeout adattivo per ciascun <code>peer</code>
+     */
+    private final Ritrasmettitore ritrasmettitore = new Ritrasmettitore(this::ritrasmettiMessaggio, this::invioFallito, cicloEventi);
+
+    /**
+     * Il {@link PoolBuffer} dei buffer di dimensione {@link #mtu} utilizzati per la ricezione, la cifratura e la decifratura dei datagrammi
+     */
+    private final PoolBuffer poolBuffer;
+
+    /**
+     * La {@link PipelineRicezione} che riceve, decodifica e consegna i datagrammi di entrambi i canali
+     */
+    private final PipelineRicezione<Decodificato> pipelineRicezione;
+
+    /**
+     * La {@link PipelineInvio} che codifica, cifra e scrive i messaggi in uscita
+     */
+    private final PipelineInvio pipelineInvio;
+
+    /**
+     * Lo {@link Scrittore} che scrive i datagrammi cifrati su entrambi i canali, creato alla {@link #configura() configurazione}
+     */
+    private volatile Scrittore scrittore;
+
+    /**
+     * Velocità massima di scrittura in byte al secondo verso ciascun destinatario unicast e verso il gruppo, <code>0</code> per nessun limite
+     * @see Limitatore
+     */
+    private final long velocitaUnicast;
+    private final long velocitaGruppo;
+
+    /**
+     * La {@link Pianificazione} tra il traffico di controllo e i messaggi della chat, in invio e in ricezione
+     */
+    private final Pianificazione pianificazione;
+
+    /**
+     * Vista e decompressore di ciascun {@link Thread} della {@link #pipelineRicezione}, riutilizzati per tutti i messaggi
+     */
+    private final ThreadLocal<VistaMessaggio> vistaPerThread = ThreadLocal.withInitial(VistaMessaggio::new);
+    private final ThreadLocal<Compressione> decompressorePerThread = ThreadLocal.withInitial(Compressione::new);
+
     /**
      * Crea un oggetto <code>multicastPeer</code> e configura le strutture di gestione e funzionamento associate
      * @see Utente
@@ -73,7 +253,7 @@ public class MulticastPeer {
      * @param abilitaLog indica se abilitare le funzioni di logging
      * @throws IllegalArgumentException nei casi previsti dalla creazione dell'{@link Utente}
      */
-    public MulticastPeer(final String username, final boolean abilitaLog, final GroupChat gruppo, final ChatterBoxController controller, final RRConfig resourceRecord) throws IllegalArgumentException {
+    public MulticastPeer(final String username, final boolean abilitaLog, final GroupChat gruppo, final RRConfig resourceRecord) throws IllegalArgumentException {
         /* recupero dati da RRConfig */
         if(resourceRecord.getUtente() != null){
             utente = resourceRecord.getUtente();
@@ -99,9 +279,66 @@ public class MulticastPeer {
         
         setOnline(false);
         ChatLogger.abilita(abilitaLog);
-        this.controller = controller;
-        this.securityGate = new SecurityGate();
+        /* il log degli eventi procede al proprio ritmo, senza rallentare i Thread di rete */
+        this.eventi.iscrivi(Evento.class, evento -> ChatLogger.log("(Eventi) " + evento, ChatLoggerType.OPTIONAL));
+        /* un portachiavi per ciascun peer: all'uscita dal gruppo vengono rimosse soltanto le proprie chiavi */
+        this.securityGate = new SecurityGate(new Portachiavi(), gruppo.getGruppo().toString());
         this.securityGate.generaChiave(resourceRecord.getSGateKey());
+        this.securityGate.setFormato(resourceRecord.getFormatoMessaggio());
+        this.securityGate.impostaMittente(utente.getIdBreve());
+        /* con il formato serializzato si mantiene la sola modalità compatibile con le versioni precedenti del programma */
+        this.securityGate.setModalita(resourceRecord.getFormatoMessaggio() == FormatoMessaggio.BINARIO ? resourceRecord.getModalitaCifratura() : ModalitaCifratura.CBC);
+        /* le trame non sono riconosciute dalle versioni precedenti del programma: con il formato serializzato i messaggi vengono inviati singolarmente */
+        long ritardoAggregazione = resourceRecord.getFormatoMessaggio() == FormatoMessaggio.BINARIO ? resourceRecord.getRitardoAggregazione() : 0;
+        this.mtu = resourceRecord.getMtu();
+        /* i numeri di sequenza sono trasmessi soltanto nel formato binario */
+        this.multicastAffidabile = resourceRecord.getFormatoMessaggio() == FormatoMessaggio.BINARIO && resourceRecord.getMulticastAffidabile();
+        this.ritardoConferme = resourceRecord.getRitardoConferme();
+        this.velocitaUnicast = resourceRecord.getVelocitaUnicast();
+        this.velocitaGruppo = resourceRecord.getVelocitaGruppo();
+        this.pianificazione = resourceRecord.getPianificazione();
+        /* buffer direct: i DatagramChannel ricevono e inviano senza copie intermedie tra heap e sistema operativo */
+        this.poolBuffer = new PoolBuffer(mtu, resourceRecord.getDimensionePool(), true, resourceRecord.getTracciamentoBuffer());
+        if(resourceRecord.getTracciamentoBuffer()) {
+            cicloEventi.pianifica(() -> poolBuffer.segnalaPerdite(PoolBuffer.ETA_PERDITA_PREDEFINITA), PoolBuffer.ETA_PERDITA_PREDEFINITA, PoolBuffer.ETA_PERDITA_PREDEFINITA);
+        }
+        this.pipelineRicezione = new PipelineRicezione<>(poolBuffer, resourceRecord.getDecodificatori(), resourceRecord.getCodaRicezione(), resourceRecord.getSovraccarico(), pianificazione, attivita, new PipelineRicezione.Gestore<>() {
+            @Override
+            public boolean accetta(ByteBuffer datagramma, DatagramChannel canale) {
+                return MulticastPeer.this.accetta(datagramma, canale);
+            }
+
+            @Override
+            public boolean isControllo(ByteBuffer datagramma) {
+                /* i datagrammi AES-CBC non dichiarano il tipo e vengono trattati come messaggi */
+                return securityGate.leggiTipo(datagramma) == TipoDatagramma.CONTROLLO;
+            }
+
+            @Override
+            public Priorita priorita(ByteBuffer datagramma) {
+                return Priorita.di(securityGate.leggiTipo(datagramma));
+            }
+
+            @Override
+            public Decodificato decodifica(ByteBuffer datagramma, InetSocketAddress sorgente) throws MsgException {
+                return MulticastPeer.this.decodifica(datagramma, sorgente);
+            }
+
+            @Override
+            public void consegna(Decodificato decodificato, InetSocketAddress sorgente) {
+                MulticastPeer.this.consegna(decodificato, sorgente);
+            }
+
+            @Override
+            public void erroreRicezione(DatagramChannel canale, IOException e) {
+                MulticastPeer.this.erroreRicezione(canale, e);
+            }
+        });
+        this.aggregatore = new Aggregatore(this::spedisci, cicloEventi, attivita, mtu, ritardoAggregazione);
+        this.pipelineInvio = new PipelineInvio(resourceRecord.getCodaInvio(), PipelineInvio.ATTESA_PREDEFINITA, pianificazione, attivita);
+        /* come le trame, i contenuti compressi non sono riconosciuti dalle versioni precedenti del programma */
+        boolean comprimi = resourceRecord.getFormatoMessaggio() == FormatoMessaggio.BINARIO && resourceRecord.getCompressione();
+        this.compressione = comprimi ? new Compressione(resourceRecord.getSogliaCompressione()) : null;
     }
 
     /**
@@ -119,6 +356,14 @@ public class MulticastPeer {
     private synchronized void setOnline(boolean online) {
         this.online = online;
     }
+
+    /**
+     * Getter di {@link #eventi}: l'interfaccia grafica e gli altri consumatori si iscrivono agli {@link Evento} prima della {@link #configura() configurazione}
+     * @return il {@link BusEventi} del <code>multicastPeer</code>
+     */
+    public BusEventi getEventi() {
+        return eventi;
+    }
     
     /**
      * Configura opportunamente il <code>multicastPeer</code>
@@ -126,13 +371,21 @@ public class MulticastPeer {
      */
     public synchronized void configura() throws IOException {
         try {
-            this.unicastSocket = new DatagramSocket();
-            ChatLogger.log("Determinati -> IPv4 locale: " + InetAddress.getLocalHost() + " | porta locale : " + unicastSocket.getLocalPort(), ChatLoggerType.OPTIONAL);
+            this.canaleUnicast = DatagramChannel.open(StandardProtocolFamily.INET);
+            this.canaleUnicast.bind(new InetSocketAddress(0));
+            this.canaleUnicast.configureBlocking(false);
+            this.portaLocale = ((InetSocketAddress) canaleUnicast.getLocalAddress()).getPort();
+            this.indirizziLocali = indirizziLocali();
+            this.aggiornamentoIndirizzi = System.nanoTime();
+            this.scrittore = new Scrittore(canaleUnicast, gruppoUDP, poolBuffer, attivita, velocitaUnicast, velocitaGruppo, pianificazione);
+            this.scrittore.avvia();
+            ChatLogger.log("Determinati -> IPv4 locale: " + InetAddress.getLocalHost() + " | porta locale : " + portaLocale, ChatLoggerType.OPTIONAL);
+            cicloEventi.avvia();
             setOnline(true);
-            ChatLogger.log("Socket unicast creato con successo", ChatLoggerType.OPTIONAL);
+            ChatLogger.log("Canale unicast creato con successo", ChatLoggerType.OPTIONAL);
         } catch (IOException e){
             setOnline(false);
-            throw new IOException("Errore nella creazione del Socket unicast: " + e.getMessage());
+            throw new IOException("Errore nella creazione del canale unicast: " + e.getMessage());
         }
     }
 
@@ -148,112 +401,309 @@ public class MulticastPeer {
         /* inputUtente(); */
         leggiUnicast();
         leggiGruppo();
-        invia("join-group");
+        segnalaErrore(invia("join-group"), OutputType.STDERR);
+        unito = true;
         keepAlive();
+        sollecitaPerdite();
+        inviaConfermeAccumulate();
     }
 
     /**
-     * Avvia il {@link Thread} di ricezione unicast
+     * Registra il canale unicast nel {@link CicloEventi}
      */
     private void leggiUnicast() {
-        threadRicezione(unicastSocket);
-        ChatLogger.log("Thread ricezione unicast avviato", ChatLoggerType.OPTIONAL);
+        pipelineRicezione.registra(cicloEventi, canaleUnicast);
     }
 
     /**
-     * Avvio il {@link Thread} di ricezione multicast
+     * Registra il canale multicast nel {@link CicloEventi}
      */
     private void leggiGruppo() {
-        threadRicezione(gruppoUDP.getMulticastSocket());
-        ChatLogger.log("Thread ricezione multicast avviato", ChatLoggerType.OPTIONAL);
+        pipelineRicezione.registra(cicloEventi, gruppoUDP.getCanale());
     }
 
     /**
-     * Crea un generico {@link Thread} di ricezione.
-     * <p>
-     * Il funzionamento in ricezione di un {@link MulticastPeer} è identico sia per socket di tipo <code>unicast</code>, che di tipo <code>multicast</code>:
+     * Datagramma ricevuto, decifrato e decodificato, in attesa di consegna
+     * @param contenuti i messaggi del datagramma, ciascuno tra posizione e limite del proprio buffer
+     * @param decifrato il buffer del {@link #poolBuffer} contenente il testo in chiaro, da rilasciare dopo la consegna
+     * @param decompresso il buffer contenente il testo decompresso, <code>null</code> se il datagramma non era compresso
+     */
+    private record Decodificato(List<ByteBuffer> contenuti, ByteBuffer decifrato, ByteBuffer decompresso) {}
+
+    /**
+     * Filtro della fase di ricezione della {@link PipelineRicezione}, basato sull'intestazione in chiaro e autenticata dei datagrammi AES-GCM.
+     * Vengono scartati senza essere decifrati:
+     * <ul>
+     *     <li>i propri datagrammi ricevuti in loop-back dal gruppo, riconosciuti dall'etichetta del mittente</li>
+     *     <li>gli <code>acknowledge</code> ricevuti dal gruppo, poiché sono sempre inviati in unicast</li>
+     * </ul>
+     * I datagrammi AES-CBC non hanno intestazione in chiaro: il loop-back viene riconosciuto soltanto dopo la decifratura.
+     * L'etichetta e il tipo non sono verificati a questo punto: un datagramma alterato per superare il filtro viene comunque scartato dalla decifratura.
+     * @param datagramma il datagramma ricevuto
+     * @param canale il canale da cui è stato ricevuto
+     * @return <code>true</code> se il datagramma va decodificato
+     */
+    private boolean accetta(ByteBuffer datagramma, DatagramChannel canale) {
+        if (securityGate.isProprio(datagramma)) return false;
+        return securityGate.leggiTipo(datagramma) != TipoDatagramma.ACK || canale != gruppoUDP.getCanale();
+    }
+
+    /**
+     * Fase di decodifica della {@link PipelineRicezione}, eseguita in parallelo per datagrammi diversi:
      * <ol>
-     *     <li>Il {@link Thread} viene creato e configurato con un proprio nome specifico per una più efficace gestione</li>
-     *     <li>Procedendo in un loop che termina nel solo momento in cui l'<code>host</code> diventa offline o la <code>socket</code> viene chiusa, viene creato un buffer (array) di byte da utilizzare per il costruttore del {@link DatagramPacket} di ricezione</li>
-     *     <li>Ricevuto un {@link DatagramPacket}, viene estratto il messaggio, salvato nella {@link Cronologia} e segnalato l'utente mittente alla {@link Rubrica}</li>
-     *     <li>Nel caso in cui il messaggio sia di tipo <code>ACK</code>, viene avviata la procedura per la memorizzazione dell'avvenuta conferma di ricezione</li>
-     *     <li>In caso contrario 3 situazioni vengono verificate:
-     *       <ul>
-     *           <li>Se il messaggio segnala che un utente ha abbandonato il gruppo: <code>left-group</code></li>
-     *           <li>Se il messaggio segnala che un utente si è unit* al gruppo: <code>join-group</code></li>
-     *           <li>Se il messaggio contiene un generico testo, a cui si provvedere ad inviare un messaggio <code>ACK</code> di risposta</li>
-     *       </ul>
-     *     </li>
+     *     <li>Il datagramma viene decifrato in un buffer del {@link #poolBuffer}</li>
+     *     <li>I {@link Frammento} ricevuti vengono consegnati al {@link Riassemblatore}: l'elaborazione prosegue solo quando il contenuto è completo</li>
+     *     <li>Il contenuto viene decompresso e ne vengono estratti il messaggio o i messaggi della {@link Trama}</li>
+     *     <li>I messaggi in loop-back sfuggiti al filtro di ricezione (datagrammi AES-CBC) vengono scartati senza ricostruire l'oggetto</li>
      * </ol>
+     * @param ricevuto il datagramma ricevuto
+     * @param sorgente l'indirizzo da cui è stato ricevuto il datagramma
+     * @return il datagramma decodificato, <code>null</code> se non contiene messaggi da consegnare
+     * @throws MsgException se il datagramma non è valido
      */
-    private synchronized void threadRicezione(final DatagramSocket tipoSocket) {
-        new Thread(()->{
-            
-            if(tipoSocket != null) {
-                if (tipoSocket instanceof MulticastSocket) {
-                    Thread.currentThread().setName("Thread di ricezione multicast");
-                } else {
-                    Thread.currentThread().setName("Thread di ricezione unicast");
-                }
-                
-                while(this.isOnline() && !tipoSocket.isClosed()) {
+    private Decodificato decodifica(ByteBuffer ricevuto, InetSocketAddress sorgente) throws MsgException {
+        ByteBuffer decifrato = poolBuffer.preleva();
+        ByteBuffer decompresso = null;
+        boolean trattenuti = false;
+        try {
+            /* datagramma non autenticato o cifrato con un'altra chiave: scartato prima di qualsiasi decodifica */
+            if (securityGate.decifra(ricevuto, decifrato) < 0) return null;
+            ByteBuffer inChiaro = decifrato.flip();
+            if (Frammento.isFrammento(inChiaro)) {
+                byte[] completo = riassemblatore.aggiungi(sorgente, Frammento.leggi(inChiaro));
+                /* contenuto non ancora completo */
+                if (completo == null) return null;
+                inChiaro = ByteBuffer.wrap(completo);
+            }
+            if (Compressione.isCompresso(inChiaro)) {
+                int lunghezza = Compressione.lunghezzaOriginale(inChiaro);
+                decompresso = lunghezza <= poolBuffer.getCapacita() ? poolBuffer.preleva() : ByteBuffer.allocate(lunghezza);
+                decompressorePerThread.get().decomprimi(inChiaro, decompresso);
+                inChiaro = decompresso.flip();
+            }
+
+            List<ByteBuffer> contenuti = Trama.isTrama(inChiaro) ? Trama.spacchetta(inChiaro) : List.of(inChiaro);
+            List<ByteBuffer> daConsegnare = new ArrayList<>(contenuti.size());
+            VistaMessaggio vista = vistaPerThread.get();
+            for (ByteBuffer contenuto : contenuti) {
+                if (CodificaBinaria.isBinario(contenuto)) {
+                    /* un messaggio non valido non impedisce l'elaborazione dei successivi */
                     try {
-                        byte[] buffer = new byte[1024];
-                        DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
-                        tipoSocket.receive(packet);
-                        Messaggio msgRicevuto = securityGate.decifraMessaggio(packet.getData(), packet.getLength());
-
-                        cronologia.nuovoMessaggio(msgRicevuto);
-                        rubrica.aggiungiUtente(msgRicevuto.getUtente(), packet.getAddress(), msgRicevuto.getPortaMittente(), controller);
-
-                        if (msgRicevuto.isACK() && !msgRicevuto.getIDutente().equals(this.utente.getIDutente())) {
-                            cronologia.confermaDiLettura(msgRicevuto, controller);
-                        } else if (!msgRicevuto.getIDutente().equals(this.utente.getIDutente())) {
-                            if (msgRicevuto.getMsg().equals("left-group")) {
-                                String utenteRimosso = rubrica.rimuoviUtente(msgRicevuto.getIDutente(), controller);
-                                ProjectOutput.stampa(utenteRimosso + " ha abbandonato il gruppo", OutputType.UIOUT);
-                            } else if (msgRicevuto.getMsg().equals("join-group")) {
-                                ProjectOutput.stampa(rubrica.ottieniAliasDaUUID(msgRicevuto.getUtente().getIDutente()) + " si è unito/a al gruppo", OutputType.UIOUT);
-                                ChatLogger.log("Tentativo di invio del messaggio di saluto in corso...", ChatLoggerType.OPTIONAL);
-                                invia("DO-NOT-SHOW-THIS-MESSAGE");
-                            } else {
-                                ProjectOutput.stampa(msgRicevuto.estraiUI(rubrica), OutputType.UIOUT);
-                                /* invio ACK */
-                                preparaACK(String.valueOf(msgRicevuto.getID()), msgRicevuto.getIDutente());
-                            }
-                        }
-                        controller.aggiornaDashboard(InetAddress.getLocalHost().getHostAddress(), String.valueOf(this.unicastSocket.getLocalPort()), this.gruppoUDP.getIndirizzoMulticast().toString(), String.valueOf(this.gruppoUDP.getPortaGruppo()), String.valueOf(this.cronologia.getMessaggiInviati()), String.valueOf(this.cronologia.getMessaggiRicevuti()), this.cronologia.getSimpleStat());
-                    } catch (SocketException e) {
-                        setOnline(false);
-                        chiudi();
-                        break;
-                    } catch (IOException e) {
-                        setOnline(false);
-                        ProjectOutput.stampa("Errore di I/O: " + e.getMessage(), OutputType.STDERR);
-                        break;
+                        if (isLoopBack(vista.imposta(contenuto), sorgente.getAddress())) continue;
                     } catch (MsgException e) {
                         ProjectOutput.stampa("Formato messaggio non valido", OutputType.STDERR);
-                    } catch (NoSuchUserException e) {
-                        ProjectOutput.stampa("Utente non inizializzato", OutputType.STDERR);
-                    } catch (CommunicationException e) {
-                        ProjectOutput.stampa(e.getMessage(), OutputType.STDERR);
-                    } catch (ProtocolException e){
-                        ProjectOutput.stampa(e.getMessage() + ". Il programma verrà terminato", OutputType.STDERR);
-                        chiudi();
+                        continue;
                     }
                 }
+                daConsegnare.add(contenuto);
             }
+            if (daConsegnare.isEmpty()) return null;
+            trattenuti = true;
+            return new Decodificato(daConsegnare, decifrato, decompresso);
+        } finally {
+            if (!trattenuti) {
+                poolBuffer.rilascia(decifrato);
+                poolBuffer.rilascia(decompresso);
+            }
+        }
+    }
+
+    /**
+     * Verifica se un messaggio è stato inviato da questo <code>host</code> e ricevuto in loop-back.
+     * Per i mittenti in forma breve, oltre all'identificativo breve e alla porta unicast, il datagramma deve provenire da un indirizzo locale:
+     * un utente remoto che utilizza lo stesso identificativo breve non viene scambiato per il loop-back.
+     * @param vista la {@link VistaMessaggio} impostata sul messaggio
+     * @param sorgente l'indirizzo da cui è stato ricevuto il datagramma
+     * @return <code>true</code> se il messaggio è in loop-back
+     */
+    private boolean isLoopBack(VistaMessaggio vista, InetAddress sorgente) {
+        if (!vista.isMittente(utente, portaLocale)) return false;
+        if (!vista.isIdBreve() || sorgente.isLoopbackAddress() || indirizziLocali.contains(sorgente)) return true;
+        /* gli indirizzi delle interfacce possono essere cambiati dalla configurazione (DHCP, VPN, nuove interfacce): vengono determinati di nuovo, al più una volta per intervallo */
+        long adesso = System.nanoTime();
+        if (adesso - aggiornamentoIndirizzi < TimeUnit.MILLISECONDS.toNanos(INTERVALLO_INDIRIZZI)) return false;
+        aggiornamentoIndirizzi = adesso;
+        try {
+            indirizziLocali = indirizziLocali();
+        } catch (SocketException e) {
+            ChatLogger.log("Impossibile aggiornare gli indirizzi locali: " + e.getMessage(), ChatLoggerType.OPTIONAL);
+            return false;
+        }
+        return indirizziLocali.contains(sorgente);
+    }
 
-        }).start();
+    /**
+     * Determina gli indirizzi di tutte le interfacce di rete locali
+     * @return gli indirizzi locali
+     * @throws SocketException se non è possibile elencare le interfacce di rete
+     */
+    private static Set<InetAddress> indirizziLocali() throws SocketException {
+        Set<InetAddress> indirizzi = new HashSet<>();
+        for (NetworkInterface interfaccia : Collections.list(NetworkInterface.getNetworkInterfaces())) {
+            indirizzi.addAll(Collections.list(interfaccia.getInetAddresses()));
+        }
+        return Set.copyOf(indirizzi);
+    }
+
+    /**
+     * Fase di consegna della {@link PipelineRicezione}, eseguita nell'ordine di ricezione per ciascun mittente.
+     * Ciascun messaggio viene elaborato con {@link #elabora(ByteBuffer, VistaMessaggio, InetAddress)}; al termine i buffer vengono restituiti al {@link #poolBuffer}.
+     * @param decodificato il datagramma decodificato
+     * @param sorgente l'indirizzo da cui è stato ricevuto il datagramma
+     */
+    private void consegna(Decodificato decodificato, InetSocketAddress sorgente) {
+        VistaMessaggio vista = vistaPerThread.get();
+        try {
+            for (ByteBuffer contenuto : decodificato.contenuti()) {
+                /* un messaggio non valido non impedisce l'elaborazione dei successivi */
+                try {
+                    elabora(contenuto, vista, sorgente.getAddress());
+                } catch (MsgException e) {
+                    ProjectOutput.stampa("Formato messaggio non valido", OutputType.STDERR);
+                } catch (NoSuchUserException e) {
+                    ProjectOutput.stampa("Utente non inizializzato", OutputType.STDERR);
+                } catch (CommunicationException e) {
+                    ProjectOutput.stampa(e.getMessage(), OutputType.STDERR);
+                } catch (IOException e) {
+                    ProjectOutput.stampa("Errore di I/O: " + e.getMessage(), OutputType.STDERR);
+                } catch (ProtocolException e) {
+                    ProjectOutput.stampa(e.getMessage() + ". Il programma verrà terminato", OutputType.STDERR);
+                    chiudi();
+                    return;
+                }
+            }
+            pubblicaStatistiche();
+        } catch (UnknownHostException e) {
+            ProjectOutput.stampa("Errore di I/O: " + e.getMessage(), OutputType.STDERR);
+        } finally {
+            /* i messaggi elaborati non conservano riferimenti ai buffer, che possono essere riutilizzati */
+            poolBuffer.rilascia(decodificato.decifrato());
+            poolBuffer.rilascia(decodificato.decompresso());
+        }
+    }
+
+    /**
+     * Gestisce un errore di lettura di un canale, che viene rimosso dal {@link CicloEventi}
+     * @param canale il canale da cui si stava leggendo
+     * @param e l'errore
+     */
+    private void erroreRicezione(DatagramChannel canale, IOException e) {
+        setOnline(false);
+        if (e instanceof SocketException) {
+            chiudi();
+        } else {
+            ProjectOutput.stampa("Errore di I/O: " + e.getMessage(), OutputType.STDERR);
+        }
+    }
+
+    /**
+     * Elabora un singolo messaggio ricevuto, contenuto tra la posizione e il limite del buffer
+     * @param contenuto il buffer contenente il messaggio decifrato
+     * @param vista la {@link VistaMessaggio} del {@link Thread} di consegna
+     * @param sorgente l'indirizzo da cui è stato ricevuto il datagramma
+     * @throws MsgException se il messaggio non è valido
+     * @throws NoSuchUserException se si verifica un errore legato agli utenti e la {@link #rubrica}
+     * @throws CommunicationException se si verifica un errore legato alla chat multicast
+     * @throws ProtocolException se il protocollo del messaggio non è valido
+     * @throws IOException se si verifica un errore nell'invio della risposta
+     */
+    private void elabora(ByteBuffer contenuto, VistaMessaggio vista, InetAddress sorgente) throws MsgException, NoSuchUserException, CommunicationException, ProtocolException, IOException {
+        Messaggio msgRicevuto;
+        int capacita = 0;
+        if (CodificaBinaria.isBinario(contenuto)) {
+            vista.imposta(contenuto);
+            /* i messaggi in loop-back vengono scartati senza ricostruire l'oggetto */
+            if (isLoopBack(vista, sorgente)) return;
+            msgRicevuto = vista.materializza(rubrica);
+            capacita = vista.getCapacita();
+        } else {
+            byte[] serializzato = new byte[contenuto.remaining()];
+            contenuto.duplicate().get(serializzato);
+            msgRicevuto = Messaggio.configMsg(serializzato);
+        }
+
+        /* duplicati e ripetizioni vengono scartati prima di cronologia, rubrica, interfaccia e ACK */
+        Utente mittente = msgRicevuto.getUtente();
+        UUID idMittente = new UUID(mittente.getIdAlto(), mittente.getIdBasso());
+        boolean isPersonale = msgRicevuto.isMittente(this.utente);
+        InetSocketAddress indirizzoMittente = new InetSocketAddress(sorgente, msgRicevuto.getPortaMittente());
+        /* un messaggio di gruppo ancora mancante è una ritrasmissione richiesta: viene accettato anche se precedente alla finestra */
+        boolean isMancante = !isPersonale && msgRicevuto.getSequenza() > 0 && !msgRicevuto.getMsg().equals("DO-NOT-SHOW-THIS-MESSAGE")
+                && rilevatorePerdite.isMancante(idMittente, msgRicevuto.getSequenza());
+        FiltroDuplicati.Esito esito = msgRicevuto.getSequenzaDati() > 0
+                ? filtroDuplicati.verificaDati(idMittente, msgRicevuto.isMsgGruppo(), msgRicevuto.getSequenzaDati(), isMancante)
+                : filtroDuplicati.verifica(idMittente, msgRicevuto.getID(), isMancante);
+        if (esito != FiltroDuplicati.Esito.NUOVO) {
+            /* un duplicato può essere la ritrasmissione di un messaggio la cui conferma è andata persa: viene confermato di nuovo.
+               Una ripetizione non viene confermata: non è noto se sia mai stata elaborata e il mittente ne segnalerà il mancato recapito */
+            if (esito == FiltroDuplicati.Esito.DUPLICATO && !isPersonale && isDaConfermare(msgRicevuto)) conferma(msgRicevuto, indirizzoMittente);
+            return;
+        }
+        /* le richieste di ritrasmissione non vengono memorizzate né mostrate */
+        if (!isPersonale && !msgRicevuto.isMsgGruppo() && RilevatorePerdite.isRichiesta(msgRicevuto.getMsg())) {
+            /* una richiesta di ritrasmissione rivela perdite nel gruppo: la velocità di scrittura verso il gruppo viene ridotta */
+            if (scrittore != null) scrittore.segnalaPerdita(gruppoUDP.getGruppo());
+            segnalaErrore(ritrasmetti(RilevatorePerdite.leggiRichiesta(msgRicevuto.getMsg()), indirizzoMittente), OutputType.STDERR);
+            return;
+        }
+
+        cronologia.nuovoMessaggio(msgRicevuto);
+        /* ingresso e uscita dal gruppo viaggiano nella corsia dei messaggi, nell'ordine di invio. keepAlive e ACK sono consegnati nella corsia di controllo,
+           senza ordine rispetto ai messaggi: possono giungere dopo il left-group del mittente e non lo reinseriscono in rubrica */
+        boolean isControllo = msgRicevuto.isACK() || msgRicevuto.getMsg().equals("DO-NOT-SHOW-THIS-MESSAGE");
+        if (!isControllo || !rubrica.isUscito(msgRicevuto.getUtente())) {
+            rubrica.aggiungiUtente(msgRicevuto.getUtente(), sorgente, msgRicevuto.getPortaMittente(), eventi);
+        }
+        rubrica.aggiornaCapacita(msgRicevuto.getUtente(), capacita);
+
+        /* i messaggi di gruppo numerati rivelano quelli mancanti, il keepAlive numerato annuncia l'ultimo inviato */
+        if (!isPersonale && msgRicevuto.getSequenza() > 0) {
+            RilevatorePerdite.Richiesta richiesta = msgRicevuto.getMsg().equals("DO-NOT-SHOW-THIS-MESSAGE")
+                    ? rilevatorePerdite.annunciato(idMittente, indirizzoMittente, msgRicevuto.getSequenza())
+                    : rilevatorePerdite.ricevuto(idMittente, indirizzoMittente, msgRicevuto.getSequenza());
+            if (richiesta != null) segnalaErrore(richiediRitrasmissione(richiesta, PipelineInvio.ATTESA_PREDEFINITA), OutputType.STDERR);
+        }
+
+        if (msgRicevuto.isACK() && !isPersonale) {
+            for (Messaggio confermato : cronologia.confermaDiLettura(msgRicevuto, eventi)) {
+                ritrasmettitore.confermato(confermato.getID(), indirizzoMittente, confermato.isInviatoCorrettamente() == 1);
+            }
+        } else if (!isPersonale) {
+            if (msgRicevuto.getMsg().equals("left-group")) {
+                String utenteRimosso = rubrica.rimuoviUtente(msgRicevuto.getUtente(), eventi);
+                rilevatorePerdite.rimuovi(idMittente);
+                ritrasmettitore.dimentica(indirizzoMittente);
+                ProjectOutput.stampa(utenteRimosso + " ha abbandonato il gruppo", OutputType.UIOUT);
+            } else if (msgRicevuto.getMsg().equals("join-group")) {
+                ProjectOutput.stampa(rubrica.ottieniAlias(msgRicevuto.getUtente()) + " si è unito/a al gruppo", OutputType.UIOUT);
+                ChatLogger.log("Tentativo di invio del messaggio di saluto in corso...", ChatLoggerType.OPTIONAL);
+                segnalaErrore(invia("DO-NOT-SHOW-THIS-MESSAGE"), OutputType.STDERR);
+            } else {
+                /* i keepAlive vengono confermati come gli altri messaggi, ma non mostrati */
+                if (!msgRicevuto.getMsg().equals("DO-NOT-SHOW-THIS-MESSAGE")) {
+                    eventi.pubblica(new Evento.MessaggioRicevuto(rubrica.ottieniAlias(msgRicevuto.getUtente()), msgRicevuto.getMsg(), !msgRicevuto.isMsgGruppo()));
+                }
+                /* invio ACK: i messaggi numerati non vengono confermati, le perdite sono segnalate dal rilevatore */
+                if (msgRicevuto.getSequenza() == 0) conferma(msgRicevuto, indirizzoMittente);
+            }
+        }
+    }
+
+    /**
+     * Verifica se un messaggio ricevuto, già scartato come {@link FiltroDuplicati.Esito#DUPLICATO}, deve essere confermato di nuovo perché il mittente potrebbe ritrasmetterlo.
+     * I keepAlive non vengono ritrasmessi e i messaggi numerati non vengono confermati.
+     * @param msgRicevuto il messaggio ricevuto
+     * @return <code>true</code> se il messaggio attende conferme, <code>false</code> altrimenti
+     */
+    private static boolean isDaConfermare(Messaggio msgRicevuto) {
+        return !msgRicevuto.isACK() && msgRicevuto.getTargetACK() > 0 && msgRicevuto.getSequenza() == 0 && !msgRicevuto.getMsg().equals("DO-NOT-SHOW-THIS-MESSAGE");
     }
 
     /**
      * Avvia il {@link Thread} per la lettura e interpretazione dell'input dell'utente da tastiera. Specifici comandi preceduti dal carattere <code>$</code> possono essere visualizzati attraverso il comando <code>$help</code>
      */
     private synchronized void inputUtente() {
-        new Thread(()->{
-            Thread.currentThread().setName("Thread per l'input dell'utente");
-            Thread.currentThread().setPriority(Thread.MAX_PRIORITY);
+        attivita.avvia("Thread per l'input dell'utente", ()->{
 
             Scanner inUtente = new Scanner(System.in);
             ChatLogger.log("Terminale pronto all'invio di messaggi", ChatLoggerType.MANDATORY);
@@ -280,7 +730,23 @@ public class MulticastPeer {
                                 
                                 case "$utenti" -> ChatLogger.log(rubrica.getRubrica(), ChatLoggerType.MANDATORY);
                                 
-                                case "$stat" -> ChatLogger.log(cronologia.getStatistiche(), ChatLoggerType.MANDATORY);
+                                case "$stat" -> {
+                                    ChatLogger.log(cronologia.getStatistiche(), ChatLoggerType.MANDATORY);
+                                    if(compressione != null) ChatLogger.log(compressione.getStatistiche(), ChatLoggerType.MANDATORY);
+                                    ChatLogger.log(riassemblatore.getStatistiche(), ChatLoggerType.MANDATORY);
+                                    ChatLogger.log(filtroDuplicati.getStatistiche(), ChatLoggerType.MANDATORY);
+                                    ChatLogger.log(storicoGruppo.getStatistiche(), ChatLoggerType.MANDATORY);
+                                    ChatLogger.log(rilevatorePerdite.getStatistiche(), ChatLoggerType.MANDATORY);
+                                    ChatLogger.log(accumulatoreConferme.getStatistiche(), ChatLoggerType.MANDATORY);
+                                    ChatLogger.log(ritrasmettitore.getStatistiche(), ChatLoggerType.MANDATORY);
+                                    ChatLogger.log(pipelineRicezione.getStatistiche(), ChatLoggerType.MANDATORY);
+                                    ChatLogger.log(pipelineInvio.getStatistiche(), ChatLoggerType.MANDATORY);
+                                    if(scrittore != null) ChatLogger.log(scrittore.getStatistiche(), ChatLoggerType.MANDATORY);
+                                    ChatLogger.log(poolBuffer.getStatistiche(), ChatLoggerType.MANDATORY);
+                                    ChatLogger.log(attivita.getStatistiche(), ChatLoggerType.MANDATORY);
+                                    ChatLogger.log(eventi.getStatistiche(), ChatLoggerType.MANDATORY);
+                                    ChatLogger.log("Datagrammi scartati per chiave sconosciuta: " + securityGate.getDatagrammiChiaveIgnota(), ChatLoggerType.MANDATORY);
+                                }
                                 
                                 case "$rn" -> {
                                     if(arrayInput.length == 3){
@@ -297,9 +763,12 @@ public class MulticastPeer {
                                     ChatLogger.log("Digita '$stat' per visualizzare le statistiche di output", ChatLoggerType.MANDATORY);
                                     ChatLogger.log("Digita '$rn <alias> <nuovoAlias>' per rinominare l'alias di un utente in rubrica", ChatLoggerType.MANDATORY);
                                     ChatLogger.log("Digita '$log' per attivare/disattivare la modalità di logging", ChatLoggerType.MANDATORY);
+                                    ChatLogger.log("Digita '$chiave <nuovaChiave> [secondi]' per cambiare la chiave di cifratura, accettando la precedente per i secondi indicati", ChatLoggerType.MANDATORY);
                                 }
                                 
                                 case "$log" -> ChatLogger.abilita(!ChatLogger.isAbilitato());
+
+                                case "$chiave" -> ruotaChiave(arrayInput, OutputType.STDERR);
                                 
                                 default -> ProjectOutput.stampa("Comando " + arrayInput[0].trim() + " non riconosciuto. Digita $help per l'elenco dei comandi", OutputType.STDERR);
                             }
@@ -309,22 +778,14 @@ public class MulticastPeer {
 
                             if(arrayInput.length == 2) {
                                 /* scrittura unicast */
-                                try {
-                                    preparaInvio(arrayInput[0].trim(), arrayInput[1].trim());
-                                } catch (MsgException | IllegalArgumentException e) {
-                                    ProjectOutput.stampa(e.getMessage(), OutputType.STDERR);
-                                }
+                                segnalaErrore(preparaInvio(arrayInput[0].trim(), arrayInput[1].trim()), OutputType.STDERR);
 
                             } else {
                                 ProjectOutput.stampa("Formato per invio messaggio non valido", OutputType.STDERR);
                             }
                         } else {
                             /* scrittura multicast */
-                            try {
-                                invia(input);
-                            } catch (MsgException | IllegalArgumentException | CommunicationException e) {
-                                ProjectOutput.stampa(e.getMessage(), OutputType.STDERR);
-                            }
+                            segnalaErrore(invia(input), OutputType.STDERR);
                         }
                     } else {
                         ProjectOutput.stampa("Formato input non valido: null", OutputType.STDERR);
@@ -336,100 +797,375 @@ public class MulticastPeer {
                 }
             }
             chiudi();
-        }).start();
+        });
     }
 
     /**
-     * Prepara l'output di messaggi unicast
+     * Prepara l'output di messaggi unicast. Il messaggio viene costruito e inviato dalla {@link #pipelineInvio}.
      * @param messaggioUnicast il contenuto del messaggio
      * @param destinatario il destinatario (UUID o username)
-     * @throws NoSuchUserException se si verifica un errore legato agli utenti e la {@link #rubrica}
-     * @throws MsgException se si verifica un errore nella creazione del {@link Messaggio}
-     * @throws IOException se si verifica un errore nell'invio del datagramma
-     * @throws ProtocolException se il parametro <code>protocollo</code> non è un valido {@link Protocollo}
+     * @return il {@link CompletableFuture} completato al termine dell'invio; in caso di errore contiene una {@link NoSuchUserException}, {@link MsgException}, {@link ProtocolException}, {@link IOException} o {@link CommunicationException}
      */
-    private synchronized void preparaInvio(String messaggioUnicast, String destinatario) throws MsgException, NoSuchUserException, ProtocolException, IOException {
-        IndiceRubrica infoDestinatario;
-        
-        if(destinatario.contains("-")) {
-            String aliasDaUUID = rubrica.ottieniAliasDaUUID(destinatario);
-            infoDestinatario = rubrica.ottieniInfoUtente(aliasDaUUID);
-        } else {
-            infoDestinatario = rubrica.ottieniInfoUtente(destinatario);
+    private CompletableFuture<Void> preparaInvio(String messaggioUnicast, String destinatario) {
+        return pipelineInvio.accoda(completamento -> {
+            IndiceRubrica infoDestinatario;
+            
+            if(destinatario.contains("-")) {
+                String aliasDaUUID = rubrica.ottieniAliasDaUUID(destinatario);
+                infoDestinatario = rubrica.ottieniInfoUtente(aliasDaUUID);
+            } else {
+                infoDestinatario = rubrica.ottieniInfoUtente(destinatario);
+            }
+            InetSocketAddress destinazione = new InetSocketAddress(infoDestinatario.inetAddress(), infoDestinatario.porta());
+            int id = cronologia.getNewID();
+            Messaggio messaggio = new Messaggio(id, utente, portaLocale, 1, messaggioUnicast, false, Protocollo.UDP.unicast);
+            if (rubrica.isCapacitaSupportata(destinazione, CodificaBinaria.CAP_SEQUENZA_DATI)) messaggio.setSequenzaDati(cronologia.nuovaSequenzaDati(destinazione));
+            ChatLogger.log("Invio messaggio unicast per " + utente.getIDutente() + " con msgID " + messaggioUnicast + " in corso...", ChatLoggerType.OPTIONAL);
+            cronologia.storicizzaMessaggio(messaggio);
+            
+            byte[] codificato = securityGate.codificaMessaggio(messaggio, isIdBreveUtilizzabile());
+            ritrasmettitore.registra(id, codificato, destinazione, false, messaggio.getTimestamp());
+            invia(codificato, TipoDatagramma.MESSAGGIO, destinazione, completamento);
+            eventi.pubblica(new Evento.MessaggioInviato(messaggioUnicast, id, messaggio.getTimestamp()));
+        });
+    }
+
+    /**
+     * Conferma la lettura di un messaggio ricevuto. Se il mittente accetta le {@link ConfermaAggregata} la conferma viene accumulata e inviata insieme alle altre dello stesso mittente,
+     * al raggiungimento della soglia o allo scadere del {@link #ritardoConferme}; altrimenti viene inviato subito un <code>acknowledge</code> singolo.
+     * @param msgRicevuto il messaggio da confermare
+     * @param indirizzoMittente l'indirizzo unicast del mittente
+     */
+    private void conferma(Messaggio msgRicevuto, InetSocketAddress indirizzoMittente) {
+        if (ritardoConferme <= 0 || !rubrica.isCapacitaSupportata(indirizzoMittente, CodificaBinaria.CAP_CONFERME_AGGREGATE)) {
+            segnalaErrore(preparaACK(String.valueOf(msgRicevuto.getID()), msgRicevuto.getUtente()), OutputType.STDERR);
+            return;
         }
-        int id = cronologia.getNewID();
-        Messaggio messaggio = new Messaggio(id, utente, unicastSocket.getLocalPort(), 1, messaggioUnicast, false, Protocollo.UDP.unicast);
-        ChatLogger.log("Invio messaggio unicast per " + utente.getIDutente() + " con msgID " + messaggioUnicast + " in corso...", ChatLoggerType.OPTIONAL);
-        cronologia.storicizzaMessaggio(messaggio);
-        
-        byte[] out = securityGate.cifraMessaggio(messaggio);
-        DatagramPacket packet = new DatagramPacket(out, out.length, infoDestinatario.inetAddress(), infoDestinatario.porta());
-        invia(packet);
-        controller.nuovoElemChat(messaggioUnicast, MsgType.INVIO, id, null, messaggio.getTimestamp());
+        AccumulatoreConferme.Pronta pronta = accumulatoreConferme.aggiungi(msgRicevuto.getUtente(), msgRicevuto.getID());
+        if (pronta != null) segnalaErrore(preparaACK(pronta.conferma().testo(), pronta.destinatario()), OutputType.STDERR);
     }
 
     /**
-     * Prepara l'output di messaggi ACK (unicast)
-     * @param msgIDxACK il contenuto del messaggio
-     * @param UUID l'identificativo univoco del destinatario
-     * @throws MsgException se si verifica un errore nella creazione del {@link Messaggio}
-     * @throws IOException se si verifica un errore nell'invio del datagramma
-     * @throws ProtocolException se il parametro <code>protocollo</code> non è un valido {@link Protocollo}
+     * Pianifica nel {@link CicloEventi} l'invio periodico delle conferme accumulate
      */
-    private synchronized void preparaACK(String msgIDxACK, String UUID) throws MsgException, IOException, ProtocolException, NoSuchUserException {
-        String aliasDaUUID = rubrica.ottieniAliasDaUUID(UUID);
-        IndiceRubrica infoDestinatario = rubrica.ottieniInfoUtente(aliasDaUUID);
-        
-        Messaggio messaggio = new Messaggio(cronologia.getNewID(), utente, unicastSocket.getLocalPort(), true, msgIDxACK, Protocollo.UDP.unicast);
-        ChatLogger.log("Invio messaggio ACK per " + utente.getIDutente() + " con msgID " + msgIDxACK + " in corso...", ChatLoggerType.OPTIONAL);
-        cronologia.storicizzaMessaggio(messaggio);
-        
-        byte[] out = securityGate.cifraMessaggio(messaggio);
-        DatagramPacket packet = new DatagramPacket(out, out.length, infoDestinatario.inetAddress(), infoDestinatario.porta());
-        invia(packet);
+    private synchronized void inviaConfermeAccumulate() {
+        if (ritardoConferme <= 0) return;
+        invioConferme = cicloEventi.pianifica(() -> {
+            if (online) svuotaConferme(0);
+        }, ritardoConferme, ritardoConferme);
+    }
+
+    /**
+     * Invia le conferme accumulate per tutti i mittenti
+     * @param attesa l'attesa massima in millisecondi quando la coda di invio è piena, <code>0</code> per non attendere (ad esempio dal {@link CicloEventi})
+     */
+    private void svuotaConferme(long attesa) {
+        for (AccumulatoreConferme.Pronta pronta : accumulatoreConferme.svuota()) {
+            segnalaErrore(preparaACK(pronta.conferma().testo(), pronta.destinatario(), attesa), OutputType.STDERR);
+        }
+    }
+
+    /**
+     * Prepara l'output di messaggi ACK (unicast). Il messaggio viene costruito e inviato dalla {@link #pipelineInvio}.
+     * @param msgIDxACK il contenuto del messaggio: l'<code>ID</code> confermato o una {@link ConfermaAggregata}
+     * @param destinatario l'utente destinatario dell'ACK
+     * @return il {@link CompletableFuture} completato al termine dell'invio
+     */
+    private CompletableFuture<Void> preparaACK(String msgIDxACK, Utente destinatario) {
+        return preparaACK(msgIDxACK, destinatario, PipelineInvio.ATTESA_PREDEFINITA);
+    }
+
+    /**
+     * Prepara l'output di messaggi ACK (unicast), con un'attesa massima personalizzata quando la coda di invio è piena
+     * @param msgIDxACK il contenuto del messaggio: l'<code>ID</code> confermato o una {@link ConfermaAggregata}
+     * @param destinatario l'utente destinatario dell'ACK
+     * @param attesa l'attesa massima in millisecondi, <code>0</code> per non attendere
+     * @return il {@link CompletableFuture} completato al termine dell'invio
+     * @see #preparaACK(String, Utente)
+     */
+    private CompletableFuture<Void> preparaACK(String msgIDxACK, Utente destinatario, long attesa) {
+        return pipelineInvio.accoda(completamento -> {
+            IndiceRubrica infoDestinatario = rubrica.ottieniInfoUtente(destinatario);
+            
+            Messaggio messaggio = new Messaggio(cronologia.getNewID(), utente, portaLocale, true, msgIDxACK, Protocollo.UDP.unicast);
+            ChatLogger.log("Invio messaggio ACK per " + utente.getIDutente() + " con msgID " + msgIDxACK + " in corso...", ChatLoggerType.OPTIONAL);
+            cronologia.storicizzaMessaggio(messaggio);
+            
+            invia(securityGate.codificaMessaggio(messaggio, isIdBreveUtilizzabile()), TipoDatagramma.ACK, new InetSocketAddress(infoDestinatario.inetAddress(), infoDestinatario.porta()), completamento);
+        }, attesa, Priorita.CONTROLLO);
     }
 
     /**
-     * Invia i datagrammi unicast al destinatario
-     * @param datagramPacket il datagramma da inviare
+     * Affida un messaggio codificato all'{@link #aggregatore} per l'invio alla destinazione indicata. Eseguito nella fase di codifica della {@link #pipelineInvio}.
+     * @param messaggio il messaggio codificato, in chiaro
+     * @param tipo il {@link TipoDatagramma} del messaggio
+     * @param destinazione l'indirizzo del destinatario o del gruppo
+     * @param completamento il {@link CompletableFuture} da completare al termine dell'invio
      * @throws IOException se si verifica un errore nell'invio del datagramma
+     * @throws CommunicationException se si verifica un errore legato alla chat multicast
      */
-    private synchronized void invia(DatagramPacket datagramPacket) throws IOException {
-        try {
-            unicastSocket.send(datagramPacket);
-        } catch (IOException e) {
-            throw new IOException("Impossibile inviare ACK: " + e.getMessage(), e.getCause());
+    private void invia(byte[] messaggio, TipoDatagramma tipo, InetSocketAddress destinazione, CompletableFuture<Void> completamento) throws IOException, CommunicationException {
+        aggregatore.accoda(messaggio, tipo, destinazione, completamento);
+        pubblicaStatistiche();
+    }
+
+    /**
+     * Pubblica sul {@link #eventi} le statistiche aggiornate della connessione
+     * @throws UnknownHostException se non è possibile determinare l'indirizzo IP locale
+     */
+    private void pubblicaStatistiche() throws UnknownHostException {
+        eventi.pubblica(new Evento.StatisticheAggiornate(InetAddress.getLocalHost().getHostAddress(), this.portaLocale, this.gruppoUDP.getIndirizzoMulticast().toString(), this.gruppoUDP.getPortaGruppo(), this.cronologia.getMessaggiInviati(), this.cronologia.getMessaggiRicevuti(), this.cronologia.getSimpleStat(), this.filtroDuplicati.getScartati()));
+    }
+
+    /**
+     * Affida un datagramma in chiaro alla fase di cifratura della {@link #pipelineInvio}. Utilizzato dall'{@link #aggregatore}.
+     * Il contenuto viene compresso (se supportato dalla destinazione) e cifrato con la modalità negoziata; i contenuti che superano l'{@link #mtu} vengono divisi in più {@link Frammento}, cifrati e inviati singolarmente.
+     * @param inChiaro il contenuto del datagramma, in chiaro
+     * @param tipo il {@link TipoDatagramma} dei messaggi contenuti
+     * @param destinazione l'indirizzo del destinatario o del gruppo
+     * @param completamenti i completamenti dei messaggi contenuti nel datagramma
+     */
+    private void spedisci(byte[] inChiaro, TipoDatagramma tipo, InetSocketAddress destinazione, List<CompletableFuture<Void>> completamenti) {
+        pipelineInvio.cifra(() -> {
+            boolean isGruppo = destinazione.equals(gruppoUDP.getGruppo());
+            byte[] contenuto = inChiaro;
+            /* compressione e AES-GCM vengono utilizzati solo se tutti i destinatari li supportano */
+            if (compressione != null && isCapacitaSupportata(destinazione, isGruppo, CodificaBinaria.CAP_COMPRESSIONE)) {
+                contenuto = compressione.comprimi(contenuto);
+            }
+            ModalitaCifratura modalita = securityGate.getModalita() == ModalitaCifratura.GCM && isCapacitaSupportata(destinazione, isGruppo, CodificaBinaria.CAP_GCM) ? ModalitaCifratura.GCM : ModalitaCifratura.CBC;
+            if (contenuto.length > mtu - SecurityGate.OVERHEAD_MASSIMO) {
+                List<byte[]> frammenti;
+                try {
+                    frammenti = Frammento.dividi(contenuto, idFrammentazione.getAndIncrement(), mtu - SecurityGate.OVERHEAD_MASSIMO);
+                } catch (MsgException e) {
+                    throw new CommunicationException("Impossibile frammentare il messaggio: " + e.getMessage(), e);
+                }
+                for (int i = 0; i < frammenti.size(); i++) {
+                    cifraDatagramma(frammenti.get(i), modalita, tipo, destinazione, completamenti, i == frammenti.size() - 1);
+                }
+            } else {
+                cifraDatagramma(contenuto, modalita, tipo, destinazione, completamenti, true);
+            }
+        }, completamenti, Priorita.di(tipo));
+    }
+
+    /**
+     * Verifica se i destinatari di un datagramma supportano le capacità indicate
+     * @param destinazione l'indirizzo del destinatario o del gruppo
+     * @param isGruppo se la destinazione è il gruppo
+     * @param capacita la maschera delle capacità richieste
+     * @return <code>true</code> se il destinatario, o ogni partecipante noto del gruppo, supporta le capacità richieste
+     */
+    private boolean isCapacitaSupportata(InetSocketAddress destinazione, boolean isGruppo, int capacita) {
+        return isGruppo ? rubrica.isCapacitaComune(capacita) : rubrica.isCapacitaSupportata(destinazione, capacita);
+    }
+
+    /**
+     * Cifra un datagramma in un buffer del {@link #poolBuffer} e lo affida allo {@link #scrittore}
+     * @param inChiaro il contenuto del datagramma, in chiaro, non più grande dell'{@link #mtu} al netto della cifratura
+     * @param modalita la {@link ModalitaCifratura} da utilizzare
+     * @param tipo il {@link TipoDatagramma}, trasmesso in chiaro con AES-GCM
+     * @param destinazione l'indirizzo del destinatario o del gruppo
+     * @param completamenti i completamenti dei messaggi contenuti nel datagramma
+     * @param ultimo se si tratta dell'ultimo datagramma dei messaggi
+     * @throws CommunicationException se si verifica un errore nella cifratura
+     */
+    private void cifraDatagramma(byte[] inChiaro, ModalitaCifratura modalita, TipoDatagramma tipo, InetSocketAddress destinazione, List<CompletableFuture<Void>> completamenti, boolean ultimo) throws CommunicationException {
+        if (scrittore == null) throw new CommunicationException("Canale unicast non configurato: impossibile inviare il messaggio");
+        ByteBuffer datagramma = poolBuffer.preleva();
+        if (securityGate.cifra(ByteBuffer.wrap(inChiaro), datagramma, modalita, tipo) < 0) {
+            poolBuffer.rilascia(datagramma);
+            throw new CommunicationException("Impossibile cifrare il messaggio");
         }
-        controller.aggiornaDashboard(InetAddress.getLocalHost().getHostAddress(), String.valueOf(this.unicastSocket.getLocalPort()), this.gruppoUDP.getIndirizzoMulticast().toString(), String.valueOf(this.gruppoUDP.getPortaGruppo()), String.valueOf(this.cronologia.getMessaggiInviati()), String.valueOf(this.cronologia.getMessaggiRicevuti()), this.cronologia.getSimpleStat());
+        datagramma.flip();
+        scrittore.accoda(datagramma, destinazione, completamenti, ultimo, Priorita.di(tipo));
+    }
+
+    /**
+     * Segnala l'eventuale errore di un invio asincrono
+     * @param invio il {@link CompletableFuture} dell'invio
+     * @param tipo il tipo di output su cui segnalare l'errore
+     */
+    private static void segnalaErrore(CompletableFuture<Void> invio, OutputType tipo) {
+        invio.whenComplete((r, e) -> {
+            if (e == null) return;
+            Throwable causa = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+            ProjectOutput.stampa(causa.getMessage(), tipo);
+        });
     }
 
     /**
-     * Metodo di scrittura di messaggi a un <code>gruppo</code> multicast
+     * Metodo di scrittura di messaggi a un <code>gruppo</code> multicast. Il messaggio viene costruito e inviato dalla {@link #pipelineInvio}.
      * @param messaggioMulticast il contenuto del messaggio
-     * @throws MsgException se si verifica un errore nella creazione del {@link Messaggio}
-     * @throws CommunicationException se si verifica un errore legato alla chat multicast
-     * @throws ProtocolException se il parametro <code>protocollo</code> non è un valido {@link Protocollo}
-     */
-    private synchronized void invia(String messaggioMulticast) throws MsgException, CommunicationException, ProtocolException, UnknownHostException {
-        ChatLogger.log("Invio messaggio multicast in corso...", ChatLoggerType.OPTIONAL);
-        int id = cronologia.getNewID();
-        Messaggio messaggio;
-        if (messaggioMulticast.equals("left-group")) {
-            ProjectOutput.stampa("Hai abbandonato il gruppo", OutputType.UIOUT);
-            messaggio = new Messaggio(id, utente, unicastSocket.getLocalPort(), 0, messaggioMulticast, true, Protocollo.UDP.multicast);
-        } else if (messaggioMulticast.equals("join-group")) {
-            ProjectOutput.stampa("Ti sei unito/a al gruppo", OutputType.UIOUT);
-            messaggio = new Messaggio(id, utente, unicastSocket.getLocalPort(), 0, messaggioMulticast, true, Protocollo.UDP.multicast);
-        } else if (!messaggioMulticast.equals("DO-NOT-SHOW-THIS-MESSAGE")) {
-            messaggio = new Messaggio(id, utente, unicastSocket.getLocalPort(), rubrica.partecipantiGruppo(), messaggioMulticast, true, Protocollo.UDP.multicast);
-            controller.nuovoElemChat(messaggioMulticast, MsgType.INVIO, id, null, messaggio.getTimestamp());
-        } else {
-            messaggio = new Messaggio(id, utente, unicastSocket.getLocalPort(), rubrica.partecipantiGruppo(), messaggioMulticast, true, Protocollo.UDP.multicast);
+     * @return il {@link CompletableFuture} completato al termine dell'invio; in caso di errore contiene una {@link MsgException}, {@link ProtocolException}, {@link IOException} o {@link CommunicationException}
+     */
+    private CompletableFuture<Void> invia(String messaggioMulticast) {
+        return invia(messaggioMulticast, PipelineInvio.ATTESA_PREDEFINITA);
+    }
+
+    /**
+     * Metodo di scrittura di messaggi a un <code>gruppo</code> multicast, con un'attesa massima personalizzata quando la coda di invio è piena
+     * @param messaggioMulticast il contenuto del messaggio
+     * @param attesa l'attesa massima in millisecondi, <code>0</code> per non attendere
+     * @return il {@link CompletableFuture} completato al termine dell'invio
+     * @see #invia(String)
+     */
+    private CompletableFuture<Void> invia(String messaggioMulticast, long attesa) {
+        boolean isControllo = messaggioMulticast.equals("join-group") || messaggioMulticast.equals("left-group") || messaggioMulticast.equals("DO-NOT-SHOW-THIS-MESSAGE");
+        /* soltanto il keepAlive procede nella corsia di controllo: ingresso e uscita dal gruppo restano nell'ordine dei messaggi della chat,
+           così che un messaggio non preceda mai il join-group del mittente né segua il suo left-group */
+        Priorita priorita = messaggioMulticast.equals("DO-NOT-SHOW-THIS-MESSAGE") ? Priorita.CONTROLLO : Priorita.DATI;
+        return pipelineInvio.accoda(completamento -> {
+            ChatLogger.log("Invio messaggio multicast in corso...", ChatLoggerType.OPTIONAL);
+            int id = cronologia.getNewID();
+            /* con il multicast affidabile i destinatari non confermano i messaggi, ma richiedono quelli mancanti */
+            boolean affidabile = isMulticastAffidabile();
+            Messaggio messaggio;
+            if (messaggioMulticast.equals("left-group")) {
+                ProjectOutput.stampa("Hai abbandonato il gruppo", OutputType.UIOUT);
+                messaggio = new Messaggio(id, utente, portaLocale, 0, messaggioMulticast, true, Protocollo.UDP.multicast);
+            } else if (messaggioMulticast.equals("join-group")) {
+                ProjectOutput.stampa("Ti sei unito/a al gruppo", OutputType.UIOUT);
+                messaggio = new Messaggio(id, utente, portaLocale, 0, messaggioMulticast, true, Protocollo.UDP.multicast);
+            } else if (!messaggioMulticast.equals("DO-NOT-SHOW-THIS-MESSAGE")) {
+                messaggio = new Messaggio(id, utente, portaLocale, affidabile ? 0 : rubrica.partecipantiGruppo(), messaggioMulticast, true, Protocollo.UDP.multicast);
+                if (affidabile) messaggio.setSequenza(storicoGruppo.nuovaSequenza());
+                /* le ritrasmissioni vengono riconosciute dai destinatari sul numero di sequenza dei dati, che non avanza con ACK e keepAlive */
+                if (rubrica.isCapacitaComune(CodificaBinaria.CAP_SEQUENZA_DATI)) messaggio.setSequenzaDati(cronologia.nuovaSequenzaDati(gruppoUDP.getGruppo()));
+                eventi.pubblica(new Evento.MessaggioInviato(messaggioMulticast, id, messaggio.getTimestamp()));
+            } else {
+                messaggio = new Messaggio(id, utente, portaLocale, affidabile ? 0 : rubrica.partecipantiGruppo(), messaggioMulticast, true, Protocollo.UDP.multicast);
+                /* il keepAlive annuncia l'ultimo numero assegnato, rivelando ai destinatari la perdita degli ultimi messaggi */
+                if (affidabile) messaggio.setSequenza(storicoGruppo.getUltima());
+            }
+            /* ingresso e uscita dal gruppo condividono la sequenza dei dati del gruppo: i duplicati vengono riconosciuti nella stessa finestra dei messaggi che li precedono e li seguono */
+            if (isControllo && priorita == Priorita.DATI && rubrica.isCapacitaComune(CodificaBinaria.CAP_SEQUENZA_DATI)) messaggio.setSequenzaDati(cronologia.nuovaSequenzaDati(gruppoUDP.getGruppo()));
+            cronologia.storicizzaMessaggio(messaggio);
+            /* i messaggi di controllo trasportano sempre l'identità completa, in modo che i nuovi partecipanti possano risolvere l'identificativo breve */
+            byte[] codificato = securityGate.codificaMessaggio(messaggio, !isControllo && isIdBreveUtilizzabile());
+            if (!isControllo && messaggio.getSequenza() > 0) storicoGruppo.conserva(messaggio.getSequenza(), codificato);
+            /* senza multicast affidabile i messaggi di gruppo vengono ritrasmessi finché non sono confermati da tutti i partecipanti */
+            else if (!isControllo && messaggio.getTargetACK() > 0) ritrasmettitore.registra(id, codificato, gruppoUDP.getGruppo(), true, messaggio.getTimestamp());
+            invia(codificato, priorita == Priorita.CONTROLLO ? TipoDatagramma.CONTROLLO : TipoDatagramma.MESSAGGIO, gruppoUDP.getGruppo(), completamento);
+        }, attesa, priorita);
+    }
+
+    /**
+     * Verifica se i messaggi di gruppo possono essere inviati con il multicast affidabile: numerati, conservati nello {@link #storicoGruppo} e ritrasmessi su richiesta, senza <code>acknowledge</code> da ciascun destinatario.
+     * È possibile soltanto se abilitato e se tutti i partecipanti noti riconoscono i numeri di sequenza.
+     * @return <code>true</code> se il multicast affidabile è utilizzabile, <code>false</code> altrimenti
+     */
+    private boolean isMulticastAffidabile() {
+        return multicastAffidabile && rubrica.isCapacitaComune(CodificaBinaria.CAP_NACK);
+    }
+
+    /**
+     * Richiede a un mittente la ritrasmissione dei messaggi di gruppo mancanti. Il messaggio viene costruito e inviato dalla {@link #pipelineInvio}.
+     * @param richiesta la {@link RilevatorePerdite.Richiesta} da inviare
+     * @param attesa l'attesa massima in millisecondi quando la coda di invio è piena, <code>0</code> per non attendere
+     * @return il {@link CompletableFuture} completato al termine dell'invio
+     */
+    private CompletableFuture<Void> richiediRitrasmissione(RilevatorePerdite.Richiesta richiesta, long attesa) {
+        return pipelineInvio.accoda(completamento -> {
+            Messaggio messaggio = new Messaggio(cronologia.getNewID(), utente, portaLocale, 0, richiesta.contenuto(), false, Protocollo.UDP.unicast);
+            ChatLogger.log("Richiesta di ritrasmissione dei messaggi " + richiesta.mancanti() + " a " + richiesta.destinazione() + " in corso...", ChatLoggerType.OPTIONAL);
+            invia(securityGate.codificaMessaggio(messaggio, isIdBreveUtilizzabile()), TipoDatagramma.ACK, richiesta.destinazione(), completamento);
+        }, attesa, Priorita.CONTROLLO);
+    }
+
+    /**
+     * Ritrasmette i messaggi di gruppo richiesti, ancora presenti nello {@link #storicoGruppo}, soltanto all'utente che li ha richiesti
+     * @param sequenze i numeri di sequenza richiesti
+     * @param destinazione l'indirizzo unicast del richiedente
+     * @return il {@link CompletableFuture} completato al termine dell'invio di tutti i messaggi ritrasmessi, o con il primo errore
+     */
+    private CompletableFuture<Void> ritrasmetti(List<Integer> sequenze, InetSocketAddress destinazione) {
+        return pipelineInvio.accoda(completamento -> {
+            /* ciascun messaggio ha il proprio completamento: quello della richiesta si completa soltanto quando sono stati scritti tutti */
+            List<CompletableFuture<Void>> ritrasmessi = new ArrayList<>(sequenze.size());
+            for (int sequenza : sequenze) {
+                byte[] codificato = storicoGruppo.ottieni(sequenza);
+                if (codificato == null) continue;
+                CompletableFuture<Void> ritrasmesso = new CompletableFuture<>();
+                ritrasmessi.add(ritrasmesso);
+                invia(codificato, TipoDatagramma.MESSAGGIO, destinazione, ritrasmesso);
+            }
+            CompletableFuture.allOf(ritrasmessi.toArray(CompletableFuture[]::new)).whenComplete((r, e) -> {
+                if (e == null) completamento.complete(null);
+                else completamento.completeExceptionally(e instanceof CompletionException && e.getCause() != null ? e.getCause() : e);
+            });
+        });
+    }
+
+    /**
+     * Ritrasmette un messaggio non ancora confermato. Utilizzato dal {@link #ritrasmettitore} nel {@link CicloEventi}: con la coda di invio piena la ritrasmissione viene saltata.
+     * @param codificato il messaggio codificato, in chiaro
+     * @param destinazione l'indirizzo del destinatario o del gruppo
+     * @return <code>true</code> se la ritrasmissione è stata accodata, <code>false</code> se è stata saltata e non deve essere contata tra i tentativi
+     */
+    private boolean ritrasmettiMessaggio(byte[] codificato, InetSocketAddress destinazione) {
+        /* un timeout rivela una perdita verso la destinazione: la velocità di scrittura viene ridotta prima della ritrasmissione */
+        if (scrittore != null) scrittore.segnalaPerdita(destinazione);
+        CompletableFuture<Void> ritrasmissione = pipelineInvio.accoda(completamento -> {
+            ChatLogger.log("Ritrasmissione di un messaggio non confermato a " + destinazione + " in corso...", ChatLoggerType.OPTIONAL);
+            invia(codificato, TipoDatagramma.MESSAGGIO, destinazione, completamento);
+        }, 0);
+        /* un rifiuto della coda completa subito il CompletableFuture */
+        if (ritrasmissione.isCompletedExceptionally()) {
+            ChatLogger.log("Ritrasmissione a " + destinazione + " rinviata: coda di invio piena", ChatLoggerType.OPTIONAL);
+            return false;
         }
-        cronologia.storicizzaMessaggio(messaggio);
-        byte[] out = securityGate.cifraMessaggio(messaggio);
-        gruppoUDP.multicast(out);
-        controller.aggiornaDashboard(InetAddress.getLocalHost().getHostAddress(), String.valueOf(this.unicastSocket.getLocalPort()), this.gruppoUDP.getIndirizzoMulticast().toString(), String.valueOf(this.gruppoUDP.getPortaGruppo()), String.valueOf(this.cronologia.getMessaggiInviati()), String.valueOf(this.cronologia.getMessaggiRicevuti()), this.cronologia.getSimpleStat());
+        segnalaErrore(ritrasmissione, OutputType.STDERR);
+        return true;
+    }
+
+    /**
+     * Segnala un messaggio non confermato nemmeno dopo le ritrasmissioni del {@link #ritrasmettitore}, o dimenticato al raggiungimento di {@link Ritrasmettitore#MAX_IN_SOSPESO} messaggi in attesa
+     * @param id l'<code>ID</code> del messaggio
+     * @param timestamp l'orario di invio del messaggio
+     */
+    private void invioFallito(int id, String timestamp) {
+        ChatLogger.log("Messaggio con msgID " + id + " non confermato: ritrasmissioni esaurite o messaggi in attesa oltre il limite", ChatLoggerType.OPTIONAL);
+        eventi.pubblica(new Evento.InvioFallito(id, timestamp));
+    }
+
+    /**
+     * Verifica se il mittente può essere identificato nei messaggi dal solo identificativo breve di sessione.
+     * È possibile soltanto dopo l'ingresso nel gruppo e se nessun altro utente noto condivide lo stesso identificativo breve.
+     * @return <code>true</code> se l'identificativo breve è utilizzabile, <code>false</code> altrimenti
+     * @see Rubrica#isIdBreveUnivoco(Utente)
+     */
+    private boolean isIdBreveUtilizzabile() {
+        return unito && rubrica.isIdBreveUnivoco(utente);
+    }
+
+    /**
+     * Sostituisce la chiave di cifratura del gruppo con quella indicata dall'utente.
+     * La chiave precedente resta valida in ricezione per la finestra di sovrapposizione, in modo che i messaggi degli utenti che non l'hanno ancora cambiata continuino a essere ricevuti.
+     * Come per gli altri comandi, i parametri sono separati da spazi: la nuova chiave non può quindi contenerne.
+     * @param arrayInput il comando <code>$chiave &lt;nuovaChiave&gt; [secondi]</code>, con la finestra di sovrapposizione facoltativa in secondi
+     * @param tipoErrore la destinazione dei messaggi di errore
+     */
+    private void ruotaChiave(String[] arrayInput, OutputType tipoErrore) {
+        if(arrayInput.length < 2 || arrayInput.length > 3 || arrayInput[1].isBlank()) {
+            ProjectOutput.stampa("Parametri <nuovaChiave> e [secondi] assenti o non validi", tipoErrore);
+            return;
+        }
+        long sovrapposizione = SecurityGate.SOVRAPPOSIZIONE_PREDEFINITA;
+        if(arrayInput.length == 3) {
+            try {
+                sovrapposizione = Long.parseLong(arrayInput[2].trim()) * 1000;
+            } catch (NumberFormatException e) {
+                sovrapposizione = -1;
+            }
+            if(sovrapposizione < 0) {
+                ProjectOutput.stampa("Finestra di sovrapposizione non valida: " + arrayInput[2].trim(), tipoErrore);
+                return;
+            }
+        }
+        securityGate.ruotaChiave(arrayInput[1].trim(), sovrapposizione);
+        ChatLogger.log("Chiave di cifratura sostituita; la precedente resta valida per " + sovrapposizione / 1000 + " s", ChatLoggerType.MANDATORY);
     }
 
     /**
@@ -440,10 +1176,13 @@ public class MulticastPeer {
      *     <li><code>$exit</code> per terminare l'esecuzione</li>
      *     <li><code>$rn</code> per rinominare un utente in rubrica</li>
      *     <li><code>$log</code> per attivare/disattivare la modalità di logging</li>
+     *     <li><code>$chiave</code> per cambiare la chiave di cifratura del gruppo</li>
      * </ul>
+     * Il metodo non acquisisce il monitor del <code>peer</code>: con la coda di invio piena l'accodamento può attendere fino a {@link PipelineInvio#ATTESA_PREDEFINITA} millisecondi,
+     * durante i quali la chiusura e la ricezione devono poter procedere. Le operazioni richiamate sono thread-safe.
      * @param inputUtente l'input dell'utente
      */
-    public synchronized void inputDaUI(String inputUtente){
+    public void inputDaUI(String inputUtente){
         try {
             String[] arrayInput;
 
@@ -456,7 +1195,7 @@ public class MulticastPeer {
                     
                     case "$rn" -> {
                         if(arrayInput.length == 3){
-                            rubrica.rinomina(arrayInput[1].trim(), arrayInput[2].trim(), controller);
+                            rubrica.rinomina(arrayInput[1].trim(), arrayInput[2].trim(), eventi);
                         } else {
                             ProjectOutput.stampa("Parametri <alias> e <nuovoAlias> assenti o non validi", OutputType.UIERR);
                         }
@@ -464,6 +1203,8 @@ public class MulticastPeer {
                     
                     case "$log" -> ChatLogger.abilita(!ChatLogger.isAbilitato());
 
+                    case "$chiave" -> ruotaChiave(arrayInput, OutputType.UIERR);
+
                     default -> ProjectOutput.stampa("Comando " + arrayInput[0].trim() + " non riconosciuto", OutputType.UIERR);
                 }
 
@@ -472,22 +1213,14 @@ public class MulticastPeer {
 
                 if(arrayInput.length == 2) {
                     /* scrittura unicast */
-                    try {
-                        preparaInvio(arrayInput[0].trim(), arrayInput[1].trim());
-                    } catch (MsgException | IllegalArgumentException e) {
-                        ProjectOutput.stampa(e.getMessage(), OutputType.UIERR);
-                    }
+                    segnalaErrore(preparaInvio(arrayInput[0].trim(), arrayInput[1].trim()), OutputType.UIERR);
 
                 } else {
                     ProjectOutput.stampa("Formato per invio messaggio non valido", OutputType.UIERR);
                 }
             } else {
                 /* scrittura multicast */
-                try {
-                    invia(inputUtente);
-                } catch (MsgException | IllegalArgumentException | CommunicationException e) {
-                    ProjectOutput.stampa(e.getMessage(), OutputType.STDERR);
-                }
+                segnalaErrore(invia(inputUtente), OutputType.STDERR);
             }
         } catch (Exception e){
             setOnline(false);
@@ -496,38 +1229,52 @@ public class MulticastPeer {
     }
 
     /**
-     * Avvia il {@link Thread} di keepAlive per mantenere attiva la connessione
+     * Pianifica nel {@link CicloEventi} il messaggio periodico di keepAlive per mantenere attiva la connessione
      */
     private synchronized void keepAlive() {
-        new Thread(()->{
-            Thread.currentThread().setName("Thread di keepAlive");
-            Thread.currentThread().setPriority(Thread.MAX_PRIORITY);
-            
-            while(this.isOnline()) {
-                try {
-                    invia("DO-NOT-SHOW-THIS-MESSAGE");
-                    Thread.sleep(10000);
-                } catch (InterruptedException | MsgException | CommunicationException | ProtocolException | UnknownHostException e) {
-                    ProjectOutput.stampa("Errore: " + e.getMessage(), OutputType.STDERR);
-                }
+        keepAlive = cicloEventi.pianifica(() -> {
+            /* il ciclo di eventi non deve bloccarsi: con la coda di invio piena il keepAlive viene saltato */
+            if(online) segnalaErrore(invia("DO-NOT-SHOW-THIS-MESSAGE", 0), OutputType.STDERR);
+        }, 0, 10000);
+    }
+
+    /**
+     * Pianifica nel {@link CicloEventi} i solleciti periodici dei messaggi di gruppo ancora mancanti
+     */
+    private synchronized void sollecitaPerdite() {
+        sollecitoPerdite = cicloEventi.pianifica(() -> {
+            /* come per il keepAlive, con la coda di invio piena il sollecito viene saltato */
+            if (!online) return;
+            for (RilevatorePerdite.Richiesta richiesta : rilevatorePerdite.daSollecitare()) {
+                segnalaErrore(richiediRitrasmissione(richiesta, 0), OutputType.STDERR);
             }
-        }).start();
+        }, RilevatorePerdite.INTERVALLO_SOLLECITO, RilevatorePerdite.INTERVALLO_SOLLECITO);
     }
 
     /**
-     * Chiude la {@link #unicastSocket}, rilasciando le risorse
+     * Chiude il {@link #canaleUnicast}, il {@link CicloEventi} e le {@link Attivita}, rilasciando le risorse
      */
     public synchronized void chiudi() {
         if(isOnline()){
-            try {
-                invia("left-group");
-            } catch (Exception e){
-                ProjectOutput.stampa("Impossibile inviare il messaggio di uscita dal gruppo", OutputType.STDERR);
-            }
+            /* le conferme accumulate vengono inviate prima dell'uscita dal gruppo */
+            if(invioConferme != null) invioConferme.annulla();
+            svuotaConferme(PipelineInvio.ATTESA_PREDEFINITA);
+            ritrasmettitore.chiudi();
+            /* nessun keepAlive viene accodato dopo il left-group */
+            if(keepAlive != null) keepAlive.annulla();
+            invia("left-group").whenComplete((r, e) -> {
+                if (e != null) ProjectOutput.stampa("Impossibile inviare il messaggio di uscita dal gruppo", OutputType.STDERR);
+            });
             
             // TODO: implementare l'eliminazione del gruppo dal Web Service
             
+            /* i messaggi in attesa, compreso il left-group, vengono codificati, svuotati dall'aggregatore e scritti prima della chiusura delle socket */
+            pipelineInvio.chiudi(aggregatore::chiudi);
+            scrittore.chiudi(PipelineInvio.ATTESA_PREDEFINITA);
             setOnline(false);
+            if(sollecitoPerdite != null) sollecitoPerdite.annulla();
+            pipelineRicezione.chiudi();
+            cicloEventi.chiudi();
             ChatLogger.log("Terminazione in corso...", ChatLoggerType.MANDATORY);
 
             try {
@@ -535,7 +1282,19 @@ public class MulticastPeer {
             } catch (IOException e) {
                 ChatLogger.log("Impossibile abbandonare correttamente il gruppo", ChatLoggerType.OPTIONAL);
             }
-            if(unicastSocket != null && !unicastSocket.isClosed()) unicastSocket.close();
+            if(canaleUnicast != null && canaleUnicast.isOpen()) {
+                try {
+                    canaleUnicast.close();
+                } catch (IOException e) {
+                    ChatLogger.log("Impossibile chiudere il canale unicast", ChatLoggerType.OPTIONAL);
+                }
+            }
+            securityGate.rimuoviChiavi();
+            poolBuffer.segnalaPerdite(0);
         }
+        /* gli iscritti ricevono gli eventi già pubblicati, compresi quelli dell'uscita dal gruppo */
+        eventi.chiudi(Attivita.ATTESA_PREDEFINITA);
+        /* le pipeline sono già state arrestate ordinatamente: vengono interrotte soltanto le attività rimaste bloccate */
+        attivita.chiudi(Attivita.ATTESA_PREDEFINITA);
     }
 }
@@ -0,0 +1,36 @@
+package edu.avolta.tpsit.multicastudpsocketchat.host;
+
+/**
+ * Pianificazione tra le corsie di {@link Priorita} quando entrambe hanno elementi in attesa.
+ *
+ * @author Matteo Bagnoletti Tini
+ * @version 1.0
+ * @project MulticastUDPSocketChat
+ * @see CodaPriorita
+ */
+public enum Pianificazione {
+
+    /**
+     * La corsia di controllo ha sempre la precedenza: i messaggi della chat attendono finché c'è traffico di controllo
+     */
+    RIGOROSA,
+
+    /**
+     * La corsia di controllo ha la precedenza per {@link #PESO_CONTROLLO} elementi consecutivi, poi cede un turno alla corsia dei messaggi, che non può restare bloccata
+     */
+    PESATA;
+
+    /**
+     * Elementi di controllo serviti per ciascun messaggio della chat con la pianificazione {@link #PESATA}
+     */
+    public static final int PESO_CONTROLLO = 4;
+
+    /**
+     * Verifica se, con entrambe le corsie in attesa, il prossimo turno spetta alla corsia di controllo
+     * @param consecutivi gli elementi di controllo serviti dall'ultimo messaggio della chat
+     * @return <code>true</code> se il turno spetta alla corsia di controllo
+     */
+    public boolean isTurnoControllo(int consecutivi) {
+        return this == RIGOROSA || consecutivi < PESO_CONTROLLO;
+    }
+}
@@ -0,0 +1,277 @@
+package edu.avolta.tpsit.multicastudpsocketchat.host;
+
+import edu.avolta.tpsit.multicastudpsocketchat.eccezioni.CommunicationException;
+import edu.avolta.tpsit.multicastudpsocketchat.gestione.OutputType;
+import edu.avolta.tpsit.multicastudpsocketchat.gestione.ProjectOutput;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Pipeline di invio di un {@link MulticastPeer}, suddivisa in due fasi eseguite ciascuna da un proprio {@link Thread} virtuale, avviato dalle {@link Attivita} del <code>peer</code>:
+ * <ol>
+ *     <li><b>codifica</b>: costruzione e codifica del messaggio, affidato poi all'{@link Aggregatore}</li>
+ *     <li><b>cifratura</b>: compressione, frammentazione e cifratura dei datagrammi, affidati poi allo {@link Scrittore}</li>
+ * </ol>
+ * Chi invia un messaggio non attende nessuna delle fasi: riceve un {@link CompletableFuture}, completato dallo {@link Scrittore} dopo la scrittura dell'ultimo datagramma che contiene il messaggio o in caso di errore.
+ * Ogni fase dispone di una {@link CodaPriorita}: il traffico di controllo (keepAlive, <code>acknowledge</code> e richieste di ritrasmissione) non attende i messaggi della chat già accodati.
+ * All'interno di ciascuna {@link Priorita} le operazioni vengono elaborate nell'ordine in cui sono state accodate, mantenendo l'ordine dei messaggi.
+ * <p>
+ * Entrambe le code sono limitate, per ciascuna corsia: quando la coda di codifica è piena chi invia viene bloccato fino all'attesa massima, oltre la quale l'invio fallisce.
+ * Quando è piena la coda di cifratura attende allo stesso modo chi le affida i datagrammi, cioè la fase di codifica o lo scadere di un ritardo di aggregazione:
+ * il rallentamento della cifratura si propaga così alla coda di codifica e quindi a chi invia, senza che la memoria occupata dai datagrammi in attesa cresca senza limite.
+ *
+ * @author Matteo Bagnoletti Tini
+ * @version 1.0
+ * @project MulticastUDPSocketChat
+ */
+public class PipelineInvio {
+
+    /**
+     * Costruzione e codifica di un messaggio
+     */
+    @FunctionalInterface
+    public interface Richiesta {
+        /**
+         * Costruisce e codifica il messaggio, affidandolo alle fasi successive insieme al completamento
+         * @param completamento il {@link CompletableFuture} da completare al termine dell'invio
+         * @throws Exception se il messaggio non può essere costruito o inviato
+         */
+        void codifica(CompletableFuture<Void> completamento) throws Exception;
+    }
+
+    /**
+     * Generica operazione di una fase
+     */
+    @FunctionalInterface
+    public interface Operazione {
+        /**
+         * Esegue l'operazione
+         * @throws Exception se l'operazione fallisce
+         */
+        void esegui() throws Exception;
+    }
+
+    /**
+     * Capacità predefinita della coda di codifica
+     */
+    public static final int CAPACITA_PREDEFINITA = 256;
+
+    /**
+     * Attesa massima predefinita, in millisecondi, quando la coda di codifica è piena
+     */
+    public static final long ATTESA_PREDEFINITA = 1000;
+
+    /**
+     * Fase della pipeline: un {@link Thread} che esegue in ordine le operazioni della propria coda
+     */
+    private static final class Fase {
+
+        /**
+         * Operazione in coda con la sua corsia
+         */
+        private record InCoda(Runnable operazione, Priorita priorita) {}
+
+        /**
+         * Operazione che termina il {@link Thread} della fase, dopo aver eseguito quelle rimaste in entrambe le corsie
+         */
+        private static final InCoda FINE = new InCoda(() -> {}, Priorita.DATI);
+
+        private final String nome;
+        private final CodaPriorita<InCoda> coda;
+        private final Thread thread;
+        private volatile boolean aperta = true;
+        private final LongAdder eseguite = new LongAdder();
+        private final LongAdder nano = new LongAdder();
+
+        private Fase(String nome, int capacita, Pianificazione pianificazione, Attivita attivita) {
+            this.nome = nome;
+            this.coda = new CodaPriorita<>(capacita, pianificazione, InCoda::priorita);
+            this.thread = attivita.avvia("Thread di " + nome, this::esegui);
+        }
+
+        private boolean accoda(Runnable operazione, Priorita priorita, long attesa) throws InterruptedException {
+            return aperta && coda.offer(new InCoda(operazione, priorita), attesa, TimeUnit.MILLISECONDS);
+        }
+
+        private void esegui() {
+            try {
+                while(true) {
+                    InCoda inCoda = coda.take();
+                    if(inCoda == FINE) {
+                        /* con la pianificazione pesata possono restare operazioni di controllo accodate prima della chiusura */
+                        while((inCoda = coda.poll()) != null) esegui(inCoda.operazione());
+                        return;
+                    }
+                    esegui(inCoda.operazione());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private void esegui(Runnable operazione) {
+            long inizio = System.nanoTime();
+            try {
+                operazione.run();
+            } catch (RuntimeException e) {
+                ProjectOutput.stampa("Errore nella fase di " + nome + ": " + e.getMessage(), OutputType.STDERR);
+            }
+            nano.add(System.nanoTime() - inizio);
+            eseguite.increment();
+        }
+
+        /**
+         * Esegue le operazioni già accodate e termina il {@link Thread} della fase
+         */
+        private void chiudi(long attesa) {
+            aperta = false;
+            try {
+                coda.put(FINE);
+                if(Thread.currentThread() != thread) thread.join(attesa);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private String getStatistiche() {
+            long numero = eseguite.sum();
+            return String.format("%s %d (media %.1f µs; %s)", nome, numero, numero == 0 ? 0 : nano.sum() / 1000.0 / numero, coda.getStatistiche());
+        }
+    }
+
+    private final Fase codifica;
+
+    private final Fase cifratura;
+
+    /**
+     * Attesa massima in millisecondi quando la coda di codifica è piena
+     */
+    private final long attesa;
+
+    /**
+     * Operazioni rifiutate perché una coda è rimasta piena oltre l'attesa massima, o perché la pipeline è chiusa
+     */
+    private final LongAdder rifiutati = new LongAdder();
+
+    /**
+     * Crea una pipeline di invio
+     * @param capacita il numero massimo di messaggi in attesa di codifica, e di datagrammi in attesa di cifratura, per ciascuna corsia
+     * @param attesa l'attesa massima in millisecondi quando una coda è piena
+     * @param pianificazione la {@link Pianificazione} tra le corsie di entrambe le fasi
+     * @param attivita le {@link Attivita} del <code>peer</code>, che avviano i {@link Thread} delle fasi
+     * @throws IllegalArgumentException se la capacità non è positiva o l'attesa è negativa
+     * @throws IllegalStateException se le {@link Attivita} sono già state chiuse
+     */
+    public PipelineInvio(final int capacita, final long attesa, final Pianificazione pianificazione, final Attivita attivita) throws IllegalArgumentException, IllegalStateException {
+        if(capacita <= 0 || attesa < 0) throw new IllegalArgumentException("Parametri della pipeline di invio non validi");
+        this.attesa = attesa;
+        this.codifica = new Fase("codifica", capacita, pianificazione, attivita);
+        this.cifratura = new Fase("cifratura", capacita, pianificazione, attivita);
+    }
+
+    /**
+     * Accoda un messaggio per la codifica. Se la coda è piena il chiamante attende fino all'attesa massima.
+     * @param richiesta la costruzione e codifica del messaggio
+     * @return il {@link CompletableFuture} completato al termine dell'invio, o eccezionalmente in caso di errore o di coda piena
+     */
+    public CompletableFuture<Void> accoda(Richiesta richiesta) {
+        return accoda(richiesta, attesa);
+    }
+
+    /**
+     * Accoda un messaggio della chat per la codifica. Se la coda è piena il chiamante attende fino all'attesa indicata.
+     * @param richiesta la costruzione e codifica del messaggio
+     * @param attesa l'attesa massima in millisecondi, <code>0</code> per non bloccare il chiamante (ad esempio dal {@link CicloEventi})
+     * @return il {@link CompletableFuture} completato al termine dell'invio, o eccezionalmente in caso di errore o di coda piena
+     */
+    public CompletableFuture<Void> accoda(Richiesta richiesta, long attesa) {
+        return accoda(richiesta, attesa, Priorita.DATI);
+    }
+
+    /**
+     * Accoda un messaggio per la codifica nella corsia indicata. Se la coda della corsia è piena il chiamante attende fino all'attesa indicata.
+     * @param richiesta la costruzione e codifica del messaggio
+     * @param attesa l'attesa massima in millisecondi, <code>0</code> per non bloccare il chiamante (ad esempio dal {@link CicloEventi})
+     * @param priorita la {@link Priorita} del messaggio
+     * @return il {@link CompletableFuture} completato al termine dell'invio, o eccezionalmente in caso di errore o di coda piena
+     */
+    public CompletableFuture<Void> accoda(Richiesta richiesta, long attesa, Priorita priorita) {
+        CompletableFuture<Void> completamento = new CompletableFuture<>();
+        Runnable operazione = () -> {
+            try {
+                richiesta.codifica(completamento);
+            } catch (Exception e) {
+                ripristinaInterruzione(e);
+                completamento.completeExceptionally(e);
+            }
+        };
+        try {
+            if(!codifica.accoda(operazione, priorita, attesa)) {
+                rifiutati.increment();
+                completamento.completeExceptionally(new CommunicationException("Coda di invio piena: messaggio non inviato"));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            completamento.completeExceptionally(new CommunicationException("Invio interrotto", e));
+        }
+        return completamento;
+    }
+
+    /**
+     * Affida un'operazione alla fase di cifratura. Se la coda della corsia è piena il chiamante attende fino all'attesa massima.
+     * In caso di errore, o se la coda resta piena, i completamenti vengono completati eccezionalmente.
+     * @param operazione l'operazione di compressione e cifratura
+     * @param completamenti i completamenti dei messaggi interessati
+     * @param priorita la {@link Priorita} dei messaggi
+     */
+    public void cifra(Operazione operazione, List<CompletableFuture<Void>> completamenti, Priorita priorita) {
+        Runnable esecuzione = () -> {
+            try {
+                operazione.esegui();
+            } catch (Exception e) {
+                ripristinaInterruzione(e);
+                completamenti.forEach(c -> c.completeExceptionally(e));
+            }
+        };
+        boolean accodata;
+        try {
+            accodata = cifratura.accoda(esecuzione, priorita, attesa);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            accodata = false;
+        }
+        if(!accodata) {
+            rifiutati.increment();
+            CommunicationException errore = new CommunicationException("Coda di cifratura piena o pipeline di invio chiusa: messaggio non inviato");
+            completamenti.forEach(c -> c.completeExceptionally(errore));
+        }
+    }
+
+    /**
+     * Esegue le operazioni già accodate e arresta i {@link Thread} della pipeline, una fase alla volta
+     * @param dopoCodifica operazione eseguita al termine della fase di codifica, prima della chiusura della fase di cifratura (ad esempio lo svuotamento dell'{@link Aggregatore})
+     */
+    public void chiudi(Runnable dopoCodifica) {
+        codifica.chiudi(attesa);
+        dopoCodifica.run();
+        cifratura.chiudi(attesa);
+    }
+
+    /**
+     * Restituisce le statistiche della pipeline: operazioni eseguite, profondità delle code e tempi medi di ciascuna fase
+     * @return le statistiche della pipeline di invio
+     */
+    public String getStatistiche() {
+        return "Invio: " + codifica.getStatistiche() + ", " + cifratura.getStatistiche() + ", " + rifiutati.sum() + " rifiutati";
+    }
+
+    /**
+     * Ripristina lo stato di interruzione del {@link Thread} della fase se l'operazione è stata interrotta, in modo che la fase termini invece di attendere la prossima operazione
+     */
+    private static void ripristinaInterruzione(Exception e) {
+        if(e instanceof InterruptedException) Thread.currentThread().interrupt();
+    }
+}
@@ -0,0 +1,472 @@
+package edu.avolta.tpsit.multicastudpsocketchat.host;
+
+import edu.avolta.tpsit.multicastudpsocketchat.gestione.ChatLogger;
+import edu.avolta.tpsit.multicastudpsocketchat.gestione.ChatLoggerType;
+import edu.avolta.tpsit.multicastudpsocketchat.gestione.OutputType;
+import edu.avolta.tpsit.multicastudpsocketchat.gestione.ProjectOutput;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Pipeline di ricezione di un {@link MulticastPeer}, suddivisa in tre fasi:
+ * <ol>
+ *     <li><b>ricezione</b>: il {@link CicloEventi} si limita a svuotare i canali leggibili in buffer del {@link PoolBuffer}, scartando quelli rifiutati dall'intestazione in chiaro e numerando gli altri per ciascun mittente</li>
+ *     <li><b>decodifica</b>: un insieme di {@link Thread} virtuali, avviati dalle {@link Attivita} del <code>peer</code>, decifra e decodifica i datagrammi in parallelo</li>
+ *     <li><b>consegna</b>: i datagrammi decodificati vengono consegnati nell'ordine di arrivo per ciascun mittente, mentre mittenti diversi procedono in parallelo</li>
+ * </ol>
+ * L'ordine viene ricostruito per ciascun mittente (<code>corsia</code>) attraverso il numero assegnato in ricezione: la consegna viene eseguita dal {@link Thread} di decodifica che completa il datagramma atteso, senza {@link Thread} aggiuntivi salvo quando a sbloccarla è un datagramma scartato.
+ * <p>
+ * I datagrammi in attesa di decodifica sono suddivisi per {@link Priorita} in una {@link CodaPriorita}: il traffico di controllo viene decodificato secondo la {@link Pianificazione} scelta,
+ * senza attendere i messaggi della chat in coda. L'ordine di consegna è mantenuto separatamente per ciascuna {@link Priorita} di un mittente, in modo che un datagramma di controllo non attenda nemmeno il riordino dei messaggi.
+ * <p>
+ * Ciascuna corsia della coda di decodifica è limitata: quando è piena viene applicata la {@link PoliticaSovraccarico} scelta ai soli datagrammi della stessa corsia, scartandone uno senza rallentare la lettura dai canali.
+ * Un datagramma scartato non blocca la consegna dei successivi dello stesso mittente: il {@link CicloEventi} si limita a registrarne il posto nella corsia,
+ * mentre la consegna dei datagrammi che lo seguono, che può bloccarsi, viene affidata a un {@link Thread} virtuale delle {@link Attivita}. La profondità della coda e il numero di datagrammi scartati sono restituiti da {@link #getCodaDecodifica()} e {@link #getScartati()}.
+ *
+ * @param <T> il tipo del datagramma decodificato
+ *
+ * @author Matteo Bagnoletti Tini
+ * @version 1.0
+ * @project MulticastUDPSocketChat
+ */
+public class PipelineRicezione<T> {
+
+    /**
+     * Operazioni svolte dalle fasi della pipeline
+     * @param <T> il tipo del datagramma decodificato
+     */
+    public interface Gestore<T> {
+        /**
+         * Verifica, sul {@link Thread} del {@link CicloEventi} e prima della numerazione, se un datagramma va elaborato.
+         * Deve limitarsi a leggere l'intestazione in chiaro, senza decifrare: i datagrammi rifiutati vengono scartati senza raggiungere la decodifica.
+         * @param datagramma il datagramma ricevuto, tra posizione e limite; posizione e limite non devono essere modificati
+         * @param canale il canale da cui è stato ricevuto il datagramma
+         * @return <code>true</code> se il datagramma va decodificato, <code>false</code> per scartarlo
+         */
+        default boolean accetta(ByteBuffer datagramma, DatagramChannel canale) {
+            return true;
+        }
+
+        /**
+         * Verifica, sul {@link Thread} del {@link CicloEventi}, se un datagramma contiene traffico di controllo, scartato per primo con la politica {@link PoliticaSovraccarico#SCARTA_CONTROLLO}.
+         * Come {@link #accetta(ByteBuffer, DatagramChannel)}, deve limitarsi a leggere l'intestazione in chiaro.
+         * @param datagramma il datagramma ricevuto, tra posizione e limite; posizione e limite non devono essere modificati
+         * @return <code>true</code> se il datagramma contiene soltanto traffico di controllo
+         */
+        default boolean isControllo(ByteBuffer datagramma) {
+            return false;
+        }
+
+        /**
+         * Classifica, sul {@link Thread} del {@link CicloEventi}, la {@link Priorita} di un datagramma.
+         * Come {@link #accetta(ByteBuffer, DatagramChannel)}, deve limitarsi a leggere l'intestazione in chiaro.
+         * @param datagramma il datagramma ricevuto, tra posizione e limite; posizione e limite non devono essere modificati
+         * @return la {@link Priorita} del datagramma, {@link Priorita#DATI} se non è possibile determinarla
+         */
+        default Priorita priorita(ByteBuffer datagramma) {
+            return Priorita.DATI;
+        }
+
+        /**
+         * Decifra e decodifica un datagramma. Invocato in parallelo da più {@link Thread}.
+         * @param datagramma il datagramma ricevuto, tra posizione e limite; il buffer viene riutilizzato al termine della chiamata
+         * @param sorgente l'indirizzo da cui è stato ricevuto il datagramma
+         * @return il datagramma decodificato, <code>null</code> se non c'è nulla da consegnare
+         * @throws Exception se il datagramma non è valido
+         */
+        T decodifica(ByteBuffer datagramma, InetSocketAddress sorgente) throws Exception;
+
+        /**
+         * Consegna un datagramma decodificato. Per ciascun mittente le consegne avvengono una alla volta e nell'ordine di ricezione.
+         * @param decodificato il datagramma decodificato
+         * @param sorgente l'indirizzo da cui è stato ricevuto il datagramma
+         */
+        void consegna(T decodificato, InetSocketAddress sorgente);
+
+        /**
+         * Gestisce un errore nella lettura da un canale, che viene rimosso dal {@link CicloEventi}
+         * @param canale il canale da cui si stava leggendo
+         * @param e l'errore
+         */
+        void erroreRicezione(DatagramChannel canale, IOException e);
+    }
+
+    /**
+     * Datagramma ricevuto in attesa di decodifica
+     */
+    private final class Ricevuto implements Runnable {
+        private final ByteBuffer buffer;
+        private final InetSocketAddress sorgente;
+        private final Corsia corsia;
+        private final long numero;
+        private final long accodato;
+        private final Priorita priorita;
+        /** se il datagramma contiene traffico di controllo, valutato solo con la politica {@link PoliticaSovraccarico#SCARTA_CONTROLLO} */
+        private final boolean controllo;
+
+        private Ricevuto(ByteBuffer buffer, InetSocketAddress sorgente, Corsia corsia, long numero, Priorita priorita, boolean controllo) {
+            this.buffer = buffer;
+            this.sorgente = sorgente;
+            this.corsia = corsia;
+            this.numero = numero;
+            this.priorita = priorita;
+            this.controllo = controllo;
+            this.accodato = System.nanoTime();
+        }
+
+        @Override
+        public void run() {
+            decodifica(this);
+        }
+
+        /**
+         * Scarta il datagramma senza decodificarlo, facendo avanzare la consegna della corsia.
+         * Eseguito dal {@link Thread} del {@link CicloEventi}, che non consegna: se il posto liberato sblocca datagrammi già decodificati, la consegna viene affidata a un nuovo {@link Thread}.
+         */
+        private void scarta() {
+            poolBuffer.rilascia(buffer);
+            datagrammiScartati.increment();
+            if(!attiva || !registra(corsia, numero, NESSUNO)) return;
+            try {
+                attivita.avvia("Consegna da " + sorgente, () -> consegna(corsia, sorgente));
+            } catch (IllegalStateException e) {
+                /* le attività sono già chiuse: la pipeline si sta arrestando */
+                ChatLogger.log("Consegna dei datagrammi di " + sorgente + " interrotta dalla chiusura", ChatLoggerType.OPTIONAL);
+            }
+        }
+    }
+
+    /**
+     * Numero massimo di corsie conservate: oltre questo limite vengono rimosse le corsie senza datagrammi in elaborazione
+     */
+    private static final int MAX_CORSIE = 1024;
+
+    /**
+     * Numero massimo di datagrammi letti da un canale per ciascuna iterazione del {@link CicloEventi}, in modo che un canale molto attivo non ritardi gli altri e i timer
+     */
+    private static final int MAX_LETTURE = 64;
+
+    /**
+     * Segnaposto per i datagrammi senza nulla da consegnare, necessario per far avanzare la numerazione
+     */
+    private static final Object NESSUNO = new Object();
+
+    /**
+     * Datagrammi di un mittente e di una {@link Priorita} in attesa di consegna
+     */
+    private static final class Corsia {
+        /** numero del prossimo datagramma ricevuto, assegnato in ricezione dal {@link CicloEventi} */
+        private long assegnati;
+        /** numero del prossimo datagramma da consegnare */
+        private long prossimo;
+        /** datagrammi decodificati in attesa dei precedenti */
+        private final HashMap<Long, Object> completati = new HashMap<>();
+        /** se un {@link Thread} sta consegnando i datagrammi della corsia */
+        private boolean inConsegna;
+    }
+
+    private final PoolBuffer poolBuffer;
+
+    private final Gestore<T> gestore;
+
+    private final ThreadPoolExecutor decodificatori;
+
+    private final CodaPriorita<Runnable> codaDecodifica;
+
+    private final PoliticaSovraccarico politica;
+
+    private final Attivita attivita;
+
+    private final EnumMap<Priorita, ConcurrentHashMap<InetSocketAddress, Corsia>> corsie = new EnumMap<>(Priorita.class);
+
+    private volatile boolean attiva = true;
+
+    /* statistiche */
+    private final LongAdder datagrammiRicevuti = new LongAdder();
+    private final LongAdder datagrammiFiltrati = new LongAdder();
+    private final LongAdder datagrammiScartati = new LongAdder();
+    private final LongAdder datagrammiConsegnati = new LongAdder();
+    private final LongAdder nanoDecodifica = new LongAdder();
+    private final LongAdder nanoConsegna = new LongAdder();
+    private final LongAdder nanoAttesa = new LongAdder();
+    private final AtomicInteger inRiordino = new AtomicInteger();
+
+    /**
+     * Crea una pipeline di ricezione
+     * @param poolBuffer il {@link PoolBuffer} da cui prelevare i buffer di ricezione, di capacità pari all'<code>MTU</code>
+     * @param decodificatori il numero di {@link Thread} di decodifica
+     * @param capacitaCoda il numero massimo di datagrammi in attesa di decodifica per ciascuna {@link Priorita}
+     * @param politica la {@link PoliticaSovraccarico} applicata quando la coda di decodifica è piena
+     * @param pianificazione la {@link Pianificazione} tra le corsie della coda di decodifica
+     * @param attivita le {@link Attivita} del <code>peer</code>, che creano i {@link Thread} di decodifica
+     * @param gestore le operazioni di decodifica e consegna
+     * @throws IllegalArgumentException se il numero di {@link Thread} o la capacità della coda non sono positivi
+     */
+    public PipelineRicezione(final PoolBuffer poolBuffer, final int decodificatori, final int capacitaCoda, final PoliticaSovraccarico politica, final Pianificazione pianificazione, final Attivita attivita, final Gestore<T> gestore) throws IllegalArgumentException {
+        if(decodificatori <= 0 || capacitaCoda <= 0) throw new IllegalArgumentException("Parametri della pipeline di ricezione non validi");
+        this.poolBuffer = poolBuffer;
+        this.politica = politica;
+        this.attivita = attivita;
+        this.gestore = gestore;
+        for(Priorita priorita : Priorita.values()) corsie.put(priorita, new ConcurrentHashMap<>());
+        this.codaDecodifica = new CodaPriorita<>(capacitaCoda, pianificazione, r -> ((PipelineRicezione<?>.Ricevuto) r).priorita);
+        /* i Thread restano attivi per tutta la durata della pipeline, riutilizzando le proprie risorse ThreadLocal (cifrari, viste, decompressori) */
+        this.decodificatori = new ThreadPoolExecutor(decodificatori, decodificatori, 0, TimeUnit.MILLISECONDS, codaDecodifica, attivita.fabbrica("Thread di decodifica "), this::rifiuta);
+    }
+
+    /**
+     * Registra un canale nel {@link CicloEventi}, che ne svuota i datagrammi ogni volta che è leggibile
+     * @param cicloEventi il {@link CicloEventi} del {@link MulticastPeer}
+     * @param canale il canale non bloccante da cui ricevere
+     */
+    public void registra(final CicloEventi cicloEventi, final DatagramChannel canale) {
+        cicloEventi.registra(canale, this::leggi);
+    }
+
+    /**
+     * Arresta la pipeline. I datagrammi ricevuti successivamente vengono ignorati.
+     */
+    public void chiudi() {
+        attiva = false;
+        decodificatori.shutdown();
+    }
+
+    /**
+     * Restituisce il numero di datagrammi scartati in ricezione, prima della decodifica
+     * @return il numero di datagrammi filtrati
+     */
+    public long getFiltrati() {
+        return datagrammiFiltrati.sum();
+    }
+
+    /**
+     * Restituisce il numero di datagrammi in attesa di decodifica
+     * @return la profondità della coda di decodifica
+     */
+    public int getCodaDecodifica() {
+        return codaDecodifica.size();
+    }
+
+    /**
+     * Restituisce il numero di datagrammi scartati perché la coda di decodifica era piena
+     * @return il numero di datagrammi scartati per sovraccarico
+     */
+    public long getScartati() {
+        return datagrammiScartati.sum();
+    }
+
+    /**
+     * Restituisce il numero di datagrammi decodificati in attesa della consegna dei precedenti dello stesso mittente
+     * @return la profondità delle code di riordino
+     */
+    public int getInRiordino() {
+        return inRiordino.get();
+    }
+
+    /**
+     * Restituisce il numero di corsie conservate, una per ciascun mittente e {@link Priorita}
+     */
+    private int contaCorsie() {
+        int mittenti = 0;
+        for(ConcurrentHashMap<InetSocketAddress, Corsia> perPriorita : corsie.values()) mittenti += perPriorita.size();
+        return mittenti;
+    }
+
+    /**
+     * Restituisce le statistiche della pipeline: profondità delle code, tempi medi di ciascuna fase e latenze di ciascuna corsia della coda di decodifica
+     * @return le statistiche della pipeline di ricezione
+     */
+    public String getStatistiche() {
+        long ricevuti = datagrammiRicevuti.sum();
+        long scartati = getScartati();
+        long decodificati = ricevuti - scartati;
+        long consegnati = datagrammiConsegnati.sum();
+        return String.format("Ricezione: %d datagrammi, %d filtrati, %d scartati per sovraccarico (%s), %d consegnati, coda di decodifica %d, in riordino %d, %d corsie | attesa media %.1f µs, decodifica media %.1f µs, consegna media %.1f µs | attesa di decodifica: %s",
+                ricevuti, datagrammiFiltrati.sum(), scartati, politica, consegnati, getCodaDecodifica(), getInRiordino(), contaCorsie(),
+                media(nanoAttesa.sum(), decodificati), media(nanoDecodifica.sum(), decodificati), media(nanoConsegna.sum(), consegnati), codaDecodifica.getStatistiche());
+    }
+
+    /**
+     * Fase di ricezione: legge i datagrammi disponibili sul canale, senza bloccarsi, e li affida ai {@link Thread} di decodifica
+     */
+    private void leggi(DatagramChannel canale) throws IOException {
+        for(int letture = 0; letture < MAX_LETTURE && attiva; letture++) {
+            ByteBuffer buffer = poolBuffer.preleva();
+            InetSocketAddress sorgente;
+            try {
+                sorgente = (InetSocketAddress) canale.receive(buffer);
+            } catch (IOException e) {
+                poolBuffer.rilascia(buffer);
+                if(attiva) gestore.erroreRicezione(canale, e);
+                throw e;
+            }
+            if(sorgente == null) {
+                poolBuffer.rilascia(buffer);
+                return;
+            }
+            buffer.flip();
+            if(!gestore.accetta(buffer, canale)) {
+                poolBuffer.rilascia(buffer);
+                datagrammiFiltrati.increment();
+                continue;
+            }
+            Priorita priorita = gestore.priorita(buffer);
+            Corsia corsia = corsia(sorgente, priorita);
+            long numero;
+            synchronized (corsia) {
+                numero = corsia.assegnati++;
+            }
+            datagrammiRicevuti.increment();
+            boolean controllo = politica == PoliticaSovraccarico.SCARTA_CONTROLLO && gestore.isControllo(buffer);
+            decodificatori.execute(new Ricevuto(buffer, sorgente, corsia, numero, priorita, controllo));
+        }
+    }
+
+    /**
+     * Applica la {@link #politica} di sovraccarico a un datagramma rifiutato dai {@link Thread} di decodifica perché la sua corsia è piena.
+     * Eseguito dal {@link Thread} del {@link CicloEventi}, l'unico che accoda datagrammi.
+     */
+    @SuppressWarnings("unchecked")
+    private void rifiuta(Runnable rifiutato, ThreadPoolExecutor esecutore) {
+        Ricevuto nuovo = (Ricevuto) rifiutato;
+        if(esecutore.isShutdown()) {
+            nuovo.scarta();
+            return;
+        }
+        Ricevuto scartato = switch (politica) {
+            case SCARTA_NUOVI -> nuovo;
+            case SCARTA_VECCHI -> (Ricevuto) codaDecodifica.poll(nuovo.priorita);
+            case SCARTA_CONTROLLO -> nuovo.controllo ? nuovo : rimuoviControllo(nuovo.priorita);
+        };
+        if(scartato == nuovo) {
+            nuovo.scarta();
+            return;
+        }
+        /* la corsia può essersi svuotata nel frattempo: in tal caso il nuovo datagramma viene accodato senza scartarne altri */
+        if(scartato != null) scartato.scarta();
+        if(!codaDecodifica.offer(nuovo)) nuovo.scarta();
+    }
+
+    /**
+     * Rimuove da una corsia della coda il datagramma di controllo in attesa da più tempo
+     * @param priorita la corsia del datagramma rifiutato
+     * @return il datagramma rimosso, <code>null</code> se la corsia non contiene datagrammi di controllo
+     */
+    @SuppressWarnings("unchecked")
+    private Ricevuto rimuoviControllo(Priorita priorita) {
+        for(Runnable attesa : codaDecodifica) {
+            Ricevuto ricevuto = (Ricevuto) attesa;
+            /* il datagramma potrebbe essere stato prelevato da un Thread di decodifica dopo la lettura */
+            if(ricevuto.priorita == priorita && ricevuto.controllo && codaDecodifica.remove(ricevuto)) return ricevuto;
+        }
+        return null;
+    }
+
+    /**
+     * Fase di decodifica: decodifica il datagramma e consegna, nell'ordine, i datagrammi del mittente pronti
+     */
+    private void decodifica(Ricevuto ricevuto) {
+        long inizio = System.nanoTime();
+        nanoAttesa.add(inizio - ricevuto.accodato);
+        Object decodificato = NESSUNO;
+        try {
+            T risultato = gestore.decodifica(ricevuto.buffer, ricevuto.sorgente);
+            if(risultato != null) decodificato = risultato;
+        } catch (Exception e) {
+            ProjectOutput.stampa("Datagramma da " + ricevuto.sorgente + " scartato: " + e.getMessage(), OutputType.STDERR);
+        } finally {
+            poolBuffer.rilascia(ricevuto.buffer);
+            nanoDecodifica.add(System.nanoTime() - inizio);
+        }
+        if(registra(ricevuto.corsia, ricevuto.numero, decodificato)) consegna(ricevuto.corsia, ricevuto.sorgente);
+    }
+
+    /**
+     * Registra un datagramma decodificato, o il segnaposto di uno scartato, tra quelli in attesa di consegna della corsia.
+     * Se nessun altro {@link Thread} sta consegnando, i segnaposto che seguono l'ultimo datagramma consegnato vengono superati senza invocare il {@link Gestore}.
+     * @return <code>true</code> se il chiamante deve consegnare i datagrammi pronti: il successivo all'ultimo consegnato è stato decodificato e nessun altro {@link Thread} sta consegnando
+     */
+    private boolean registra(Corsia corsia, long numero, Object decodificato) {
+        synchronized (corsia) {
+            corsia.completati.put(numero, decodificato);
+            inRiordino.incrementAndGet();
+            if(corsia.inConsegna) return false;
+            Object prossimo;
+            while((prossimo = corsia.completati.get(corsia.prossimo)) == NESSUNO) {
+                corsia.completati.remove(corsia.prossimo++);
+                inRiordino.decrementAndGet();
+            }
+            if(prossimo == null) return false;
+            corsia.inConsegna = true;
+            return true;
+        }
+    }
+
+    /**
+     * Fase di consegna: consegna i datagrammi della corsia che seguono l'ultimo consegnato, dopo che {@link #registra(Corsia, long, Object)} ne ha affidato il compito al chiamante
+     */
+    @SuppressWarnings("unchecked")
+    private void consegna(Corsia corsia, InetSocketAddress sorgente) {
+        while(true) {
+            Object prossimo;
+            synchronized (corsia) {
+                prossimo = corsia.completati.remove(corsia.prossimo);
+                if(prossimo == null) {
+                    corsia.inConsegna = false;
+                    return;
+                }
+                corsia.prossimo++;
+            }
+            inRiordino.decrementAndGet();
+            if(prossimo == NESSUNO) continue;
+            long inizio = System.nanoTime();
+            try {
+                gestore.consegna((T) prossimo, sorgente);
+            } catch (RuntimeException e) {
+                ProjectOutput.stampa("Errore nella consegna del messaggio: " + e.getMessage(), OutputType.STDERR);
+            }
+            nanoConsegna.add(System.nanoTime() - inizio);
+            datagrammiConsegnati.increment();
+        }
+    }
+
+    /**
+     * Restituisce la corsia di un mittente per la {@link Priorita} indicata, creandola se necessario
+     */
+    private Corsia corsia(InetSocketAddress sorgente, Priorita priorita) {
+        ConcurrentHashMap<InetSocketAddress, Corsia> perPriorita = corsie.get(priorita);
+        Corsia corsia = perPriorita.get(sorgente);
+        if(corsia != null) return corsia;
+        if(perPriorita.size() >= MAX_CORSIE) rimuoviInattive(perPriorita);
+        return perPriorita.computeIfAbsent(sorgente, s -> new Corsia());
+    }
+
+    /**
+     * Rimuove le corsie senza datagrammi in elaborazione
+     */
+    private void rimuoviInattive(ConcurrentHashMap<InetSocketAddress, Corsia> perPriorita) {
+        Iterator<Map.Entry<InetSocketAddress, Corsia>> iteratore = perPriorita.entrySet().iterator();
+        while(iteratore.hasNext()) {
+            Corsia corsia = iteratore.next().getValue();
+            synchronized (corsia) {
+                if(corsia.prossimo == corsia.assegnati) iteratore.remove();
+            }
+        }
+    }
+
+    private static double media(long nano, long numero) {
+        return numero == 0 ? 0 : nano / 1000.0 / numero;
+    }
+}
@@ -0,0 +1,29 @@
+package edu.avolta.tpsit.multicastudpsocketchat.host;
+
+/**
+ * Politica applicata dalla {@link PipelineRicezione} quando la coda dei datagrammi in attesa di decodifica è piena.
+ * <p>
+ * In ogni caso la lettura dai canali non viene rallentata: un datagramma viene scartato e la consegna dei successivi dello stesso mittente prosegue senza attenderlo.
+ * La politica si applica alla sola corsia piena della {@link CodaPriorita}: un sovraccarico di messaggi della chat non scarta il traffico di controllo, e viceversa.
+ *
+ * @author Matteo Bagnoletti Tini
+ * @version 1.0
+ * @project MulticastUDPSocketChat
+ */
+public enum PoliticaSovraccarico {
+
+    /**
+     * Scarta il datagramma in coda da più tempo, privilegiando i più recenti
+     */
+    SCARTA_VECCHI,
+
+    /**
+     * Scarta il datagramma appena ricevuto, privilegiando quelli già in coda
+     */
+    SCARTA_NUOVI,
+
+    /**
+     * Scarta per primi i datagrammi di controllo (keepAlive); in loro assenza scarta il datagramma appena ricevuto
+     */
+    SCARTA_CONTROLLO
+}
@@ -0,0 +1,255 @@
+package edu.avolta.tpsit.multicastudpsocketchat.host;
+
+import edu.avolta.tpsit.multicastudpsocketchat.gestione.OutputType;
+import edu.avolta.tpsit.multicastudpsocketchat.gestione.ProjectOutput;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Insieme di {@link ByteBuffer} riutilizzabili, tutti della stessa capacità, posseduto da un {@link MulticastPeer}.
+ * <p>
+ * I buffer vengono prelevati per la durata dell'invio o dell'elaborazione di un datagramma e poi rilasciati, evitando di allocare nuovi array per ogni pacchetto.
+ * Alla creazione il <code>pool</code> viene riempito con la sua dimensione massima di buffer. Se il <code>pool</code> è vuoto viene allocato un nuovo buffer; al rilascio i buffer eccedenti la dimensione massima del <code>pool</code> vengono lasciati al garbage collector.
+ * <p>
+ * I buffer possono essere <i>direct</i>, utilizzati direttamente dai {@link java.nio.channels.DatagramChannel} senza copie intermedie, oppure basati su array.
+ * Il <code>pool</code> è thread-safe.
+ * <p>
+ * Ogni prelievo e rilascio viene conteggiato: il tasso di riutilizzo, il numero di buffer in uso e quello dei buffer disponibili sono restituiti da {@link #getStatistiche()}.
+ * Con il <b>tracciamento</b> attivo (modalità di debug) il <code>pool</code> registra inoltre l'origine di ciascun prelievo: i buffer non rilasciati entro un certo tempo vengono segnalati da {@link #segnalaPerdite(long)},
+ * mentre i rilasci doppi vengono segnalati e ignorati, in modo che lo stesso buffer non venga prelevato due volte.
+ *
+ * @author Matteo Bagnoletti Tini
+ * @version 1.0
+ * @project MulticastUDPSocketChat
+ */
+public class PoolBuffer {
+
+    /**
+     * Numero massimo predefinito di buffer inutilizzati conservati
+     */
+    public static final int DIMENSIONE_PREDEFINITA = 64;
+
+    /**
+     * Età predefinita, in millisecondi, oltre la quale un buffer non ancora rilasciato viene segnalato come possibile perdita
+     */
+    public static final long ETA_PERDITA_PREDEFINITA = 10000;
+
+    /**
+     * Numero massimo di righe dello stack riportate per ciascuna perdita segnalata
+     */
+    private static final int RIGHE_ORIGINE = 6;
+
+    /**
+     * Prelievo di un buffer registrato dal tracciamento
+     * @param istante l'istante del prelievo, in millisecondi
+     * @param origine lo stack del {@link Thread} che ha prelevato il buffer
+     * @param thread il nome del {@link Thread} che ha prelevato il buffer
+     */
+    private record Prelievo(long istante, StackTraceElement[] origine, String thread) {}
+
+    /**
+     * La capacità in byte di ciascun buffer
+     */
+    private final int capacita;
+
+    /**
+     * Il numero massimo di buffer inutilizzati conservati
+     */
+    private final int massimo;
+
+    /**
+     * Se i buffer sono di tipo <i>direct</i>
+     */
+    private final boolean diretti;
+
+    /**
+     * I buffer disponibili
+     */
+    private final ConcurrentLinkedQueue<ByteBuffer> liberi = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Il numero di buffer disponibili, mantenuto a parte perché {@link ConcurrentLinkedQueue#size()} non è a tempo costante
+     */
+    private final AtomicInteger numeroLiberi = new AtomicInteger();
+
+    /**
+     * I buffer prelevati e non ancora rilasciati, per identità, <code>null</code> se il tracciamento non è attivo.
+     * {@link ByteBuffer#equals(Object)} confronta il contenuto: è quindi necessaria una mappa per identità.
+     */
+    private final Map<ByteBuffer, Prelievo> prelevati;
+
+    /* statistiche */
+    private final LongAdder prelievi = new LongAdder();
+    private final LongAdder riutilizzi = new LongAdder();
+    private final LongAdder rilasci = new LongAdder();
+    private final LongAdder scartati = new LongAdder();
+    private final LongAdder rilasciDoppi = new LongAdder();
+    private final AtomicInteger inUso = new AtomicInteger();
+    private final AtomicInteger allocati = new AtomicInteger();
+
+    /**
+     * Crea un <code>pool</code> di buffer senza tracciamento
+     * @param capacita la capacità in byte di ciascun buffer
+     * @param massimo il numero massimo di buffer inutilizzati conservati
+     * @param diretti se <code>true</code> i buffer sono di tipo <i>direct</i>, altrimenti basati su array
+     * @throws IllegalArgumentException se la capacità o la dimensione massima non sono positive
+     */
+    public PoolBuffer(final int capacita, final int massimo, final boolean diretti) throws IllegalArgumentException {
+        this(capacita, massimo, diretti, false);
+    }
+
+    /**
+     * Crea un <code>pool</code> di buffer, riempiendolo con <code>massimo</code> buffer
+     * @param capacita la capacità in byte di ciascun buffer
+     * @param massimo il numero massimo di buffer inutilizzati conservati
+     * @param diretti se <code>true</code> i buffer sono di tipo <i>direct</i>, altrimenti basati su array
+     * @param tracciamento se <code>true</code> registra l'origine di ciascun prelievo per individuare i buffer non rilasciati
+     * @throws IllegalArgumentException se la capacità o la dimensione massima non sono positive
+     */
+    public PoolBuffer(final int capacita, final int massimo, final boolean diretti, final boolean tracciamento) throws IllegalArgumentException {
+        if(capacita <= 0 || massimo <= 0) throw new IllegalArgumentException("Parametri del pool non validi");
+        this.capacita = capacita;
+        this.massimo = massimo;
+        this.diretti = diretti;
+        this.prelevati = tracciamento ? Collections.synchronizedMap(new IdentityHashMap<>()) : null;
+        for(int i = 0; i < massimo; i++) {
+            liberi.offer(alloca());
+        }
+        numeroLiberi.set(massimo);
+    }
+
+    /**
+     * Preleva un buffer dal <code>pool</code>, allocandone uno nuovo se nessuno è disponibile
+     * @return un buffer vuoto, con posizione <code>0</code> e limite pari alla capacità
+     */
+    public ByteBuffer preleva() {
+        prelievi.increment();
+        inUso.incrementAndGet();
+        ByteBuffer buffer = liberi.poll();
+        if(buffer == null) {
+            buffer = alloca();
+        } else {
+            numeroLiberi.decrementAndGet();
+            riutilizzi.increment();
+            buffer.clear();
+        }
+        if(prelevati != null) {
+            Thread thread = Thread.currentThread();
+            prelevati.put(buffer, new Prelievo(System.currentTimeMillis(), thread.getStackTrace(), thread.getName()));
+        }
+        return buffer;
+    }
+
+    /**
+     * Restituisce un buffer al <code>pool</code>. Il buffer non deve più essere utilizzato dopo il rilascio.
+     * @param buffer il buffer da rilasciare; vengono ignorati i buffer <code>null</code> o non provenienti dal <code>pool</code>
+     */
+    public void rilascia(ByteBuffer buffer) {
+        if(buffer == null || buffer.capacity() != capacita || buffer.isDirect() != diretti) return;
+        if(prelevati != null && prelevati.remove(buffer) == null) {
+            /* il buffer è già stato rilasciato: reinserirlo lo renderebbe disponibile a due prelievi contemporanei */
+            rilasciDoppi.increment();
+            ProjectOutput.stampa("Rilascio doppio di un buffer del pool ignorato da " + Thread.currentThread().getName() + formattaOrigine(Thread.currentThread().getStackTrace()), OutputType.STDERR);
+            return;
+        }
+        rilasci.increment();
+        inUso.decrementAndGet();
+        if(numeroLiberi.incrementAndGet() <= massimo) {
+            liberi.offer(buffer);
+        } else {
+            numeroLiberi.decrementAndGet();
+            scartati.increment();
+        }
+    }
+
+    /**
+     * Segnala i buffer prelevati da almeno <code>eta</code> millisecondi e non ancora rilasciati, con l'origine del prelievo.
+     * Richiede il tracciamento: altrimenti non segnala nulla.
+     * @param eta l'età minima in millisecondi dei prelievi da segnalare, <code>0</code> per segnalarli tutti (ad esempio alla chiusura)
+     * @return il numero di buffer segnalati
+     */
+    public int segnalaPerdite(long eta) {
+        if(prelevati == null) return 0;
+        long limite = System.currentTimeMillis() - eta;
+        List<Prelievo> sospetti = new ArrayList<>();
+        synchronized (prelevati) {
+            for(Prelievo prelievo : prelevati.values()) {
+                if(prelievo.istante() <= limite) sospetti.add(prelievo);
+            }
+        }
+        for(Prelievo prelievo : sospetti) {
+            ProjectOutput.stampa("Buffer del pool non rilasciato da " + (System.currentTimeMillis() - prelievo.istante()) + " ms, prelevato da " + prelievo.thread() + formattaOrigine(prelievo.origine()), OutputType.STDERR);
+        }
+        return sospetti.size();
+    }
+
+    /**
+     * Restituisce la capacità in byte di ciascun buffer
+     * @return la capacità dei buffer
+     */
+    public int getCapacita() {
+        return capacita;
+    }
+
+    /**
+     * Restituisce il numero di buffer prelevati e non ancora rilasciati
+     * @return il numero di buffer in uso
+     */
+    public int getInUso() {
+        return inUso.get();
+    }
+
+    /**
+     * Restituisce il numero di buffer disponibili nel <code>pool</code>
+     * @return il numero di buffer disponibili
+     */
+    public int getLiberi() {
+        return numeroLiberi.get();
+    }
+
+    /**
+     * Restituisce la frazione di prelievi serviti con un buffer già presente nel <code>pool</code>, senza nuove allocazioni
+     * @return il tasso di riutilizzo, tra <code>0</code> e <code>1</code>; <code>1</code> se non è stato effettuato alcun prelievo
+     */
+    public double getTassoRiutilizzo() {
+        long numero = prelievi.sum();
+        return numero == 0 ? 1 : (double) riutilizzi.sum() / numero;
+    }
+
+    /**
+     * Restituisce le statistiche del <code>pool</code>
+     * @return le statistiche del <code>pool</code>
+     */
+    public String getStatistiche() {
+        return String.format("Pool di buffer: %d prelievi, %d rilasci, riutilizzo %.1f%%, %d in uso, %d disponibili su %d, %d allocati in totale, %d scartati%s",
+                prelievi.sum(), rilasci.sum(), getTassoRiutilizzo() * 100, getInUso(), getLiberi(), massimo, allocati.get(), scartati.sum(),
+                prelevati == null ? "" : ", " + rilasciDoppi.sum() + " rilasci doppi");
+    }
+
+    private ByteBuffer alloca() {
+        allocati.incrementAndGet();
+        return diretti ? ByteBuffer.allocateDirect(capacita) : ByteBuffer.allocate(capacita);
+    }
+
+    /**
+     * Restituisce le prime righe dello stack, escluse quelle interne al <code>pool</code>
+     */
+    private static String formattaOrigine(StackTraceElement[] origine) {
+        StringBuilder testo = new StringBuilder();
+        int righe = 0;
+        for(StackTraceElement elemento : origine) {
+            if(elemento.getClassName().equals(Thread.class.getName()) || elemento.getClassName().equals(PoolBuffer.class.getName())) continue;
+            testo.append("\n\tat ").append(elemento);
+            if(++righe == RIGHE_ORIGINE) break;
+        }
+        return testo.toString();
+    }
+}
@@ -0,0 +1,40 @@
+package edu.avolta.tpsit.multicastudpsocketchat.host;
+
+import edu.avolta.tpsit.multicastudpsocketchat.comunicazione.TipoDatagramma;
+
+/**
+ * Corsia di priorità dei messaggi e dei datagrammi di un {@link MulticastPeer}, in invio e in ricezione.
+ * <p>
+ * Il traffico di controllo (keepAlive, <code>acknowledge</code> e richieste di ritrasmissione) procede in una corsia separata da quella dei messaggi della chat,
+ * in modo che una raffica di messaggi non ne ritardi la consegna causando falsi timeout. La precedenza tra le due corsie è stabilita dalla {@link Pianificazione}.
+ * <p>
+ * L'ordine è garantito soltanto all'interno di ciascuna corsia di un mittente. Per questo l'ingresso e l'uscita dal gruppo procedono nella corsia dei messaggi:
+ * un messaggio della chat non precede mai il <code>join-group</code> del mittente né segue il suo <code>left-group</code>.
+ * Il traffico di controllo può invece superare i messaggi, o esserne superato, e non modifica l'appartenenza al gruppo.
+ *
+ * @author Matteo Bagnoletti Tini
+ * @version 1.0
+ * @project MulticastUDPSocketChat
+ * @see CodaPriorita
+ */
+public enum Priorita {
+
+    /**
+     * Traffico di controllo e conferme
+     */
+    CONTROLLO,
+
+    /**
+     * Messaggi della chat
+     */
+    DATI;
+
+    /**
+     * Restituisce la corsia di un datagramma in base al suo tipo
+     * @param tipo il {@link TipoDatagramma}, <code>null</code> se non noto (ad esempio per i datagrammi AES-CBC, che non lo dichiarano)
+     * @return {@link #CONTROLLO} per il traffico di controllo e le conferme, {@link #DATI} altrimenti
+     */
+    public static Priorita di(TipoDatagramma tipo) {
+        return tipo == TipoDatagramma.CONTROLLO || tipo == TipoDatagramma.ACK ? CONTROLLO : DATI;
+    }
+}
@@ -0,0 +1,305 @@
+package edu.avolta.tpsit.multicastudpsocketchat.host;
+
+import java.net.InetSocketAddress;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Ritrasmettitore dei messaggi in attesa di <code>acknowledge</code> di un {@link MulticastPeer}.
+ * <p>
+ * Ogni messaggio che richiede conferme viene registrato con la sua codifica e un timer di ritrasmissione (<code>RTO</code>) nel {@link CicloEventi}.
+ * Se le conferme attese non arrivano entro l'<code>RTO</code> il messaggio viene ritrasmesso con lo stesso <code>ID</code>, in modo che i destinatari che l'hanno già ricevuto lo scartino come duplicato
+ * e ne ripetano soltanto la conferma, e l'<code>RTO</code> del messaggio viene raddoppiato. Superato il numero massimo di ritrasmissioni il messaggio viene segnalato come non confermato.
+ * Una ritrasmissione saltata perché la coda di invio è piena non viene contata tra i tentativi: il messaggio viene riproposto allo scadere dello stesso <code>RTO</code>.
+ * Al raggiungimento di {@link #MAX_IN_SOSPESO} messaggi in attesa il più vecchio viene dimenticato e segnalato come non confermato, in modo che ogni messaggio registrato sia ritrasmesso o segnalato.
+ * <p>
+ * L'<code>RTO</code> è calcolato per ciascun <code>peer</code> dai tempi di andata e ritorno delle conferme, secondo l'algoritmo di Jacobson/Karels (RFC 6298):
+ * <ul>
+ *     <li>il tempo medio (<code>SRTT</code>) e la sua variazione (<code>RTTVAR</code>) vengono aggiornati a ogni conferma di un messaggio mai ritrasmesso, di cui il campione è certo (algoritmo di Karn)</li>
+ *     <li><code>RTO = SRTT + 4 * RTTVAR</code>, limitato tra {@link #RTO_MINIMO} e {@link #RTO_MASSIMO}</li>
+ *     <li>un messaggio di gruppo utilizza l'<code>RTO</code> del <code>peer</code> più lento</li>
+ * </ul>
+ * Un messaggio di gruppo viene ritrasmesso all'intero gruppo: le conferme ripetute dei destinatari che l'avevano già ricevuto vengono contate una sola volta.
+ *
+ * @author Matteo Bagnoletti Tini
+ * @version 1.0
+ * @project MulticastUDPSocketChat
+ * @see edu.avolta.tpsit.multicastudpsocketchat.comunicazione.Cronologia#confermaDiLettura(edu.avolta.tpsit.multicastudpsocketchat.comunicazione.Messaggio, edu.avolta.tpsit.multicastudpsocketchat.gestione.BusEventi)
+ */
+public class Ritrasmettitore {
+
+    /**
+     * <code>RTO</code> in millisecondi dei <code>peer</code> senza campioni
+     */
+    public static final long RTO_INIZIALE = 1000;
+
+    /**
+     * <code>RTO</code> minimo in millisecondi. Inferiore al minimo di RFC 6298, adeguato alla rete locale di una chat multicast.
+     */
+    public static final long RTO_MINIMO = 200;
+
+    /**
+     * <code>RTO</code> massimo in millisecondi, anche dopo il raddoppio delle ritrasmissioni
+     */
+    public static final long RTO_MASSIMO = 60000;
+
+    /**
+     * Numero massimo di ritrasmissioni di un messaggio prima di segnalarlo come non confermato
+     */
+    public static final int TENTATIVI_MASSIMI = 5;
+
+    /**
+     * Numero massimo di messaggi in attesa di conferma: oltre il limite il messaggio in attesa da più tempo viene segnalato come non confermato e non più ritrasmesso
+     */
+    public static final int MAX_IN_SOSPESO = 1024;
+
+    /**
+     * Numero massimo di <code>peer</code> di cui viene conservata la stima: al raggiungimento del limite viene persa quella del <code>peer</code> inattivo da più tempo
+     */
+    public static final int MAX_PEER = 1024;
+
+    /**
+     * Operazione di ritrasmissione di un messaggio codificato
+     */
+    @FunctionalInterface
+    public interface Ritrasmissione {
+        /**
+         * Ritrasmette il messaggio alla destinazione indicata, senza bloccarsi: viene eseguita nel {@link CicloEventi}
+         * @param codificato il messaggio codificato, in chiaro
+         * @param destinazione l'indirizzo del destinatario o del gruppo
+         * @return <code>true</code> se la ritrasmissione è stata affidata all'invio, <code>false</code> se è stata saltata (ad esempio con la coda di invio piena)
+         */
+        boolean ritrasmetti(byte[] codificato, InetSocketAddress destinazione);
+    }
+
+    /**
+     * Operazione di segnalazione di un messaggio non confermato
+     */
+    @FunctionalInterface
+    public interface Fallimento {
+        /**
+         * Segnala che il messaggio non è stato confermato da tutti i destinatari attesi nemmeno dopo l'ultima ritrasmissione,
+         * o che non viene più ritrasmesso perché sostituito da messaggi più recenti al raggiungimento di {@link #MAX_IN_SOSPESO}
+         * @param id l'<code>ID</code> del messaggio
+         * @param timestamp l'orario di invio del messaggio
+         */
+        void fallito(int id, String timestamp);
+    }
+
+    /**
+     * Stima del tempo di andata e ritorno delle conferme di un <code>peer</code>
+     */
+    private static final class Stima {
+        private double srtt;
+        private double rttvar;
+        private long rto = RTO_INIZIALE;
+        private long campioni;
+
+        /**
+         * Aggiorna la stima con un nuovo campione
+         * @param rtt il tempo di andata e ritorno in millisecondi
+         */
+        private void campiona(double rtt) {
+            if(campioni++ == 0) {
+                srtt = rtt;
+                rttvar = rtt / 2;
+            } else {
+                rttvar = 0.75 * rttvar + 0.25 * Math.abs(srtt - rtt);
+                srtt = 0.875 * srtt + 0.125 * rtt;
+            }
+            rto = Math.clamp(Math.round(srtt + Math.max(1, 4 * rttvar)), RTO_MINIMO, RTO_MASSIMO);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("SRTT %.1f ms, RTTVAR %.1f ms, RTO %d ms (%d campioni)", srtt, rttvar, rto, campioni);
+        }
+    }
+
+    /**
+     * Messaggio in attesa di conferma
+     */
+    private static final class InSospeso {
+        private final int id;
+        private final byte[] codificato;
+        private final InetSocketAddress destinazione;
+        private final String timestamp;
+        private final long inviato = System.nanoTime();
+        private int tentativi;
+        private long rto;
+        private CicloEventi.Timer scadenza;
+
+        private InSospeso(int id, byte[] codificato, InetSocketAddress destinazione, String timestamp, long rto) {
+            this.id = id;
+            this.codificato = codificato;
+            this.destinazione = destinazione;
+            this.timestamp = timestamp;
+            this.rto = rto;
+        }
+    }
+
+    private final Ritrasmissione ritrasmissione;
+
+    private final Fallimento fallimento;
+
+    private final CicloEventi cicloEventi;
+
+    /**
+     * I messaggi in attesa di conferma, per <code>ID</code>, in ordine di registrazione
+     */
+    private final LinkedHashMap<Integer, InSospeso> inSospeso = new LinkedHashMap<>();
+
+    /**
+     * Le stime dei <code>peer</code>, per indirizzo unicast, in ordine di ultimo accesso
+     */
+    private final LinkedHashMap<InetSocketAddress, Stima> stime = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<InetSocketAddress, Stima> eldest) {
+            return size() > MAX_PEER;
+        }
+    };
+
+    private boolean chiuso;
+
+    /* statistiche */
+    private long registrati;
+    private long confermati;
+    private long ritrasmessi;
+    private long falliti;
+    private long dimenticati;
+    private long saltati;
+
+    /**
+     * Crea un <code>ritrasmettitore</code>
+     * @param ritrasmissione l'operazione di ritrasmissione dei messaggi
+     * @param fallimento l'operazione di segnalazione dei messaggi non confermati
+     * @param cicloEventi il {@link CicloEventi} che gestisce i timer di ritrasmissione
+     */
+    public Ritrasmettitore(final Ritrasmissione ritrasmissione, final Fallimento fallimento, final CicloEventi cicloEventi) {
+        this.ritrasmissione = ritrasmissione;
+        this.fallimento = fallimento;
+        this.cicloEventi = cicloEventi;
+    }
+
+    /**
+     * Registra un messaggio appena affidato all'invio, da ritrasmettere se non confermato. Deve essere registrato prima dell'invio, in modo che nessuna conferma possa precederlo.
+     * @param id l'<code>ID</code> del messaggio
+     * @param codificato il messaggio codificato, in chiaro
+     * @param destinazione l'indirizzo del destinatario o del gruppo
+     * @param isGruppo se la destinazione è il gruppo: l'<code>RTO</code> è quello del <code>peer</code> più lento
+     * @param timestamp l'orario di invio del messaggio
+     */
+    public void registra(int id, byte[] codificato, InetSocketAddress destinazione, boolean isGruppo, String timestamp) {
+        InSospeso dimenticato = null;
+        synchronized(this) {
+            if(chiuso) return;
+            InSospeso sospeso = new InSospeso(id, codificato, destinazione, timestamp, isGruppo ? rtoGruppo() : rto(destinazione));
+            InSospeso precedente = inSospeso.remove(id);
+            if(precedente != null) {
+                precedente.scadenza.annulla();
+            } else if(inSospeso.size() >= MAX_IN_SOSPESO) {
+                dimenticato = inSospeso.pollFirstEntry().getValue();
+                dimenticato.scadenza.annulla();
+                dimenticati++;
+            }
+            inSospeso.put(id, sospeso);
+            sospeso.scadenza = cicloEventi.pianifica(() -> scaduto(sospeso), sospeso.rto);
+            registrati++;
+        }
+        if(dimenticato != null) fallimento.fallito(dimenticato.id, dimenticato.timestamp);
+    }
+
+    /**
+     * Registra la conferma di un messaggio da parte di un <code>peer</code>, aggiornandone la stima se il messaggio non è mai stato ritrasmesso
+     * @param id l'<code>ID</code> del messaggio confermato
+     * @param peer l'indirizzo unicast del <code>peer</code> che ha confermato il messaggio
+     * @param completo se il messaggio ha ricevuto tutte le conferme attese e non deve più essere ritrasmesso
+     */
+    public synchronized void confermato(int id, InetSocketAddress peer, boolean completo) {
+        InSospeso sospeso = inSospeso.get(id);
+        if(sospeso == null) return;
+        if(sospeso.tentativi == 0) {
+            stime.computeIfAbsent(peer, p -> new Stima()).campiona((System.nanoTime() - sospeso.inviato) / (double) TimeUnit.MILLISECONDS.toNanos(1));
+        }
+        if(completo) {
+            inSospeso.remove(id);
+            sospeso.scadenza.annulla();
+            confermati++;
+        }
+    }
+
+    /**
+     * Dimentica la stima di un <code>peer</code> che ha abbandonato il gruppo, in modo che non rallenti le ritrasmissioni dei messaggi di gruppo
+     * @param peer l'indirizzo unicast del <code>peer</code>
+     */
+    public synchronized void dimentica(InetSocketAddress peer) {
+        stime.remove(peer);
+    }
+
+    /**
+     * Allo scadere dell'<code>RTO</code> ritrasmette il messaggio raddoppiandone l'<code>RTO</code> o, superato il numero massimo di ritrasmissioni, lo segnala come non confermato.
+     * Una ritrasmissione saltata non viene contata e viene riproposta allo scadere dello stesso <code>RTO</code>.
+     * Eseguito nel {@link CicloEventi}.
+     */
+    private void scaduto(InSospeso sospeso) {
+        boolean fallito;
+        synchronized(this) {
+            if(chiuso || inSospeso.get(sospeso.id) != sospeso) return;
+            fallito = sospeso.tentativi >= TENTATIVI_MASSIMI;
+            if(fallito) {
+                inSospeso.remove(sospeso.id);
+                falliti++;
+            }
+        }
+        if(fallito) {
+            fallimento.fallito(sospeso.id, sospeso.timestamp);
+            return;
+        }
+        boolean ritrasmesso = ritrasmissione.ritrasmetti(sospeso.codificato, sospeso.destinazione);
+        synchronized(this) {
+            /* il messaggio può essere stato confermato, registrato di nuovo o dimenticato durante la ritrasmissione */
+            if(chiuso || inSospeso.get(sospeso.id) != sospeso) return;
+            if(ritrasmesso) {
+                sospeso.tentativi++;
+                sospeso.rto = Math.min(sospeso.rto * 2, RTO_MASSIMO);
+                ritrasmessi++;
+            } else {
+                saltati++;
+            }
+            sospeso.scadenza = cicloEventi.pianifica(() -> scaduto(sospeso), sospeso.rto);
+        }
+    }
+
+    private long rto(InetSocketAddress peer) {
+        Stima stima = stime.get(peer);
+        return stima == null ? RTO_INIZIALE : stima.rto;
+    }
+
+    private long rtoGruppo() {
+        long rto = 0;
+        for(Stima stima : stime.values()) rto = Math.max(rto, stima.rto);
+        return rto == 0 ? RTO_INIZIALE : rto;
+    }
+
+    /**
+     * Annulla tutti i timer di ritrasmissione. I messaggi in attesa non vengono segnalati come non confermati.
+     */
+    public synchronized void chiudi() {
+        chiuso = true;
+        inSospeso.values().forEach(sospeso -> sospeso.scadenza.annulla());
+        inSospeso.clear();
+    }
+
+    /**
+     * Restituisce le statistiche del ritrasmettitore e la stima di ciascun <code>peer</code>
+     * @return le statistiche di ritrasmissione
+     */
+    public synchronized String getStatistiche() {
+        StringBuilder statistiche = new StringBuilder("Ritrasmissioni: " + registrati + " messaggi tracciati, " + confermati + " confermati, " + ritrasmessi + " ritrasmissioni, " + falliti + " non confermati, " + inSospeso.size() + " in sospeso");
+        if(saltati > 0) statistiche.append(", ").append(saltati).append(" ritrasmissioni saltate per coda piena");
+        if(dimenticati > 0) statistiche.append(", ").append(dimenticati).append(" dimenticati oltre il limite");
+        stime.forEach((peer, stima) -> statistiche.append(", ").append(peer).append(" ").append(stima));
+        return statistiche.toString();
+    }
+}
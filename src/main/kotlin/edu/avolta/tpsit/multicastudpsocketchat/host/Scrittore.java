@@ -0,0 +1,422 @@
+package edu.avolta.tpsit.multicastudpsocketchat.host;
+
+import edu.avolta.tpsit.multicastudpsocketchat.eccezioni.CommunicationException;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Scrittore dei datagrammi cifrati di un {@link MulticastPeer}: l'unico {@link Thread} che scrive sul canale unicast e sul canale del {@link GroupChat}.
+ * <p>
+ * I datagrammi vengono accodati in una coda senza lock per ciascuna {@link Priorita}, con più produttori e un solo consumatore: chi accoda non attende né il canale né gli altri produttori.
+ * Il {@link Thread} dello scrittore svuota le code in un ciclo stretto, un lotto alla volta, alternando le corsie secondo la {@link Pianificazione}, e si sospende soltanto quando sono vuote.
+ * I datagrammi restano nei buffer del {@link PoolBuffer} fino alla scrittura, senza copie né oggetti intermedi, e vengono rilasciati subito dopo.
+ * <p>
+ * La velocità di scrittura verso ciascun destinatario e verso il gruppo è limitata da un {@link Limitatore}, in modo da non saturare i buffer di ricezione dei destinatari più lenti.
+ * I datagrammi di una destinazione che ha esaurito i gettoni vengono rinviati in una coda propria, mantenendone l'ordine, senza ritardare quelli delle altre destinazioni;
+ * oltre {@link #RINVIATI_MASSIMI} datagrammi rinviati i successivi vengono scartati, e recuperati dalle ritrasmissioni.
+ * I datagrammi di controllo non vengono mai rinviati: consumano i gettoni della destinazione, ma precedono i messaggi della chat in attesa.
+ * <p>
+ * Lo scrittore viene prima creato e poi avviato con {@link #avvia()}; alla chiusura nessun datagramma accodato resta senza esito: viene scritto o scartato, rilasciandone il buffer e completandone i completamenti.
+ * <p>
+ * Per ciascuna destinazione vengono registrati i datagrammi e i byte scritti, i datagrammi rinviati e scartati e gli errori di scrittura; per ciascuna corsia la {@link Latenza} tra l'accodamento e la scrittura.
+ *
+ * @author Matteo Bagnoletti Tini
+ * @version 1.0
+ * @project MulticastUDPSocketChat
+ */
+public class Scrittore {
+
+    /**
+     * Numero massimo di destinazioni con statistiche proprie: le successive vengono conteggiate insieme
+     */
+    public static final int DESTINAZIONI_MASSIME = 256;
+
+    /**
+     * Numero massimo di datagrammi rinviati per ciascuna destinazione in attesa dei gettoni
+     */
+    public static final int RINVIATI_MASSIMI = 1024;
+
+    /**
+     * Datagramma in attesa di scrittura
+     * @param datagramma il buffer del {@link PoolBuffer} contenente il datagramma cifrato, tra posizione e limite
+     * @param destinazione l'indirizzo del destinatario o del gruppo
+     * @param isGruppo se la destinazione è il gruppo
+     * @param completamenti i completamenti dei messaggi contenuti nel datagramma
+     * @param ultimo se si tratta dell'ultimo datagramma dei messaggi: in caso di successo i completamenti vengono completati
+     * @param priorita la corsia del datagramma
+     * @param accodato l'istante dell'accodamento, da {@link System#nanoTime()}
+     */
+    private record Uscita(ByteBuffer datagramma, InetSocketAddress destinazione, boolean isGruppo, List<CompletableFuture<Void>> completamenti, boolean ultimo, Priorita priorita, long accodato) {}
+
+    /**
+     * Limitatore e statistiche di scrittura di una destinazione
+     */
+    private static final class Destinazione {
+        /**
+         * Il limitatore della destinazione, <code>null</code> se la velocità non è limitata
+         */
+        private final Limitatore limitatore;
+        /**
+         * I datagrammi in attesa dei gettoni, gestiti soltanto dal {@link Thread} dello scrittore
+         */
+        private final ArrayDeque<Uscita> rinviati = new ArrayDeque<>();
+        private final LongAdder datagrammi = new LongAdder();
+        private final LongAdder byteScritti = new LongAdder();
+        private final LongAdder errori = new LongAdder();
+        private final LongAdder rinviatiTotali = new LongAdder();
+        private final LongAdder scartati = new LongAdder();
+
+        private Destinazione(long velocita) {
+            this.limitatore = velocita > 0 ? new Limitatore(velocita) : null;
+        }
+
+        @Override
+        public String toString() {
+            String statistiche = datagrammi.sum() + " datagrammi, " + byteScritti.sum() + " byte, " + errori.sum() + " errori";
+            if(limitatore == null) return statistiche;
+            return statistiche + ", " + rinviatiTotali.sum() + " rinviati, " + scartati.sum() + " scartati, velocità " + limitatore;
+        }
+    }
+
+    private final DatagramChannel canaleUnicast;
+
+    private final DatagramChannel canaleGruppo;
+
+    private final InetSocketAddress gruppo;
+
+    private final PoolBuffer poolBuffer;
+
+    /**
+     * Velocità massima in byte al secondo verso ciascun destinatario unicast, <code>0</code> per nessun limite
+     */
+    private final long velocitaUnicast;
+
+    private final Queue<Uscita> codaControllo = new ConcurrentLinkedQueue<>();
+
+    private final Queue<Uscita> codaDati = new ConcurrentLinkedQueue<>();
+
+    private final Pianificazione pianificazione;
+
+    /**
+     * Datagrammi di controllo scritti dall'ultimo messaggio della chat, gestiti soltanto dal {@link Thread} dello scrittore
+     */
+    private int consecutivi;
+
+    private final Attivita attivita;
+
+    /**
+     * Il {@link Thread} dello scrittore, <code>null</code> fino all'avvio
+     */
+    private volatile Thread thread;
+
+    private volatile boolean aperto = true;
+
+    /**
+     * Se il {@link Thread} dello scrittore è sospeso, o in procinto di esserlo, in attesa di nuovi datagrammi
+     */
+    private volatile boolean inAttesa;
+
+    /* statistiche */
+    private final Map<InetSocketAddress, Destinazione> destinazioni = new ConcurrentHashMap<>();
+    private final Destinazione gruppoStatistiche;
+    private final Destinazione altre;
+    private final LongAdder accodati = new LongAdder();
+    private final LongAdder scrittiTotali = new LongAdder();
+    private final LongAdder scartati = new LongAdder();
+    private final LongAdder lotti = new LongAdder();
+    private final Latenza latenzaControllo = new Latenza();
+    private final Latenza latenzaDati = new Latenza();
+
+    /**
+     * Le destinazioni con datagrammi rinviati, gestite soltanto dal {@link Thread} dello scrittore
+     */
+    private final List<Destinazione> rallentate = new ArrayList<>();
+
+    /**
+     * Datagrammi scritti nel lotto corrente, gestiti soltanto dal {@link Thread} dello scrittore
+     */
+    private int lotto;
+
+    /**
+     * Crea lo scrittore, senza avviarne il {@link Thread}
+     * @param canaleUnicast il canale unicast del <code>peer</code>
+     * @param gruppo il {@link GroupChat} del <code>peer</code>, di cui viene utilizzato il canale
+     * @param poolBuffer il {@link PoolBuffer} a cui restituire i buffer dei datagrammi scritti
+     * @param attivita le {@link Attivita} del <code>peer</code>, che avviano il {@link Thread} dello scrittore
+     * @param velocitaUnicast la velocità massima in byte al secondo verso ciascun destinatario unicast, <code>0</code> per nessun limite
+     * @param velocitaGruppo la velocità massima in byte al secondo verso il gruppo, <code>0</code> per nessun limite
+     * @param pianificazione la {@link Pianificazione} tra le corsie
+     * @see #avvia()
+     */
+    public Scrittore(final DatagramChannel canaleUnicast, final GroupChat gruppo, final PoolBuffer poolBuffer, final Attivita attivita, final long velocitaUnicast, final long velocitaGruppo, final Pianificazione pianificazione) {
+        this.canaleUnicast = canaleUnicast;
+        this.canaleGruppo = gruppo.getCanale();
+        this.gruppo = gruppo.getGruppo();
+        this.poolBuffer = poolBuffer;
+        this.velocitaUnicast = velocitaUnicast;
+        this.pianificazione = pianificazione;
+        this.gruppoStatistiche = new Destinazione(velocitaGruppo);
+        this.altre = new Destinazione(velocitaUnicast);
+        this.attivita = attivita;
+    }
+
+    /**
+     * Avvia il {@link Thread} dello scrittore, che scrive anche i datagrammi accodati in precedenza
+     * @throws IllegalStateException se lo scrittore è già stato avviato o le {@link Attivita} sono già state chiuse
+     */
+    public synchronized void avvia() throws IllegalStateException {
+        if(thread != null) throw new IllegalStateException("Scrittore già avviato");
+        thread = attivita.avvia("Thread di scrittura", this::esegui);
+    }
+
+    /**
+     * Accoda un datagramma cifrato per la scrittura, senza bloccarsi. Il buffer appartiene allo scrittore, che lo restituisce al {@link PoolBuffer} dopo la scrittura.
+     * In caso di errore, o se lo scrittore è già stato chiuso, i completamenti vengono completati eccezionalmente.
+     * @param datagramma il buffer contenente il datagramma cifrato, tra posizione e limite
+     * @param destinazione l'indirizzo del destinatario o del gruppo
+     * @param completamenti i completamenti dei messaggi contenuti nel datagramma
+     * @param ultimo se si tratta dell'ultimo datagramma dei messaggi: in caso di successo i completamenti vengono completati
+     * @param priorita la {@link Priorita} del datagramma
+     */
+    public void accoda(ByteBuffer datagramma, InetSocketAddress destinazione, List<CompletableFuture<Void>> completamenti, boolean ultimo, Priorita priorita) {
+        Uscita uscita = new Uscita(datagramma, destinazione, destinazione.equals(gruppo), completamenti, ultimo, priorita, System.nanoTime());
+        accodati.increment();
+        if(!aperto) {
+            scarta(uscita);
+            return;
+        }
+        Queue<Uscita> coda = priorita == Priorita.CONTROLLO ? codaControllo : codaDati;
+        coda.offer(uscita);
+        /* se lo scrittore è stato chiuso nel frattempo le code potrebbero essere già state svuotate: il datagramma viene ritirato,
+           salvo che sia già stato prelevato dal thread o da chiudi, che ne determinano l'esito */
+        if(!aperto && coda.remove(uscita)) {
+            scarta(uscita);
+            return;
+        }
+        Thread scrittura = thread;
+        if(inAttesa && scrittura != null) LockSupport.unpark(scrittura);
+    }
+
+    private void esegui() {
+        while(true) {
+            /* prima i datagrammi rinviati, che precedono quelli in coda per la stessa destinazione */
+            long attesa = rallentate.isEmpty() ? 0 : scriviRinviati();
+            Uscita uscita = prossima();
+            if(uscita != null) {
+                if(!rinvia(uscita)) {
+                    scrivi(uscita);
+                    lotto++;
+                }
+                continue;
+            }
+            if(lotto > 0) {
+                lotti.increment();
+                lotto = 0;
+            }
+            if(!aperto || Thread.currentThread().isInterrupted()) {
+                /* alla chiusura i datagrammi rinviati e quelli accodati prima della chiusura vengono scritti senza attendere i gettoni */
+                for(Destinazione destinazione : rallentate) {
+                    while(!destinazione.rinviati.isEmpty()) {
+                        scrivi(destinazione.rinviati.poll());
+                        lotto++;
+                    }
+                }
+                rallentate.clear();
+                while((uscita = prossima()) != null) {
+                    scrivi(uscita);
+                    lotto++;
+                }
+                if(lotto > 0) lotti.increment();
+                return;
+            }
+            /* la coda viene ricontrollata dopo aver segnalato l'attesa: un datagramma accodato nel frattempo risveglia il thread o viene trovato qui */
+            inAttesa = true;
+            if(codaControllo.isEmpty() && codaDati.isEmpty() && aperto) {
+                if(rallentate.isEmpty()) LockSupport.park(this);
+                else LockSupport.parkNanos(this, attesa);
+            }
+            inAttesa = false;
+        }
+    }
+
+    /**
+     * Preleva il prossimo datagramma da scrivere, alternando le corsie secondo la {@link #pianificazione}
+     * @return il datagramma, <code>null</code> se entrambe le code sono vuote
+     */
+    private Uscita prossima() {
+        if(!codaControllo.isEmpty() && (codaDati.isEmpty() || pianificazione.isTurnoControllo(consecutivi))) {
+            Uscita uscita = codaControllo.poll();
+            if(uscita != null) {
+                consecutivi++;
+                return uscita;
+            }
+        }
+        Uscita uscita = codaDati.poll();
+        if(uscita != null) {
+            consecutivi = 0;
+            return uscita;
+        }
+        return codaControllo.poll();
+    }
+
+    /**
+     * Scrive i datagrammi rinviati delle destinazioni che dispongono di nuovo dei gettoni
+     * @return l'attesa in nanosecondi prima che un'altra destinazione disponga dei gettoni
+     */
+    private long scriviRinviati() {
+        long ora = System.nanoTime();
+        long attesa = Long.MAX_VALUE;
+        Iterator<Destinazione> iteratore = rallentate.iterator();
+        while(iteratore.hasNext()) {
+            Destinazione destinazione = iteratore.next();
+            while(!destinazione.rinviati.isEmpty()) {
+                long gettoni = destinazione.limitatore.attesa(ora);
+                if(gettoni > 0) {
+                    attesa = Math.min(attesa, gettoni);
+                    break;
+                }
+                scrivi(destinazione.rinviati.poll());
+                lotto++;
+            }
+            if(destinazione.rinviati.isEmpty()) iteratore.remove();
+        }
+        return attesa;
+    }
+
+    /**
+     * Rinvia un datagramma della chat se la sua destinazione ha esaurito i gettoni o ha già datagrammi rinviati
+     * @return <code>true</code> se il datagramma è stato rinviato o scartato, <code>false</code> se può essere scritto subito
+     */
+    private boolean rinvia(Uscita uscita) {
+        Destinazione destinazione = statistiche(uscita.destinazione());
+        if(destinazione.limitatore == null || uscita.priorita() == Priorita.CONTROLLO) return false;
+        if(destinazione.rinviati.isEmpty()) {
+            if(destinazione.limitatore.attesa(System.nanoTime()) == 0) return false;
+            rallentate.add(destinazione);
+        } else if(destinazione.rinviati.size() >= RINVIATI_MASSIMI) {
+            destinazione.scartati.increment();
+            scartati.increment();
+            poolBuffer.rilascia(uscita.datagramma());
+            CommunicationException errore = new CommunicationException("Troppi datagrammi in attesa verso " + uscita.destinazione() + ": messaggio non inviato");
+            uscita.completamenti().forEach(c -> c.completeExceptionally(errore));
+            return true;
+        }
+        destinazione.rinviati.add(uscita);
+        destinazione.rinviatiTotali.increment();
+        return true;
+    }
+
+    /**
+     * Scrive un datagramma sul canale opportuno e ne rilascia il buffer
+     */
+    private void scrivi(Uscita uscita) {
+        Destinazione statistiche = statistiche(uscita.destinazione());
+        int dimensione = uscita.datagramma().remaining();
+        if(statistiche.limitatore != null) statistiche.limitatore.consuma(dimensione);
+        (uscita.priorita() == Priorita.CONTROLLO ? latenzaControllo : latenzaDati).registra(uscita.accodato());
+        try {
+            if(uscita.isGruppo()) {
+                try {
+                    CicloEventi.invia(canaleGruppo, uscita.datagramma(), uscita.destinazione());
+                } catch (IOException e) {
+                    throw new CommunicationException("Impossibile inviare il messaggio al gruppo: " + e.getMessage(), e.getCause());
+                }
+            } else {
+                try {
+                    CicloEventi.invia(canaleUnicast, uscita.datagramma(), uscita.destinazione());
+                } catch (IOException e) {
+                    throw new IOException("Impossibile inviare il messaggio unicast: " + e.getMessage(), e.getCause());
+                }
+            }
+            statistiche.datagrammi.increment();
+            statistiche.byteScritti.add(dimensione);
+            if(uscita.ultimo()) uscita.completamenti().forEach(c -> c.complete(null));
+        } catch (IOException | CommunicationException e) {
+            statistiche.errori.increment();
+            uscita.completamenti().forEach(c -> c.completeExceptionally(e));
+        } finally {
+            poolBuffer.rilascia(uscita.datagramma());
+            scrittiTotali.increment();
+        }
+    }
+
+    /**
+     * Rilascia il buffer di un datagramma non scritto e completa eccezionalmente i relativi completamenti
+     */
+    private void scarta(Uscita uscita) {
+        scartati.increment();
+        poolBuffer.rilascia(uscita.datagramma());
+        CommunicationException errore = new CommunicationException("Scrittore chiuso: messaggio non inviato");
+        uscita.completamenti().forEach(c -> c.completeExceptionally(errore));
+    }
+
+    private Destinazione statistiche(InetSocketAddress destinazione) {
+        if(destinazione.equals(gruppo)) return gruppoStatistiche;
+        Destinazione statistiche = destinazioni.get(destinazione);
+        if(statistiche != null) return statistiche;
+        if(destinazioni.size() >= DESTINAZIONI_MASSIME) return altre;
+        return destinazioni.computeIfAbsent(destinazione, d -> new Destinazione(velocitaUnicast));
+    }
+
+    /**
+     * Segnala una perdita verso una destinazione, riducendone la velocità di scrittura
+     * @param destinazione l'indirizzo del destinatario o del gruppo
+     * @see Limitatore#segnalaPerdita()
+     */
+    public void segnalaPerdita(InetSocketAddress destinazione) {
+        Destinazione statistiche = statistiche(destinazione);
+        if(statistiche.limitatore != null) statistiche.limitatore.segnalaPerdita();
+    }
+
+    /**
+     * Scrive i datagrammi già accodati e arresta il {@link Thread} dello scrittore.
+     * I datagrammi ancora in coda allo scadere dell'attesa, o quando lo scrittore non è mai stato avviato, vengono scartati; il {@link Thread}, se ancora attivo, termina la scrittura di quelli già prelevati.
+     * @param attesa l'attesa massima in millisecondi
+     */
+    public void chiudi(long attesa) {
+        aperto = false;
+        Thread scrittura = thread;
+        if(scrittura != null) {
+            /* invocato dal thread stesso, ad esempio da un completamento: le code vengono svuotate al termine del ciclo corrente */
+            if(Thread.currentThread() == scrittura) return;
+            LockSupport.unpark(scrittura);
+            try {
+                scrittura.join(attesa);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        /* le code sono condivise con il thread, eventualmente ancora attivo: ciascun datagramma viene prelevato una sola volta */
+        Uscita uscita;
+        while((uscita = codaControllo.poll()) != null) scarta(uscita);
+        while((uscita = codaDati.poll()) != null) scarta(uscita);
+    }
+
+    /**
+     * Restituisce le statistiche dello scrittore: datagrammi scritti, dimensione media dei lotti e, per ciascuna destinazione, datagrammi, byte ed errori
+     * @return le statistiche di scrittura
+     */
+    public String getStatistiche() {
+        long numero = scrittiTotali.sum();
+        long numeroLotti = lotti.sum();
+        StringBuilder statistiche = new StringBuilder(String.format("Scrittura: %d datagrammi (coda %d, %d lotti, media %.1f per lotto), controllo %s, dati %s", numero, accodati.sum() - numero - scartati.sum(), numeroLotti, numeroLotti == 0 ? 0 : (double) numero / numeroLotti, latenzaControllo, latenzaDati));
+        if(gruppoStatistiche.datagrammi.sum() + gruppoStatistiche.errori.sum() > 0) statistiche.append(", gruppo ").append(gruppo).append(" ").append(gruppoStatistiche);
+        destinazioni.forEach((destinazione, dati) -> statistiche.append(", ").append(destinazione).append(" ").append(dati));
+        if(altre.datagrammi.sum() + altre.errori.sum() > 0) statistiche.append(", altre destinazioni ").append(altre);
+        return statistiche.toString();
+    }
+}
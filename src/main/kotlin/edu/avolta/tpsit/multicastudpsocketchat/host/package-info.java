@@ -1,12 +1,26 @@
 /**
  * Fornisce le classi-entità necessarie alla gestione degli oggetti <code>host</code>.
  * <p>
- * Ciascun {@code host} rappresenta un end-point che comunica con un altro (o altri) end-point attraverso la rete, sfruttando i {@link java.net.DatagramSocket} con protocollo UDP.
+ * Ciascun {@code host} rappresenta un end-point che comunica con un altro (o altri) end-point attraverso la rete, sfruttando i {@link java.nio.channels.DatagramChannel} non bloccanti con protocollo UDP, serviti da un unico {@link edu.avolta.tpsit.multicastudpsocketchat.host.CicloEventi}.
  * <p>
  * Contiene:
  * <ul>
+ *     <li>{@link edu.avolta.tpsit.multicastudpsocketchat.host.Aggregatore}</li>
+ *     <li>{@link edu.avolta.tpsit.multicastudpsocketchat.host.Attivita}</li>
+ *     <li>{@link edu.avolta.tpsit.multicastudpsocketchat.host.CicloEventi}</li>
+ *     <li>{@link edu.avolta.tpsit.multicastudpsocketchat.host.CodaPriorita}</li>
  *     <li>{@link edu.avolta.tpsit.multicastudpsocketchat.host.GroupChat}</li>
+ *     <li>{@link edu.avolta.tpsit.multicastudpsocketchat.host.Latenza}</li>
+ *     <li>{@link edu.avolta.tpsit.multicastudpsocketchat.host.Limitatore}</li>
  *     <li>{@link edu.avolta.tpsit.multicastudpsocketchat.host.MulticastPeer}</li>
+ *     <li>{@link edu.avolta.tpsit.multicastudpsocketchat.host.Pianificazione}</li>
+ *     <li>{@link edu.avolta.tpsit.multicastudpsocketchat.host.PipelineInvio}</li>
+ *     <li>{@link edu.avolta.tpsit.multicastudpsocketchat.host.PipelineRicezione}</li>
+ *     <li>{@link edu.avolta.tpsit.multicastudpsocketchat.host.PoliticaSovraccarico}</li>
+ *     <li>{@link edu.avolta.tpsit.multicastudpsocketchat.host.PoolBuffer}</li>
+ *     <li>{@link edu.avolta.tpsit.multicastudpsocketchat.host.Priorita}</li>
+ *     <li>{@link edu.avolta.tpsit.multicastudpsocketchat.host.Ritrasmettitore}</li>
+ *     <li>{@link edu.avolta.tpsit.multicastudpsocketchat.host.Scrittore}</li>
  * </ul>
  * 
  * @author Matteo Bagnoletti Tini
@@ -5,11 +5,20 @@ import java.net.InetAddress;
 /**
  * Generico indice di {@link Rubrica}
  * @param alias l'alias assegnato a un dato {@link Utente}
- * @param UUID l'identificativo univoco dell'utente
+ * @param utente l'utente, confrontato con la rubrica attraverso il suo identificativo binario
  * @param inetAddress l'{@link InetAddress} dell'utente
  * @param porta il numero della porta della {@link java.net.DatagramSocket} dell'utente
  * @author Matteo Bagnoletti Tini
- * @version 1.1
+ * @version 1.2
  * @project MulticastUDPSocketChat
  */
-public record IndiceRubrica(String alias, String UUID, InetAddress inetAddress, int porta) {}
+public record IndiceRubrica(String alias, Utente utente, InetAddress inetAddress, int porta) {
+
+    /**
+     * Restituisce l'identificativo univoco dell'utente in forma testuale
+     * @return l'identificativo univoco dell'utente
+     */
+    public String UUID() {
+        return utente.getIDutente();
+    }
+}
@@ -1,12 +1,15 @@
 package edu.avolta.tpsit.multicastudpsocketchat.utenze;
 
-import edu.avolta.tpsit.chatterbox.ChatterBoxController;
+import edu.avolta.tpsit.multicastudpsocketchat.gestione.BusEventi;
+import edu.avolta.tpsit.multicastudpsocketchat.gestione.Evento;
 import edu.avolta.tpsit.multicastudpsocketchat.gestione.ChatLogger;
 import edu.avolta.tpsit.multicastudpsocketchat.eccezioni.NoSuchUserException;
 import edu.avolta.tpsit.multicastudpsocketchat.gestione.ChatLoggerType;
 
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.util.ArrayList;
+import java.util.HashMap;
 
 /**
  * Classe con funzione di rubrica per gli utenti noti nella chat. 
@@ -23,6 +26,11 @@ public class Rubrica {
     private ArrayList<IndiceRubrica> rubricaList;
     private ArrayList<IndiceRubrica> cestinoRubrica;
 
+    /**
+     * Le capacità annunciate da ciascun utente nei messaggi ricevuti
+     */
+    private final HashMap<Utente, Integer> capacitaUtenti;
+
     /**
      * L'utente possessore della rubrica
      */
@@ -31,6 +39,7 @@ public class Rubrica {
     public Rubrica(Utente utente) {
         this.rubricaList = new ArrayList<>();
         this.cestinoRubrica = new ArrayList<>();
+        this.capacitaUtenti = new HashMap<>();
         this.utente = utente;
     }
 
@@ -39,10 +48,11 @@ public class Rubrica {
      * @param utente il nome utente e il codice univoco del nuovo {@link Utente}
      * @param inetAddress l'{@link InetAddress} della socket del nuovo utente
      * @param porta il numero di porta della socket del nuovo utente
+     * @param eventi il {@link BusEventi} su cui pubblicare l'ingresso dell'utente
      * @throws NoSuchUserException nei casi previsti dalla classe {@link Utente}
      */
-    public synchronized void aggiungiUtente(Utente utente, InetAddress inetAddress, int porta, ChatterBoxController ctrl) throws NoSuchUserException {
-        if (!this.utente.getIDutente().equals(utente.getIDutente()) && !isGiaInRubrica(utente.getIDutente()) && !isInCestino(utente.getIDutente(), inetAddress, porta, ctrl)) {
+    public synchronized void aggiungiUtente(Utente utente, InetAddress inetAddress, int porta, BusEventi eventi) throws NoSuchUserException {
+        if (!this.utente.equals(utente) && !isGiaInRubrica(utente) && !isInCestino(utente, inetAddress, porta, eventi)) {
             int nDuplicato = 0;
             while (isDuplicato(utente.getUsername(), nDuplicato)) {
                 nDuplicato++;
@@ -55,32 +65,46 @@ public class Rubrica {
                 alias = utente.getUsername() + "(" + nDuplicato + ")";
             }
             
-            rubricaList.add(new IndiceRubrica(alias, utente.getIDutente(), inetAddress, porta));
+            rubricaList.add(new IndiceRubrica(alias, utente, inetAddress, porta));
             ChatLogger.log("(Rubrica) tentativo di inserimento riuscito: memorizzato come " + alias, ChatLoggerType.OPTIONAL);
+            eventi.pubblica(new Evento.UtenteEntrato(alias, rubricaList.size()+1));
         } else {
             ChatLogger.log("(Rubrica) tentativo di inserimento fallito: l'utente potrebbe corrispondere all'utente corrente o è già presente in rubrica", ChatLoggerType.OPTIONAL);
         }
-        ctrl.aggiornaUtentiOnline(String.valueOf(rubricaList.size()+1));
+    }
+
+    /**
+     * Verifica se un utente è uscito dal gruppo, senza recuperarlo dal cestino
+     * @param utente l'{@link Utente} da ricercare
+     * @return true se l'utente è nel cestino, false altrimenti
+     */
+    public synchronized boolean isUscito(Utente utente) {
+        for(IndiceRubrica i : cestinoRubrica){
+            if(i.utente().equals(utente)) return true;
+        }
+        return false;
     }
 
     /**
      * Rimuove un {@link Utente} dalla rubrica
-     * @param IDutente l'identificativo univoco dell'{@link Utente} da ricercare e rimuovere
+     * @param utente l'{@link Utente} da ricercare e rimuovere
+     * @param eventi il {@link BusEventi} su cui pubblicare l'uscita dell'utente
      * @return lo username dell'{@link Utente} rimosso
      */
-    public synchronized String rimuoviUtente(String IDutente, ChatterBoxController ctrl) {
-        String alias = ottieniAliasDaUUID(IDutente);
+    public synchronized String rimuoviUtente(Utente utente, BusEventi eventi) {
+        String alias = ottieniAlias(utente);
         ChatLogger.log("(Rubrica) richiesta rimozione dalla rubrica di " + alias, ChatLoggerType.OPTIONAL);
         /* prima di eliminarlo lo inserisco nel gestino */
         for(IndiceRubrica i : rubricaList){
-            if(i.UUID().equals(IDutente)){
+            if(i.utente().equals(utente)){
                 cestinoRubrica.add(i);
-                ChatLogger.log("(Rubrica) utente con UUID: " + IDutente + " spostato nel cestino", ChatLoggerType.OPTIONAL);
+                ChatLogger.log("(Rubrica) utente con UUID: " + utente + " spostato nel cestino", ChatLoggerType.OPTIONAL);
                 break;
             }
         }
-        rubricaList.removeIf(i -> i.alias().equals(alias));
-        ctrl.aggiornaUtentiOnline(String.valueOf(rubricaList.size()+1));
+        if (rubricaList.removeIf(i -> i.alias().equals(alias))) {
+            eventi.pubblica(new Evento.UtenteUscito(alias, rubricaList.size()+1));
+        }
         return alias;
     }
 
@@ -113,12 +137,12 @@ public class Rubrica {
 
     /**
      * Verifica se un utente è già in rubrica
-     * @param UUID l'identificativo univoco dell'utente
+     * @param UUID l'utente da ricercare
      * @return true se già in rubrica, false altrimenti
      */
-    private synchronized boolean isGiaInRubrica(String UUID) {
+    private synchronized boolean isGiaInRubrica(Utente UUID) {
         for(IndiceRubrica i : rubricaList){
-            if(i.UUID().equals(UUID)){
+            if(i.utente().equals(UUID)){
                 ChatLogger.log("(Rubrica) utente con UUID: " + UUID + " già in rubrica", ChatLoggerType.OPTIONAL);
                 return true;
             }
@@ -128,17 +152,17 @@ public class Rubrica {
         return false;
     }
     
-    private synchronized boolean isInCestino(String UUID, InetAddress inetAddress, int porta, ChatterBoxController ctrl) {
+    private synchronized boolean isInCestino(Utente UUID, InetAddress inetAddress, int porta, BusEventi eventi) {
         for(IndiceRubrica i : cestinoRubrica){
-            if(i.UUID().equals(UUID)){
+            if(i.utente().equals(UUID)){
                 ChatLogger.log("(Rubrica) utente con UUID: " + UUID + " recuperato", ChatLoggerType.OPTIONAL);
                 /* lo rimuovo dal cestino */
                 cestinoRubrica.remove(i);
                 /* aggiorno l'indice con il nuovo IP e porta */
-                i = new IndiceRubrica(i.alias(), i.UUID(), inetAddress, porta);
+                i = new IndiceRubrica(i.alias(), i.utente(), inetAddress, porta);
                 /* lo re-inserisco in rubrica*/
                 rubricaList.add(i);
-                ctrl.aggiornaUtentiOnline(String.valueOf(rubricaList.size()+1));
+                eventi.pubblica(new Evento.UtenteEntrato(i.alias(), rubricaList.size()+1));
                 return true;
             }
         }
@@ -166,6 +190,110 @@ public class Rubrica {
         throw new NoSuchUserException("Utente non in rubrica");
     }
 
+    /**
+     * Restituisce le informazioni note di un dato {@link Utente} a partire dal suo identificativo
+     * @param utente l'utente da ricercare
+     * @return l'{@link IndiceRubrica} contenente le informazioni dell'utente
+     * @throws NoSuchUserException se l'utente non è presente in rubrica
+     */
+    public synchronized IndiceRubrica ottieniInfoUtente(Utente utente) throws NoSuchUserException {
+        for(IndiceRubrica i : rubricaList){
+            if(i.utente().equals(utente)){
+                return i;
+            }
+        }
+        
+        throw new NoSuchUserException("Utente non in rubrica");
+    }
+
+    /**
+     * Risolve l'identificativo breve di sessione di un mittente nell'{@link Utente} corrispondente
+     * @param idBreve l'identificativo breve ricevuto
+     * @return l'utente corrispondente, <code>null</code> se sconosciuto o condiviso da più utenti in rubrica
+     * @see Utente#getIdBreve()
+     */
+    public synchronized Utente ottieniUtenteDaIdBreve(int idBreve) {
+        Utente trovato = null;
+        for(IndiceRubrica i : rubricaList){
+            if(i.utente().getIdBreve() == idBreve){
+                if(trovato != null) return null;
+                trovato = i.utente();
+            }
+        }
+        
+        return trovato;
+    }
+
+    /**
+     * Verifica che l'identificativo breve di un {@link Utente} non sia condiviso con altri utenti in rubrica.
+     * Un <code>host</code> può trasmettere il solo identificativo breve esclusivamente in assenza di collisioni.
+     * @param utente l'utente da verificare
+     * @return <code>true</code> se nessun altro utente in rubrica ha lo stesso identificativo breve, <code>false</code> altrimenti
+     */
+    public synchronized boolean isIdBreveUnivoco(Utente utente) {
+        int idBreve = utente.getIdBreve();
+        for(IndiceRubrica i : rubricaList){
+            if(i.utente().getIdBreve() == idBreve && !i.utente().equals(utente)){
+                ChatLogger.log("(Rubrica) identificativo breve " + idBreve + " condiviso con " + i.alias(), ChatLoggerType.OPTIONAL);
+                return false;
+            }
+        }
+        
+        return true;
+    }
+
+    /**
+     * Memorizza le capacità annunciate da un {@link Utente} nell'ultimo messaggio ricevuto
+     * @param utente l'utente mittente
+     * @param capacita la maschera delle capacità, <code>0</code> per le versioni precedenti del programma
+     */
+    public synchronized void aggiornaCapacita(Utente utente, int capacita) {
+        Integer precedenti = capacitaUtenti.put(utente, capacita);
+        if(precedenti == null || precedenti != capacita) {
+            ChatLogger.log("(Rubrica) capacità di " + utente + " aggiornate: " + capacita, ChatLoggerType.OPTIONAL);
+        }
+    }
+
+    /**
+     * Verifica se tutti gli utenti in rubrica supportano le capacità indicate
+     * @param capacita la maschera delle capacità richieste
+     * @return <code>true</code> se ogni utente in rubrica ha annunciato le capacità richieste, <code>false</code> altrimenti
+     */
+    public synchronized boolean isCapacitaComune(int capacita) {
+        for(IndiceRubrica i : rubricaList){
+            if(!isCapacitaSupportata(i.utente(), capacita)) return false;
+        }
+        
+        return true;
+    }
+
+    /**
+     * Verifica se l'utente raggiungibile all'indirizzo indicato supporta le capacità richieste
+     * @param destinazione l'indirizzo e la porta unicast dell'utente
+     * @param capacita la maschera delle capacità richieste
+     * @return <code>true</code> se l'utente è in rubrica e ha annunciato le capacità richieste, <code>false</code> altrimenti
+     */
+    public synchronized boolean isCapacitaSupportata(InetSocketAddress destinazione, int capacita) {
+        for(IndiceRubrica i : rubricaList){
+            if(i.porta() == destinazione.getPort() && i.inetAddress().equals(destinazione.getAddress())){
+                return isCapacitaSupportata(i.utente(), capacita);
+            }
+        }
+        
+        return false;
+    }
+
+    /**
+     * Verifica se un {@link Utente} ha annunciato le capacità indicate
+     * @param utente l'utente da verificare
+     * @param capacita la maschera delle capacità richieste
+     * @return <code>true</code> se l'utente supporta tutte le capacità richieste, <code>false</code> altrimenti
+     */
+    private boolean isCapacitaSupportata(Utente utente, int capacita) {
+        Integer annunciate = capacitaUtenti.get(utente);
+        return annunciate != null && (annunciate & capacita) == capacita;
+    }
+
     /**
      * Restituisce il numero di partecipanti al gruppo (e dunque memorizzati in rubrica)
      * @return il numero di partecipanti al gruppo
@@ -184,7 +312,7 @@ public class Rubrica {
         for(IndiceRubrica i : rubricaList){
             if(i.alias().equals(utente.trim())){
                 int indice = rubricaList.indexOf(i);
-                rubricaList.set(indice, new IndiceRubrica(rinominaIn, i.UUID(), i.inetAddress(), i.porta()));
+                rubricaList.set(indice, new IndiceRubrica(rinominaIn, i.utente(), i.inetAddress(), i.porta()));
                 ChatLogger.log("(Rubrica) rinomina riuscita", ChatLoggerType.OPTIONAL);
                 
                 return;
@@ -197,16 +325,16 @@ public class Rubrica {
      * Rinomina un {@link Utente}
      * @param utente il nome utente da rinominare
      * @param rinominaIn il nuovo nome utente
-     * @param ctrl il controller per la gestione dell'interfaccia grafica
+     * @param eventi il {@link BusEventi} su cui pubblicare la rinomina
      */
-    public synchronized void rinomina(String utente, String rinominaIn, ChatterBoxController ctrl) {
+    public synchronized void rinomina(String utente, String rinominaIn, BusEventi eventi) {
         ChatLogger.log("(Rubrica) tentativo di rinomina di " + utente + " in " + rinominaIn + " in corso...", ChatLoggerType.OPTIONAL);
         for(IndiceRubrica i : rubricaList){
             if(i.alias().equals(utente.trim())){
                 int indice = rubricaList.indexOf(i);
-                rubricaList.set(indice, new IndiceRubrica(rinominaIn, i.UUID(), i.inetAddress(), i.porta()));
+                rubricaList.set(indice, new IndiceRubrica(rinominaIn, i.utente(), i.inetAddress(), i.porta()));
                 ChatLogger.log("(Rubrica) rinomina riuscita", ChatLoggerType.OPTIONAL);
-                ctrl.rinominaUtente(utente, rinominaIn);
+                eventi.pubblica(new Evento.UtenteRinominato(utente, rinominaIn));
                 return;
             }
         }
@@ -232,7 +360,22 @@ public class Rubrica {
     }
 
     /**
-     * Restituisce l'alias di un {@link Utente} dato il suo identificativo univoco
+     * Restituisce l'alias di un {@link Utente}
+     * @param utente l'utente da ricercare
+     * @return l'alias dell'utente se trovato, null altrimenti
+     */
+    public synchronized String ottieniAlias(Utente utente){
+        for(IndiceRubrica i : rubricaList){
+            if(i.utente().equals(utente)){
+                return i.alias();
+            }
+        }
+        
+        return null;
+    }
+
+    /**
+     * Restituisce l'alias di un {@link Utente} dato il suo identificativo univoco in forma testuale
      * @param UUID l'identificativo univo dell'utente
      * @return l'alias dell'utente se trovato, null altrimenti
      */
@@ -4,14 +4,14 @@ import edu.avolta.tpsit.multicastudpsocketchat.gestione.ChatLogger;
 import edu.avolta.tpsit.multicastudpsocketchat.gestione.ChatLoggerType;
 import edu.avolta.tpsit.multicastudpsocketchat.eccezioni.NoSuchUserException;
 
-import java.io.Serial;
-import java.io.Serializable;
+import java.io.*;
 import java.util.UUID;
 
 /**
  * Un generico utente umano che utilizza il programma {@code MulticastUDPSocketChat}.
  * <p>
  * Ciascun {@code Utente} viene identificato da uno {@link #username} e da un {@link #IDutente} univoco generato attraverso la classe {@link UUID}.
+ * L'identificativo è memorizzato come coppia di <code>long</code> con hash precalcolato, in modo che i confronti tra utenti ({@link #equals(Object)}) siano confronti tra primitivi.
  * <p>
  * L'assegnazione dell'{@code IDutente} avviene in modo automatico e del tutto trasparente all'utente nel momento in cui l'oggetto {@code Utente} viene istanziato.
  * <p>
@@ -25,15 +25,39 @@ public class Utente implements Serializable {
     @Serial
     private static final long serialVersionUID = 1L;
 
+    /**
+     * Campi scritti dalla serializzazione Java: l'{@link #IDutente} viene trasmesso in forma testuale per restare compatibile con le versioni precedenti del programma
+     */
+    @Serial
+    private static final ObjectStreamField[] serialPersistentFields = {
+            new ObjectStreamField("username", String.class),
+            new ObjectStreamField("IDutente", String.class)
+    };
+
     /**
      * Lo username dell'utente. Non univoco
      */
-    private final String username;
+    private String username;
+
+    /**
+     * I 64 bit più significativi dell'identificativo univoco dell'utente
+     */
+    private transient long idAlto;
+
+    /**
+     * I 64 bit meno significativi dell'identificativo univoco dell'utente
+     */
+    private transient long idBasso;
+
+    /**
+     * Hash dell'identificativo univoco, calcolato una sola volta
+     */
+    private transient int hash;
 
     /**
-     * L'identificativo univoco dell'utenze
+     * Forma testuale dell'identificativo univoco, costruita alla prima richiesta
      */
-    private final String IDutente;
+    private transient String IDutente;
 
     /**
      * Crea un oggetto {@link Utente}
@@ -45,21 +69,64 @@ public class Utente implements Serializable {
             throw new IllegalArgumentException("Nome utenze non valido");
         } else {
             this.username = username;
-            this.IDutente = UUID.randomUUID().toString();
+            UUID uuid = UUID.randomUUID();
+            impostaID(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits());
             try {
                 ChatLogger.log("Utente " + getUtente() + " creato", ChatLoggerType.MANDATORY);
             } catch (NoSuchUserException ignored) {}
         }
     }
 
+    /**
+     * Ricostruisce un oggetto {@link Utente} già esistente a partire dai dati ricevuti in rete
+     * @param username il nome utente (username)
+     * @param IDutente l'identificativo univoco dell'utente in forma testuale
+     * @throws IllegalArgumentException se il nome utente è nullo o vuoto o l'identificativo non è un {@link UUID} valido
+     */
+    public Utente(String username, String IDutente) throws IllegalArgumentException {
+        if(username == null || username.isBlank() || IDutente == null || IDutente.isBlank()){
+            throw new IllegalArgumentException("Utente non valido");
+        }
+        UUID uuid = UUID.fromString(IDutente);
+        this.username = username;
+        impostaID(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits());
+    }
+
+    /**
+     * Ricostruisce un oggetto {@link Utente} già esistente a partire dall'identificativo binario ricevuto in rete
+     * @param username il nome utente (username)
+     * @param idAlto i 64 bit più significativi dell'identificativo univoco
+     * @param idBasso i 64 bit meno significativi dell'identificativo univoco
+     * @throws IllegalArgumentException se il nome utente è nullo o vuoto
+     */
+    public Utente(String username, long idAlto, long idBasso) throws IllegalArgumentException {
+        if(username == null || username.isBlank()){
+            throw new IllegalArgumentException("Utente non valido");
+        }
+        this.username = username;
+        impostaID(idAlto, idBasso);
+    }
+
+    /**
+     * Imposta l'identificativo univoco e ne precalcola l'hash
+     * @param idAlto i 64 bit più significativi dell'identificativo univoco
+     * @param idBasso i 64 bit meno significativi dell'identificativo univoco
+     */
+    private void impostaID(long idAlto, long idBasso) {
+        this.idAlto = idAlto;
+        this.idBasso = idBasso;
+        long h = idAlto ^ idBasso;
+        this.hash = (int) (h ^ (h >>> 32));
+    }
+
     /**
      * Restituisce le info dell'{@link Utente}
      * @return il nome utenze seguito dall'identificativo univoco
      * @throws NoSuchUserException se il nome utenze o l'identificativo sono nulli
      */
     private String getUtente() throws NoSuchUserException {
-        if(username != null && IDutente != null) {
-            return username + ":" + IDutente;
+        if(username != null) {
+            return username + ":" + getIDutente();
         } else {
             throw new NoSuchUserException("Utente non inizializzato");
         }
@@ -74,15 +141,104 @@ public class Utente implements Serializable {
     }
 
     /**
-     * Restituisce l'identificativo univoco {@link #IDutente} dell'{@link Utente}
+     * Restituisce l'identificativo univoco {@link #IDutente} dell'{@link Utente} in forma testuale
      * @return l'identificativo univoco dell'utente
      */
     public String getIDutente() {
+        if(IDutente == null) IDutente = new UUID(idAlto, idBasso).toString();
         return IDutente;
     }
-    
+
+    /**
+     * Restituisce i 64 bit più significativi dell'identificativo univoco
+     * @return i 64 bit più significativi dell'identificativo univoco
+     */
+    public long getIdAlto() {
+        return idAlto;
+    }
+
+    /**
+     * Restituisce i 64 bit meno significativi dell'identificativo univoco
+     * @return i 64 bit meno significativi dell'identificativo univoco
+     */
+    public long getIdBasso() {
+        return idBasso;
+    }
+
+    /**
+     * Restituisce l'identificativo breve di sessione dell'{@link Utente}, compreso tra <code>1</code> e <code>65535</code>.
+     * <p>
+     * È derivato dall'identificativo univoco, per cui ogni <code>host</code> lo calcola in modo identico senza necessità di coordinamento.
+     * Non è garantito che sia univoco: la {@link Rubrica} segnala le eventuali collisioni con {@link Rubrica#isIdBreveUnivoco(Utente)}.
+     * @return l'identificativo breve dell'utente
+     */
+    public int getIdBreve() {
+        int breve = (hash ^ (hash >>> 16)) & 0xFFFF;
+        return breve == 0 ? 1 : breve;
+    }
+
+    /**
+     * Verifica se l'{@link Utente} corrisponde all'identificativo univoco indicato
+     * @param idAlto i 64 bit più significativi dell'identificativo univoco
+     * @param idBasso i 64 bit meno significativi dell'identificativo univoco
+     * @return <code>true</code> se l'identificativo corrisponde, <code>false</code> altrimenti
+     */
+    public boolean isUtente(long idAlto, long idBasso) {
+        return this.idAlto == idAlto && this.idBasso == idBasso;
+    }
+
+    /**
+     * Due utenti sono uguali se hanno lo stesso identificativo univoco, indipendentemente dallo username
+     * @param o l'oggetto da confrontare
+     * @return <code>true</code> se gli identificativi coincidono, <code>false</code> altrimenti
+     */
+    @Override
+    public boolean equals(Object o) {
+        if(this == o) return true;
+        if(!(o instanceof Utente altro)) return false;
+        return hash == altro.hash && idAlto == altro.idAlto && idBasso == altro.idBasso;
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
     @Override
     public String toString() {
         return getIDutente();
     }
+
+    /**
+     * Scrive l'{@link Utente} con i campi dichiarati in {@link #serialPersistentFields}
+     * @param out lo stream di output
+     * @throws IOException se si verifica un errore di I/O
+     */
+    @Serial
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        ObjectOutputStream.PutField campi = out.putFields();
+        campi.put("username", username);
+        campi.put("IDutente", getIDutente());
+        out.writeFields();
+    }
+
+    /**
+     * Ricostruisce l'{@link Utente} dai campi dichiarati in {@link #serialPersistentFields}
+     * @param in lo stream di input
+     * @throws IOException se si verifica un errore di I/O o l'identificativo non è valido
+     * @throws ClassNotFoundException se la classe di un campo non è disponibile
+     */
+    @Serial
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField campi = in.readFields();
+        this.username = (String) campi.get("username", null);
+        String id = (String) campi.get("IDutente", null);
+        if(username == null || id == null) throw new InvalidObjectException("Utente non inizializzato");
+        try {
+            UUID uuid = UUID.fromString(id);
+            impostaID(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits());
+        } catch (IllegalArgumentException e) {
+            throw new InvalidObjectException("Identificativo utente non valido: " + id);
+        }
+    }
 }
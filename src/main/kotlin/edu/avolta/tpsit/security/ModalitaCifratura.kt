@@ -0,0 +1,20 @@
+package edu.avolta.tpsit.security
+
+/**
+ * Modalità di cifratura dei datagrammi utilizzata dal [SecurityGate].
+ *
+ * In ricezione la modalità viene riconosciuta automaticamente: la scelta riguarda esclusivamente l'invio.
+ */
+enum class ModalitaCifratura {
+
+    /**
+     * AES-CBC con IV casuale di 16 byte e padding PKCS5. Compatibile con le versioni precedenti del programma.
+     */
+    CBC,
+
+    /**
+     * AES-GCM con nonce di 12 byte e tag di autenticazione di 16 byte: i datagrammi alterati o cifrati con un'altra chiave vengono scartati prima di qualsiasi decodifica.
+     * Utilizzata solo verso gli host che la supportano.
+     */
+    GCM
+}
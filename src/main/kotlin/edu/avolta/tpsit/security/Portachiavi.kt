@@ -0,0 +1,172 @@
+package edu.avolta.tpsit.security
+
+import java.security.MessageDigest
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicReferenceArray
+import javax.crypto.spec.SecretKeySpec
+
+/**
+ * Portachiavi delle chiavi di cifratura di uno o più gruppi.
+ *
+ * Ogni chiave è identificata da un identificativo di un byte ([Chiave.id]), ricavato dal segreto e trasmesso in chiaro nell'intestazione dei datagrammi AES-GCM:
+ * in ricezione la chiave viene individuata con un accesso diretto alla tabella, senza tentare la decifratura con tutte le chiavi note,
+ * e i datagrammi con un identificativo sconosciuto vengono scartati senza alcuna operazione crittografica.
+ * Poiché l'identificativo deriva dal segreto, tutti gli host che condividono la password del gruppo utilizzano lo stesso identificativo senza doverlo concordare.
+ *
+ * Ciascun gruppo ha una chiave corrente, utilizzata per l'invio. Con [ruota] la chiave corrente viene sostituita e la precedente resta valida in ricezione per la finestra di sovrapposizione indicata,
+ * in modo che i datagrammi già in transito, o inviati da host che non hanno ancora ruotato la chiave, non vengano persi.
+ *
+ * Ciascun [SecurityGate] dispone di un proprio portachiavi: la rimozione delle chiavi di un gruppo all'uscita di un host non tocca quelle degli altri host dello stesso processo.
+ * Le chiavi vengono derivate a ogni rotazione, con tre hash SHA-256, e il segreto non viene conservato: il portachiavi mantiene soltanto le chiavi derivate.
+ * Il portachiavi è thread-safe: le letture non richiedono sincronizzazione, mentre le rotazioni sono serializzate.
+ */
+class Portachiavi {
+
+    companion object {
+        /**
+         * Numero di identificativi disponibili: l'identificativo occupa un byte dell'intestazione.
+         */
+        const val NUMERO_ID = 256
+
+        /**
+         * Deriva le chiavi associate a un segreto.
+         * La derivazione della chiave CBC è la stessa delle versioni precedenti del programma.
+         */
+        private fun deriva(segreto: String): Derivate {
+            val sha = MessageDigest.getInstance("SHA-256")
+            val cbc = sha.digest(segreto.toByteArray(Charsets.UTF_8)).copyOf(16)
+            val gcm = sha.digest((segreto + ":aes-gcm").toByteArray(Charsets.UTF_8)).copyOf(16)
+            val id = sha.digest((segreto + ":id-chiave").toByteArray(Charsets.UTF_8))[0].toInt() and 0xFF
+            return Derivate(id, SecretKeySpec(cbc, "AES"), SecretKeySpec(gcm, "AES"))
+        }
+    }
+
+    private class Derivate(val id: Int, val cbc: SecretKeySpec, val gcm: SecretKeySpec)
+
+    /**
+     * Chiave di un gruppo, con la propria scadenza.
+     * @param id l'identificativo trasmesso nell'intestazione dei datagrammi
+     * @param gruppo il gruppo a cui appartiene la chiave
+     */
+    class Chiave internal constructor(val id: Int, val gruppo: String, internal val cbc: SecretKeySpec, internal val gcm: SecretKeySpec) {
+        /**
+         * Istante, in millisecondi, oltre il quale la chiave non è più accettata. [Long.MAX_VALUE] per la chiave corrente.
+         */
+        @Volatile
+        var scadenza: Long = Long.MAX_VALUE
+            internal set
+
+        fun isValida(adesso: Long): Boolean = adesso <= scadenza
+    }
+
+    /**
+     * Chiavi per identificativo. Identificativi uguali per segreti diversi sono rari, ma possibili: ciascuna posizione contiene quindi un piccolo array, di norma con un solo elemento.
+     * Gli array non vengono mai modificati, ma sostituiti, in modo che le letture non richiedano sincronizzazione.
+     */
+    private val tabella = AtomicReferenceArray<Array<Chiave>?>(NUMERO_ID)
+
+    /**
+     * Chiave corrente di ciascun gruppo.
+     */
+    private val correnti = ConcurrentHashMap<String, Chiave>()
+
+    /**
+     * Chiavi di ciascun gruppo, a partire dalla corrente e seguite da quelle in sovrapposizione. Come la tabella, gli array vengono sostituiti e mai modificati.
+     */
+    private val perGruppo = ConcurrentHashMap<String, Array<Chiave>>()
+
+    /**
+     * Imposta la chiave corrente di un gruppo. La chiave precedente, se presente, resta valida in ricezione per la finestra di sovrapposizione.
+     * @param gruppo il gruppo
+     * @param segreto il segreto (password) da cui derivare la chiave
+     * @param sovrapposizione la durata in millisecondi durante la quale la chiave precedente resta valida, 0 per invalidarla immediatamente
+     * @return la nuova chiave corrente
+     */
+    @Synchronized
+    fun ruota(gruppo: String, segreto: String, sovrapposizione: Long): Chiave {
+        require(sovrapposizione >= 0) { "Finestra di sovrapposizione non valida: $sovrapposizione" }
+        val derivate = deriva(segreto)
+        val precedente = correnti[gruppo]
+        if (precedente != null && precedente.gcm == derivate.gcm) return precedente
+
+        val adesso = System.currentTimeMillis()
+        /* con sovrapposizione nulla la chiave precedente non è più valida già in questo millisecondo */
+        precedente?.scadenza = adesso + sovrapposizione - 1
+        rimuoviScadute(adesso)
+
+        /* una chiave ancora in sovrapposizione torna corrente senza essere duplicata */
+        val ripristinata = perGruppo[gruppo]?.firstOrNull { it.gcm == derivate.gcm }
+        val nuova = ripristinata ?: Chiave(derivate.id, gruppo, derivate.cbc, derivate.gcm)
+        nuova.scadenza = Long.MAX_VALUE
+        if (ripristinata == null) {
+            val presenti = tabella.get(nuova.id)
+            tabella.set(nuova.id, if (presenti == null) arrayOf(nuova) else presenti + nuova)
+        }
+        perGruppo[gruppo] = arrayOf(nuova) + (perGruppo[gruppo] ?: emptyArray()).filter { it !== nuova }
+        correnti[gruppo] = nuova
+        return nuova
+    }
+
+    /**
+     * Restituisce la chiave corrente di un gruppo, utilizzata per l'invio.
+     * @param gruppo il gruppo
+     * @return la chiave corrente, `null` se il gruppo non ha chiavi
+     */
+    fun corrente(gruppo: String): Chiave? = correnti[gruppo]
+
+    /**
+     * Restituisce tutte le chiavi di un gruppo, a partire dalla corrente, utilizzate per i datagrammi CBC che non indicano la chiave.
+     * Come per [cerca], il chiamante deve verificarne la validità con [Chiave.isValida].
+     * @param gruppo il gruppo
+     * @return le chiavi del gruppo, vuoto se il gruppo non ha chiavi
+     */
+    fun chiavi(gruppo: String): Array<Chiave> = perGruppo[gruppo] ?: emptyArray()
+
+    /**
+     * Restituisce le chiavi di un gruppo con l'identificativo indicato, in tempo costante.
+     * Le chiavi degli altri gruppi con lo stesso identificativo non vengono restituite: un datagramma viene decifrato soltanto con le chiavi del gruppo da cui è atteso.
+     * Le chiavi scadute vengono rimosse alla successiva rotazione: il chiamante deve verificarne la validità con [Chiave.isValida].
+     * @param id l'identificativo letto dall'intestazione del datagramma
+     * @param gruppo il gruppo
+     * @return le chiavi del gruppo con l'identificativo indicato, `null` se nessuna chiave del gruppo lo utilizza
+     */
+    fun cerca(id: Int, gruppo: String): Array<Chiave>? {
+        val presenti = tabella.get(id and 0xFF) ?: return null
+        /* di norma tutte le chiavi di una posizione appartengono allo stesso gruppo: l'array viene restituito senza copie */
+        if (presenti.all { it.gruppo == gruppo }) return presenti
+        val delGruppo = presenti.filter { it.gruppo == gruppo }
+        return if (delGruppo.isEmpty()) null else delGruppo.toTypedArray()
+    }
+
+    /**
+     * Rimuove le chiavi di un gruppo, ad esempio all'uscita dal gruppo.
+     * @param gruppo il gruppo
+     */
+    @Synchronized
+    fun rimuovi(gruppo: String) {
+        correnti.remove(gruppo) ?: return
+        perGruppo.remove(gruppo)
+        for (id in 0 until NUMERO_ID) {
+            val presenti = tabella.get(id) ?: continue
+            val rimaste = presenti.filter { it.gruppo != gruppo }
+            tabella.set(id, if (rimaste.isEmpty()) null else rimaste.toTypedArray())
+        }
+    }
+
+    /**
+     * Restituisce il numero di chiavi presenti, comprese quelle in sovrapposizione.
+     */
+    fun getNumeroChiavi(): Int = (0 until NUMERO_ID).sumOf { tabella.get(it)?.size ?: 0 }
+
+    private fun rimuoviScadute(adesso: Long) {
+        for (id in 0 until NUMERO_ID) {
+            val presenti = tabella.get(id) ?: continue
+            if (presenti.all { it.isValida(adesso) }) continue
+            val rimaste = presenti.filter { it.isValida(adesso) }
+            tabella.set(id, if (rimaste.isEmpty()) null else rimaste.toTypedArray())
+        }
+        for ((gruppo, chiavi) in perGruppo) {
+            if (chiavi.any { !it.isValida(adesso) }) perGruppo[gruppo] = chiavi.filter { it.isValida(adesso) }.toTypedArray()
+        }
+    }
+}
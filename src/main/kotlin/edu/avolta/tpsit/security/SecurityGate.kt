@@ -1,80 +1,402 @@
 package edu.avolta.tpsit.security
 
+import edu.avolta.tpsit.multicastudpsocketchat.comunicazione.CodificaBinaria
+import edu.avolta.tpsit.multicastudpsocketchat.comunicazione.FormatoMessaggio
 import edu.avolta.tpsit.multicastudpsocketchat.comunicazione.Messaggio
+import edu.avolta.tpsit.multicastudpsocketchat.comunicazione.TipoDatagramma
 import edu.avolta.tpsit.multicastudpsocketchat.gestione.OutputType
 import edu.avolta.tpsit.multicastudpsocketchat.gestione.ProjectOutput
-import java.security.MessageDigest
+import java.nio.ByteBuffer
 import java.security.SecureRandom
+import java.util.concurrent.atomic.AtomicLong
 import javax.crypto.Cipher
+import javax.crypto.spec.GCMParameterSpec
 import javax.crypto.spec.IvParameterSpec
-import javax.crypto.spec.SecretKeySpec
 
 /**
  * Classe che si occupa di gestire la sicurezza dei dati.
+ *
+ * I metodi possono essere invocati contemporaneamente da più thread senza sincronizzazione:
+ * ogni thread utilizza una propria istanza di [Cipher], mentre gli IV provengono da un unico [SecureRandom] condiviso.
+ *
+ * Le chiavi sono conservate in un [Portachiavi] proprio del gate: il gate utilizza per l'invio la chiave corrente del proprio gruppo e decifra soltanto con le chiavi del gruppo,
+ * e [rimuoviChiavi] non tocca le chiavi degli altri gate dello stesso processo.
+ *
+ * Sono supportate due modalità ([ModalitaCifratura]):
+ * - CBC: `IV (16 byte) | testo cifrato`, sempre con la chiave corrente del gruppo
+ * - GCM: `MAGIC_GCM | identificativo della chiave | tipo | nonce (12 byte) | testo cifrato | tag (16 byte)`, con nonce composto da identificativo breve del mittente (2 byte), sale casuale di sessione (4 byte) e contatore (6 byte)
+ *
+ * In GCM i primi tre byte sono autenticati e la chiave viene scelta in tempo costante dall'identificativo, accettando anche le chiavi precedenti ancora in sovrapposizione.
+ * Il [TipoDatagramma] e l'etichetta del mittente (identificativo breve e sale di sessione, all'inizio del nonce) sono leggibili in chiaro, senza alcuna operazione crittografica:
+ * con [isProprio] e [leggiTipo] il destinatario può scartare i propri datagrammi in loop-back e i tipi che non lo interessano prima della decifratura.
+ * Entrambi sono coperti dal tag, per cui un'alterazione viene comunque rilevata dai datagrammi che vengono decifrati.
+ * In ricezione la modalità viene riconosciuta dal primo byte: un datagramma che inizia con [MAGIC_GCM] e riporta l'identificativo di una chiave del gruppo viene accettato soltanto se supera la verifica del tag.
+ * Soltanto se l'identificativo non è noto il datagramma viene trattato come CBC, il cui IV può iniziare casualmente con [MAGIC_GCM];
+ * un datagramma CBC il cui IV inizia anche con l'identificativo di una chiave nota (probabilità 1/65536) viene scartato e recuperato dalla ritrasmissione.
+ * In CBC il datagramma non indica la chiave: vengono provate la chiave corrente e quelle ancora in sovrapposizione.
+ *
+ * @param portachiavi il portachiavi da cui leggere le chiavi
+ * @param gruppo il gruppo a cui appartiene il gate, di cui viene utilizzata la chiave corrente
  */
-class SecurityGate {
+class SecurityGate @JvmOverloads constructor(private val portachiavi: Portachiavi = Portachiavi(), private val gruppo: String = "") {
+
+    companion object {
+        /**
+         * Numero massimo di byte aggiunti dalla cifratura al testo in chiaro: in CBC IV (16 byte) e padding PKCS5 (fino a 16 byte), in GCM intestazione, nonce e tag (31 byte).
+         */
+        const val OVERHEAD_MASSIMO = 32
+
+        /**
+         * Finestra di sovrapposizione predefinita, in millisecondi, durante la quale la chiave sostituita da [ruotaChiave] resta valida in ricezione.
+         */
+        const val SOVRAPPOSIZIONE_PREDEFINITA = 60_000L
+
+        private const val TRASFORMAZIONE = "AES/CBC/PKCS5PADDING"
+
+        private const val DIM_IV = 16
+
+        /**
+         * Primo byte dei datagrammi cifrati con AES-GCM.
+         */
+        const val MAGIC_GCM: Byte = 0x47
+
+        /**
+         * Byte in chiaro dei datagrammi AES-GCM, autenticati: [MAGIC_GCM], identificativo della chiave e [TipoDatagramma].
+         */
+        private const val DIM_AAD = 3
+
+        /**
+         * Byte iniziali del nonce che identificano il mittente: identificativo breve e sale di sessione.
+         */
+        private const val DIM_ETICHETTA = 6
+
+        private const val DIM_NONCE = 12
+
+        private const val DIM_TAG = 16
+
+        private const val TRASFORMAZIONE_GCM = "AES/GCM/NoPadding"
+
+        /**
+         * Sorgente degli IV condivisa da tutte le istanze. [SecureRandom] è thread-safe e, con il generatore predefinito, non bloccante.
+         */
+        private val generatoreIV = SecureRandom()
+
+        /**
+         * Istanza di [Cipher] di ciascun thread, creata al primo utilizzo e poi reinizializzata a ogni operazione.
+         */
+        private val cipherPerThread: ThreadLocal<Cipher> = ThreadLocal.withInitial { Cipher.getInstance(TRASFORMAZIONE) }
+
+        /**
+         * Istanza di [Cipher] AES-GCM di ciascun thread.
+         */
+        private val cipherGcmPerThread: ThreadLocal<Cipher> = ThreadLocal.withInitial { Cipher.getInstance(TRASFORMAZIONE_GCM) }
+
+        /**
+         * Array di appoggio di ciascun thread per l'IV CBC e per l'intestazione GCM (byte autenticati e nonce).
+         */
+        private val ivPerThread: ThreadLocal<ByteArray> = ThreadLocal.withInitial { ByteArray(DIM_IV) }
+        private val intestazionePerThread: ThreadLocal<ByteArray> = ThreadLocal.withInitial { ByteArray(DIM_AAD + DIM_NONCE) }
+    }
+
+    /**
+     * Sale casuale della sessione, seconda parte di ogni nonce: distingue i nonce di utenti con lo stesso identificativo breve o di sessioni successive.
+     */
+    private val saleSessione: Int = generatoreIV.nextInt()
+
+    /**
+     * Etichetta del mittente, prima parte di ogni nonce: identificativo breve (2 byte) e sale di sessione (4 byte).
+     * Sostituita, e mai modificata, da [impostaMittente].
+     */
+    @Volatile
+    private var etichetta: ByteArray = componiEtichetta(0)
+
+    /**
+     * Contatore dei datagrammi cifrati con AES-GCM, ultima parte di ogni nonce (48 bit).
+     */
+    private val contatoreNonce = AtomicLong()
 
-    private lateinit var chiave: SecretKeySpec
     /**
-     * Genera una chiave di cifratura a partire da una stringa.
+     * Datagrammi AES-GCM scartati perché cifrati con una chiave sconosciuta o scaduta.
+     */
+    private val scartatiChiaveIgnota = AtomicLong()
+
+    /**
+     * Modalità di cifratura preferita per l'invio; la modalità effettiva è scelta dal chiamante in base alle capacità dei destinatari.
+     */
+    @Volatile
+    var modalita: ModalitaCifratura = ModalitaCifratura.GCM
+
+    /**
+     * Formato con cui i messaggi vengono convertiti in byte prima della cifratura.
+     * [FormatoMessaggio.SERIALIZZATO] permette di comunicare con gruppi in cui sono presenti versioni precedenti del programma.
+     */
+    @Volatile
+    var formato: FormatoMessaggio = FormatoMessaggio.BINARIO
+
+    /**
+     * Numero di datagrammi AES-GCM scartati perché cifrati con una chiave sconosciuta o scaduta.
+     */
+    val datagrammiChiaveIgnota: Long
+        get() = scartatiChiaveIgnota.get()
+
+    /**
+     * Genera una chiave di cifratura a partire da una stringa e la imposta come chiave corrente del gruppo, invalidando immediatamente la precedente.
      * La stringa può avere qualsiasi lunghezza, e verrà poi convertita in una chiave di 128 bit a partire da un hash SHA-256.
      * @param chiave la stringa da cui generare la chiave.
-     * @return la chiave generata.
      */
-    @Synchronized
     fun generaChiave(chiave: String) {
-        val sha = MessageDigest.getInstance("SHA-256")
-        var key = chiave.toByteArray(Charsets.UTF_8)
-        key = sha.digest(key)
-        key = key.copyOf(16)
-        this.chiave = SecretKeySpec(key, "AES")
+        portachiavi.ruota(gruppo, chiave, 0)
+    }
+
+    /**
+     * Sostituisce la chiave corrente del gruppo; la precedente resta valida in ricezione per la finestra di sovrapposizione.
+     * @param chiave la stringa da cui generare la nuova chiave.
+     * @param sovrapposizione la durata in millisecondi durante la quale la chiave precedente resta valida.
+     */
+    fun ruotaChiave(chiave: String, sovrapposizione: Long) {
+        portachiavi.ruota(gruppo, chiave, sovrapposizione)
+    }
+
+    /**
+     * Rimuove dal portachiavi tutte le chiavi del gruppo, ad esempio all'uscita dal gruppo.
+     */
+    fun rimuoviChiavi() {
+        portachiavi.rimuovi(gruppo)
+    }
+
+    /**
+     * Imposta l'identificativo breve del mittente utilizzato nei nonce AES-GCM.
+     * @param idBreve l'identificativo breve di sessione dell'utente.
+     */
+    fun impostaMittente(idBreve: Int) {
+        this.etichetta = componiEtichetta(idBreve)
+    }
+
+    private fun componiEtichetta(idBreve: Int): ByteArray {
+        val nuova = ByteArray(DIM_ETICHETTA)
+        nuova[0] = (idBreve ushr 8).toByte()
+        nuova[1] = idBreve.toByte()
+        for (i in 0 until 4) nuova[2 + i] = (saleSessione ushr (24 - 8 * i)).toByte()
+        return nuova
     }
     
-    @Synchronized
-    fun cifra(byteMsg: ByteArray): ByteArray {
-        try {
-            val cipher = Cipher.getInstance("AES/CBC/PKCS5PADDING")
-            val iv = ByteArray(16)
-            SecureRandom().nextBytes(iv)
-            val ivSpec = IvParameterSpec(iv)
+    /**
+     * Cifra un array di byte in modalità CBC con un IV casuale.
+     * @param byteMsg il testo in chiaro
+     * @return l'IV seguito dal testo cifrato, vuoto in caso di errore
+     */
+    fun cifra(byteMsg: ByteArray): ByteArray = cifra(byteMsg, ModalitaCifratura.CBC)
 
-            cipher.init(Cipher.ENCRYPT_MODE, chiave, ivSpec)
+    /**
+     * Cifra un array di byte nella modalità indicata.
+     * @param byteMsg il testo in chiaro
+     * @param modalita la modalità di cifratura, supportata da tutti i destinatari
+     * @return il datagramma cifrato, vuoto in caso di errore
+     */
+    fun cifra(byteMsg: ByteArray, modalita: ModalitaCifratura): ByteArray {
+        val out = ByteBuffer.allocate(byteMsg.size + OVERHEAD_MASSIMO)
+        val scritti = cifra(ByteBuffer.wrap(byteMsg), out, modalita)
+        return if (scritti < 0) ByteArray(0) else out.array().copyOf(scritti)
+    }
 
-            val encrypted = cipher.doFinal(byteMsg)
-            return iv + encrypted
-        } catch (e: Exception) {
-            ProjectOutput.stampa("Errore nella cifratura: ${e.message}", OutputType.STDERR)
-            return ByteArray(0)
+    /**
+     * Verifica, senza decifrare, se il datagramma AES-GCM compreso tra posizione e limite è stato cifrato da questo gate (loop-back).
+     * Il confronto avviene sull'etichetta del mittente in testa al nonce: identificativo breve e sale casuale della sessione.
+     * @param cifrato il datagramma ricevuto; la posizione non viene modificata
+     * @return `true` se il datagramma è stato inviato da questo gate, `false` altrimenti o se non è in modalità GCM
+     */
+    fun isProprio(cifrato: ByteBuffer): Boolean {
+        if (!isGcm(cifrato)) return false
+        val inizio = cifrato.position() + DIM_AAD
+        val propria = etichetta
+        for (i in 0 until DIM_ETICHETTA) {
+            if (cifrato.get(inizio + i) != propria[i]) return false
         }
+        return true
     }
-    
-    @Synchronized
-    fun decifra(byteMsg: ByteArray): ByteArray {
-        try {
-            val iv = byteMsg.copyOfRange(0, 16)
-            val encrypted = byteMsg.copyOfRange(16, byteMsg.size)
 
-            val cipher = Cipher.getInstance("AES/CBC/PKCS5PADDING")
-            val ivSpec = IvParameterSpec(iv)
+    /**
+     * Legge, senza decifrare, il [TipoDatagramma] di un datagramma AES-GCM.
+     * @param cifrato il datagramma ricevuto; la posizione non viene modificata
+     * @return il tipo del datagramma, `null` se non è in modalità GCM o il tipo non è noto
+     */
+    fun leggiTipo(cifrato: ByteBuffer): TipoDatagramma? =
+        if (isGcm(cifrato)) TipoDatagramma.daCodice(cifrato.get(cifrato.position() + 2).toInt() and 0xFF) else null
 
-            cipher.init(Cipher.DECRYPT_MODE, chiave, ivSpec)
+    /**
+     * Verifica se il datagramma può essere in modalità GCM: lunghezza minima e primo byte.
+     * Un datagramma CBC il cui IV inizia con [MAGIC_GCM] supera la verifica: i metodi che la utilizzano senza decifrare possono quindi sbagliare con probabilità 1/256 sui soli datagrammi CBC.
+     */
+    private fun isGcm(cifrato: ByteBuffer): Boolean =
+        cifrato.remaining() >= DIM_AAD + DIM_NONCE + DIM_TAG && cifrato.get(cifrato.position()) == MAGIC_GCM
 
-            return cipher.doFinal(encrypted)
+    /**
+     * Scrive il prossimo nonce: identificativo breve (2 byte), sale di sessione (4 byte) e contatore (6 byte).
+     * Il contatore consente 2^48 datagrammi per sessione senza ripetere un nonce.
+     */
+    private fun scriviNonce(out: ByteArray, offset: Int) {
+        val contatore = contatoreNonce.getAndIncrement()
+        System.arraycopy(etichetta, 0, out, offset, DIM_ETICHETTA)
+        for (i in 0 until 6) out[offset + DIM_ETICHETTA + i] = (contatore ushr (40 - 8 * i)).toByte()
+    }
+    
+    /**
+     * Cifra il contenuto compreso tra posizione e limite di `inChiaro` con la chiave corrente del gruppo, scrivendo il datagramma direttamente in `out` a partire dalla sua posizione.
+     * Non vengono allocati array per il datagramma: entrambi i buffer possono essere di tipo direct.
+     * @param inChiaro il testo in chiaro; al termine la posizione coincide con il limite
+     * @param out il buffer di destinazione, con almeno [OVERHEAD_MASSIMO] byte disponibili oltre al testo in chiaro
+     * @param modalita la modalità di cifratura, supportata da tutti i destinatari
+     * @param tipo il tipo del contenuto, trasmesso in chiaro nell'intestazione GCM (ignorato in CBC)
+     * @return il numero di byte scritti, -1 in caso di errore (la posizione di `out` resta invariata)
+     */
+    @JvmOverloads
+    fun cifra(inChiaro: ByteBuffer, out: ByteBuffer, modalita: ModalitaCifratura, tipo: TipoDatagramma = TipoDatagramma.MISTO): Int {
+        val inizio = out.position()
+        try {
+            val chiave = portachiavi.corrente(gruppo) ?: throw IllegalStateException("nessuna chiave impostata per il gruppo")
+            if (modalita == ModalitaCifratura.GCM) {
+                val cipher = cipherGcmPerThread.get()
+                val intestazione = intestazionePerThread.get()
+                intestazione[0] = MAGIC_GCM
+                intestazione[1] = chiave.id.toByte()
+                intestazione[2] = tipo.codice.toByte()
+                scriviNonce(intestazione, DIM_AAD)
+                cipher.init(Cipher.ENCRYPT_MODE, chiave.gcm, GCMParameterSpec(DIM_TAG * 8, intestazione, DIM_AAD, DIM_NONCE))
+                /* i byte in chiaro che identificano modalità, chiave e tipo sono autenticati insieme al contenuto */
+                cipher.updateAAD(intestazione, 0, DIM_AAD)
+                out.put(intestazione)
+                cipher.doFinal(inChiaro, out)
+            } else {
+                val cipher = cipherPerThread.get()
+                val iv = ivPerThread.get()
+                generatoreIV.nextBytes(iv)
+                cipher.init(Cipher.ENCRYPT_MODE, chiave.cbc, IvParameterSpec(iv))
+                out.put(iv)
+                cipher.doFinal(inChiaro, out)
+            }
+            return out.position() - inizio
         } catch (e: Exception) {
-            ProjectOutput.stampa("Errore nella decifrazione: ${e.message}", OutputType.STDERR)
-            return ByteArray(0)
+            out.position(inizio)
+            ProjectOutput.stampa("Errore nella cifratura: ${e.message}", OutputType.STDERR)
+            return -1
         }
     }
 
-    @Synchronized
-    fun cifraMessaggio(messaggio: Messaggio): ByteArray {
-        val messaggioSerializzato = Messaggio.configMsg(messaggio)
-        return cifra(messaggioSerializzato)
+    /**
+     * Decifra il datagramma compreso tra posizione e limite di `cifrato`, scrivendo il testo in chiaro in `out` a partire dalla sua posizione.
+     * I datagrammi AES-GCM vengono verificati attraverso il tag prima di restituire qualsiasi byte in chiaro e, se la verifica fallisce, scartati senza tentare la decifratura CBC;
+     * quelli con un identificativo di chiave sconosciuto vengono scartati senza tentare la decifratura, salvo che la lunghezza sia compatibile con un datagramma CBC.
+     * I datagrammi CBC vengono decifrati con la chiave corrente e, in caso di errore, con quelle ancora in sovrapposizione.
+     * Entrambi i buffer possono essere di tipo direct.
+     * @param cifrato il datagramma cifrato
+     * @param out il buffer di destinazione, con almeno tanti byte disponibili quanti quelli del datagramma
+     * @return il numero di byte in chiaro scritti, -1 in caso di errore o di verifica fallita (la posizione di `out` resta invariata)
+     */
+    fun decifra(cifrato: ByteBuffer, out: ByteBuffer): Int {
+        val inizio = cifrato.position()
+        val lunghezza = cifrato.remaining()
+        val inizioOut = out.position()
+        val adesso = System.currentTimeMillis()
+        if (isGcm(cifrato)) {
+            val chiavi = portachiavi.cerca(cifrato.get(inizio + 1).toInt(), gruppo)
+            if (chiavi != null) {
+                /* intestazione e identificativo di una chiave nota: il datagramma è GCM e viene accettato soltanto se il tag è verificato */
+                val cipher = cipherGcmPerThread.get()
+                val intestazione = intestazionePerThread.get()
+                cifrato.get(inizio, intestazione)
+                var nota = false
+                for (chiave in chiavi) {
+                    if (!chiave.isValida(adesso)) continue
+                    nota = true
+                    try {
+                        cipher.init(Cipher.DECRYPT_MODE, chiave.gcm, GCMParameterSpec(DIM_TAG * 8, intestazione, DIM_AAD, DIM_NONCE))
+                        cipher.updateAAD(intestazione, 0, DIM_AAD)
+                        cifrato.position(inizio + DIM_AAD + DIM_NONCE)
+                        return cipher.doFinal(cifrato, out)
+                    } catch (e: Exception) {
+                        cifrato.position(inizio)
+                        out.position(inizioOut)
+                    }
+                }
+                if (nota) {
+                    ProjectOutput.stampa("Errore nella decifrazione: datagramma non autenticato", OutputType.STDERR)
+                } else {
+                    scartatiChiaveIgnota.incrementAndGet()
+                }
+                return -1
+            }
+            /* identificativo sconosciuto: potrebbe trattarsi di un datagramma CBC con IV che inizia con MAGIC_GCM */
+            if (!isLunghezzaCbc(lunghezza)) {
+                scartatiChiaveIgnota.incrementAndGet()
+                return -1
+            }
+        }
+        val chiavi = portachiavi.chiavi(gruppo)
+        if (chiavi.isEmpty()) {
+            ProjectOutput.stampa("Errore nella decifrazione: nessuna chiave impostata per il gruppo", OutputType.STDERR)
+            return -1
+        }
+        val cipher = cipherPerThread.get()
+        val iv = ivPerThread.get()
+        cifrato.get(inizio, iv)
+        var errore: Exception? = null
+        for (chiave in chiavi) {
+            if (!chiave.isValida(adesso)) continue
+            try {
+                cipher.init(Cipher.DECRYPT_MODE, chiave.cbc, IvParameterSpec(iv))
+                cifrato.position(inizio + DIM_IV)
+                return cipher.doFinal(cifrato, out)
+            } catch (e: Exception) {
+                cifrato.position(inizio)
+                out.position(inizioOut)
+                errore = e
+            }
+        }
+        ProjectOutput.stampa("Errore nella decifrazione: ${errore?.message}", OutputType.STDERR)
+        return -1
     }
 
-    @Synchronized
+    fun decifra(byteMsg: ByteArray): ByteArray = decifra(byteMsg, 0, byteMsg.size)
+
+    /**
+     * Decifra la porzione di array indicata, riconoscendo la modalità di cifratura come in [decifra].
+     * @param byteMsg l'array contenente il datagramma cifrato
+     * @param offset la posizione del primo byte del datagramma
+     * @param lunghezza il numero di byte da decifrare
+     * @return il testo in chiaro, vuoto in caso di errore o di verifica fallita
+     */
+    fun decifra(byteMsg: ByteArray, offset: Int, lunghezza: Int): ByteArray {
+        val out = ByteBuffer.allocate(lunghezza)
+        val scritti = decifra(ByteBuffer.wrap(byteMsg, offset, lunghezza), out)
+        return if (scritti < 0) ByteArray(0) else out.array().copyOf(scritti)
+    }
+
+    /**
+     * Verifica se la lunghezza è compatibile con un datagramma CBC (IV e almeno un blocco cifrato).
+     */
+    private fun isLunghezzaCbc(lunghezza: Int): Boolean = lunghezza >= 2 * DIM_IV && lunghezza % DIM_IV == 0
+
+    fun cifraMessaggio(messaggio: Messaggio): ByteArray = cifraMessaggio(messaggio, false)
+
+    /**
+     * Converte e cifra un messaggio.
+     * @param messaggio il messaggio da cifrare.
+     * @param idBreve se il mittente può essere identificato dal solo identificativo breve di sessione (solo formato binario).
+     * @return il messaggio cifrato.
+     */
+    fun cifraMessaggio(messaggio: Messaggio, idBreve: Boolean): ByteArray = cifra(codificaMessaggio(messaggio, idBreve))
+
+    /**
+     * Converte un messaggio in byte secondo il [formato] impostato, senza cifrarlo.
+     * @param messaggio il messaggio da convertire.
+     * @param idBreve se il mittente può essere identificato dal solo identificativo breve di sessione (solo formato binario).
+     * @return il messaggio in chiaro.
+     */
+    fun codificaMessaggio(messaggio: Messaggio, idBreve: Boolean): ByteArray =
+        if (formato == FormatoMessaggio.BINARIO) CodificaBinaria.codifica(messaggio, idBreve) else Messaggio.configMsg(messaggio, formato)
+
     fun decifraMessaggio(msgCifrato: ByteArray, lunghezza: Int): Messaggio {
-        val messaggioDecifrato = decifra(msgCifrato.copyOfRange(0, lunghezza))
+        val messaggioDecifrato = decifra(msgCifrato, 0, lunghezza)
         return Messaggio.configMsg(messaggioDecifrato) as Messaggio
     }
 }
\ No newline at end of file
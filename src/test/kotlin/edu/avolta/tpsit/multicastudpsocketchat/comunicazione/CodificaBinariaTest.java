@@ -0,0 +1,240 @@
+package edu.avolta.tpsit.multicastudpsocketchat.comunicazione;
+
+import edu.avolta.tpsit.multicastudpsocketchat.eccezioni.MsgException;
+import edu.avolta.tpsit.multicastudpsocketchat.utenze.Utente;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test della {@link CodificaBinaria}: andata e ritorno di tutti i campi, limiti dei varint, testi UTF-8, errori di formato
+ * e confronto dei tempi con la serializzazione Java (eseguito soltanto con <code>-Dbenchmark=true</code>).
+ *
+ * @author Matteo Bagnoletti Tini
+ * @version 1.0
+ * @project MulticastUDPSocketChat
+ */
+class CodificaBinariaTest {
+
+    private static final Utente UTENTE = new Utente("mario", 0x0123456789ABCDEFL, 0xFEDCBA9876543210L);
+
+    private static Messaggio messaggio(int id, String msg) throws Exception {
+        return new Messaggio(id, UTENTE, 5000, 3, msg, true, Protocollo.UDP.multicast);
+    }
+
+    private static Messaggio andataRitorno(Messaggio messaggio) throws MsgException {
+        return CodificaBinaria.decodifica(CodificaBinaria.codifica(messaggio));
+    }
+
+    @Test
+    void andataRitornoDiTuttiICampi() throws Exception {
+        Messaggio originale = messaggio(42, "ciao a tutti");
+        originale.setSequenza(7);
+        originale.setSequenzaDati(300);
+        Messaggio decodificato = andataRitorno(originale);
+
+        assertEquals(42, decodificato.getID());
+        assertEquals(UTENTE, decodificato.getUtente());
+        assertEquals("mario", decodificato.getUsername());
+        assertEquals(5000, decodificato.getPortaMittente());
+        assertEquals(3, decodificato.getTargetACK());
+        assertEquals("ciao a tutti", decodificato.getMsg());
+        assertTrue(decodificato.isMsgGruppo());
+        assertFalse(decodificato.isACK());
+        assertEquals(Protocollo.UDP.multicast, decodificato.getProtocollo());
+        assertEquals(originale.getOrario().toSecondOfDay(), decodificato.getOrario().toSecondOfDay());
+        assertEquals(7, decodificato.getSequenza());
+        assertEquals(300, decodificato.getSequenzaDati());
+    }
+
+    @Test
+    void campiOpzionaliAssentiSeNulli() throws Exception {
+        Messaggio originale = messaggio(1, "x");
+        Messaggio conSequenze = messaggio(1, "x");
+        conSequenze.setSequenza(1);
+        conSequenze.setSequenzaDati(1);
+        assertEquals(CodificaBinaria.dimensione(originale) + 2, CodificaBinaria.dimensione(conSequenze));
+
+        Messaggio decodificato = andataRitorno(originale);
+        assertEquals(0, decodificato.getSequenza());
+        assertEquals(0, decodificato.getSequenzaDati());
+    }
+
+    @Test
+    void andataRitornoAckEProtocolli() throws Exception {
+        Messaggio ack = new Messaggio(9, UTENTE, 6000, true, "12", Protocollo.UDP.unicast);
+        Messaggio decodificato = andataRitorno(ack);
+        assertTrue(decodificato.isACK());
+        assertFalse(decodificato.isMsgGruppo());
+        assertEquals("12", decodificato.getMsg());
+        assertEquals(Protocollo.UDP.unicast, decodificato.getProtocollo());
+
+        for(Enum<?> protocollo : new Enum<?>[]{null, Protocollo.TCP.unicast, Protocollo.UDP.unicast, Protocollo.UDP.multicast, Protocollo.UDP.broadcast}) {
+            Messaggio originale = new Messaggio(1, UTENTE, 1, 0, "p", false, protocollo);
+            assertEquals(protocollo, andataRitorno(originale).getProtocollo());
+        }
+    }
+
+    @Test
+    void limitiDeiVarint() throws Exception {
+        assertEquals(1, CodificaBinaria.dimVarint(0));
+        assertEquals(1, CodificaBinaria.dimVarint(127));
+        assertEquals(2, CodificaBinaria.dimVarint(128));
+        assertEquals(5, CodificaBinaria.dimVarint(Integer.MAX_VALUE));
+        assertEquals(5, CodificaBinaria.dimVarint(-1));
+
+        Messaggio massimo = new Messaggio(Integer.MAX_VALUE, UTENTE, 65535, Integer.MAX_VALUE, "", false, null);
+        massimo.setSequenza(Integer.MAX_VALUE);
+        massimo.setSequenzaDati(Integer.MAX_VALUE);
+        Messaggio decodificato = andataRitorno(massimo);
+        assertEquals(Integer.MAX_VALUE, decodificato.getID());
+        assertEquals(65535, decodificato.getPortaMittente());
+        assertEquals(Integer.MAX_VALUE, decodificato.getTargetACK());
+        assertEquals(Integer.MAX_VALUE, decodificato.getSequenza());
+        assertEquals(Integer.MAX_VALUE, decodificato.getSequenzaDati());
+    }
+
+    @Test
+    void letturaDeiVarint() throws Exception {
+        ByteBuffer buffer = ByteBuffer.allocate(16);
+        for(int valore : new int[]{0, 127, 128, 300, Integer.MAX_VALUE, -1}) CodificaBinaria.scriviVarint(buffer, valore);
+        buffer.flip();
+        for(int valore : new int[]{0, 127, 128, 300, Integer.MAX_VALUE, -1}) assertEquals(valore, CodificaBinaria.leggiVarint(buffer));
+        assertFalse(buffer.hasRemaining());
+
+        /* varint troncato dal limite del buffer e varint oltre i 5 byte */
+        assertThrows(MsgException.class, () -> CodificaBinaria.leggiVarint(ByteBuffer.wrap(new byte[]{(byte) 0x80, (byte) 0x80})));
+        assertThrows(MsgException.class, () -> CodificaBinaria.leggiVarint(ByteBuffer.wrap(new byte[]{(byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, 1})));
+    }
+
+    @Test
+    void testiUtf8() throws Exception {
+        String testo = "àèìòù € 漢字 😀 fine";
+        Messaggio originale = messaggio(1, testo);
+        assertEquals(testo, andataRitorno(originale).getMsg());
+        /* la dimensione calcolata coincide con quella di String.getBytes (lunghezza inferiore a 128, prefisso di un byte in entrambi i casi) */
+        assertEquals(CodificaBinaria.dimensione(messaggio(1, "")) + testo.getBytes(StandardCharsets.UTF_8).length, CodificaBinaria.dimensione(originale));
+    }
+
+    @Test
+    void surrogatoIsolatoSostituitoComeStringGetBytes() throws Exception {
+        assertEquals("a?b", andataRitorno(messaggio(1, "a\uD800b")).getMsg());
+        assertEquals("a?", andataRitorno(messaggio(1, "a\uDC00")).getMsg());
+    }
+
+    @Test
+    void contenutoVuotoONullo() throws Exception {
+        assertEquals("", andataRitorno(messaggio(1, "")).getMsg());
+        assertEquals("", andataRitorno(messaggio(1, null)).getMsg());
+    }
+
+    @Test
+    void codificaInBufferDirectDallaPosizioneCorrente() throws Exception {
+        Messaggio originale = messaggio(5, "diretto");
+        ByteBuffer out = ByteBuffer.allocateDirect(256);
+        out.position(10);
+        int scritti = CodificaBinaria.codifica(originale, out);
+        assertEquals(CodificaBinaria.dimensione(originale), scritti);
+        assertEquals(10 + scritti, out.position());
+
+        out.flip().position(10);
+        assertTrue(CodificaBinaria.isBinario(out));
+        assertEquals("diretto", CodificaBinaria.decodifica(out).getMsg());
+    }
+
+    @Test
+    void bufferInsufficiente() throws Exception {
+        Messaggio originale = messaggio(5, "troppo lungo");
+        ByteBuffer out = ByteBuffer.allocate(CodificaBinaria.dimensione(originale) - 1);
+        assertThrows(MsgException.class, () -> CodificaBinaria.codifica(originale, out));
+        assertEquals(0, out.position());
+    }
+
+    @Test
+    void formatoNonValido() throws Exception {
+        byte[] codificato = CodificaBinaria.codifica(messaggio(5, "ciao"));
+
+        byte[] versione = codificato.clone();
+        versione[1] = CodificaBinaria.VERSIONE + 1;
+        assertThrows(MsgException.class, () -> CodificaBinaria.decodifica(versione));
+
+        for(int lunghezza = 0; lunghezza < codificato.length; lunghezza++) {
+            byte[] troncato = Arrays.copyOf(codificato, lunghezza);
+            assertThrows(MsgException.class, () -> CodificaBinaria.decodifica(troncato), "lunghezza " + lunghezza);
+        }
+
+        byte[] protocollo = codificato.clone();
+        protocollo[2] = (byte) ((protocollo[2] & ~(CodificaBinaria.MASCHERA_PROTOCOLLO << CodificaBinaria.SHIFT_PROTOCOLLO)) | (7 << CodificaBinaria.SHIFT_PROTOCOLLO));
+        assertThrows(MsgException.class, () -> CodificaBinaria.decodifica(protocollo));
+
+        assertThrows(MsgException.class, () -> CodificaBinaria.decodifica((byte[]) null));
+        assertThrows(MsgException.class, () -> CodificaBinaria.codifica(null));
+    }
+
+    @Test
+    void mittenteInFormaBreveNonRisolvibileSenzaRubrica() throws Exception {
+        byte[] breve = CodificaBinaria.codifica(messaggio(5, "ciao"), true);
+        assertTrue(breve.length < CodificaBinaria.codifica(messaggio(5, "ciao")).length);
+        assertThrows(MsgException.class, () -> CodificaBinaria.decodifica(breve));
+    }
+
+    @Test
+    void riconoscimentoDelFormato() throws Exception {
+        Messaggio originale = messaggio(5, "compatibile");
+        byte[] binario = Messaggio.configMsg(originale, FormatoMessaggio.BINARIO);
+        byte[] serializzato = Messaggio.configMsg(originale, FormatoMessaggio.SERIALIZZATO);
+        assertTrue(CodificaBinaria.isBinario(binario));
+        assertFalse(CodificaBinaria.isBinario(serializzato));
+        assertEquals("compatibile", Messaggio.configMsg(binario).getMsg());
+        assertEquals("compatibile", Messaggio.configMsg(serializzato).getMsg());
+        assertTrue(binario.length < serializzato.length);
+    }
+
+    /**
+     * Confronto dei tempi di codifica e decodifica con la serializzazione Java.
+     * È una misura manuale con un ciclo riscaldato, non un benchmark JMH: i tempi stampati sono indicativi e non vengono verificati.
+     * Eseguito con <code>mvn test -Dbenchmark=true -Dtest=CodificaBinariaTest</code>.
+     */
+    @Test
+    @EnabledIfSystemProperty(named = "benchmark", matches = "true")
+    void confrontoConLaSerializzazione() throws Exception {
+        Messaggio originale = messaggio(123456, "Messaggio di prova di lunghezza tipica per la chat di gruppo");
+        byte[] binario = Messaggio.configMsg(originale, FormatoMessaggio.BINARIO);
+        byte[] serializzato = Messaggio.configMsg(originale, FormatoMessaggio.SERIALIZZATO);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(binario.length);
+        ByteBuffer letto = ByteBuffer.wrap(binario);
+        VistaMessaggio vista = new VistaMessaggio();
+
+        int iterazioni = 200_000;
+        for(int giro = 0; giro < 2; giro++) {
+            /* il primo giro è di riscaldamento */
+            boolean stampa = giro == 1;
+            misura("codifica serializzata", iterazioni, stampa, () -> Messaggio.configMsg(originale, FormatoMessaggio.SERIALIZZATO));
+            misura("codifica binaria", iterazioni, stampa, () -> Messaggio.configMsg(originale, FormatoMessaggio.BINARIO));
+            misura("codifica binaria nel buffer", iterazioni, stampa, () -> {
+                buffer.clear();
+                CodificaBinaria.codifica(originale, buffer);
+            });
+            misura("decodifica serializzata", iterazioni, stampa, () -> Messaggio.configMsg(serializzato));
+            misura("decodifica binaria", iterazioni, stampa, () -> Messaggio.configMsg(binario));
+            misura("lettura della vista", iterazioni, stampa, () -> vista.imposta(letto).getID());
+        }
+        System.out.println("Dimensione: binario " + binario.length + " byte, serializzato " + serializzato.length + " byte");
+    }
+
+    private interface Operazione {
+        void esegui() throws Exception;
+    }
+
+    private static void misura(String nome, int iterazioni, boolean stampa, Operazione operazione) throws Exception {
+        long inizio = System.nanoTime();
+        for(int i = 0; i < iterazioni; i++) operazione.esegui();
+        long durata = System.nanoTime() - inizio;
+        if(stampa) System.out.printf("%-30s %8.1f ns/op%n", nome, (double) durata / iterazioni);
+    }
+}
@@ -0,0 +1,122 @@
+package edu.avolta.tpsit.multicastudpsocketchat.comunicazione;
+
+import edu.avolta.tpsit.multicastudpsocketchat.eccezioni.MsgException;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test della {@link Compressione}: soglia, contenuti comprimibili e non, andata e ritorno su buffer <i>direct</i> e contenuti corrotti.
+ *
+ * @author Matteo Bagnoletti Tini
+ * @version 1.0
+ * @project MulticastUDPSocketChat
+ */
+class CompressioneTest {
+
+    private static final byte[] TESTO = ("ciao a tutti, grazie per il messaggio di prima: va bene, ci vediamo a domani. "
+            + "ciao a tutti, grazie per il messaggio di prima: va bene, ci vediamo a domani.").getBytes(StandardCharsets.UTF_8);
+
+    @Test
+    void contenutoSottoLaSogliaInvariato() {
+        Compressione compressione = new Compressione();
+        byte[] breve = new byte[Compressione.SOGLIA_PREDEFINITA - 1];
+        assertSame(breve, compressione.comprimi(breve));
+    }
+
+    @Test
+    void andataRitorno() throws Exception {
+        Compressione compressione = new Compressione();
+        byte[] compresso = compressione.comprimi(TESTO);
+        assertTrue(Compressione.isCompresso(compresso));
+        assertTrue(compresso.length < TESTO.length);
+        assertTrue(compressione.getUltimoRapporto() < 1);
+        assertEquals(TESTO.length, Compressione.lunghezzaOriginale(ByteBuffer.wrap(compresso)));
+        assertArrayEquals(TESTO, compressione.decomprimi(compresso));
+    }
+
+    @Test
+    void contenutoNonComprimibileInvariato() {
+        byte[] casuale = new byte[512];
+        new Random(7).nextBytes(casuale);
+        Compressione compressione = new Compressione();
+        assertSame(casuale, compressione.comprimi(casuale));
+        assertEquals(1, compressione.getRapportoMedio(), 0);
+    }
+
+    @Test
+    void istanzaRiutilizzabile() throws Exception {
+        Compressione compressione = new Compressione(0);
+        for(int i = 0; i < 100; i++) {
+            byte[] originale = Arrays.copyOf(TESTO, 64 + i);
+            byte[] compresso = compressione.comprimi(originale);
+            assertArrayEquals(originale, Compressione.isCompresso(compresso) ? compressione.decomprimi(compresso) : compresso);
+        }
+    }
+
+    @Test
+    void andataRitornoSuBufferDirect() throws Exception {
+        Compressione compressione = new Compressione();
+        byte[] compresso = compressione.comprimi(TESTO);
+        ByteBuffer in = ByteBuffer.allocateDirect(compresso.length + 4);
+        in.position(4);
+        in.put(compresso).flip().position(4);
+        ByteBuffer out = ByteBuffer.allocateDirect(TESTO.length + 8);
+        out.position(8);
+
+        assertEquals(TESTO.length, compressione.decomprimi(in, out));
+        assertEquals(4, in.position());
+        assertEquals(8 + TESTO.length, out.position());
+        byte[] letto = new byte[TESTO.length];
+        out.flip().position(8);
+        out.get(letto);
+        assertArrayEquals(TESTO, letto);
+    }
+
+    @Test
+    void spazioInsufficiente() {
+        Compressione compressione = new Compressione();
+        byte[] compresso = compressione.comprimi(TESTO);
+        ByteBuffer out = ByteBuffer.allocate(TESTO.length - 1);
+        assertThrows(MsgException.class, () -> compressione.decomprimi(ByteBuffer.wrap(compresso), out));
+        assertEquals(0, out.position());
+    }
+
+    @Test
+    void contenutiCorrotti() {
+        Compressione compressione = new Compressione();
+        byte[] compresso = compressione.comprimi(TESTO);
+
+        byte[] magic = compresso.clone();
+        magic[0] = Trama.MAGIC;
+        assertThrows(MsgException.class, () -> compressione.decomprimi(magic));
+
+        assertThrows(MsgException.class, () -> Compressione.lunghezzaOriginale(ByteBuffer.wrap(new byte[]{Compressione.MAGIC, 0})));
+        ByteBuffer eccessiva = ByteBuffer.allocate(8).put(Compressione.MAGIC);
+        CodificaBinaria.scriviVarint(eccessiva, Compressione.DIM_MASSIMA + 1);
+        assertThrows(MsgException.class, () -> Compressione.lunghezzaOriginale(eccessiva.flip()));
+        assertThrows(MsgException.class, () -> Compressione.lunghezzaOriginale(ByteBuffer.wrap(new byte[]{Compressione.MAGIC})));
+
+        byte[] troncato = Arrays.copyOf(compresso, compresso.length - 3);
+        assertThrows(MsgException.class, () -> compressione.decomprimi(troncato));
+
+        /* lunghezza dichiarata diversa da quella effettiva */
+        byte[] lunghezza = compresso.clone();
+        lunghezza[1]++;
+        assertThrows(MsgException.class, () -> compressione.decomprimi(lunghezza));
+
+        byte[] dati = compresso.clone();
+        for(int i = 3; i < dati.length; i++) dati[i] = (byte) 0xFF;
+        assertThrows(MsgException.class, () -> compressione.decomprimi(dati));
+    }
+
+    @Test
+    void sogliaNonValida() {
+        assertThrows(IllegalArgumentException.class, () -> new Compressione(-1));
+    }
+}
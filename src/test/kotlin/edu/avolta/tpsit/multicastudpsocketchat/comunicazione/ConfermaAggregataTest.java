@@ -0,0 +1,70 @@
+package edu.avolta.tpsit.multicastudpsocketchat.comunicazione;
+
+import edu.avolta.tpsit.multicastudpsocketchat.eccezioni.MsgException;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test della {@link ConfermaAggregata}: finestre di <code>ID</code>, compatibilità con l'<code>acknowledge</code> singolo e contenuti non validi.
+ *
+ * @author Matteo Bagnoletti Tini
+ * @version 1.0
+ * @project MulticastUDPSocketChat
+ */
+class ConfermaAggregataTest {
+
+    @Test
+    void confermaSingolaCompatibile() throws Exception {
+        ConfermaAggregata conferma = ConfermaAggregata.di(List.of(42));
+        assertEquals("42", conferma.testo());
+        assertFalse(ConfermaAggregata.isAggregata(conferma.testo()));
+
+        ConfermaAggregata letta = ConfermaAggregata.leggi("42");
+        assertEquals(1, letta.getNumero());
+        assertTrue(letta.contiene(42));
+        assertFalse(letta.contiene(41));
+        assertFalse(letta.contiene(43));
+    }
+
+    @Test
+    void andataRitorno() throws Exception {
+        Set<Integer> ids = Set.of(3, 5, 6, 7, 60, 200);
+        ConfermaAggregata conferma = ConfermaAggregata.di(ids);
+        assertTrue(ConfermaAggregata.isAggregata(conferma.testo()));
+        assertEquals(ids.size(), conferma.getNumero());
+
+        ConfermaAggregata letta = ConfermaAggregata.leggi(conferma.testo());
+        assertEquals(ids.size(), letta.getNumero());
+        assertEquals(conferma.testo(), letta.testo());
+        for(int id = 0; id <= 210; id++) assertEquals(ids.contains(id), letta.contiene(id), "ID " + id);
+    }
+
+    @Test
+    void limitiDellaFinestra() throws Exception {
+        /* l'ID più basso della finestra dista FINESTRA - 1 dal massimo */
+        ConfermaAggregata unica = ConfermaAggregata.di(List.of(100, 100 - ConfermaAggregata.FINESTRA + 1));
+        assertEquals(ConfermaAggregata.PREFISSO + "100.8000000000000001", unica.testo());
+        assertTrue(ConfermaAggregata.leggi(unica.testo()).contiene(100 - ConfermaAggregata.FINESTRA + 1));
+
+        ConfermaAggregata due = ConfermaAggregata.di(List.of(100, 100 - ConfermaAggregata.FINESTRA));
+        assertEquals(ConfermaAggregata.PREFISSO + "100.1;" + (100 - ConfermaAggregata.FINESTRA) + ".1", due.testo());
+        assertFalse(ConfermaAggregata.leggi("A:100.ffffffffffffffff").contiene(100 - ConfermaAggregata.FINESTRA));
+        assertEquals(ConfermaAggregata.FINESTRA, ConfermaAggregata.leggi("A:100.ffffffffffffffff").getNumero());
+    }
+
+    @Test
+    void contenutiNonValidi() {
+        List<String> finestre = new ArrayList<>();
+        for(int i = 0; i <= ConfermaAggregata.MAX_FINESTRE; i++) finestre.add(i * 100 + ".1");
+        List<String> nonValidi = List.of("", "x", "A:", "A:5", "A:5.", "A:.1", "A:5.g", "A:5.1;;6.1", "A:5.10000000000000000",
+                ConfermaAggregata.PREFISSO + String.join(";", finestre));
+        for(String msg : nonValidi) assertThrows(MsgException.class, () -> ConfermaAggregata.leggi(msg), msg);
+        assertThrows(MsgException.class, () -> ConfermaAggregata.leggi(null));
+        assertFalse(ConfermaAggregata.isAggregata(null));
+    }
+}
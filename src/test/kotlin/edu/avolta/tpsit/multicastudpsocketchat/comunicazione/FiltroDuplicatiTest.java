@@ -0,0 +1,158 @@
+package edu.avolta.tpsit.multicastudpsocketchat.comunicazione;
+
+import edu.avolta.tpsit.multicastudpsocketchat.utenze.Utente;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.net.InetSocketAddress;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test del {@link FiltroDuplicati}: bordi della finestra, finestre separate per <code>ID</code> e sequenze dei dati di gruppo e unicast,
+ * ritrasmissioni di messaggi mancanti e distinzione tra duplicati e ripetizioni.
+ *
+ * @author Matteo Bagnoletti Tini
+ * @version 1.0
+ * @project MulticastUDPSocketChat
+ */
+class FiltroDuplicatiTest {
+
+    private static final int FINESTRA = FiltroDuplicati.FINESTRA;
+
+    private FiltroDuplicati filtro;
+    private UUID mittente;
+
+    @BeforeEach
+    void prepara() {
+        filtro = new FiltroDuplicati();
+        mittente = UUID.randomUUID();
+    }
+
+    @Test
+    void primoMessaggioNuovoESecondaCopiaDuplicata() {
+        assertEquals(FiltroDuplicati.Esito.NUOVO, filtro.verifica(mittente, 7, false));
+        assertEquals(FiltroDuplicati.Esito.DUPLICATO, filtro.verifica(mittente, 7, false));
+        assertEquals(1, filtro.getScartati());
+    }
+
+    @Test
+    void messaggiFuoriOrdineAllInternoDellaFinestraAccettatiUnaVolta() {
+        filtro.verifica(mittente, 10, false);
+        assertEquals(FiltroDuplicati.Esito.NUOVO, filtro.verifica(mittente, 8, false));
+        assertEquals(FiltroDuplicati.Esito.NUOVO, filtro.verifica(mittente, 9, false));
+        assertEquals(FiltroDuplicati.Esito.DUPLICATO, filtro.verifica(mittente, 8, false));
+        assertEquals(FiltroDuplicati.Esito.DUPLICATO, filtro.verifica(mittente, 10, false));
+    }
+
+    @Test
+    void ultimoNumeroDellaFinestraAccettatoIlSuccessivoRipetizione() {
+        int massimo = 1000;
+        filtro.verifica(mittente, massimo, false);
+        assertEquals(FiltroDuplicati.Esito.NUOVO, filtro.verifica(mittente, massimo - (FINESTRA - 1), false));
+        assertEquals(FiltroDuplicati.Esito.DUPLICATO, filtro.verifica(mittente, massimo - (FINESTRA - 1), false));
+        assertEquals(FiltroDuplicati.Esito.RIPETIZIONE, filtro.verifica(mittente, massimo - FINESTRA, false));
+    }
+
+    @Test
+    void saltoInferioreAllaFinestraConservaIRicevuti() {
+        filtro.verifica(mittente, 1, false);
+        filtro.verifica(mittente, FINESTRA, false);
+        assertEquals(FiltroDuplicati.Esito.DUPLICATO, filtro.verifica(mittente, 1, false));
+    }
+
+    @Test
+    void saltoPariAllaFinestraAzzeraIRicevuti() {
+        filtro.verifica(mittente, 1, false);
+        filtro.verifica(mittente, 1 + FINESTRA, false);
+        assertEquals(FiltroDuplicati.Esito.RIPETIZIONE, filtro.verifica(mittente, 1, false));
+        assertEquals(FiltroDuplicati.Esito.NUOVO, filtro.verifica(mittente, 2, false));
+    }
+
+    @Test
+    void mittentiIndipendenti() {
+        UUID altro = UUID.randomUUID();
+        filtro.verifica(mittente, 5, false);
+        assertEquals(FiltroDuplicati.Esito.NUOVO, filtro.verifica(altro, 5, false));
+        assertEquals(FiltroDuplicati.Esito.DUPLICATO, filtro.verifica(altro, 5, false));
+    }
+
+    @Test
+    void mittenteMenoRecenteRimossoOltreIlLimite() {
+        FiltroDuplicati limitato = new FiltroDuplicati(1);
+        UUID altro = UUID.randomUUID();
+        limitato.verifica(mittente, 5, false);
+        limitato.verifica(altro, 5, false);
+        assertEquals(FiltroDuplicati.Esito.NUOVO, limitato.verifica(mittente, 5, false));
+    }
+
+    @Test
+    void limiteDiMittentiNonValido() {
+        assertThrows(IllegalArgumentException.class, () -> new FiltroDuplicati(0));
+    }
+
+    @Test
+    void finestraDeiDatiNonAvanzaConGliId() {
+        /* il messaggio di chat con sequenza dei dati 1 ha ID 1, seguito da molti ACK e keepAlive */
+        assertEquals(FiltroDuplicati.Esito.NUOVO, filtro.verificaDati(mittente, true, 1, false));
+        for(int id = 2; id <= 10 * FINESTRA; id++) filtro.verifica(mittente, id, false);
+        /* la ritrasmissione dopo la scadenza dell'RTO è ancora riconosciuta come duplicato e può essere confermata di nuovo */
+        assertEquals(FiltroDuplicati.Esito.DUPLICATO, filtro.verificaDati(mittente, true, 1, false));
+    }
+
+    @Test
+    void sequenzeDiGruppoEUnicastSeparate() {
+        Cronologia cronologia = new Cronologia(new Utente("mario", 1L, 2L));
+        InetSocketAddress gruppo = new InetSocketAddress("239.0.0.1", 4000);
+        InetSocketAddress luca = new InetSocketAddress("10.0.0.2", 5000);
+        InetSocketAddress anna = new InetSocketAddress("10.0.0.3", 5000);
+        /* ciascun destinatario riceve una sequenza contigua, senza i numeri assegnati agli altri */
+        assertEquals(1, cronologia.nuovaSequenzaDati(gruppo));
+        assertEquals(1, cronologia.nuovaSequenzaDati(luca));
+        assertEquals(2, cronologia.nuovaSequenzaDati(gruppo));
+        assertEquals(1, cronologia.nuovaSequenzaDati(anna));
+        assertEquals(2, cronologia.nuovaSequenzaDati(luca));
+
+        /* lo stesso numero nelle due sequenze dello stesso mittente non è un duplicato */
+        assertEquals(FiltroDuplicati.Esito.NUOVO, filtro.verificaDati(mittente, true, 1, false));
+        assertEquals(FiltroDuplicati.Esito.NUOVO, filtro.verificaDati(mittente, false, 1, false));
+        assertEquals(FiltroDuplicati.Esito.DUPLICATO, filtro.verificaDati(mittente, false, 1, false));
+        /* la finestra unicast non scorre con i messaggi di gruppo */
+        filtro.verificaDati(mittente, true, 1 + 2 * FINESTRA, false);
+        assertEquals(FiltroDuplicati.Esito.NUOVO, filtro.verificaDati(mittente, false, 2, false));
+        assertEquals(FiltroDuplicati.Esito.RIPETIZIONE, filtro.verificaDati(mittente, true, 2, false));
+    }
+
+    @Test
+    void ritrasmissioneDiUnDatoMaiRicevutoAccettataDopoMoltiId() {
+        filtro.verificaDati(mittente, true, 1, false);
+        filtro.verificaDati(mittente, true, 3, false);
+        for(int id = 1; id <= 10 * FINESTRA; id++) filtro.verifica(mittente, id, false);
+        assertEquals(FiltroDuplicati.Esito.NUOVO, filtro.verificaDati(mittente, true, 2, false));
+        assertEquals(FiltroDuplicati.Esito.DUPLICATO, filtro.verificaDati(mittente, true, 2, false));
+    }
+
+    @Test
+    void ritrasmissioneRichiestaPrecedenteAllaFinestraAccettataSeMancante() {
+        filtro.verifica(mittente, 1, false);
+        filtro.verifica(mittente, 2 + FINESTRA, false);
+        /* il messaggio 2 è ancora atteso dal rilevatore delle perdite: la sua ritrasmissione è nuova anche se la finestra lo ha superato */
+        assertEquals(FiltroDuplicati.Esito.NUOVO, filtro.verifica(mittente, 2, true));
+        assertEquals(FiltroDuplicati.Esito.RIPETIZIONE, filtro.verifica(mittente, 2, false));
+
+        filtro.verificaDati(mittente, true, 1 + FINESTRA, false);
+        assertEquals(FiltroDuplicati.Esito.NUOVO, filtro.verificaDati(mittente, true, 1, true));
+    }
+
+    @Test
+    void messaggioPrecedenteAllaFinestraNonMancanteRipetizioneNonDuplicato() {
+        /* ritrasmissione per RTO di un messaggio mai ricevuto, giunta dopo che la finestra lo ha superato:
+           non essendo un duplicato non deve essere confermato */
+        filtro.verificaDati(mittente, true, 2, false);
+        filtro.verificaDati(mittente, true, 2 + FINESTRA, false);
+        assertEquals(FiltroDuplicati.Esito.RIPETIZIONE, filtro.verificaDati(mittente, true, 1, false));
+        assertEquals(FiltroDuplicati.Esito.RIPETIZIONE, filtro.verificaDati(mittente, true, 2, false));
+        assertEquals(2, filtro.getScartati());
+    }
+}
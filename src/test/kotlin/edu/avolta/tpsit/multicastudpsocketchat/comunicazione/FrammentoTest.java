@@ -0,0 +1,89 @@
+package edu.avolta.tpsit.multicastudpsocketchat.comunicazione;
+
+import edu.avolta.tpsit.multicastudpsocketchat.eccezioni.MsgException;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test del {@link Frammento}: divisione rispettando la capacità, limiti sul numero di frammenti e intestazioni non valide.
+ *
+ * @author Matteo Bagnoletti Tini
+ * @version 1.0
+ * @project MulticastUDPSocketChat
+ */
+class FrammentoTest {
+
+    private static byte[] contenuto(int lunghezza) {
+        byte[] contenuto = new byte[lunghezza];
+        for(int i = 0; i < lunghezza; i++) contenuto[i] = (byte) i;
+        return contenuto;
+    }
+
+    @Test
+    void divisioneEGiunzione() throws Exception {
+        byte[] originale = contenuto(1000);
+        int capacita = 100;
+        List<byte[]> frammenti = Frammento.dividi(originale, 300, capacita);
+        int porzione = capacita - Frammento.DIM_INTESTAZIONE;
+        assertEquals((originale.length + porzione - 1) / porzione, frammenti.size());
+
+        ByteBuffer giunto = ByteBuffer.allocate(originale.length);
+        for(int i = 0; i < frammenti.size(); i++) {
+            byte[] codificato = frammenti.get(i);
+            assertTrue(codificato.length <= capacita);
+            assertTrue(Frammento.isFrammento(codificato));
+            Frammento frammento = Frammento.leggi(codificato);
+            assertEquals(300, frammento.id());
+            assertEquals(i, frammento.indice());
+            assertEquals(frammenti.size(), frammento.totale());
+            giunto.put(frammento.porzione());
+        }
+        assertArrayEquals(originale, giunto.array());
+    }
+
+    @Test
+    void contenutoEsattamenteMultiploDellaPorzione() throws Exception {
+        int porzione = 50 - Frammento.DIM_INTESTAZIONE;
+        List<byte[]> frammenti = Frammento.dividi(contenuto(porzione * 3), 1, 50);
+        assertEquals(3, frammenti.size());
+        assertEquals(porzione, Frammento.leggi(frammenti.get(2)).porzione().remaining());
+    }
+
+    @Test
+    void limitiDellaDivisione() throws Exception {
+        int porzione = 20 - Frammento.DIM_INTESTAZIONE;
+        assertEquals(Frammento.MAX_FRAMMENTI, Frammento.dividi(contenuto(porzione * Frammento.MAX_FRAMMENTI), 1, 20).size());
+        assertThrows(MsgException.class, () -> Frammento.dividi(contenuto(porzione * Frammento.MAX_FRAMMENTI + 1), 1, 20));
+        assertThrows(MsgException.class, () -> Frammento.dividi(contenuto(10), 1, Frammento.DIM_INTESTAZIONE));
+    }
+
+    @Test
+    void letturaSenzaCopiaEPosizioneInvariata() throws Exception {
+        byte[] codificato = Frammento.dividi(contenuto(10), 1, 100).get(0);
+        ByteBuffer buffer = ByteBuffer.wrap(codificato);
+        Frammento frammento = Frammento.leggi(buffer);
+        assertEquals(0, buffer.position());
+
+        codificato[codificato.length - 1] = 99;
+        assertEquals(99, frammento.porzione().get(9));
+    }
+
+    @Test
+    void intestazioniNonValide() {
+        assertThrows(MsgException.class, () -> Frammento.leggi(new byte[]{Trama.MAGIC, 1, 0, 1}));
+        assertThrows(MsgException.class, () -> Frammento.leggi(new byte[]{Frammento.MAGIC, 1, 0}));
+        /* indice fuori dal totale, totale nullo o eccessivo */
+        assertThrows(MsgException.class, () -> Frammento.leggi(new byte[]{Frammento.MAGIC, 1, 2, 2}));
+        assertThrows(MsgException.class, () -> Frammento.leggi(new byte[]{Frammento.MAGIC, 1, 0, 0}));
+        assertThrows(MsgException.class, () -> Frammento.leggi(new byte[]{Frammento.MAGIC, 1, 0, Frammento.MAX_FRAMMENTI + 1}));
+        assertThrows(MsgException.class, () -> Frammento.leggi(new byte[]{Frammento.MAGIC, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0, 1}));
+
+        assertFalse(Frammento.isFrammento((byte[]) null));
+        assertFalse(Frammento.isFrammento(new byte[0]));
+        assertFalse(Frammento.isFrammento(ByteBuffer.allocate(0)));
+    }
+}
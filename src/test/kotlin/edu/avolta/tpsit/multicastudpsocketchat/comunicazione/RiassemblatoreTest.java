@@ -0,0 +1,156 @@
+package edu.avolta.tpsit.multicastudpsocketchat.comunicazione;
+
+import edu.avolta.tpsit.multicastudpsocketchat.eccezioni.MsgException;
+import org.junit.jupiter.api.Test;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test del {@link Riassemblatore}: ricomposizione in qualsiasi ordine, frammenti duplicati o incoerenti, timeout
+ * e limiti sul numero di contenuti e sulla memoria occupata.
+ *
+ * @author Matteo Bagnoletti Tini
+ * @version 1.0
+ * @project MulticastUDPSocketChat
+ */
+class RiassemblatoreTest {
+
+    private static final InetSocketAddress MARIO = new InetSocketAddress("127.0.0.1", 5000);
+    private static final InetSocketAddress LUCA = new InetSocketAddress("127.0.0.1", 6000);
+
+    private static byte[] contenuto(int lunghezza, int valore) {
+        byte[] contenuto = new byte[lunghezza];
+        for(int i = 0; i < lunghezza; i++) contenuto[i] = (byte) (valore + i);
+        return contenuto;
+    }
+
+    private static List<Frammento> frammenti(byte[] contenuto, int id, int capacita) throws MsgException {
+        List<Frammento> frammenti = new ArrayList<>();
+        for(byte[] codificato : Frammento.dividi(contenuto, id, capacita)) frammenti.add(Frammento.leggi(codificato));
+        return frammenti;
+    }
+
+    @Test
+    void ricomposizioneInQualsiasiOrdine() throws Exception {
+        byte[] originale = contenuto(1000, 1);
+        List<Frammento> frammenti = frammenti(originale, 1, 100);
+        Collections.shuffle(frammenti, new Random(3));
+
+        Riassemblatore riassemblatore = new Riassemblatore();
+        for(int i = 0; i < frammenti.size() - 1; i++) assertNull(riassemblatore.aggiungi(MARIO, frammenti.get(i)));
+        assertEquals(1, riassemblatore.getContenutiInAttesa());
+        assertArrayEquals(originale, riassemblatore.aggiungi(MARIO, frammenti.getLast()));
+        assertEquals(0, riassemblatore.getContenutiInAttesa());
+    }
+
+    @Test
+    void contenutiDistintiPerMittenteEIdentificativo() throws Exception {
+        List<Frammento> primo = frammenti(contenuto(200, 1), 7, 100);
+        List<Frammento> secondo = frammenti(contenuto(200, 2), 7, 100);
+        Riassemblatore riassemblatore = new Riassemblatore();
+        assertNull(riassemblatore.aggiungi(MARIO, primo.get(0)));
+        assertNull(riassemblatore.aggiungi(LUCA, secondo.get(0)));
+        assertNull(riassemblatore.aggiungi(MARIO, frammenti(contenuto(200, 3), 8, 100).get(0)));
+        assertEquals(3, riassemblatore.getContenutiInAttesa());
+
+        for(int i = 1; i < primo.size() - 1; i++) {
+            riassemblatore.aggiungi(MARIO, primo.get(i));
+            riassemblatore.aggiungi(LUCA, secondo.get(i));
+        }
+        assertArrayEquals(contenuto(200, 2), riassemblatore.aggiungi(LUCA, secondo.getLast()));
+        assertArrayEquals(contenuto(200, 1), riassemblatore.aggiungi(MARIO, primo.getLast()));
+    }
+
+    @Test
+    void frammentiDuplicatiIgnorati() throws Exception {
+        byte[] originale = contenuto(150, 1);
+        List<Frammento> frammenti = frammenti(originale, 1, 100);
+        assertEquals(2, frammenti.size());
+
+        Riassemblatore riassemblatore = new Riassemblatore();
+        assertNull(riassemblatore.aggiungi(MARIO, frammenti.get(0)));
+        assertNull(riassemblatore.aggiungi(MARIO, frammenti.get(0)));
+        assertArrayEquals(originale, riassemblatore.aggiungi(MARIO, frammenti.get(1)));
+
+        /* un duplicato giunto dopo il completamento apre un nuovo contenuto, che scadrà */
+        assertNull(riassemblatore.aggiungi(MARIO, frammenti.get(1)));
+        assertEquals(1, riassemblatore.getContenutiInAttesa());
+    }
+
+    @Test
+    void porzioneCopiataDalDatagramma() throws Exception {
+        byte[] originale = contenuto(150, 1);
+        List<byte[]> codificati = Frammento.dividi(originale, 1, 100);
+        Riassemblatore riassemblatore = new Riassemblatore();
+        assertNull(riassemblatore.aggiungi(MARIO, Frammento.leggi(codificati.get(0))));
+        /* il buffer di ricezione viene riutilizzato */
+        codificati.get(0)[codificati.get(0).length - 1] ^= (byte) 0xFF;
+        assertArrayEquals(originale, riassemblatore.aggiungi(MARIO, Frammento.leggi(codificati.get(1))));
+    }
+
+    @Test
+    void totaleIncoerente() throws Exception {
+        Riassemblatore riassemblatore = new Riassemblatore();
+        assertNull(riassemblatore.aggiungi(MARIO, frammenti(contenuto(300, 1), 1, 100).get(0)));
+        assertThrows(MsgException.class, () -> riassemblatore.aggiungi(MARIO, frammenti(contenuto(150, 1), 1, 100).get(1)));
+        assertEquals(0, riassemblatore.getContenutiInAttesa());
+    }
+
+    @Test
+    void contenutiIncompletiScaduti() throws Exception {
+        Riassemblatore riassemblatore = new Riassemblatore(32, 1 << 20, 50);
+        List<Frammento> frammenti = frammenti(contenuto(150, 1), 1, 100);
+        assertNull(riassemblatore.aggiungi(MARIO, frammenti.get(0)));
+        Thread.sleep(100);
+
+        /* il frammento mancante arriva oltre il timeout: il contenuto è stato scartato e ne viene aperto uno nuovo */
+        assertNull(riassemblatore.aggiungi(MARIO, frammenti.get(1)));
+        assertEquals(1, riassemblatore.getContenutiInAttesa());
+        assertTrue(riassemblatore.getStatistiche().contains("1 scartati"));
+    }
+
+    @Test
+    void limiteSulNumeroDiContenuti() throws Exception {
+        Riassemblatore riassemblatore = new Riassemblatore(2, 1 << 20, 10000);
+        List<Frammento> primo = frammenti(contenuto(150, 1), 1, 100);
+        assertNull(riassemblatore.aggiungi(MARIO, primo.get(0)));
+        assertNull(riassemblatore.aggiungi(MARIO, frammenti(contenuto(150, 2), 2, 100).get(0)));
+        assertNull(riassemblatore.aggiungi(MARIO, frammenti(contenuto(150, 3), 3, 100).get(0)));
+        assertEquals(2, riassemblatore.getContenutiInAttesa());
+
+        /* il contenuto più vecchio è stato scartato */
+        assertNull(riassemblatore.aggiungi(MARIO, primo.get(1)));
+        assertTrue(riassemblatore.getStatistiche().contains("2 scartati"));
+    }
+
+    @Test
+    void limiteSullaMemoriaOccupata() throws Exception {
+        int porzione = 100 - Frammento.DIM_INTESTAZIONE;
+        Riassemblatore riassemblatore = new Riassemblatore(32, porzione * 2, 10000);
+        List<Frammento> primo = frammenti(contenuto(porzione * 3, 1), 1, 100);
+        List<Frammento> secondo = frammenti(contenuto(porzione * 3, 2), 2, 100);
+        assertNull(riassemblatore.aggiungi(MARIO, primo.get(0)));
+        assertNull(riassemblatore.aggiungi(MARIO, primo.get(1)));
+        assertNull(riassemblatore.aggiungi(LUCA, secondo.get(0)));
+
+        /* il contenuto aggiornato per ultimo viene mantenuto */
+        assertEquals(1, riassemblatore.getContenutiInAttesa());
+        assertNull(riassemblatore.aggiungi(LUCA, secondo.get(1)));
+        assertArrayEquals(contenuto(porzione * 3, 2), riassemblatore.aggiungi(LUCA, secondo.get(2)));
+
+        assertThrows(MsgException.class, () -> new Riassemblatore(1, 10, 10000).aggiungi(MARIO, primo.get(0)));
+    }
+
+    @Test
+    void limitiNonValidi() {
+        assertThrows(IllegalArgumentException.class, () -> new Riassemblatore(0, 1, 1));
+        assertThrows(IllegalArgumentException.class, () -> new Riassemblatore(1, 0, 1));
+        assertThrows(IllegalArgumentException.class, () -> new Riassemblatore(1, 1, 0));
+    }
+}
@@ -0,0 +1,133 @@
+package edu.avolta.tpsit.multicastudpsocketchat.comunicazione;
+
+import edu.avolta.tpsit.multicastudpsocketchat.eccezioni.MsgException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test del {@link RilevatorePerdite}: rilevazione dei messaggi mancanti, solleciti, limiti e formato delle richieste di ritrasmissione.
+ *
+ * @author Matteo Bagnoletti Tini
+ * @version 1.0
+ * @project MulticastUDPSocketChat
+ */
+class RilevatorePerditeTest {
+
+    private RilevatorePerdite rilevatore;
+    private UUID mittente;
+    private InetSocketAddress indirizzo;
+
+    @BeforeEach
+    void prepara() {
+        rilevatore = new RilevatorePerdite();
+        mittente = UUID.randomUUID();
+        indirizzo = new InetSocketAddress("127.0.0.1", 5000);
+    }
+
+    @Test
+    void messaggiIntermediMancantiFinoAlRecupero() {
+        assertNull(rilevatore.ricevuto(mittente, indirizzo, 1));
+        RilevatorePerdite.Richiesta richiesta = rilevatore.ricevuto(mittente, indirizzo, 4);
+        assertNotNull(richiesta);
+        assertEquals(List.of(2, 3), richiesta.mancanti());
+        assertEquals(indirizzo, richiesta.destinazione());
+        assertTrue(rilevatore.isMancante(mittente, 2));
+        assertTrue(rilevatore.isMancante(mittente, 3));
+
+        rilevatore.ricevuto(mittente, indirizzo, 2);
+        assertFalse(rilevatore.isMancante(mittente, 2));
+        assertTrue(rilevatore.isMancante(mittente, 3));
+    }
+
+    @Test
+    void mittenteSconosciutoOMessaggioRicevutoNonMancante() {
+        assertFalse(rilevatore.isMancante(mittente, 1));
+        rilevatore.ricevuto(mittente, indirizzo, 1);
+        assertFalse(rilevatore.isMancante(mittente, 1));
+        assertFalse(rilevatore.isMancante(mittente, 2));
+    }
+
+    @Test
+    void mittenteRimossoNonHaPiuMancanti() {
+        rilevatore.ricevuto(mittente, indirizzo, 1);
+        rilevatore.ricevuto(mittente, indirizzo, 3);
+        rilevatore.rimuovi(mittente);
+        assertFalse(rilevatore.isMancante(mittente, 2));
+    }
+
+    @Test
+    void richiestaComeIntervalli() throws Exception {
+        rilevatore.ricevuto(mittente, indirizzo, 1);
+        RilevatorePerdite.Richiesta richiesta = rilevatore.ricevuto(mittente, indirizzo, 10);
+        assertEquals(RilevatorePerdite.PREFISSO_RICHIESTA + "2-9", richiesta.contenuto());
+        assertEquals(richiesta.mancanti(), RilevatorePerdite.leggiRichiesta(richiesta.contenuto()));
+
+        rilevatore.ricevuto(mittente, indirizzo, 6);
+        rilevatore.ricevuto(mittente, indirizzo, 7);
+        /* i mancanti appena richiesti non vengono sollecitati prima dell'intervallo */
+        assertTrue(rilevatore.daSollecitare().isEmpty());
+        Thread.sleep(RilevatorePerdite.INTERVALLO_SOLLECITO + 20);
+
+        List<RilevatorePerdite.Richiesta> solleciti = rilevatore.daSollecitare();
+        assertEquals(1, solleciti.size());
+        assertEquals(RilevatorePerdite.PREFISSO_RICHIESTA + "2-5,8-9", solleciti.getFirst().contenuto());
+        assertEquals(List.of(2, 3, 4, 5, 8, 9), RilevatorePerdite.leggiRichiesta(solleciti.getFirst().contenuto()));
+    }
+
+    @Test
+    void richiestaLimitataAMaxPerRichiesta() throws Exception {
+        rilevatore.ricevuto(mittente, indirizzo, 1);
+        RilevatorePerdite.Richiesta richiesta = rilevatore.ricevuto(mittente, indirizzo, 200);
+        assertEquals(RilevatorePerdite.MAX_PER_RICHIESTA, richiesta.mancanti().size());
+        assertEquals(RilevatorePerdite.PREFISSO_RICHIESTA + "2-" + (RilevatorePerdite.MAX_PER_RICHIESTA + 1), richiesta.contenuto());
+        /* i restanti vengono richiesti al sollecito successivo */
+        assertTrue(rilevatore.isMancante(mittente, 199));
+
+        assertEquals(RilevatorePerdite.MAX_PER_RICHIESTA, RilevatorePerdite.leggiRichiesta(RilevatorePerdite.PREFISSO_RICHIESTA + "1-1000").size());
+        assertEquals(RilevatorePerdite.MAX_PER_RICHIESTA, RilevatorePerdite.leggiRichiesta(RilevatorePerdite.PREFISSO_RICHIESTA + "1-60,100-200").size());
+    }
+
+    @Test
+    void mancantiOltreIlLimiteConsideratiPersi() {
+        rilevatore.ricevuto(mittente, indirizzo, 1);
+        rilevatore.ricevuto(mittente, indirizzo, 1000);
+        int primo = 999 - RilevatorePerdite.MAX_MANCANTI + 1;
+        assertFalse(rilevatore.isMancante(mittente, primo - 1));
+        assertTrue(rilevatore.isMancante(mittente, primo));
+        assertTrue(rilevatore.isMancante(mittente, 999));
+        assertTrue(rilevatore.getStatistiche().contains((998 - RilevatorePerdite.MAX_MANCANTI) + " persi"));
+    }
+
+    @Test
+    void annunciatiRichiestiDopoIlSollecito() throws Exception {
+        rilevatore.ricevuto(mittente, indirizzo, 1);
+        assertNull(rilevatore.annunciato(mittente, indirizzo, 3));
+        assertTrue(rilevatore.isMancante(mittente, 2));
+        assertTrue(rilevatore.isMancante(mittente, 3));
+        assertNull(rilevatore.annunciato(mittente, indirizzo, 3));
+
+        /* il messaggio annunciato arriva dopo il keepAlive, prima del sollecito */
+        assertNull(rilevatore.ricevuto(mittente, indirizzo, 2));
+        Thread.sleep(RilevatorePerdite.INTERVALLO_SOLLECITO + 20);
+        assertEquals(List.of(3), rilevatore.daSollecitare().getFirst().mancanti());
+    }
+
+    @Test
+    void richiesteNonValide() throws Exception {
+        assertEquals(List.of(3, 4, 5, 9), RilevatorePerdite.leggiRichiesta("DO-NOT-SHOW-NACK:3-5,9"));
+        assertEquals(List.of(7), RilevatorePerdite.leggiRichiesta("DO-NOT-SHOW-NACK:7"));
+
+        List<String> nonValide = new ArrayList<>();
+        nonValide.add(null);
+        nonValide.addAll(List.of("3-5", "DO-NOT-SHOW-THIS-MESSAGE", "DO-NOT-SHOW-NACK:", "DO-NOT-SHOW-NACK:0", "DO-NOT-SHOW-NACK:-3",
+                "DO-NOT-SHOW-NACK:5-3", "DO-NOT-SHOW-NACK:3-", "DO-NOT-SHOW-NACK:a", "DO-NOT-SHOW-NACK:3,,4", "DO-NOT-SHOW-NACK:99999999999"));
+        for(String msg : nonValide) assertThrows(MsgException.class, () -> RilevatorePerdite.leggiRichiesta(msg), msg);
+    }
+}
@@ -0,0 +1,120 @@
+package edu.avolta.tpsit.multicastudpsocketchat.comunicazione;
+
+import edu.avolta.tpsit.multicastudpsocketchat.eccezioni.MsgException;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test della {@link Trama}: andata e ritorno, messaggi vuoti e lunghi, porzioni senza copia e trame non valide.
+ *
+ * @author Matteo Bagnoletti Tini
+ * @version 1.0
+ * @project MulticastUDPSocketChat
+ */
+class TramaTest {
+
+    private static byte[] riempito(int lunghezza, int valore) {
+        byte[] messaggio = new byte[lunghezza];
+        for(int i = 0; i < lunghezza; i++) messaggio[i] = (byte) (valore + i);
+        return messaggio;
+    }
+
+    private static byte[] contenuto(ByteBuffer porzione) {
+        byte[] letto = new byte[porzione.remaining()];
+        porzione.duplicate().get(letto);
+        return letto;
+    }
+
+    @Test
+    void andataRitorno() throws Exception {
+        List<byte[]> messaggi = List.of(riempito(1, 1), new byte[0], riempito(127, 2), riempito(128, 3), riempito(1000, 4));
+        byte[] trama = Trama.impacchetta(messaggi);
+        assertTrue(Trama.isTrama(trama));
+
+        int attesa = 1 + CodificaBinaria.dimVarint(messaggi.size());
+        for(byte[] messaggio : messaggi) attesa += Trama.costo(messaggio.length);
+        assertEquals(attesa, trama.length);
+
+        List<ByteBuffer> letti = Trama.spacchetta(ByteBuffer.wrap(trama));
+        assertEquals(messaggi.size(), letti.size());
+        for(int i = 0; i < messaggi.size(); i++) assertArrayEquals(messaggi.get(i), contenuto(letti.get(i)));
+    }
+
+    @Test
+    void costoDelPrefisso() {
+        assertEquals(1, Trama.costo(0));
+        assertEquals(128, Trama.costo(127));
+        assertEquals(130, Trama.costo(128));
+    }
+
+    @Test
+    void tramaVuota() throws Exception {
+        byte[] trama = Trama.impacchetta(List.of());
+        assertEquals(2, trama.length);
+        assertTrue(Trama.spacchetta(ByteBuffer.wrap(trama)).isEmpty());
+    }
+
+    @Test
+    void numeroDiMessaggiOltreUnByte() throws Exception {
+        List<byte[]> messaggi = new ArrayList<>();
+        for(int i = 0; i < 200; i++) messaggi.add(riempito(2, i));
+        assertEquals(200, Trama.spacchetta(ByteBuffer.wrap(Trama.impacchetta(messaggi))).size());
+    }
+
+    @Test
+    void porzioniSenzaCopiaEPosizioneInvariata() throws Exception {
+        byte[] trama = Trama.impacchetta(List.of(riempito(4, 10), riempito(4, 20)));
+        ByteBuffer buffer = ByteBuffer.wrap(trama);
+        List<ByteBuffer> letti = Trama.spacchetta(buffer);
+        assertEquals(0, buffer.position());
+        assertEquals(trama.length, buffer.limit());
+
+        trama[trama.length - 1] = 99;
+        assertEquals(99, letti.get(1).get(3));
+    }
+
+    @Test
+    void tramaAPartireDallaPosizione() throws Exception {
+        byte[] trama = Trama.impacchetta(List.of(riempito(3, 1)));
+        ByteBuffer buffer = ByteBuffer.allocate(trama.length + 5);
+        buffer.position(5);
+        buffer.put(trama).flip().position(5);
+        assertTrue(Trama.isTrama(buffer));
+        assertArrayEquals(riempito(3, 1), contenuto(Trama.spacchetta(buffer).get(0)));
+    }
+
+    @Test
+    void trameNonValide() {
+        byte[] trama = Trama.impacchetta(List.of(riempito(10, 1), riempito(10, 2)));
+
+        byte[] magic = trama.clone();
+        magic[0] = CodificaBinaria.MAGIC;
+        assertThrows(MsgException.class, () -> Trama.spacchetta(ByteBuffer.wrap(magic)));
+
+        for(int lunghezza = 1; lunghezza < trama.length; lunghezza++) {
+            ByteBuffer troncata = ByteBuffer.wrap(trama, 0, lunghezza);
+            assertThrows(MsgException.class, () -> Trama.spacchetta(troncata), "lunghezza " + lunghezza);
+        }
+
+        ByteBuffer numeroEccessivo = ByteBuffer.wrap(new byte[]{Trama.MAGIC, 50, 0});
+        assertThrows(MsgException.class, () -> Trama.spacchetta(numeroEccessivo));
+
+        ByteBuffer varintTroppoLungo = ByteBuffer.wrap(new byte[]{Trama.MAGIC, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0});
+        assertThrows(MsgException.class, () -> Trama.spacchetta(varintTroppoLungo));
+
+        assertFalse(Trama.isTrama((byte[]) null));
+        assertFalse(Trama.isTrama(new byte[0]));
+        assertFalse(Trama.isTrama(ByteBuffer.allocate(0)));
+    }
+
+    @Test
+    void primiByteDeiFormatiDistinti() {
+        assertEquals(4, Set.of(CodificaBinaria.MAGIC, Trama.MAGIC, Compressione.MAGIC, Frammento.MAGIC).size());
+    }
+}
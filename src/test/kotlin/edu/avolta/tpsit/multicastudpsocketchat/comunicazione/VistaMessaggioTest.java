@@ -0,0 +1,134 @@
+package edu.avolta.tpsit.multicastudpsocketchat.comunicazione;
+
+import edu.avolta.tpsit.multicastudpsocketchat.eccezioni.MsgException;
+import edu.avolta.tpsit.multicastudpsocketchat.gestione.BusEventi;
+import edu.avolta.tpsit.multicastudpsocketchat.utenze.Rubrica;
+import edu.avolta.tpsit.multicastudpsocketchat.utenze.Utente;
+import org.junit.jupiter.api.Test;
+
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test della {@link VistaMessaggio}: lettura dei campi senza materializzare il {@link Messaggio}, riutilizzo della vista,
+ * confronto del mittente in forma completa e breve e risoluzione attraverso la {@link Rubrica}.
+ *
+ * @author Matteo Bagnoletti Tini
+ * @version 1.0
+ * @project MulticastUDPSocketChat
+ */
+class VistaMessaggioTest {
+
+    private static final Utente MARIO = new Utente("mario", 1L, 2L);
+    private static final Utente LUCA = new Utente("luca", 3L, 4L);
+
+    private static ByteBuffer codifica(Utente utente, int porta, String msg, boolean idBreve) throws Exception {
+        Messaggio messaggio = new Messaggio(11, utente, porta, 2, msg, true, Protocollo.UDP.multicast);
+        messaggio.setSequenza(4);
+        messaggio.setSequenzaDati(9);
+        return ByteBuffer.wrap(CodificaBinaria.codifica(messaggio, idBreve));
+    }
+
+    @Test
+    void campiLettiSenzaMaterializzare() throws Exception {
+        ByteBuffer buffer = codifica(MARIO, 5000, "ciao", false);
+        VistaMessaggio vista = new VistaMessaggio().imposta(buffer);
+        assertEquals(11, vista.getID());
+        assertEquals(5000, vista.getPortaMittente());
+        assertEquals(2, vista.getTargetACK());
+        assertEquals(4, vista.getSequenza());
+        assertEquals(9, vista.getSequenzaDati());
+        assertFalse(vista.isACK());
+        assertTrue(vista.isMsgGruppo());
+        assertFalse(vista.isIdBreve());
+        assertEquals(CodificaBinaria.CAPACITA_LOCALI, vista.getCapacita());
+        assertEquals("mario", vista.getUsername());
+        assertEquals("ciao", vista.getMsg());
+        assertEquals(buffer.remaining(), vista.getDimensione());
+        assertEquals(0, buffer.position());
+    }
+
+    @Test
+    void byteSuccessiviAlMessaggioIgnorati() throws Exception {
+        byte[] codificato = codifica(MARIO, 5000, "ciao", false).array();
+        ByteBuffer buffer = ByteBuffer.allocate(codificato.length + 16);
+        buffer.position(3);
+        buffer.put(codificato).put(new byte[13]).flip().position(3);
+        VistaMessaggio vista = new VistaMessaggio().imposta(buffer);
+        assertEquals(codificato.length, vista.getDimensione());
+        assertEquals("ciao", vista.getMsg());
+    }
+
+    @Test
+    void vistaRiutilizzabile() throws Exception {
+        VistaMessaggio vista = new VistaMessaggio();
+        vista.imposta(codifica(MARIO, 5000, "primo", false));
+        assertEquals("primo", vista.getMsg());
+        assertEquals("mario", vista.getUsername());
+        vista.imposta(codifica(LUCA, 6000, "secondo", false));
+        assertEquals("secondo", vista.getMsg());
+        assertEquals("luca", vista.getUsername());
+        assertEquals(6000, vista.getPortaMittente());
+    }
+
+    @Test
+    void mittenteInFormaCompleta() throws Exception {
+        VistaMessaggio vista = new VistaMessaggio().imposta(codifica(MARIO, 5000, "ciao", false));
+        assertTrue(vista.isMittente(MARIO, 5000));
+        /* l'identificativo univoco basta, la porta non viene confrontata */
+        assertTrue(vista.isMittente(MARIO, 1));
+        assertFalse(vista.isMittente(LUCA, 5000));
+    }
+
+    @Test
+    void mittenteInFormaBreveRichiedeAncheLaPorta() throws Exception {
+        VistaMessaggio vista = new VistaMessaggio().imposta(codifica(MARIO, 5000, "ciao", true));
+        assertTrue(vista.isIdBreve());
+        assertEquals(MARIO.getIdBreve(), vista.getIdBreve());
+        assertNull(vista.getUsername());
+        assertTrue(vista.isMittente(MARIO, 5000));
+        assertFalse(vista.isMittente(MARIO, 5001));
+        assertFalse(vista.isMittente(LUCA, 5000));
+    }
+
+    @Test
+    void dueUtentiConLoStessoIdentificativoBreve() throws Exception {
+        Utente omonimo = null;
+        for(long id = 100; omonimo == null; id++) {
+            Utente candidato = new Utente("omonimo", id, 0L);
+            if(candidato.getIdBreve() == MARIO.getIdBreve()) omonimo = candidato;
+        }
+        assertNotEquals(MARIO, omonimo);
+
+        /* un utente che non ha ancora ricevuto l'ingresso di MARIO ne riutilizza l'identificativo breve: la porta li distingue */
+        VistaMessaggio vista = new VistaMessaggio().imposta(codifica(omonimo, 5001, "ciao", true));
+        assertEquals(MARIO.getIdBreve(), vista.getIdBreve());
+        assertTrue(vista.isMittente(omonimo, 5001));
+        assertFalse(vista.isMittente(MARIO, 5000));
+        /* con la stessa porta, su un altro host, il confronto è lasciato all'indirizzo di provenienza */
+        assertTrue(new VistaMessaggio().imposta(codifica(omonimo, 5000, "ciao", true)).isMittente(MARIO, 5000));
+    }
+
+    @Test
+    void formaBreveRisoltaAttraversoLaRubrica() throws Exception {
+        Rubrica rubrica = new Rubrica(LUCA);
+        VistaMessaggio vista = new VistaMessaggio().imposta(codifica(MARIO, 5000, "ciao", true));
+        assertThrows(MsgException.class, vista::materializza);
+        assertThrows(MsgException.class, () -> vista.materializza(rubrica));
+
+        rubrica.aggiungiUtente(MARIO, InetAddress.getLoopbackAddress(), 5000, new BusEventi(Thread.ofVirtual().factory()));
+        Messaggio messaggio = vista.materializza(rubrica);
+        assertEquals(MARIO, messaggio.getUtente());
+        assertEquals("ciao", messaggio.getMsg());
+        assertEquals(9, messaggio.getSequenzaDati());
+    }
+
+    @Test
+    void messaggioNonBinarioRifiutato() {
+        ByteBuffer serializzato = ByteBuffer.wrap(new byte[]{(byte) 0xAC, (byte) 0xED, 0, 5, 1});
+        assertThrows(MsgException.class, () -> new VistaMessaggio().imposta(serializzato));
+        assertThrows(MsgException.class, () -> new VistaMessaggio().imposta(ByteBuffer.allocate(2)));
+    }
+}
@@ -0,0 +1,134 @@
+package edu.avolta.tpsit.multicastudpsocketchat.host;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Test dei timer del {@link CicloEventi}: ritardo, ordine di scadenza, timer periodici, annullamento ed esecuzione sul {@link Thread} del ciclo,
+ * senza che l'attesa di un timer prossimo alla scadenza faccia girare il ciclo a vuoto.
+ *
+ * @author Matteo Bagnoletti Tini
+ * @version 1.0
+ * @project MulticastUDPSocketChat
+ */
+class CicloEventiTest {
+
+    private static final String NOME = "Ciclo di prova";
+
+    private final CicloEventi cicloEventi = new CicloEventi(NOME);
+
+    @BeforeEach
+    void avvia() throws Exception {
+        cicloEventi.avvia();
+    }
+
+    @AfterEach
+    void chiudi() {
+        cicloEventi.chiudi();
+    }
+
+    @Test
+    void timerEseguitoDopoIlRitardo() throws Exception {
+        CompletableFuture<Long> eseguito = new CompletableFuture<>();
+        long inizio = System.nanoTime();
+        cicloEventi.pianifica(() -> eseguito.complete(System.nanoTime()), 50);
+        long trascorso = TimeUnit.NANOSECONDS.toMillis(eseguito.get(5, TimeUnit.SECONDS) - inizio);
+        assertTrue(trascorso >= 50, "eseguito dopo " + trascorso + " ms");
+    }
+
+    @Test
+    void timerInOrdineDiScadenza() throws Exception {
+        List<Integer> ordine = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch eseguiti = new CountDownLatch(3);
+        cicloEventi.pianifica(() -> { ordine.add(3); eseguiti.countDown(); }, 60);
+        cicloEventi.pianifica(() -> { ordine.add(1); eseguiti.countDown(); }, 20);
+        cicloEventi.pianifica(() -> { ordine.add(2); eseguiti.countDown(); }, 40);
+        assertTrue(eseguiti.await(5, TimeUnit.SECONDS));
+        assertEquals(List.of(1, 2, 3), ordine);
+    }
+
+    @Test
+    void timerPeriodicoEAnnullamento() throws Exception {
+        AtomicInteger esecuzioni = new AtomicInteger();
+        CountDownLatch tre = new CountDownLatch(3);
+        CicloEventi.Timer periodico = cicloEventi.pianifica(() -> {
+            esecuzioni.incrementAndGet();
+            tre.countDown();
+        }, 0, 10);
+        assertTrue(tre.await(5, TimeUnit.SECONDS));
+        periodico.annulla();
+        /* un'esecuzione già avviata può concludersi: il conteggio viene letto dopo un'operazione del ciclo */
+        sincronizza();
+        int dopoAnnullamento = esecuzioni.get();
+        Thread.sleep(50);
+        assertEquals(dopoAnnullamento, esecuzioni.get());
+
+        AtomicInteger annullato = new AtomicInteger();
+        cicloEventi.pianifica(annullato::incrementAndGet, 20).annulla();
+        Thread.sleep(50);
+        assertEquals(0, annullato.get());
+    }
+
+    @Test
+    void esecuzioneSulThreadDelCiclo() throws Exception {
+        CompletableFuture<String> timer = new CompletableFuture<>();
+        CompletableFuture<String> operazione = new CompletableFuture<>();
+        cicloEventi.pianifica(() -> timer.complete(Thread.currentThread().getName()), 0);
+        cicloEventi.esegui(() -> operazione.complete(Thread.currentThread().getName()));
+        assertEquals(NOME, timer.get(5, TimeUnit.SECONDS));
+        assertEquals(NOME, operazione.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void erroreInUnTimerNonArrestaIlCiclo() throws Exception {
+        cicloEventi.pianifica(() -> { throw new IllegalStateException("errore di prova"); }, 0);
+        CompletableFuture<Boolean> successivo = new CompletableFuture<>();
+        cicloEventi.pianifica(() -> successivo.complete(true), 10);
+        assertTrue(successivo.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void attesaSenzaCicliAVuoto() throws Exception {
+        ThreadMXBean thread = ManagementFactory.getThreadMXBean();
+        assumeTrue(thread.isThreadCpuTimeSupported() && thread.isThreadCpuTimeEnabled());
+        CompletableFuture<Long> idCiclo = new CompletableFuture<>();
+        cicloEventi.esegui(() -> idCiclo.complete(Thread.currentThread().threadId()));
+        long id = idCiclo.get(5, TimeUnit.SECONDS);
+
+        /* con un periodo di un millisecondo ogni attesa è inferiore al millisecondo: troncata a zero, il ciclo la trascorrerebbe in selectNow */
+        AtomicInteger esecuzioni = new AtomicInteger();
+        CicloEventi.Timer periodico = cicloEventi.pianifica(esecuzioni::incrementAndGet, 0, 1);
+        long cpuIniziale = thread.getThreadCpuTime(id);
+        long inizio = System.nanoTime();
+        Thread.sleep(300);
+        long cpu = thread.getThreadCpuTime(id) - cpuIniziale;
+        long trascorso = System.nanoTime() - inizio;
+        periodico.annulla();
+
+        assertTrue(esecuzioni.get() > 50, esecuzioni.get() + " esecuzioni");
+        assertTrue(cpu < trascorso / 2, "tempo di CPU del ciclo: " + TimeUnit.NANOSECONDS.toMillis(cpu) + " ms su " + TimeUnit.NANOSECONDS.toMillis(trascorso) + " ms");
+    }
+
+    /**
+     * Attende che il ciclo abbia eseguito le operazioni e i timer già pronti
+     */
+    private void sincronizza() throws Exception {
+        CompletableFuture<Void> eseguita = new CompletableFuture<>();
+        cicloEventi.esegui(() -> eseguita.complete(null));
+        eseguita.get(5, TimeUnit.SECONDS);
+    }
+}
@@ -0,0 +1,151 @@
+package edu.avolta.tpsit.multicastudpsocketchat.host;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test della {@link CodaPriorita}: pianificazione tra le corsie, ordine all'interno di ciascuna corsia e capacità separate.
+ * Gli elementi che iniziano con <code>c</code> appartengono alla corsia di controllo, gli altri a quella dei dati.
+ *
+ * @author Matteo Bagnoletti Tini
+ * @version 1.0
+ * @project MulticastUDPSocketChat
+ */
+class CodaPrioritaTest {
+
+    private static CodaPriorita<String> coda(int capacita, Pianificazione pianificazione) {
+        return new CodaPriorita<>(capacita, pianificazione, elemento -> elemento.startsWith("c") ? Priorita.CONTROLLO : Priorita.DATI);
+    }
+
+    private static List<String> accoda(CodaPriorita<String> coda, String prefisso, int numero) {
+        List<String> elementi = new ArrayList<>();
+        for(int i = 1; i <= numero; i++) {
+            assertTrue(coda.offer(prefisso + i));
+            elementi.add(prefisso + i);
+        }
+        return elementi;
+    }
+
+    private static List<String> svuota(CodaPriorita<String> coda) {
+        List<String> prelevati = new ArrayList<>();
+        String elemento;
+        while((elemento = coda.poll()) != null) prelevati.add(elemento);
+        return prelevati;
+    }
+
+    @Test
+    void rigorosaServePrimaIlControllo() {
+        CodaPriorita<String> coda = coda(16, Pianificazione.RIGOROSA);
+        List<String> dati = accoda(coda, "d", 3);
+        List<String> controllo = accoda(coda, "c", 10);
+        List<String> attesi = new ArrayList<>(controllo);
+        attesi.addAll(dati);
+        assertEquals(attesi, svuota(coda));
+    }
+
+    @Test
+    void pesataCedeUnTurnoAiDati() {
+        CodaPriorita<String> coda = coda(16, Pianificazione.PESATA);
+        accoda(coda, "d", 3);
+        accoda(coda, "c", 10);
+        /* PESO_CONTROLLO elementi di controllo per ciascun messaggio della chat */
+        assertEquals(4, Pianificazione.PESO_CONTROLLO);
+        assertEquals(List.of("c1", "c2", "c3", "c4", "d1", "c5", "c6", "c7", "c8", "d2", "c9", "c10", "d3"), svuota(coda));
+    }
+
+    @Test
+    void pesataConUnaSolaCorsiaNonAttende() {
+        CodaPriorita<String> coda = coda(16, Pianificazione.PESATA);
+        assertEquals(accoda(coda, "d", 5), svuota(coda));
+        assertEquals(accoda(coda, "c", 9), svuota(coda));
+    }
+
+    @Test
+    void capacitaSeparatePerCorsia() throws Exception {
+        CodaPriorita<String> coda = coda(2, Pianificazione.RIGOROSA);
+        accoda(coda, "d", 2);
+        assertFalse(coda.offer("d3"));
+        assertFalse(coda.offer("d3", 20, TimeUnit.MILLISECONDS));
+        /* la corsia dei dati piena non rifiuta il traffico di controllo */
+        assertTrue(coda.offer("c1"));
+        coda.put("c2");
+        assertFalse(coda.offer("c3"));
+
+        assertEquals(4, coda.size());
+        assertEquals(2, coda.size(Priorita.CONTROLLO));
+        assertEquals(2, coda.size(Priorita.DATI));
+        assertEquals(0, coda.remainingCapacity());
+
+        assertEquals("d1", coda.poll(Priorita.DATI));
+        assertTrue(coda.offer("d3"));
+    }
+
+    @Test
+    void prelievoDaUnaSolaCorsia() {
+        CodaPriorita<String> coda = coda(16, Pianificazione.RIGOROSA);
+        accoda(coda, "d", 2);
+        accoda(coda, "c", 2);
+        assertEquals("c1", coda.peek());
+        assertEquals("d1", coda.poll(Priorita.DATI));
+        assertEquals("c1", coda.poll(Priorita.CONTROLLO));
+        assertEquals("c2", coda.poll(Priorita.CONTROLLO));
+        assertNull(coda.poll(Priorita.CONTROLLO));
+        assertEquals("d2", coda.peek());
+    }
+
+    @Test
+    void rimozioneEIteratore() {
+        CodaPriorita<String> coda = coda(16, Pianificazione.RIGOROSA);
+        accoda(coda, "d", 3);
+        accoda(coda, "c", 2);
+        assertTrue(coda.remove("d2"));
+        assertFalse(coda.remove("d2"));
+
+        List<String> visitati = new ArrayList<>();
+        Iterator<String> iteratore = coda.iterator();
+        while(iteratore.hasNext()) {
+            String elemento = iteratore.next();
+            visitati.add(elemento);
+            if(elemento.equals("c1")) iteratore.remove();
+        }
+        assertEquals(List.of("c1", "c2", "d1", "d3"), visitati);
+        assertEquals(List.of("c2", "d1", "d3"), svuota(coda));
+    }
+
+    @Test
+    void drainToRispettaLaPianificazione() {
+        CodaPriorita<String> coda = coda(16, Pianificazione.PESATA);
+        accoda(coda, "d", 2);
+        accoda(coda, "c", 6);
+        List<String> destinazione = new ArrayList<>();
+        assertEquals(6, coda.drainTo(destinazione, 6));
+        assertEquals(List.of("c1", "c2", "c3", "c4", "d1", "c5"), destinazione);
+        assertEquals(2, coda.drainTo(destinazione));
+        assertEquals(List.of("c6", "d2"), destinazione.subList(6, 8));
+        assertTrue(coda.isEmpty());
+    }
+
+    @Test
+    void prelievoBloccanteAttendeUnElemento() throws Exception {
+        CodaPriorita<String> coda = coda(4, Pianificazione.PESATA);
+        assertNull(coda.poll(20, TimeUnit.MILLISECONDS));
+        Thread.ofVirtual().start(() -> {
+            try {
+                Thread.sleep(20);
+                coda.put("d1");
+            } catch (InterruptedException ignored) {}
+        });
+        assertEquals("d1", coda.take());
+    }
+
+    @Test
+    void capacitaNonValida() {
+        assertThrows(IllegalArgumentException.class, () -> coda(0, Pianificazione.RIGOROSA));
+    }
+}
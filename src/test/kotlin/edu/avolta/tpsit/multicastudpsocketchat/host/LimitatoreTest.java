@@ -0,0 +1,110 @@
+package edu.avolta.tpsit.multicastudpsocketchat.host;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test del {@link Limitatore}: raffica iniziale, debito di un datagramma più grande dei gettoni, limite dei gettoni accumulati,
+ * riduzione della velocità alle perdite e recupero in loro assenza. Gli istanti sono forniti dal test, a partire dalla creazione del <code>limitatore</code>.
+ *
+ * @author Matteo Bagnoletti Tini
+ * @version 1.0
+ * @project MulticastUDPSocketChat
+ */
+class LimitatoreTest {
+
+    /** 160 KiB/s: una raffica è di 16384 byte */
+    private static final long VELOCITA = 160 * 1024;
+    private static final int RAFFICA = (int) (VELOCITA * Limitatore.RAFFICA / 1000);
+
+    private static long ms(long millisecondi) {
+        return TimeUnit.MILLISECONDS.toNanos(millisecondi);
+    }
+
+    private static String stato(double kibPerSecondo, int riduzioni) {
+        return String.format("%.1f/%d KiB/s (%d riduzioni)", kibPerSecondo, VELOCITA / 1024, riduzioni);
+    }
+
+    @Test
+    void rafficaEAttesa() {
+        Limitatore limitatore = new Limitatore(VELOCITA);
+        long inizio = System.nanoTime();
+        assertEquals(0, limitatore.attesa(inizio));
+        limitatore.consuma(RAFFICA);
+        limitatore.consuma(RAFFICA / 2);
+
+        /* mezza raffica di debito si recupera in metà della durata di una raffica */
+        long attesa = limitatore.attesa(inizio);
+        assertTrue(attesa > ms(Limitatore.RAFFICA / 2 - 1) && attesa <= ms(Limitatore.RAFFICA / 2), attesa + " ns");
+        assertEquals(0, limitatore.attesa(inizio + ms(Limitatore.RAFFICA / 2)));
+    }
+
+    @Test
+    void datagrammaPiuGrandeDeiGettoni() {
+        Limitatore limitatore = new Limitatore(VELOCITA);
+        long inizio = System.nanoTime();
+        /* con gettoni non negativi il datagramma viene scritto subito, il debito ritarda il successivo */
+        assertEquals(0, limitatore.attesa(inizio));
+        limitatore.consuma(3 * RAFFICA);
+        long attesa = limitatore.attesa(inizio);
+        assertTrue(attesa > ms(2 * Limitatore.RAFFICA - 1) && attesa <= ms(2 * Limitatore.RAFFICA), attesa + " ns");
+    }
+
+    @Test
+    void gettoniLimitatiAUnaRaffica() {
+        Limitatore limitatore = new Limitatore(VELOCITA);
+        long inizio = System.nanoTime();
+        /* dopo un lungo periodo inattivo i gettoni accumulati non superano una raffica */
+        assertEquals(0, limitatore.attesa(inizio + ms(10_000)));
+        limitatore.consuma(2 * RAFFICA);
+        long attesa = limitatore.attesa(inizio + ms(10_000));
+        assertTrue(attesa > ms(Limitatore.RAFFICA - 1) && attesa <= ms(Limitatore.RAFFICA), attesa + " ns");
+    }
+
+    @Test
+    void riduzioneAllePerdite() {
+        Limitatore limitatore = new Limitatore(VELOCITA);
+        long inizio = System.nanoTime();
+        limitatore.segnalaPerdita();
+        limitatore.attesa(inizio);
+        assertEquals(stato(80, 1), limitatore.toString());
+
+        /* le perdite dello stesso episodio dimezzano la velocità una sola volta */
+        limitatore.segnalaPerdita();
+        limitatore.attesa(inizio + ms(Limitatore.INTERVALLO_RIDUZIONE - 1));
+        assertEquals(stato(80, 1), limitatore.toString());
+
+        long ora = inizio;
+        for(int i = 0; i < 10; i++) {
+            ora += ms(Limitatore.INTERVALLO_RIDUZIONE);
+            limitatore.segnalaPerdita();
+            limitatore.attesa(ora);
+        }
+        /* la velocità non scende sotto un sedicesimo di quella configurata */
+        assertEquals(stato((double) VELOCITA / 1024 / Limitatore.RIDUZIONE_MASSIMA, 11), limitatore.toString());
+    }
+
+    @Test
+    void recuperoSenzaPerdite() {
+        Limitatore limitatore = new Limitatore(VELOCITA);
+        long inizio = System.nanoTime();
+        limitatore.segnalaPerdita();
+        limitatore.attesa(inizio);
+
+        /* nessun recupero entro l'intervallo di riduzione, poi la velocità risale linearmente */
+        limitatore.attesa(inizio + ms(Limitatore.INTERVALLO_RIDUZIONE - 1));
+        assertEquals(stato(80, 1), limitatore.toString());
+        limitatore.attesa(inizio + ms(Limitatore.INTERVALLO_RIDUZIONE + Limitatore.TEMPO_RECUPERO / 4));
+        assertEquals(stato(120, 1), limitatore.toString());
+        limitatore.attesa(inizio + ms(Limitatore.INTERVALLO_RIDUZIONE + Limitatore.TEMPO_RECUPERO));
+        assertEquals(stato(160, 1), limitatore.toString());
+    }
+
+    @Test
+    void velocitaNonValida() {
+        assertThrows(IllegalArgumentException.class, () -> new Limitatore(0));
+    }
+}
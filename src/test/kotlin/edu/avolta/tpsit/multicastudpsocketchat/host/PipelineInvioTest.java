@@ -0,0 +1,128 @@
+package edu.avolta.tpsit.multicastudpsocketchat.host;
+
+import edu.avolta.tpsit.multicastudpsocketchat.eccezioni.CommunicationException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test della {@link PipelineInvio}: ordine delle operazioni, limite delle code di codifica e di cifratura e completamento alla chiusura.
+ *
+ * @author Matteo Bagnoletti Tini
+ * @version 1.0
+ * @project MulticastUDPSocketChat
+ */
+class PipelineInvioTest {
+
+    private static final long ATTESA = 50;
+
+    private final Attivita attivita = new Attivita("prova");
+    private final PipelineInvio pipeline = new PipelineInvio(2, ATTESA, Pianificazione.PESATA, attivita);
+    private final CountDownLatch sblocco = new CountDownLatch(1);
+
+    @AfterEach
+    void chiudi() {
+        sblocco.countDown();
+        pipeline.chiudi(() -> {});
+        attivita.chiudi(Attivita.ATTESA_PREDEFINITA);
+    }
+
+    private static void attendiFallimento(CompletableFuture<Void> completamento) throws Exception {
+        ExecutionException errore = assertThrows(ExecutionException.class, () -> completamento.get(5, TimeUnit.SECONDS));
+        assertInstanceOf(CommunicationException.class, errore.getCause());
+    }
+
+    @Test
+    void ordineDelleFasi() throws Exception {
+        List<Integer> cifrati = Collections.synchronizedList(new ArrayList<>());
+        List<CompletableFuture<Void>> completamenti = new ArrayList<>();
+        for(int i = 0; i < 20; i++) {
+            int numero = i;
+            completamenti.add(pipeline.accoda(completamento -> pipeline.cifra(() -> {
+                cifrati.add(numero);
+                completamento.complete(null);
+            }, List.of(completamento), Priorita.DATI)));
+        }
+        for(CompletableFuture<Void> completamento : completamenti) completamento.get(5, TimeUnit.SECONDS);
+        List<Integer> attesi = new ArrayList<>();
+        for(int i = 0; i < 20; i++) attesi.add(i);
+        assertEquals(attesi, cifrati);
+    }
+
+    @Test
+    void codaDiCodificaPiena() throws Exception {
+        CountDownLatch entrato = new CountDownLatch(1);
+        pipeline.accoda(completamento -> {
+            entrato.countDown();
+            sblocco.await();
+            completamento.complete(null);
+        });
+        assertTrue(entrato.await(5, TimeUnit.SECONDS));
+        CompletableFuture<Void> primo = pipeline.accoda(completamento -> completamento.complete(null));
+        CompletableFuture<Void> secondo = pipeline.accoda(completamento -> completamento.complete(null));
+
+        /* la corsia dei dati è piena: il nuovo messaggio viene rifiutato dopo l'attesa, mentre quella di controllo resta disponibile */
+        long inizio = System.nanoTime();
+        attendiFallimento(pipeline.accoda(completamento -> completamento.complete(null)));
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - inizio) >= ATTESA - 5);
+        CompletableFuture<Void> controllo = pipeline.accoda(completamento -> completamento.complete(null), 0, Priorita.CONTROLLO);
+
+        sblocco.countDown();
+        primo.get(5, TimeUnit.SECONDS);
+        secondo.get(5, TimeUnit.SECONDS);
+        controllo.get(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    void codaDiCifraturaLimitata() throws Exception {
+        CountDownLatch entrato = new CountDownLatch(1);
+        CompletableFuture<Void> bloccato = new CompletableFuture<>();
+        pipeline.cifra(() -> {
+            entrato.countDown();
+            sblocco.await();
+            bloccato.complete(null);
+        }, List.of(bloccato), Priorita.DATI);
+        assertTrue(entrato.await(5, TimeUnit.SECONDS));
+
+        List<CompletableFuture<Void>> accodati = new ArrayList<>();
+        for(int i = 0; i < 2; i++) {
+            CompletableFuture<Void> completamento = new CompletableFuture<>();
+            pipeline.cifra(() -> completamento.complete(null), List.of(completamento), Priorita.DATI);
+            accodati.add(completamento);
+        }
+        /* oltre la capacità il chiamante attende e infine il datagramma viene rifiutato */
+        CompletableFuture<Void> rifiutato = new CompletableFuture<>();
+        pipeline.cifra(() -> rifiutato.complete(null), List.of(rifiutato), Priorita.DATI);
+        attendiFallimento(rifiutato);
+        assertTrue(pipeline.getStatistiche().contains("1 rifiutati"), pipeline.getStatistiche());
+
+        sblocco.countDown();
+        bloccato.get(5, TimeUnit.SECONDS);
+        for(CompletableFuture<Void> completamento : accodati) completamento.get(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    void erroreDiCifraturaCompletaIMessaggi() throws Exception {
+        CompletableFuture<Void> completamento = new CompletableFuture<>();
+        pipeline.cifra(() -> { throw new CommunicationException("errore di prova"); }, List.of(completamento), Priorita.DATI);
+        attendiFallimento(completamento);
+    }
+
+    @Test
+    void rifiutoDopoLaChiusura() throws Exception {
+        pipeline.chiudi(() -> {});
+        attendiFallimento(pipeline.accoda(completamento -> completamento.complete(null)));
+        CompletableFuture<Void> completamento = new CompletableFuture<>();
+        pipeline.cifra(() -> completamento.complete(null), List.of(completamento), Priorita.DATI);
+        attendiFallimento(completamento);
+    }
+}
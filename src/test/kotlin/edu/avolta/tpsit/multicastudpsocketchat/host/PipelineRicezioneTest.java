@@ -0,0 +1,225 @@
+package edu.avolta.tpsit.multicastudpsocketchat.host;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test della {@link PipelineRicezione}: ordine di consegna per mittente con decodifica parallela e politiche di sovraccarico,
+ * senza che il {@link CicloEventi} esegua consegne. I datagrammi sono testi: quelli che iniziano con <code>c</code> sono di controllo con {@link Priorita#CONTROLLO},
+ * quelli che iniziano con <code>k</code> sono di controllo con {@link Priorita#DATI} (come un keepAlive accodato ai messaggi),
+ * quelli che iniziano con <code>blocca</code> trattengono il {@link Thread} di decodifica fino allo sblocco.
+ *
+ * @author Matteo Bagnoletti Tini
+ * @version 1.0
+ * @project MulticastUDPSocketChat
+ */
+class PipelineRicezioneTest {
+
+    private static final String CICLO = "Ciclo di prova";
+
+    private final CicloEventi cicloEventi = new CicloEventi(CICLO);
+    private final Attivita attivita = new Attivita("prova");
+    private final PoolBuffer poolBuffer = new PoolBuffer(256, 64, false);
+    private final List<DatagramChannel> canali = new ArrayList<>();
+
+    /** consegne per mittente, nell'ordine */
+    private final Map<InetSocketAddress, List<String>> consegnati = new ConcurrentHashMap<>();
+    private final CountDownLatch entrato = new CountDownLatch(1);
+    private final CountDownLatch sblocco = new CountDownLatch(1);
+    private volatile boolean consegnaNelCiclo;
+
+    private PipelineRicezione<String> pipeline;
+    private DatagramChannel ricevente;
+
+    private void avvia(int decodificatori, int capacitaCoda, PoliticaSovraccarico politica) throws IOException {
+        pipeline = new PipelineRicezione<>(poolBuffer, decodificatori, capacitaCoda, politica, Pianificazione.PESATA, attivita, new PipelineRicezione.Gestore<>() {
+            @Override
+            public boolean isControllo(ByteBuffer datagramma) {
+                byte tipo = datagramma.get(datagramma.position());
+                return tipo == 'c' || tipo == 'k';
+            }
+
+            @Override
+            public Priorita priorita(ByteBuffer datagramma) {
+                return datagramma.get(datagramma.position()) == 'c' ? Priorita.CONTROLLO : Priorita.DATI;
+            }
+
+            @Override
+            public String decodifica(ByteBuffer datagramma, InetSocketAddress sorgente) throws Exception {
+                String testo = StandardCharsets.UTF_8.decode(datagramma).toString();
+                if(testo.startsWith("blocca")) {
+                    entrato.countDown();
+                    assertTrue(sblocco.await(5, TimeUnit.SECONDS));
+                } else if(testo.startsWith("lento")) {
+                    Thread.sleep(ThreadLocalRandom.current().nextInt(3));
+                }
+                return testo;
+            }
+
+            @Override
+            public void consegna(String decodificato, InetSocketAddress sorgente) {
+                if(Thread.currentThread().getName().equals(CICLO)) consegnaNelCiclo = true;
+                consegnati.computeIfAbsent(sorgente, s -> Collections.synchronizedList(new ArrayList<>())).add(decodificato);
+            }
+
+            @Override
+            public void erroreRicezione(DatagramChannel canale, IOException e) {
+                fail(e);
+            }
+        });
+        ricevente = canale();
+        ricevente.configureBlocking(false);
+        pipeline.registra(cicloEventi, ricevente);
+        cicloEventi.avvia();
+    }
+
+    private DatagramChannel canale() throws IOException {
+        DatagramChannel canale = DatagramChannel.open().bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        canali.add(canale);
+        return canale;
+    }
+
+    private void invia(DatagramChannel mittente, String... testi) throws IOException {
+        for(String testo : testi) mittente.send(ByteBuffer.wrap(testo.getBytes(StandardCharsets.UTF_8)), ricevente.getLocalAddress());
+    }
+
+    private List<String> consegnati(DatagramChannel mittente) {
+        List<String> lista;
+        try {
+            lista = consegnati.get((InetSocketAddress) mittente.getLocalAddress());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if(lista == null) return List.of();
+        synchronized (lista) {
+            return new ArrayList<>(lista);
+        }
+    }
+
+    private static void attendi(BooleanSupplier condizione) throws InterruptedException {
+        long limite = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while(!condizione.getAsBoolean()) {
+            assertTrue(System.nanoTime() < limite, "condizione non raggiunta entro il limite");
+            Thread.sleep(5);
+        }
+    }
+
+    @AfterEach
+    void chiudi() throws IOException {
+        sblocco.countDown();
+        if(pipeline != null) pipeline.chiudi();
+        cicloEventi.chiudi();
+        attivita.chiudi(Attivita.ATTESA_PREDEFINITA);
+        for(DatagramChannel canale : canali) canale.close();
+    }
+
+    @Test
+    void ordineDiRicezionePerMittente() throws Exception {
+        avvia(4, 1024, PoliticaSovraccarico.SCARTA_NUOVI);
+        DatagramChannel primo = canale();
+        DatagramChannel secondo = canale();
+        List<String> attesiPrimo = new ArrayList<>();
+        List<String> attesiSecondo = new ArrayList<>();
+        for(int i = 0; i < 200; i++) {
+            attesiPrimo.add("lento-a" + i);
+            attesiSecondo.add("lento-b" + i);
+            invia(primo, "lento-a" + i);
+            invia(secondo, "lento-b" + i);
+            /* evita che il sistema operativo scarti i datagrammi per il buffer di ricezione pieno */
+            if(i % 20 == 19) Thread.sleep(2);
+        }
+        attendi(() -> pipeline.getStatistiche().contains("400 consegnati"));
+        assertEquals(attesiPrimo, consegnati(primo));
+        assertEquals(attesiSecondo, consegnati(secondo));
+        assertEquals(0, pipeline.getInRiordino());
+        assertEquals(0, poolBuffer.getInUso());
+    }
+
+    @Test
+    void controlloNonAttendeIMessaggi() throws Exception {
+        avvia(1, 16, PoliticaSovraccarico.SCARTA_NUOVI);
+        DatagramChannel mittente = canale();
+        invia(mittente, "blocca");
+        assertTrue(entrato.await(5, TimeUnit.SECONDS));
+        invia(mittente, "d1", "c1", "d2", "c2");
+        attendi(() -> pipeline.getCodaDecodifica() == 4);
+        sblocco.countDown();
+        attendi(() -> pipeline.getStatistiche().contains("5 consegnati"));
+        /* la corsia di controllo viene decodificata per prima, e non attende il riordino dei messaggi */
+        assertEquals(List.of("blocca", "c1", "c2", "d1", "d2"), consegnati(mittente));
+    }
+
+    @Test
+    void scartaNuovi() throws Exception {
+        avvia(1, 2, PoliticaSovraccarico.SCARTA_NUOVI);
+        DatagramChannel mittente = canale();
+        invia(mittente, "blocca");
+        assertTrue(entrato.await(5, TimeUnit.SECONDS));
+        invia(mittente, "d1", "d2", "d3", "d4", "d5");
+        attendi(() -> pipeline.getScartati() == 3);
+        sblocco.countDown();
+        attendi(() -> pipeline.getStatistiche().contains("3 consegnati"));
+        assertEquals(List.of("blocca", "d1", "d2"), consegnati(mittente));
+
+        /* i datagrammi scartati non bloccano la consegna dei successivi */
+        invia(mittente, "d6");
+        attendi(() -> consegnati(mittente).size() == 4);
+        assertEquals("d6", consegnati(mittente).getLast());
+        assertFalse(consegnaNelCiclo);
+        assertEquals(0, poolBuffer.getInUso());
+    }
+
+    @Test
+    void scartaVecchi() throws Exception {
+        avvia(1, 2, PoliticaSovraccarico.SCARTA_VECCHI);
+        DatagramChannel mittente = canale();
+        invia(mittente, "blocca");
+        assertTrue(entrato.await(5, TimeUnit.SECONDS));
+        invia(mittente, "d1", "d2", "d3", "d4", "d5");
+        attendi(() -> pipeline.getScartati() == 3);
+        sblocco.countDown();
+        attendi(() -> pipeline.getStatistiche().contains("3 consegnati"));
+        assertEquals(List.of("blocca", "d4", "d5"), consegnati(mittente));
+        assertFalse(consegnaNelCiclo);
+        assertEquals(0, pipeline.getInRiordino());
+    }
+
+    @Test
+    void scartaControllo() throws Exception {
+        avvia(1, 3, PoliticaSovraccarico.SCARTA_CONTROLLO);
+        DatagramChannel mittente = canale();
+        invia(mittente, "blocca");
+        assertTrue(entrato.await(5, TimeUnit.SECONDS));
+        /* a corsia piena il nuovo messaggio sostituisce il keepAlive in attesa; in assenza di controllo viene scartato il nuovo */
+        invia(mittente, "d1", "k1", "d2", "d3", "d4");
+        attendi(() -> pipeline.getScartati() == 2);
+        sblocco.countDown();
+        attendi(() -> pipeline.getStatistiche().contains("4 consegnati"));
+        assertEquals(List.of("blocca", "d1", "d2", "d3"), consegnati(mittente));
+
+        invia(mittente, "d5");
+        attendi(() -> consegnati(mittente).size() == 5);
+        assertFalse(consegnaNelCiclo);
+        assertEquals(0, pipeline.getInRiordino());
+        assertEquals(0, poolBuffer.getInUso());
+    }
+}
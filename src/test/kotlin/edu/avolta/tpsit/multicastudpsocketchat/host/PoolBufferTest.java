@@ -0,0 +1,140 @@
+package edu.avolta.tpsit.multicastudpsocketchat.host;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test del {@link PoolBuffer}: conteggio di prelievi, rilasci e allocazioni, buffer scartati oltre la dimensione massima,
+ * rilasci estranei o doppi e segnalazione dei buffer non rilasciati con il tracciamento.
+ *
+ * @author Matteo Bagnoletti Tini
+ * @version 1.0
+ * @project MulticastUDPSocketChat
+ */
+class PoolBufferTest {
+
+    private static final int CAPACITA = 128;
+    private static final int MASSIMO = 4;
+
+    @Test
+    void poolRiempitoAllaCreazione() {
+        PoolBuffer pool = new PoolBuffer(CAPACITA, MASSIMO, false);
+        assertEquals(MASSIMO, pool.getLiberi());
+        assertEquals(0, pool.getInUso());
+        assertEquals(1, pool.getTassoRiutilizzo());
+
+        ByteBuffer buffer = pool.preleva();
+        assertEquals(CAPACITA, buffer.capacity());
+        assertFalse(buffer.isDirect());
+        assertEquals(1, pool.getInUso());
+        assertEquals(MASSIMO - 1, pool.getLiberi());
+        assertEquals(1, pool.getTassoRiutilizzo());
+        assertTrue(new PoolBuffer(CAPACITA, MASSIMO, true).preleva().isDirect());
+    }
+
+    @Test
+    void bufferRiutilizzatoVuoto() {
+        PoolBuffer pool = new PoolBuffer(CAPACITA, 1, false);
+        ByteBuffer buffer = pool.preleva();
+        buffer.put(new byte[10]).limit(20);
+        pool.rilascia(buffer);
+
+        ByteBuffer riutilizzato = pool.preleva();
+        assertSame(buffer, riutilizzato);
+        assertEquals(0, riutilizzato.position());
+        assertEquals(CAPACITA, riutilizzato.limit());
+    }
+
+    @Test
+    void oltreIlMassimoAllocatiEScartati() {
+        PoolBuffer pool = new PoolBuffer(CAPACITA, MASSIMO, false);
+        List<ByteBuffer> prelevati = new ArrayList<>();
+        for(int i = 0; i < MASSIMO + 2; i++) prelevati.add(pool.preleva());
+        assertEquals(0, pool.getLiberi());
+        assertEquals(MASSIMO + 2, pool.getInUso());
+        assertEquals((double) MASSIMO / (MASSIMO + 2), pool.getTassoRiutilizzo(), 1e-9);
+
+        /* al rilascio il pool conserva al più MASSIMO buffer, gli altri vengono lasciati al garbage collector */
+        for(ByteBuffer buffer : prelevati) pool.rilascia(buffer);
+        assertEquals(MASSIMO, pool.getLiberi());
+        assertEquals(0, pool.getInUso());
+        String statistiche = pool.getStatistiche();
+        assertTrue(statistiche.contains((MASSIMO + 2) + " prelievi, " + (MASSIMO + 2) + " rilasci"), statistiche);
+        assertTrue(statistiche.contains((MASSIMO + 2) + " allocati in totale, 2 scartati"), statistiche);
+    }
+
+    @Test
+    void rilasciEstraneiIgnorati() {
+        PoolBuffer pool = new PoolBuffer(CAPACITA, MASSIMO, false);
+        pool.preleva();
+        pool.rilascia(null);
+        pool.rilascia(ByteBuffer.allocate(CAPACITA + 1));
+        pool.rilascia(ByteBuffer.allocateDirect(CAPACITA));
+        assertEquals(1, pool.getInUso());
+        assertEquals(MASSIMO - 1, pool.getLiberi());
+    }
+
+    @Test
+    void rilascioDoppioConTracciamento() {
+        PoolBuffer pool = new PoolBuffer(CAPACITA, MASSIMO, false, true);
+        ByteBuffer buffer = pool.preleva();
+        pool.rilascia(buffer);
+        pool.rilascia(buffer);
+        assertEquals(0, pool.getInUso());
+        assertEquals(MASSIMO, pool.getLiberi());
+        assertTrue(pool.getStatistiche().contains("1 rilasci doppi"), pool.getStatistiche());
+
+        /* il buffer rilasciato due volte non viene prelevato due volte */
+        List<ByteBuffer> prelevati = new ArrayList<>();
+        for(int i = 0; i < MASSIMO; i++) {
+            ByteBuffer prelevato = pool.preleva();
+            for(ByteBuffer altro : prelevati) assertNotSame(altro, prelevato);
+            prelevati.add(prelevato);
+        }
+    }
+
+    @Test
+    void segnalazioneDeiBufferNonRilasciati() throws Exception {
+        PoolBuffer pool = new PoolBuffer(CAPACITA, MASSIMO, false, true);
+        ByteBuffer rilasciato = pool.preleva();
+        pool.preleva();
+        pool.rilascia(rilasciato);
+        assertEquals(0, pool.segnalaPerdite(TimeUnit.MINUTES.toMillis(1)));
+        assertEquals(1, pool.segnalaPerdite(0));
+
+        /* senza tracciamento non viene segnalato nulla */
+        PoolBuffer senzaTracciamento = new PoolBuffer(CAPACITA, MASSIMO, false);
+        senzaTracciamento.preleva();
+        assertEquals(0, senzaTracciamento.segnalaPerdite(0));
+    }
+
+    @Test
+    void conteggiConcorrenti() throws Exception {
+        PoolBuffer pool = new PoolBuffer(CAPACITA, MASSIMO, false);
+        int threads = 8;
+        CountDownLatch terminati = new CountDownLatch(threads);
+        for(int t = 0; t < threads; t++) {
+            Thread.ofVirtual().start(() -> {
+                for(int i = 0; i < 1000; i++) pool.rilascia(pool.preleva());
+                terminati.countDown();
+            });
+        }
+        assertTrue(terminati.await(10, TimeUnit.SECONDS));
+        assertEquals(0, pool.getInUso());
+        assertTrue(pool.getLiberi() <= MASSIMO);
+        assertTrue(pool.getStatistiche().contains((threads * 1000) + " prelievi, " + (threads * 1000) + " rilasci"), pool.getStatistiche());
+    }
+
+    @Test
+    void parametriNonValidi() {
+        assertThrows(IllegalArgumentException.class, () -> new PoolBuffer(0, MASSIMO, false));
+        assertThrows(IllegalArgumentException.class, () -> new PoolBuffer(CAPACITA, 0, false));
+    }
+}
@@ -0,0 +1,142 @@
+package edu.avolta.tpsit.multicastudpsocketchat.host;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test del {@link Ritrasmettitore}: conferme, <code>RTO</code> ricavato dai campioni, ritrasmissioni saltate non contate,
+ * limite dei messaggi in attesa e chiusura.
+ *
+ * @author Matteo Bagnoletti Tini
+ * @version 1.0
+ * @project MulticastUDPSocketChat
+ */
+class RitrasmettitoreTest {
+
+    private static final InetSocketAddress PEER = new InetSocketAddress("127.0.0.1", 5000);
+    private static final byte[] CODIFICATO = {1, 2, 3};
+
+    private final CicloEventi cicloEventi = new CicloEventi("Ciclo di prova");
+
+    /** istanti, in nanosecondi, delle ritrasmissioni richieste */
+    private final List<Long> ritrasmissioni = Collections.synchronizedList(new ArrayList<>());
+    private final ConcurrentLinkedQueue<Integer> falliti = new ConcurrentLinkedQueue<>();
+    /** numero di ritrasmissioni da saltare, come con la coda di invio piena */
+    private final AtomicInteger daSaltare = new AtomicInteger();
+
+    private final Ritrasmettitore ritrasmettitore = new Ritrasmettitore((codificato, destinazione) -> {
+        ritrasmissioni.add(System.nanoTime());
+        return daSaltare.getAndDecrement() <= 0;
+    }, (id, timestamp) -> falliti.add(id), cicloEventi);
+
+    @BeforeEach
+    void avvia() throws Exception {
+        cicloEventi.avvia();
+    }
+
+    @AfterEach
+    void chiudi() {
+        ritrasmettitore.chiudi();
+        cicloEventi.chiudi();
+    }
+
+    /**
+     * Porta l'<code>RTO</code> del {@link #PEER} al minimo con una serie di conferme immediate
+     */
+    private void addestra() {
+        for(int id = 1000; id < 1020; id++) {
+            ritrasmettitore.registra(id, CODIFICATO, PEER, false, "12:00");
+            ritrasmettitore.confermato(id, PEER, true);
+        }
+        assertTrue(ritrasmettitore.getStatistiche().contains("RTO " + Ritrasmettitore.RTO_MINIMO + " ms"), ritrasmettitore.getStatistiche());
+    }
+
+    private void attendiRitrasmissioni(int numero, long millisecondi) throws InterruptedException {
+        long limite = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millisecondi);
+        while(ritrasmissioni.size() < numero && System.nanoTime() < limite) Thread.sleep(5);
+        assertEquals(numero, ritrasmissioni.size());
+    }
+
+    @Test
+    void confermatoPrimaDellRto() throws Exception {
+        ritrasmettitore.registra(1, CODIFICATO, PEER, false, "12:00");
+        ritrasmettitore.confermato(1, PEER, false);
+        ritrasmettitore.confermato(1, PEER, true);
+        Thread.sleep(Ritrasmettitore.RTO_INIZIALE + 200);
+        assertTrue(ritrasmissioni.isEmpty());
+        assertTrue(ritrasmettitore.getStatistiche().contains("1 confermati, 0 ritrasmissioni, 0 non confermati, 0 in sospeso"), ritrasmettitore.getStatistiche());
+    }
+
+    @Test
+    void ritrasmissioneConRtoAppreso() throws Exception {
+        addestra();
+        long inizio = System.nanoTime();
+        ritrasmettitore.registra(1, CODIFICATO, PEER, false, "12:00");
+        attendiRitrasmissioni(1, Ritrasmettitore.RTO_INIZIALE);
+        long primo = TimeUnit.NANOSECONDS.toMillis(ritrasmissioni.getFirst() - inizio);
+        assertTrue(primo >= Ritrasmettitore.RTO_MINIMO && primo < Ritrasmettitore.RTO_INIZIALE, primo + " ms");
+
+        /* la conferma di un messaggio ritrasmesso ne arresta le ritrasmissioni */
+        ritrasmettitore.confermato(1, PEER, true);
+        Thread.sleep(3 * Ritrasmettitore.RTO_MINIMO);
+        assertEquals(1, ritrasmissioni.size());
+        assertTrue(falliti.isEmpty());
+    }
+
+    @Test
+    void ritrasmissioneSaltataNonContata() throws Exception {
+        addestra();
+        daSaltare.set(1);
+        ritrasmettitore.registra(1, CODIFICATO, PEER, false, "12:00");
+        attendiRitrasmissioni(3, 5000);
+        ritrasmettitore.confermato(1, PEER, true);
+
+        /* la ritrasmissione saltata viene riproposta dopo lo stesso RTO, quella successiva dopo un RTO raddoppiato */
+        long saltata = TimeUnit.NANOSECONDS.toMillis(ritrasmissioni.get(1) - ritrasmissioni.get(0));
+        long raddoppiata = TimeUnit.NANOSECONDS.toMillis(ritrasmissioni.get(2) - ritrasmissioni.get(1));
+        assertTrue(saltata >= Ritrasmettitore.RTO_MINIMO - 5 && saltata < 2 * Ritrasmettitore.RTO_MINIMO - 20, saltata + " ms");
+        assertTrue(raddoppiata >= 2 * Ritrasmettitore.RTO_MINIMO - 5, raddoppiata + " ms");
+        String statistiche = ritrasmettitore.getStatistiche();
+        assertTrue(statistiche.contains("2 ritrasmissioni") && statistiche.contains("1 ritrasmissioni saltate"), statistiche);
+    }
+
+    @Test
+    void oltreIlLimiteIlPiuVecchioFallisce() {
+        for(int id = 0; id < Ritrasmettitore.MAX_IN_SOSPESO; id++) ritrasmettitore.registra(id, CODIFICATO, PEER, false, "12:00");
+        /* una nuova registrazione dello stesso messaggio non occupa un'altra posizione */
+        ritrasmettitore.registra(5, CODIFICATO, PEER, false, "12:00");
+        assertTrue(falliti.isEmpty());
+
+        ritrasmettitore.registra(Ritrasmettitore.MAX_IN_SOSPESO, CODIFICATO, PEER, false, "12:00");
+        ritrasmettitore.registra(Ritrasmettitore.MAX_IN_SOSPESO + 1, CODIFICATO, PEER, false, "12:00");
+        assertEquals(List.of(0, 1), new ArrayList<>(falliti));
+        String statistiche = ritrasmettitore.getStatistiche();
+        assertTrue(statistiche.contains(Ritrasmettitore.MAX_IN_SOSPESO + " in sospeso") && statistiche.contains("2 dimenticati"), statistiche);
+
+        /* il messaggio dimenticato non viene più ritrasmesso né confermato */
+        ritrasmettitore.confermato(0, PEER, true);
+        assertTrue(ritrasmettitore.getStatistiche().contains("0 confermati"));
+    }
+
+    @Test
+    void chiusuraAnnullaLeRitrasmissioni() throws Exception {
+        addestra();
+        ritrasmettitore.registra(1, CODIFICATO, PEER, false, "12:00");
+        ritrasmettitore.chiudi();
+        ritrasmettitore.registra(2, CODIFICATO, PEER, false, "12:00");
+        Thread.sleep(3 * Ritrasmettitore.RTO_MINIMO);
+        assertTrue(ritrasmissioni.isEmpty());
+        assertTrue(falliti.isEmpty());
+    }
+}
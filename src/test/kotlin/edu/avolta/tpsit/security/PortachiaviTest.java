@@ -0,0 +1,96 @@
+package edu.avolta.tpsit.security;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test del {@link Portachiavi}: rotazione delle chiavi, finestra di sovrapposizione, ripristino di una chiave ancora valida e separazione dei gruppi.
+ *
+ * @author Matteo Bagnoletti Tini
+ * @version 1.0
+ * @project MulticastUDPSocketChat
+ */
+class PortachiaviTest {
+
+    private static final String GRUPPO = "/239.0.0.1";
+    private static final String ALTRO_GRUPPO = "/239.0.0.2";
+
+    @Test
+    void identificativoRicavatoDalSegreto() {
+        Portachiavi.Chiave prima = new Portachiavi().ruota(GRUPPO, "segreto", 0);
+        Portachiavi.Chiave seconda = new Portachiavi().ruota(ALTRO_GRUPPO, "segreto", 0);
+        assertEquals(prima.getId(), seconda.getId());
+        assertEquals(GRUPPO, prima.getGruppo());
+        assertEquals(Long.MAX_VALUE, prima.getScadenza());
+    }
+
+    @Test
+    void rotazioneConSovrapposizione() {
+        Portachiavi portachiavi = new Portachiavi();
+        Portachiavi.Chiave vecchia = portachiavi.ruota(GRUPPO, "prima", 0);
+        assertSame(vecchia, portachiavi.ruota(GRUPPO, "prima", 60_000));
+
+        long adesso = System.currentTimeMillis();
+        Portachiavi.Chiave nuova = portachiavi.ruota(GRUPPO, "seconda", 60_000);
+        assertSame(nuova, portachiavi.corrente(GRUPPO));
+        assertArrayEquals(new Portachiavi.Chiave[]{nuova, vecchia}, portachiavi.chiavi(GRUPPO));
+        assertEquals(2, portachiavi.getNumeroChiavi());
+
+        /* la chiave sostituita resta valida, in ricezione, fino al termine della finestra */
+        assertTrue(vecchia.isValida(System.currentTimeMillis()));
+        assertFalse(vecchia.isValida(adesso + 60_000 + 1000));
+        assertNotNull(portachiavi.cerca(vecchia.getId(), GRUPPO));
+        assertTrue(nuova.isValida(Long.MAX_VALUE));
+    }
+
+    @Test
+    void rotazioneSenzaSovrapposizione() {
+        Portachiavi portachiavi = new Portachiavi();
+        Portachiavi.Chiave vecchia = portachiavi.ruota(GRUPPO, "prima", 0);
+        Portachiavi.Chiave nuova = portachiavi.ruota(GRUPPO, "seconda", 0);
+        assertFalse(vecchia.isValida(System.currentTimeMillis()));
+
+        /* la chiave scaduta viene rimossa alla rotazione successiva */
+        portachiavi.ruota(GRUPPO, "terza", 60_000);
+        assertEquals(2, portachiavi.getNumeroChiavi());
+        assertEquals(2, portachiavi.chiavi(GRUPPO).length);
+        assertSame(nuova, portachiavi.chiavi(GRUPPO)[1]);
+    }
+
+    @Test
+    void chiaveInSovrapposizioneRipristinata() {
+        Portachiavi portachiavi = new Portachiavi();
+        Portachiavi.Chiave prima = portachiavi.ruota(GRUPPO, "prima", 0);
+        Portachiavi.Chiave seconda = portachiavi.ruota(GRUPPO, "seconda", 60_000);
+
+        /* tornando al segreto precedente la chiave esistente ritorna corrente, senza essere duplicata */
+        assertSame(prima, portachiavi.ruota(GRUPPO, "prima", 60_000));
+        assertEquals(Long.MAX_VALUE, prima.getScadenza());
+        assertArrayEquals(new Portachiavi.Chiave[]{prima, seconda}, portachiavi.chiavi(GRUPPO));
+        assertEquals(2, portachiavi.getNumeroChiavi());
+        assertEquals(1, portachiavi.cerca(prima.getId(), GRUPPO).length);
+    }
+
+    @Test
+    void gruppiSeparati() {
+        Portachiavi portachiavi = new Portachiavi();
+        Portachiavi.Chiave chiave = portachiavi.ruota(GRUPPO, "segreto", 0);
+        Portachiavi.Chiave altra = portachiavi.ruota(ALTRO_GRUPPO, "segreto", 0);
+        assertNotSame(chiave, altra);
+        assertArrayEquals(new Portachiavi.Chiave[]{chiave}, portachiavi.cerca(chiave.getId(), GRUPPO));
+        assertNull(portachiavi.cerca(chiave.getId(), "/239.0.0.3"));
+
+        portachiavi.rimuovi(GRUPPO);
+        assertNull(portachiavi.corrente(GRUPPO));
+        assertEquals(0, portachiavi.chiavi(GRUPPO).length);
+        assertNull(portachiavi.cerca(chiave.getId(), GRUPPO));
+        assertArrayEquals(new Portachiavi.Chiave[]{altra}, portachiavi.cerca(altra.getId(), ALTRO_GRUPPO));
+        assertEquals(1, portachiavi.getNumeroChiavi());
+    }
+
+    @Test
+    void sovrapposizioneNonValida() {
+        assertThrows(IllegalArgumentException.class, () -> new Portachiavi().ruota(GRUPPO, "segreto", -1));
+    }
+}
@@ -0,0 +1,161 @@
+package edu.avolta.tpsit.security;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test del {@link SecurityGate}: andata e ritorno su buffer <i>direct</i> in entrambe le modalità, rifiuto dei datagrammi GCM alterati,
+ * chiavi in sovrapposizione in CBC e misura del throughput
+ * di cifratura e decifratura con 1, 2 e 4 thread (eseguita soltanto con <code>-Dbenchmark=true</code>).
+ *
+ * @author Matteo Bagnoletti Tini
+ * @version 1.0
+ * @project MulticastUDPSocketChat
+ */
+class SecurityGateTest {
+
+    private static final String GRUPPO = "/239.0.0.1";
+
+    private static SecurityGate securityGate() {
+        SecurityGate securityGate = new SecurityGate(new Portachiavi(), GRUPPO);
+        securityGate.generaChiave("chiave di prova");
+        return securityGate;
+    }
+
+    private static byte[] contenuto(int lunghezza) {
+        byte[] contenuto = new byte[lunghezza];
+        for(int i = 0; i < lunghezza; i++) contenuto[i] = (byte) (i * 31);
+        return contenuto;
+    }
+
+    @Test
+    void andataRitornoSuBufferDirect() {
+        SecurityGate securityGate = securityGate();
+        for(ModalitaCifratura modalita : ModalitaCifratura.values()) {
+            for(int lunghezza : new int[]{0, 1, 15, 16, 17, 1000}) {
+                byte[] originale = contenuto(lunghezza);
+                ByteBuffer cifrato = ByteBuffer.allocateDirect(lunghezza + SecurityGate.OVERHEAD_MASSIMO);
+                int scritti = securityGate.cifra(ByteBuffer.wrap(originale), cifrato, modalita);
+                assertTrue(scritti >= lunghezza && scritti <= lunghezza + SecurityGate.OVERHEAD_MASSIMO, modalita + " " + lunghezza);
+
+                ByteBuffer decifrato = ByteBuffer.allocateDirect(scritti);
+                assertEquals(lunghezza, securityGate.decifra(cifrato.flip(), decifrato), modalita + " " + lunghezza);
+                byte[] letto = new byte[lunghezza];
+                decifrato.flip().get(letto);
+                assertArrayEquals(originale, letto);
+            }
+        }
+    }
+
+    @Test
+    void datagrammaGcmAlteratoRifiutato() {
+        SecurityGate securityGate = securityGate();
+        /* lunghezze complessive multiple di 16, compatibili anche con un datagramma CBC */
+        for(int lunghezza : new int[]{1, 17, 33}) {
+            byte[] cifrato = securityGate.cifra(contenuto(lunghezza), ModalitaCifratura.GCM);
+            assertEquals(SecurityGate.MAGIC_GCM, cifrato[0]);
+            assertEquals(0, cifrato.length % 16);
+            for(int i = 2; i < cifrato.length; i++) {
+                for(int bit = 0; bit < 8; bit++) {
+                    byte[] alterato = cifrato.clone();
+                    alterato[i] ^= (byte) (1 << bit);
+                    ByteBuffer out = ByteBuffer.allocate(alterato.length);
+                    assertEquals(-1, securityGate.decifra(ByteBuffer.wrap(alterato), out), "byte " + i + ", bit " + bit);
+                    assertEquals(0, out.position());
+                }
+            }
+            assertArrayEquals(contenuto(lunghezza), securityGate.decifra(cifrato));
+        }
+    }
+
+    @Test
+    void datagrammaGcmConAltraChiaveRifiutato() {
+        SecurityGate mittente = new SecurityGate(new Portachiavi(), GRUPPO);
+        mittente.generaChiave("altra chiave");
+        byte[] cifrato = mittente.cifra(contenuto(17), ModalitaCifratura.GCM);
+        assertEquals(0, securityGate().decifra(cifrato).length);
+    }
+
+    @Test
+    void cbcConChiaveInSovrapposizione() {
+        SecurityGate mittente = securityGate();
+        byte[] cifrato = mittente.cifra(contenuto(40), ModalitaCifratura.CBC);
+
+        SecurityGate destinatario = securityGate();
+        destinatario.ruotaChiave("chiave successiva", 60_000);
+        assertArrayEquals(contenuto(40), destinatario.decifra(cifrato));
+        /* il destinatario cifra già con la nuova chiave; in CBC una chiave errata può superare il controllo del padding, ma non restituisce il testo in chiaro */
+        byte[] successivo = destinatario.cifra(contenuto(40), ModalitaCifratura.CBC);
+        assertFalse(Arrays.equals(contenuto(40), mittente.decifra(successivo)));
+
+        /* senza sovrapposizione la chiave sostituita non è più accettata, mentre la prima resta nella propria finestra */
+        destinatario.ruotaChiave("chiave finale", 0);
+        assertFalse(Arrays.equals(contenuto(40), destinatario.decifra(successivo)));
+        assertArrayEquals(contenuto(40), destinatario.decifra(cifrato));
+    }
+
+    /**
+     * Misura del throughput di cifratura e decifratura di datagrammi di dimensione tipica, con uno stesso
+     * <code>SecurityGate</code> condiviso da 1, 2 e 4 thread.
+     * È una misura manuale con un ciclo riscaldato, non un benchmark JMH: i valori stampati sono indicativi e non vengono verificati.
+     * Eseguita con <code>mvn test -Dbenchmark=true -Dtest=SecurityGateTest</code>.
+     */
+    @Test
+    @EnabledIfSystemProperty(named = "benchmark", matches = "true")
+    void throughputConPiuThread() throws Exception {
+        SecurityGate securityGate = securityGate();
+        int iterazioni = 200_000;
+        for(int giro = 0; giro < 2; giro++) {
+            /* il primo giro è di riscaldamento */
+            boolean stampa = giro == 1;
+            for(ModalitaCifratura modalita : ModalitaCifratura.values()) {
+                for(int thread : new int[]{1, 2, 4}) misura(securityGate, modalita, 256, thread, iterazioni, stampa);
+            }
+        }
+    }
+
+    private static void misura(SecurityGate securityGate, ModalitaCifratura modalita, int dimensione, int thread, int iterazioni, boolean stampa) throws Exception {
+        byte[] originale = contenuto(dimensione);
+        CountDownLatch partenza = new CountDownLatch(1);
+        List<Future<Long>> risultati = new ArrayList<>();
+        try(ExecutorService esecutore = Executors.newFixedThreadPool(thread)) {
+            for(int t = 0; t < thread; t++) {
+                Callable<Long> attivita = () -> {
+                    ByteBuffer inChiaro = ByteBuffer.allocateDirect(dimensione);
+                    ByteBuffer cifrato = ByteBuffer.allocateDirect(dimensione + SecurityGate.OVERHEAD_MASSIMO);
+                    ByteBuffer decifrato = ByteBuffer.allocateDirect(dimensione + SecurityGate.OVERHEAD_MASSIMO);
+                    inChiaro.put(originale);
+                    partenza.await();
+                    long inizio = System.nanoTime();
+                    for(int i = 0; i < iterazioni; i++) {
+                        inChiaro.clear();
+                        cifrato.clear();
+                        decifrato.clear();
+                        securityGate.cifra(inChiaro, cifrato, modalita);
+                        if(securityGate.decifra(cifrato.flip(), decifrato) != dimensione) throw new IllegalStateException("decifratura fallita");
+                    }
+                    return System.nanoTime() - inizio;
+                };
+                risultati.add(esecutore.submit(attivita));
+            }
+            partenza.countDown();
+            long durataMassima = 0;
+            for(Future<Long> risultato : risultati) durataMassima = Math.max(durataMassima, risultato.get());
+            double operazioni = (double) iterazioni * thread;
+            if(stampa) System.out.printf("%-4s %4d byte, %d thread: %10.0f cifrature+decifrature/s (%6.1f ns/op per thread)%n",
+                    modalita, dimensione, thread, operazioni / durataMassima * 1e9, (double) durataMassima / iterazioni);
+        }
+    }
+}